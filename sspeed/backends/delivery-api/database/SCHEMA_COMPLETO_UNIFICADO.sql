@@ -126,6 +126,19 @@ CREATE TABLE detalle_pedidos (
     updated_at TIMESTAMP WITHOUT TIME ZONE DEFAULT NOW() NOT NULL
 );
 
+CREATE TABLE negocio_stats (
+    id_negocio          BIGINT PRIMARY KEY REFERENCES negocios(id_negocio) ON DELETE CASCADE,
+    total_productos     INTEGER DEFAULT 0 NOT NULL,
+    pedidos_completados BIGINT DEFAULT 0 NOT NULL,
+    ingresos_totales    NUMERIC(14,2) DEFAULT 0 NOT NULL,
+    productos_vendidos  BIGINT DEFAULT 0 NOT NULL,
+    dia                 DATE DEFAULT CURRENT_DATE NOT NULL,
+    pedidos_hoy         INTEGER DEFAULT 0 NOT NULL,
+    ventas_hoy          NUMERIC(14,2) DEFAULT 0 NOT NULL,
+    pedidos_por_estado  JSONB DEFAULT '{}'::jsonb NOT NULL,
+    updated_at          TIMESTAMP WITHOUT TIME ZONE DEFAULT NOW() NOT NULL
+);
+
 -- ============================================================================
 -- TRACKING EN TIEMPO REAL
 -- ============================================================================
@@ -169,7 +182,9 @@ CREATE TABLE chat_conversaciones (
     es_chatbot BOOLEAN DEFAULT FALSE NOT NULL,
     activa BOOLEAN DEFAULT TRUE NOT NULL,
     created_at TIMESTAMP WITHOUT TIME ZONE DEFAULT NOW() NOT NULL,
-    updated_at TIMESTAMP WITHOUT TIME ZONE DEFAULT NOW() NOT NULL
+    updated_at TIMESTAMP WITHOUT TIME ZONE DEFAULT NOW() NOT NULL,
+    version_mensajes BIGINT DEFAULT 0 NOT NULL,
+    mensajes_modificado_en TIMESTAMP WITHOUT TIME ZONE DEFAULT NOW() NOT NULL
 );
 
 -- Mensajes de chat
@@ -184,6 +199,22 @@ CREATE TABLE chat_mensajes (
     updated_at TIMESTAMP WITHOUT TIME ZONE DEFAULT NOW() NOT NULL
 );
 
+-- Cola de respuestas de la IA pendientes (ver ColaLlm)
+CREATE TABLE chat_llm_jobs (
+    id_job BIGSERIAL PRIMARY KEY,
+    id_conversacion BIGINT NOT NULL REFERENCES chat_conversaciones(id_conversacion) ON DELETE CASCADE,
+    id_remitente    BIGINT NOT NULL,
+    mensaje         TEXT NOT NULL,
+    estado          VARCHAR(20) DEFAULT 'pendiente' NOT NULL
+                    CHECK (estado IN ('pendiente', 'procesando', 'completado', 'fallido')),
+    intentos        INTEGER DEFAULT 0 NOT NULL,
+    proximo_intento TIMESTAMP WITHOUT TIME ZONE DEFAULT NOW() NOT NULL,
+    error           TEXT,
+    id_mensaje_respuesta BIGINT REFERENCES chat_mensajes(id_mensaje) ON DELETE SET NULL,
+    created_at      TIMESTAMP WITHOUT TIME ZONE DEFAULT NOW() NOT NULL,
+    updated_at      TIMESTAMP WITHOUT TIME ZONE DEFAULT NOW() NOT NULL
+);
+
 -- Categorías de respuestas IA
 CREATE TABLE ia_categorias_respuesta (
     id_categoria_ia SERIAL PRIMARY KEY,
@@ -224,7 +255,9 @@ CREATE TABLE soporte_conversaciones (
     prioridad SMALLINT NOT NULL DEFAULT 3 CHECK (prioridad BETWEEN 1 AND 5),
     permite_ia BOOLEAN DEFAULT FALSE NOT NULL,
     created_at TIMESTAMP WITHOUT TIME ZONE DEFAULT NOW() NOT NULL,
-    updated_at TIMESTAMP WITHOUT TIME ZONE DEFAULT NOW() NOT NULL
+    updated_at TIMESTAMP WITHOUT TIME ZONE DEFAULT NOW() NOT NULL,
+    version_mensajes BIGINT DEFAULT 0 NOT NULL,
+    mensajes_modificado_en TIMESTAMP WITHOUT TIME ZONE DEFAULT NOW() NOT NULL
 );
 
 -- Mensajes de soporte
@@ -292,6 +325,22 @@ CREATE TABLE password_resets (
 CREATE INDEX idx_password_resets_correo ON password_resets(correo);
 CREATE INDEX idx_password_resets_codigo ON password_resets(codigo);
 
+-- ============================================================================
+-- IDEMPOTENCIA (cabecera Idempotency-Key)
+-- ============================================================================
+
+CREATE TABLE idempotencia (
+    clave      BYTEA PRIMARY KEY,
+    huella     BYTEA NOT NULL,
+    estado     VARCHAR(12) DEFAULT 'en_curso' NOT NULL CHECK (estado IN ('en_curso', 'completada')),
+    status     SMALLINT,
+    cuerpo     BYTEA,
+    created_at TIMESTAMP WITHOUT TIME ZONE DEFAULT NOW() NOT NULL,
+    expira_en  TIMESTAMP WITHOUT TIME ZONE NOT NULL
+);
+
+CREATE INDEX idx_idempotencia_expira ON idempotencia (expira_en);
+
 -- ============================================================================
 -- FUNCIONES Y TRIGGERS
 -- ============================================================================
@@ -391,6 +440,378 @@ FOR EACH ROW EXECUTE FUNCTION set_updated_at();
 CREATE TRIGGER pedidos_touch BEFORE UPDATE ON pedidos
 FOR EACH ROW EXECUTE FUNCTION set_updated_at();
 
+CREATE TRIGGER chat_llm_jobs_touch BEFORE UPDATE ON chat_llm_jobs
+FOR EACH ROW EXECUTE FUNCTION set_updated_at();
+
+-- Versión de los mensajes por conversación (GET condicionales)
+CREATE OR REPLACE FUNCTION trg_chat_conversacion_version()
+RETURNS TRIGGER LANGUAGE plpgsql AS $$
+BEGIN
+  UPDATE chat_conversaciones
+     SET version_mensajes = version_mensajes + 1, mensajes_modificado_en = NOW()
+   WHERE id_conversacion = CASE WHEN TG_OP = 'DELETE' THEN OLD.id_conversacion ELSE NEW.id_conversacion END;
+  RETURN NULL;
+END;
+$$;
+
+CREATE OR REPLACE FUNCTION trg_soporte_conversacion_version()
+RETURNS TRIGGER LANGUAGE plpgsql AS $$
+BEGIN
+  UPDATE soporte_conversaciones
+     SET version_mensajes = version_mensajes + 1, mensajes_modificado_en = NOW()
+   WHERE id_soporte_conv = CASE WHEN TG_OP = 'DELETE' THEN OLD.id_soporte_conv ELSE NEW.id_soporte_conv END;
+  RETURN NULL;
+END;
+$$;
+
+CREATE TRIGGER chat_mensajes_version AFTER INSERT OR UPDATE OR DELETE ON chat_mensajes
+FOR EACH ROW EXECUTE FUNCTION trg_chat_conversacion_version();
+
+CREATE TRIGGER soporte_mensajes_version AFTER INSERT OR UPDATE OR DELETE ON soporte_mensajes
+FOR EACH ROW EXECUTE FUNCTION trg_soporte_conversacion_version();
+
+-- El historial de chat incluye el nombre del remitente (y si es el bot, por su
+-- correo): renombrar o borrar un usuario cambia las conversaciones en que
+-- escribió.
+CREATE OR REPLACE FUNCTION trg_usuario_conversacion_version()
+RETURNS TRIGGER LANGUAGE plpgsql AS $$
+BEGIN
+  IF TG_OP = 'UPDATE' AND NEW.nombre IS NOT DISTINCT FROM OLD.nombre
+                      AND NEW.correo IS NOT DISTINCT FROM OLD.correo THEN
+    RETURN NULL;
+  END IF;
+  UPDATE chat_conversaciones
+     SET version_mensajes = version_mensajes + 1, mensajes_modificado_en = NOW()
+   WHERE id_conversacion IN (SELECT id_conversacion FROM chat_mensajes WHERE id_remitente = OLD.id_usuario);
+  RETURN NULL;
+END;
+$$;
+
+CREATE TRIGGER usuarios_conversacion_version AFTER UPDATE OF nombre, correo OR DELETE ON usuarios
+FOR EACH ROW EXECUTE FUNCTION trg_usuario_conversacion_version();
+
+-- ============================================================================
+-- AGREGADOS INCREMENTALES DEL DASHBOARD
+-- ============================================================================
+
+CREATE TABLE dashboard_totales (
+    ranura     SMALLINT PRIMARY KEY,
+    ventas     NUMERIC(14,2) DEFAULT 0 NOT NULL,
+    pendientes INTEGER DEFAULT 0 NOT NULL,
+    entregados INTEGER DEFAULT 0 NOT NULL
+);
+
+CREATE TABLE dashboard_dia (
+    dia             DATE NOT NULL,
+    ranura          SMALLINT NOT NULL,
+    pedidos         INTEGER DEFAULT 0 NOT NULL,
+    ventas          NUMERIC(14,2) DEFAULT 0 NOT NULL,
+    nuevos_usuarios INTEGER DEFAULT 0 NOT NULL,
+    PRIMARY KEY (dia, ranura)
+);
+
+CREATE TABLE dashboard_productos (
+    id_producto BIGINT PRIMARY KEY,
+    cantidad    BIGINT DEFAULT 0 NOT NULL
+);
+
+-- Entregas por repartidor: media móvil = minutos / entregas
+CREATE TABLE dashboard_repartidores (
+    id_delivery BIGINT PRIMARY KEY,
+    entregas    BIGINT DEFAULT 0 NOT NULL,
+    minutos     DOUBLE PRECISION DEFAULT 0 NOT NULL
+);
+
+CREATE TABLE dashboard_repartidores_dia (
+    id_delivery BIGINT NOT NULL,
+    dia         DATE NOT NULL,
+    entregas    INTEGER DEFAULT 0 NOT NULL,
+    total       NUMERIC(14,2) DEFAULT 0 NOT NULL,
+    PRIMARY KEY (id_delivery, dia)
+);
+
+CREATE INDEX IF NOT EXISTS idx_dashboard_productos_cantidad ON dashboard_productos (cantidad DESC);
+
+-- Suma (p_signo = 1) o resta (-1) el aporte de una fila de pedidos. Los
+-- indicadores p_dia, p_totales y p_repartidor evitan tocar agregados que el
+-- cambio no altera. Una entrega cuenta el día y los minutos según updated_at,
+-- igual que la consulta directa sobre pedidos.
+CREATE OR REPLACE FUNCTION fn_dashboard_aplicar_pedido(
+    p_fila pedidos,
+    p_signo INTEGER,
+    p_dia BOOLEAN,
+    p_totales BOOLEAN,
+    p_repartidor BOOLEAN
+)
+RETURNS VOID LANGUAGE plpgsql AS $$
+DECLARE
+  v_ranura SMALLINT := (p_fila.id_pedido % 8)::SMALLINT;
+BEGIN
+  IF p_dia THEN
+    INSERT INTO dashboard_dia AS d (dia, ranura, pedidos, ventas)
+    VALUES (p_fila.created_at::date, v_ranura, p_signo, p_signo * p_fila.total)
+    ON CONFLICT (dia, ranura) DO UPDATE
+       SET pedidos = d.pedidos + EXCLUDED.pedidos,
+           ventas = d.ventas + EXCLUDED.ventas;
+  END IF;
+
+  IF p_totales THEN
+    INSERT INTO dashboard_totales AS t (ranura, ventas, pendientes, entregados)
+    VALUES (v_ranura, p_signo * p_fila.total,
+            CASE WHEN p_fila.estado = 'pendiente' THEN p_signo ELSE 0 END,
+            CASE WHEN p_fila.estado = 'entregado' THEN p_signo ELSE 0 END)
+    ON CONFLICT (ranura) DO UPDATE
+       SET ventas = t.ventas + EXCLUDED.ventas,
+           pendientes = t.pendientes + EXCLUDED.pendientes,
+           entregados = t.entregados + EXCLUDED.entregados;
+  END IF;
+
+  IF p_repartidor AND p_fila.estado = 'entregado' AND p_fila.id_delivery IS NOT NULL THEN
+    INSERT INTO dashboard_repartidores AS r (id_delivery, entregas, minutos)
+    VALUES (p_fila.id_delivery, p_signo,
+            p_signo * EXTRACT(EPOCH FROM (p_fila.updated_at - p_fila.created_at)) / 60.0)
+    ON CONFLICT (id_delivery) DO UPDATE
+       SET entregas = r.entregas + EXCLUDED.entregas,
+           minutos = r.minutos + EXCLUDED.minutos;
+
+    INSERT INTO dashboard_repartidores_dia AS rd (id_delivery, dia, entregas, total)
+    VALUES (p_fila.id_delivery, p_fila.updated_at::date, p_signo, p_signo * p_fila.total)
+    ON CONFLICT (id_delivery, dia) DO UPDATE
+       SET entregas = rd.entregas + EXCLUDED.entregas,
+           total = rd.total + EXCLUDED.total;
+  END IF;
+END;
+$$;
+
+CREATE OR REPLACE FUNCTION trg_dashboard_pedidos()
+RETURNS TRIGGER LANGUAGE plpgsql AS $$
+DECLARE
+  v_dia BOOLEAN := TRUE;
+  v_totales BOOLEAN := TRUE;
+  v_repartidor BOOLEAN := TRUE;
+BEGIN
+  IF TG_OP = 'UPDATE' THEN
+    v_dia := OLD.created_at::date <> NEW.created_at::date OR OLD.total <> NEW.total;
+    v_totales := OLD.total <> NEW.total
+              OR (OLD.estado IS DISTINCT FROM NEW.estado
+                  AND (OLD.estado IN ('pendiente', 'entregado') OR NEW.estado IN ('pendiente', 'entregado')));
+    -- Toda modificación de un pedido entregado mueve updated_at
+    v_repartidor := OLD.estado = 'entregado' OR NEW.estado = 'entregado';
+    IF NOT (v_dia OR v_totales OR v_repartidor) THEN
+      RETURN NULL;
+    END IF;
+  END IF;
+
+  IF TG_OP IN ('UPDATE', 'DELETE') THEN
+    PERFORM fn_dashboard_aplicar_pedido(OLD, -1, v_dia, v_totales, v_repartidor);
+  END IF;
+  IF TG_OP IN ('INSERT', 'UPDATE') THEN
+    PERFORM fn_dashboard_aplicar_pedido(NEW, 1, v_dia, v_totales, v_repartidor);
+  END IF;
+  RETURN NULL;
+END;
+$$;
+
+-- Por sentencia y en orden de id_producto: dos pedidos con los mismos
+-- productos bloquean sus filas en el mismo orden y no se interbloquean.
+CREATE OR REPLACE FUNCTION trg_dashboard_detalle()
+RETURNS TRIGGER LANGUAGE plpgsql AS $$
+BEGIN
+  IF TG_OP = 'INSERT' THEN
+    INSERT INTO dashboard_productos AS p (id_producto, cantidad)
+    SELECT id_producto, SUM(cantidad) FROM nuevos GROUP BY id_producto ORDER BY id_producto
+    ON CONFLICT (id_producto) DO UPDATE SET cantidad = p.cantidad + EXCLUDED.cantidad;
+  ELSIF TG_OP = 'DELETE' THEN
+    INSERT INTO dashboard_productos AS p (id_producto, cantidad)
+    SELECT id_producto, -SUM(cantidad) FROM viejos GROUP BY id_producto ORDER BY id_producto
+    ON CONFLICT (id_producto) DO UPDATE SET cantidad = p.cantidad + EXCLUDED.cantidad;
+  ELSE
+    INSERT INTO dashboard_productos AS p (id_producto, cantidad)
+    SELECT id_producto, SUM(delta)
+      FROM (SELECT id_producto, cantidad AS delta FROM nuevos
+            UNION ALL
+            SELECT id_producto, -cantidad FROM viejos) cambios
+     GROUP BY id_producto
+    HAVING SUM(delta) <> 0
+     ORDER BY id_producto
+    ON CONFLICT (id_producto) DO UPDATE SET cantidad = p.cantidad + EXCLUDED.cantidad;
+  END IF;
+  RETURN NULL;
+END;
+$$;
+
+CREATE OR REPLACE FUNCTION trg_dashboard_usuarios()
+RETURNS TRIGGER LANGUAGE plpgsql AS $$
+DECLARE
+  v_fila usuarios := CASE WHEN TG_OP = 'INSERT' THEN NEW ELSE OLD END;
+  v_signo INTEGER := CASE WHEN TG_OP = 'INSERT' THEN 1 ELSE -1 END;
+BEGIN
+  INSERT INTO dashboard_dia AS d (dia, ranura, nuevos_usuarios)
+  VALUES (v_fila.created_at::date, (v_fila.id_usuario % 8)::SMALLINT, v_signo)
+  ON CONFLICT (dia, ranura) DO UPDATE SET nuevos_usuarios = d.nuevos_usuarios + EXCLUDED.nuevos_usuarios;
+  RETURN NULL;
+END;
+$$;
+
+-- Reconciliación en dos pasos para no bloquear a los triggers mientras se
+-- recorren las tablas base. fn_dashboard_calcular_deriva() se ejecuta en una
+-- transacción REPEATABLE READ: en una misma instantánea los agregados y las
+-- tablas base son coherentes (cada trigger escribe en la transacción del
+-- pedido), así que la diferencia entre el recálculo y lo guardado es sólo la
+-- deriva. Se deja en tablas temporales de la sesión, sin bloquear nada.
+-- fn_dashboard_aplicar_deriva() la suma después, en otra transacción, con
+-- los mismos upserts incrementales que los triggers: sólo toca las filas que
+-- difieren y conmuta con los cambios que llegaron entre medias. Quien llama
+-- serializa las dos llamadas entre instancias con pg_try_advisory_lock.
+CREATE OR REPLACE FUNCTION fn_dashboard_calcular_deriva()
+RETURNS INTEGER LANGUAGE plpgsql AS $$
+BEGIN
+  DROP TABLE IF EXISTS deriva_totales, deriva_dia, deriva_productos,
+                       deriva_repartidores, deriva_repartidores_dia;
+
+  CREATE TEMP TABLE deriva_totales AS
+  SELECT * FROM (
+    SELECT ranura,
+           COALESCE(b.ventas, 0) - COALESCE(a.ventas, 0) AS ventas,
+           COALESCE(b.pendientes, 0) - COALESCE(a.pendientes, 0) AS pendientes,
+           COALESCE(b.entregados, 0) - COALESCE(a.entregados, 0) AS entregados
+      FROM (SELECT (id_pedido % 8)::SMALLINT AS ranura, SUM(total) AS ventas,
+                   COUNT(*) FILTER (WHERE estado = 'pendiente') AS pendientes,
+                   COUNT(*) FILTER (WHERE estado = 'entregado') AS entregados
+              FROM pedidos
+             GROUP BY 1) b
+      FULL JOIN dashboard_totales a USING (ranura)) d
+   WHERE ventas <> 0 OR pendientes <> 0 OR entregados <> 0;
+
+  CREATE TEMP TABLE deriva_dia AS
+  SELECT * FROM (
+    SELECT dia, ranura,
+           COALESCE(b.pedidos, 0) - COALESCE(a.pedidos, 0) AS pedidos,
+           COALESCE(b.ventas, 0) - COALESCE(a.ventas, 0) AS ventas,
+           COALESCE(b.nuevos_usuarios, 0) - COALESCE(a.nuevos_usuarios, 0) AS nuevos_usuarios
+      FROM (SELECT dia, ranura, SUM(pedidos) AS pedidos, SUM(ventas) AS ventas,
+                   SUM(nuevos_usuarios) AS nuevos_usuarios
+              FROM (SELECT created_at::date AS dia, (id_pedido % 8)::SMALLINT AS ranura,
+                           COUNT(*) AS pedidos, SUM(total) AS ventas, 0 AS nuevos_usuarios
+                      FROM pedidos
+                     GROUP BY 1, 2
+                    UNION ALL
+                    SELECT created_at::date, (id_usuario % 8)::SMALLINT, 0, 0, COUNT(*)
+                      FROM usuarios
+                     GROUP BY 1, 2) base
+             GROUP BY dia, ranura) b
+      FULL JOIN dashboard_dia a USING (dia, ranura)) d
+   WHERE pedidos <> 0 OR ventas <> 0 OR nuevos_usuarios <> 0;
+
+  CREATE TEMP TABLE deriva_productos AS
+  SELECT * FROM (
+    SELECT id_producto, COALESCE(b.cantidad, 0) - COALESCE(a.cantidad, 0) AS cantidad
+      FROM (SELECT id_producto, SUM(cantidad) AS cantidad
+              FROM detalle_pedidos
+             GROUP BY id_producto) b
+      FULL JOIN dashboard_productos a USING (id_producto)) d
+   WHERE cantidad <> 0;
+
+  CREATE TEMP TABLE deriva_repartidores AS
+  SELECT * FROM (
+    SELECT id_delivery,
+           COALESCE(b.entregas, 0) - COALESCE(a.entregas, 0) AS entregas,
+           COALESCE(b.minutos, 0) - COALESCE(a.minutos, 0) AS minutos
+      FROM (SELECT id_delivery, COUNT(*) AS entregas,
+                   SUM(EXTRACT(EPOCH FROM (updated_at - created_at)) / 60.0)::DOUBLE PRECISION AS minutos
+              FROM pedidos
+             WHERE estado = 'entregado' AND id_delivery IS NOT NULL
+             GROUP BY id_delivery) b
+      FULL JOIN dashboard_repartidores a USING (id_delivery)) d
+   -- Los minutos acumulan redondeo de coma flotante: sólo cuentan como deriva
+   -- si también difieren las entregas o la diferencia pasa de un segundo.
+   WHERE entregas <> 0 OR abs(minutos) > 1.0 / 60;
+
+  CREATE TEMP TABLE deriva_repartidores_dia AS
+  SELECT * FROM (
+    SELECT id_delivery, dia,
+           COALESCE(b.entregas, 0) - COALESCE(a.entregas, 0) AS entregas,
+           COALESCE(b.total, 0) - COALESCE(a.total, 0) AS total
+      FROM (SELECT id_delivery, updated_at::date AS dia, COUNT(*) AS entregas, SUM(total) AS total
+              FROM pedidos
+             WHERE estado = 'entregado' AND id_delivery IS NOT NULL
+             GROUP BY 1, 2) b
+      FULL JOIN dashboard_repartidores_dia a USING (id_delivery, dia)) d
+   WHERE entregas <> 0 OR total <> 0;
+
+  RETURN (SELECT COUNT(*) FROM deriva_totales)
+       + (SELECT COUNT(*) FROM deriva_dia)
+       + (SELECT COUNT(*) FROM deriva_productos)
+       + (SELECT COUNT(*) FROM deriva_repartidores)
+       + (SELECT COUNT(*) FROM deriva_repartidores_dia);
+END;
+$$;
+
+-- Suma la deriva calculada por fn_dashboard_calcular_deriva() en la misma
+-- sesión y borra las tablas temporales. Recorre las tablas en el orden de
+-- fn_dashboard_aplicar_pedido y cada una por clave, como los triggers, para
+-- que los bloqueos de fila se tomen en el mismo orden.
+CREATE OR REPLACE FUNCTION fn_dashboard_aplicar_deriva()
+RETURNS VOID LANGUAGE plpgsql AS $$
+BEGIN
+  INSERT INTO dashboard_dia AS d (dia, ranura, pedidos, ventas, nuevos_usuarios)
+  SELECT dia, ranura, pedidos, ventas, nuevos_usuarios FROM deriva_dia ORDER BY dia, ranura
+  ON CONFLICT (dia, ranura) DO UPDATE
+     SET pedidos = d.pedidos + EXCLUDED.pedidos,
+         ventas = d.ventas + EXCLUDED.ventas,
+         nuevos_usuarios = d.nuevos_usuarios + EXCLUDED.nuevos_usuarios;
+
+  INSERT INTO dashboard_totales AS t (ranura, ventas, pendientes, entregados)
+  SELECT ranura, ventas, pendientes, entregados FROM deriva_totales ORDER BY ranura
+  ON CONFLICT (ranura) DO UPDATE
+     SET ventas = t.ventas + EXCLUDED.ventas,
+         pendientes = t.pendientes + EXCLUDED.pendientes,
+         entregados = t.entregados + EXCLUDED.entregados;
+
+  INSERT INTO dashboard_repartidores AS r (id_delivery, entregas, minutos)
+  SELECT id_delivery, entregas, minutos FROM deriva_repartidores ORDER BY id_delivery
+  ON CONFLICT (id_delivery) DO UPDATE
+     SET entregas = r.entregas + EXCLUDED.entregas,
+         minutos = r.minutos + EXCLUDED.minutos;
+
+  INSERT INTO dashboard_repartidores_dia AS rd (id_delivery, dia, entregas, total)
+  SELECT id_delivery, dia, entregas, total FROM deriva_repartidores_dia ORDER BY id_delivery, dia
+  ON CONFLICT (id_delivery, dia) DO UPDATE
+     SET entregas = rd.entregas + EXCLUDED.entregas,
+         total = rd.total + EXCLUDED.total;
+
+  INSERT INTO dashboard_productos AS p (id_producto, cantidad)
+  SELECT id_producto, cantidad FROM deriva_productos ORDER BY id_producto
+  ON CONFLICT (id_producto) DO UPDATE SET cantidad = p.cantidad + EXCLUDED.cantidad;
+
+  DROP TABLE deriva_totales, deriva_dia, deriva_productos,
+             deriva_repartidores, deriva_repartidores_dia;
+END;
+$$;
+
+CREATE TRIGGER pedidos_dashboard
+AFTER INSERT OR UPDATE OR DELETE ON pedidos
+FOR EACH ROW EXECUTE FUNCTION trg_dashboard_pedidos();
+
+CREATE TRIGGER detalle_pedidos_dashboard_ins
+AFTER INSERT ON detalle_pedidos
+REFERENCING NEW TABLE AS nuevos
+FOR EACH STATEMENT EXECUTE FUNCTION trg_dashboard_detalle();
+
+CREATE TRIGGER detalle_pedidos_dashboard_upd
+AFTER UPDATE ON detalle_pedidos
+REFERENCING OLD TABLE AS viejos NEW TABLE AS nuevos
+FOR EACH STATEMENT EXECUTE FUNCTION trg_dashboard_detalle();
+
+CREATE TRIGGER detalle_pedidos_dashboard_del
+AFTER DELETE ON detalle_pedidos
+REFERENCING OLD TABLE AS viejos
+FOR EACH STATEMENT EXECUTE FUNCTION trg_dashboard_detalle();
+
+CREATE TRIGGER usuarios_dashboard
+AFTER INSERT OR DELETE ON usuarios
+FOR EACH ROW EXECUTE FUNCTION trg_dashboard_usuarios();
+
 -- ============================================================================
 -- ÍNDICES PARA OPTIMIZACIÓN
 -- ============================================================================
@@ -399,16 +820,22 @@ CREATE INDEX idx_usuarios_lower_correo ON usuarios (LOWER(correo));
 CREATE INDEX idx_productos_negocio ON productos (id_negocio);
 CREATE INDEX idx_productos_categoria ON productos (id_categoria);
 CREATE INDEX idx_ubicaciones_usuario ON ubicaciones (id_usuario);
+CREATE INDEX idx_ubicaciones_activas ON ubicaciones (id_ubicacion) WHERE activa = TRUE;
 CREATE INDEX idx_pedidos_cliente ON pedidos (id_cliente);
 CREATE INDEX idx_pedidos_delivery ON pedidos (id_delivery);
 CREATE INDEX idx_pedidos_estado ON pedidos (estado);
-CREATE INDEX idx_pedidos_estado_created ON pedidos (estado, created_at DESC);
+CREATE INDEX idx_pedidos_estado_created ON pedidos (estado, created_at DESC, id_pedido DESC);
+CREATE INDEX idx_pedidos_created ON pedidos (created_at DESC, id_pedido DESC);
 CREATE INDEX idx_detalle_pedido ON detalle_pedidos (id_pedido);
 CREATE INDEX idx_tracking_pedido ON tracking_eventos(id_pedido);
 CREATE INDEX idx_tracking_fecha ON tracking_eventos(fecha_evento);
 CREATE INDEX idx_tracking_ruta_pedido ON tracking_ruta (id_pedido, registrado_en DESC);
 CREATE INDEX idx_chatconv_cliente ON chat_conversaciones (id_cliente);
-CREATE INDEX idx_chatmsg_conv_created ON chat_mensajes (id_conversacion, created_at);
+CREATE INDEX idx_chatmsg_conv_created ON chat_mensajes (id_conversacion, created_at, id_mensaje);
+CREATE INDEX idx_chatmsg_remitente ON chat_mensajes (id_remitente, id_conversacion);
+CREATE INDEX idx_llmjobs_listos ON chat_llm_jobs (proximo_intento, id_job) WHERE estado = 'pendiente';
+CREATE INDEX idx_llmjobs_conv_abiertos ON chat_llm_jobs (id_conversacion, id_job) WHERE estado IN ('pendiente', 'procesando');
+CREATE INDEX idx_sopmsg_conv ON soporte_mensajes (id_soporte_conv, created_at, id_sop_msj);
 
 -- ============================================================================
 -- DATOS DE EJEMPLO (SEED)
@@ -0,0 +1,25 @@
+-- Cola persistente de mensajes del chatbot pendientes de respuesta de la IA.
+-- La toma ColaLlm: un trabajo por conversación a la vez, en orden de id_job,
+-- con reintentos (proximo_intento) y la respuesta enlazada en chat_mensajes.
+
+CREATE TABLE IF NOT EXISTS chat_llm_jobs (
+    id_job          BIGSERIAL PRIMARY KEY,
+    id_conversacion BIGINT NOT NULL REFERENCES chat_conversaciones(id_conversacion) ON DELETE CASCADE,
+    id_remitente    BIGINT NOT NULL,
+    mensaje         TEXT NOT NULL,
+    estado          VARCHAR(20) DEFAULT 'pendiente' NOT NULL
+                    CHECK (estado IN ('pendiente', 'procesando', 'completado', 'fallido')),
+    intentos        INTEGER DEFAULT 0 NOT NULL,
+    proximo_intento TIMESTAMP WITHOUT TIME ZONE DEFAULT NOW() NOT NULL,
+    error           TEXT,
+    id_mensaje_respuesta BIGINT REFERENCES chat_mensajes(id_mensaje) ON DELETE SET NULL,
+    created_at      TIMESTAMP WITHOUT TIME ZONE DEFAULT NOW() NOT NULL,
+    updated_at      TIMESTAMP WITHOUT TIME ZONE DEFAULT NOW() NOT NULL
+);
+
+CREATE INDEX IF NOT EXISTS idx_llmjobs_listos ON chat_llm_jobs (proximo_intento, id_job) WHERE estado = 'pendiente';
+CREATE INDEX IF NOT EXISTS idx_llmjobs_conv_abiertos ON chat_llm_jobs (id_conversacion, id_job) WHERE estado IN ('pendiente', 'procesando');
+
+CREATE TRIGGER chat_llm_jobs_touch
+BEFORE UPDATE ON chat_llm_jobs
+FOR EACH ROW EXECUTE FUNCTION set_updated_at();
@@ -0,0 +1,67 @@
+-- Versión de los mensajes de cada conversación (chat y soporte) para los GET
+-- condicionales del historial. La suben triggers sobre los mensajes y sobre
+-- los usuarios que escribieron en ella, así que todas las instancias ven la
+-- misma versión y cualquier camino de escritura (API, ColaLlm, scripts)
+-- invalida los ETag emitidos.
+
+ALTER TABLE chat_conversaciones
+  ADD COLUMN IF NOT EXISTS version_mensajes BIGINT DEFAULT 0 NOT NULL,
+  ADD COLUMN IF NOT EXISTS mensajes_modificado_en TIMESTAMP WITHOUT TIME ZONE DEFAULT NOW() NOT NULL;
+
+ALTER TABLE soporte_conversaciones
+  ADD COLUMN IF NOT EXISTS version_mensajes BIGINT DEFAULT 0 NOT NULL,
+  ADD COLUMN IF NOT EXISTS mensajes_modificado_en TIMESTAMP WITHOUT TIME ZONE DEFAULT NOW() NOT NULL;
+
+CREATE OR REPLACE FUNCTION trg_chat_conversacion_version()
+RETURNS TRIGGER LANGUAGE plpgsql AS $$
+BEGIN
+  UPDATE chat_conversaciones
+     SET version_mensajes = version_mensajes + 1, mensajes_modificado_en = NOW()
+   WHERE id_conversacion = CASE WHEN TG_OP = 'DELETE' THEN OLD.id_conversacion ELSE NEW.id_conversacion END;
+  RETURN NULL;
+END;
+$$;
+
+CREATE OR REPLACE FUNCTION trg_soporte_conversacion_version()
+RETURNS TRIGGER LANGUAGE plpgsql AS $$
+BEGIN
+  UPDATE soporte_conversaciones
+     SET version_mensajes = version_mensajes + 1, mensajes_modificado_en = NOW()
+   WHERE id_soporte_conv = CASE WHEN TG_OP = 'DELETE' THEN OLD.id_soporte_conv ELSE NEW.id_soporte_conv END;
+  RETURN NULL;
+END;
+$$;
+
+-- El historial de chat incluye el nombre del remitente (y si es el bot, por su
+-- correo): renombrar o borrar un usuario cambia las conversaciones en que
+-- escribió.
+CREATE OR REPLACE FUNCTION trg_usuario_conversacion_version()
+RETURNS TRIGGER LANGUAGE plpgsql AS $$
+BEGIN
+  IF TG_OP = 'UPDATE' AND NEW.nombre IS NOT DISTINCT FROM OLD.nombre
+                      AND NEW.correo IS NOT DISTINCT FROM OLD.correo THEN
+    RETURN NULL;
+  END IF;
+  UPDATE chat_conversaciones
+     SET version_mensajes = version_mensajes + 1, mensajes_modificado_en = NOW()
+   WHERE id_conversacion IN (SELECT id_conversacion FROM chat_mensajes WHERE id_remitente = OLD.id_usuario);
+  RETURN NULL;
+END;
+$$;
+
+DROP TRIGGER IF EXISTS chat_mensajes_version ON chat_mensajes;
+CREATE TRIGGER chat_mensajes_version
+AFTER INSERT OR UPDATE OR DELETE ON chat_mensajes
+FOR EACH ROW EXECUTE FUNCTION trg_chat_conversacion_version();
+
+DROP TRIGGER IF EXISTS soporte_mensajes_version ON soporte_mensajes;
+CREATE TRIGGER soporte_mensajes_version
+AFTER INSERT OR UPDATE OR DELETE ON soporte_mensajes
+FOR EACH ROW EXECUTE FUNCTION trg_soporte_conversacion_version();
+
+DROP TRIGGER IF EXISTS usuarios_conversacion_version ON usuarios;
+CREATE TRIGGER usuarios_conversacion_version
+AFTER UPDATE OF nombre, correo OR DELETE ON usuarios
+FOR EACH ROW EXECUTE FUNCTION trg_usuario_conversacion_version();
+
+CREATE INDEX IF NOT EXISTS idx_chatmsg_remitente ON chat_mensajes (id_remitente, id_conversacion);
@@ -0,0 +1,17 @@
+-- Claves de idempotencia (cabecera Idempotency-Key) de POST /pedidos,
+-- /chat/mensajes y /chat/bot/mensajes. clave es el SHA-256 de ruta + clave y
+-- huella el del cuerpo de la petición; la fila guarda la respuesta para
+-- repetirla ante reintentos hasta expira_en. IdempotenciaStore purga las
+-- vencidas.
+
+CREATE TABLE IF NOT EXISTS idempotencia (
+    clave      BYTEA PRIMARY KEY,
+    huella     BYTEA NOT NULL,
+    estado     VARCHAR(12) DEFAULT 'en_curso' NOT NULL CHECK (estado IN ('en_curso', 'completada')),
+    status     SMALLINT,
+    cuerpo     BYTEA,
+    created_at TIMESTAMP WITHOUT TIME ZONE DEFAULT NOW() NOT NULL,
+    expira_en  TIMESTAMP WITHOUT TIME ZONE NOT NULL
+);
+
+CREATE INDEX IF NOT EXISTS idx_idempotencia_expira ON idempotencia (expira_en);
@@ -0,0 +1,22 @@
+-- Índices para la paginación por cursor (keyset) de los listados.
+-- Cada página se pide con (created_at, id) < (?, ?) o id > ?, así que el
+-- índice debe cubrir el orden completo, incluido el id de desempate.
+
+DROP INDEX IF EXISTS idx_pedidos_estado_created;
+CREATE INDEX IF NOT EXISTS idx_pedidos_estado_created
+  ON pedidos (estado, created_at DESC, id_pedido DESC);
+
+CREATE INDEX IF NOT EXISTS idx_pedidos_created
+  ON pedidos (created_at DESC, id_pedido DESC);
+
+DROP INDEX IF EXISTS idx_chatmsg_conv_created;
+CREATE INDEX IF NOT EXISTS idx_chatmsg_conv_created
+  ON chat_mensajes (id_conversacion, created_at, id_mensaje);
+
+DROP INDEX IF EXISTS idx_sopmsg_conv;
+CREATE INDEX IF NOT EXISTS idx_sopmsg_conv
+  ON soporte_mensajes (id_soporte_conv, created_at, id_sop_msj);
+
+CREATE INDEX IF NOT EXISTS idx_ubicaciones_activas
+  ON ubicaciones (id_ubicacion)
+  WHERE activa = TRUE;
@@ -0,0 +1,18 @@
+-- Instantánea de las estadísticas por negocio (/negocios/{id}/stats).
+-- Los contadores viven en memoria (NegocioStatsStore) y se alimentan desde la
+-- creación de pedidos y productos y los cambios de estado; esta tabla se
+-- reescribe periódicamente con los negocios modificados para recuperarlos al
+-- arrancar. Borrar una fila obliga a recalcular ese negocio desde pedidos.
+
+CREATE TABLE IF NOT EXISTS negocio_stats (
+    id_negocio          BIGINT PRIMARY KEY REFERENCES negocios(id_negocio) ON DELETE CASCADE,
+    total_productos     INTEGER DEFAULT 0 NOT NULL,
+    pedidos_completados BIGINT DEFAULT 0 NOT NULL,
+    ingresos_totales    NUMERIC(14,2) DEFAULT 0 NOT NULL,
+    productos_vendidos  BIGINT DEFAULT 0 NOT NULL,
+    dia                 DATE DEFAULT CURRENT_DATE NOT NULL,
+    pedidos_hoy         INTEGER DEFAULT 0 NOT NULL,
+    ventas_hoy          NUMERIC(14,2) DEFAULT 0 NOT NULL,
+    pedidos_por_estado  JSONB DEFAULT '{}'::jsonb NOT NULL,
+    updated_at          TIMESTAMP WITHOUT TIME ZONE DEFAULT NOW() NOT NULL
+);
@@ -1,22 +1,43 @@
 package com.mycompany.delivery.api;
 
 import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonPrimitive;
 import com.google.gson.JsonSyntaxException;
 import com.mycompany.delivery.api.controller.*;
 import com.mycompany.delivery.api.model.*;
 import com.mycompany.delivery.api.payloads.Payloads;
 import com.mycompany.delivery.api.payloads.Payloads.PedidoPayload;
+import com.mycompany.delivery.api.repository.ChatLlmJobRepository;
 import com.mycompany.delivery.api.repository.ChatRepository;
 import com.mycompany.delivery.api.repository.DashboardDAO;
 import com.mycompany.delivery.api.repository.NegocioRepository;
 import com.mycompany.delivery.api.repository.PedidoRepository;
 import com.mycompany.delivery.api.repository.RespuestaSoporteRepository;
 import com.mycompany.delivery.api.repository.SoporteRepository;
+import com.mycompany.delivery.api.repository.UbicacionRepository;
 import com.mycompany.delivery.api.util.ApiException;
+import com.mycompany.delivery.api.services.CacheRespuestasBot;
+import com.mycompany.delivery.api.services.CatalogoCache;
+import com.mycompany.delivery.api.services.ColaLlm;
+import com.mycompany.delivery.api.services.ConversacionVersiones;
+import com.mycompany.delivery.api.services.DespachoService;
 import com.mycompany.delivery.api.services.GeminiService;
+import com.mycompany.delivery.api.services.IdempotenciaStore;
+import com.mycompany.delivery.api.services.NegocioStatsStore;
+import com.mycompany.delivery.api.services.ReconciliadorDashboard;
+import com.mycompany.delivery.api.services.RespuestasPredefinidas;
+import com.mycompany.delivery.api.services.TrackingRutaWriter;
+import com.mycompany.delivery.api.services.TrackingStreamHub;
+import com.mycompany.delivery.api.services.UbicacionLiveStore;
+import com.mycompany.delivery.api.services.UsuarioPrincipalCache;
 import com.mycompany.delivery.api.util.ApiResponse;
+import com.mycompany.delivery.api.config.Config;
 import com.mycompany.delivery.api.config.Database;
 import com.mycompany.delivery.api.util.FeatureFlags;
+import com.mycompany.delivery.api.util.Idempotencia;
 
 import io.github.cdimascio.dotenv.Dotenv;
 import io.javalin.Javalin;
@@ -25,23 +46,34 @@ import io.javalin.http.Context;
 import io.javalin.json.JsonMapper;
 import org.jetbrains.annotations.NotNull;
 
+import jakarta.servlet.AsyncEvent;
+import jakarta.servlet.AsyncListener;
+
 import java.lang.reflect.Type;
 import java.sql.SQLException;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 
 import static com.mycompany.delivery.api.payloads.Payloads.*;
 import com.mycompany.delivery.api.payloads.Payloads.UbicacionesRequest;
 import com.mycompany.delivery.api.util.ChatBotResponder;
 import static com.mycompany.delivery.api.util.UbicacionValidator.*;
+import com.mycompany.delivery.api.util.HttpCondicional;
+import com.mycompany.delivery.api.util.Json;
+import com.mycompany.delivery.api.util.Pagina;
+import com.mycompany.delivery.api.util.Paginacion;
+import com.mycompany.delivery.api.util.PoliticaAcceso;
 import com.mycompany.delivery.api.util.RequestValidator;
+import com.mycompany.delivery.api.util.RespuestaStreaming;
 
 /**
  * API principal unificada, migrada a Javalin.
  */
 public class DeliveryApi {
 
-    private static final Gson GSON = new Gson();
+    private static final Gson GSON = Json.GSON;
     private static final long START_TIME = System.currentTimeMillis();
+    private static final boolean HILOS_VIRTUALES = Boolean.parseBoolean(Config.resolve("SERVER_VIRTUAL_THREADS", "false"));
     private static final UsuarioController USUARIO_CONTROLLER = new UsuarioController();
     private static final ProductoController PRODUCTO_CONTROLLER = new ProductoController();
     private static final PedidoController PEDIDO_CONTROLLER = new PedidoController();
@@ -54,18 +86,41 @@ public class DeliveryApi {
     private static final ChatRepository CHAT_REPOSITORY = new ChatRepository();
     private static final GeminiService GEMINI_SERVICE = new GeminiService();
     private static final PedidoRepository PEDIDO_REPOSITORY = new PedidoRepository();
+    private static final UbicacionRepository UBICACION_REPOSITORY = new UbicacionRepository();
+    // Espera máxima a la IA por mensaje del chatbot (reintento con modelo de respaldo incluido)
+    private static final long CHATBOT_PLAZO_MS = Config.resolveLong("CHATBOT_PLAZO_MS", 45_000);
     private static final ChatBotResponder CHATBOT_RESPONDER = new ChatBotResponder(GEMINI_SERVICE, PEDIDO_REPOSITORY,
             CHAT_REPOSITORY);
+    private static final ColaLlm COLA_LLM = new ColaLlm(new ChatLlmJobRepository(), CHAT_REPOSITORY, CHATBOT_RESPONDER,
+            GEMINI_SERVICE.presupuestoRpm());
     private static final NegocioRepository NEGOCIO_REPOSITORY = new NegocioRepository();
+    private static final CatalogoCache CATALOGO_CACHE = CatalogoCache.getInstance();
+    private static final ConversacionVersiones CONVERSACION_VERSIONES = ConversacionVersiones.getInstance();
+    // Primera regla que coincide gana; chat y soporte quedan fuera de la autenticación
+    private static final PoliticaAcceso POLITICA_ACCESO = new PoliticaAcceso()
+            .publico("/chat/")
+            .publico("/soporte/")
+            .autenticado("/admin")
+            .autenticadoEnEscritura("/pedidos")
+            .autenticadoEnEscritura("/ubicaciones")
+            .autenticadoEnEscritura("/productos");
+    private static final String AUTH_USER = "authUser";
+    private static final String AUTH_RESUELTO = "__authResuelto";
 
     public static void main(String[] args) {
         Dotenv.load();
         validateEnvironment(); // Validar variables críticas
 
         final int port = resolvePort();
-        System.out.println("✅ Iniciando servidor en puerto " + port + "...");
+        // Antes de aceptar peticiones: el cálculo inicial no debe solaparse con los avisos de escritura
+        if (NegocioStatsStore.isEnabled()) {
+            NegocioStatsStore.getInstance().iniciar();
+        }
+        System.out.println("✅ Iniciando servidor en puerto " + port + (HILOS_VIRTUALES ? " (hilos virtuales)" : "") + "...");
 
         Javalin app = Javalin.create(config -> {
+            // Handlers en hilos virtuales: el JDBC y el HttpClient bloqueantes ya no agotan el pool de Jetty
+            config.useVirtualThreads = HILOS_VIRTUALES;
             config.jsonMapper(new JsonMapper() {
                 @Override
                 public @NotNull
@@ -94,12 +149,39 @@ public class DeliveryApi {
             }
         }).start(port);
 
+        // Volcar a la BD las posiciones en vivo y puntos de ruta pendientes al apagar el servidor
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            if (DespachoService.isEnabled()) {
+                DespachoService.getInstance().shutdown();
+            }
+            COLA_LLM.shutdown();
+            if (ReconciliadorDashboard.isEnabled()) {
+                ReconciliadorDashboard.getInstance().shutdown();
+            }
+            NegocioStatsStore.getInstance().shutdown();
+            IdempotenciaStore.getInstance().shutdown();
+            UbicacionLiveStore.getInstance().shutdown();
+            TrackingRutaWriter.getInstance().shutdown();
+        }, "tracking-shutdown"));
+        if (DespachoService.isEnabled()) {
+            DespachoService.getInstance().iniciar();
+        }
+        if (ColaLlm.isEnabled()) {
+            COLA_LLM.iniciar();
+        }
+        if (ReconciliadorDashboard.isEnabled()) {
+            ReconciliadorDashboard.getInstance().iniciar();
+        }
+        if (IdempotenciaStore.isEnabled()) {
+            IdempotenciaStore.getInstance().iniciar();
+        }
+
         // ============ CORS CONFIGURATION ============
         // Permitir requests desde S3 y cualquier origen (para desarrollo académico)
         app.before(ctx -> {
             ctx.header("Access-Control-Allow-Origin", "*");
             ctx.header("Access-Control-Allow-Methods", "GET, POST, PUT, DELETE, OPTIONS, PATCH");
-            ctx.header("Access-Control-Allow-Headers", "Content-Type, Authorization, X-Requested-With");
+            ctx.header("Access-Control-Allow-Headers", "Content-Type, Authorization, X-Requested-With, Idempotency-Key");
             ctx.header("Access-Control-Max-Age", "3600");
         });
 
@@ -161,43 +243,28 @@ public class DeliveryApi {
             ctx.json(ApiResponse.error(500, "Error interno del servidor", e.getMessage()));
         });
 
-        // Auth opcional: registra el usuario autenticado en el contexto si viene Authorization: Bearer <token>
+        // Proteger rutas administrativas y operaciones sensibles. El usuario sólo se
+        // resuelve (JWT + caché/BD) cuando la política o un handler lo piden.
         app.before(ctx -> {
-            String auth = ctx.header("Authorization");
-            if (auth != null && auth.toLowerCase(Locale.ROOT).startsWith("bearer ")) {
-                String token = auth.substring(7).trim();
-                try {
-                    Usuario user = USUARIO_CONTROLLER.validarToken(token);
-                    ctx.attribute("authUser", user);
-                } catch (ApiException ex) {
-                    // No corta el flujo aquí; la verificación estricta se aplica en rutas protegidas
-                }
+            if (POLITICA_ACCESO.requiereAuth(ctx.method(), ctx.path()) && authUser(ctx) == null) {
+                throw new ApiException(401, "No autorizado: falta token válido");
             }
         });
 
-        // Proteger rutas administrativas y operaciones sensibles
-        app.before(ctx -> {
-            final String p = ctx.path();
-            final boolean isWrite = ctx.method() == io.javalin.http.HandlerType.POST
-                    || ctx.method() == io.javalin.http.HandlerType.PUT
-                    || ctx.method() == io.javalin.http.HandlerType.PATCH
-                    || ctx.method() == io.javalin.http.HandlerType.DELETE;
-            boolean needsAuth = p.startsWith("/admin")
-                    || (p.startsWith("/pedidos") && isWrite)
-                    || (p.startsWith("/ubicaciones") && isWrite)
-                    || (p.startsWith("/productos") && isWrite);
-
-            // Excluir chat y soporte de autenticación
-            if (p.startsWith("/chat/") || p.startsWith("/soporte/")) {
-                needsAuth = false;
-            }
-
-            if (needsAuth) {
-                if (ctx.attribute("authUser") == null) {
-                    throw new ApiException(401, "No autorizado: falta token válido");
+        // Idempotency-Key en los POST que crean recursos: tras la autenticación
+        // para no reservar claves de peticiones rechazadas
+        if (IdempotenciaStore.isEnabled()) {
+            Set<String> rutas = new HashSet<>();
+            for (String ruta : Config.resolve("IDEMPOTENCIA_RUTAS", "/pedidos,/chat/mensajes,/chat/bot/mensajes").split(",")) {
+                if (!ruta.isBlank()) {
+                    rutas.add(ruta.trim());
                 }
             }
-        });
+            Idempotencia idempotencia = new Idempotencia(IdempotenciaStore.getInstance(), rutas,
+                    DeliveryApi::titularIdempotencia);
+            app.before(idempotencia::antes);
+            app.after(idempotencia::despues);
+        }
 
         // --- HEALTH & VERSION ---
         app.get("/health", ctx -> {
@@ -213,10 +280,30 @@ public class DeliveryApi {
             Map<String, Object> db = new HashMap<>();
             db.put("connected", dbOk);
             db.put("error", dbErr);
+            db.put("pool", Database.metricas());
             Map<String, Object> body = new HashMap<>();
             body.put("status", dbOk ? "UP" : "DEGRADED");
             body.put("uptimeMs", uptime);
+            body.put("hilosVirtuales", HILOS_VIRTUALES);
             body.put("db", db);
+            body.put("trackingRuta", TrackingRutaWriter.getInstance().metricas());
+            body.put("trackingStreams", TrackingStreamHub.getInstance().suscriptoresActivos());
+            body.put("authCache", UsuarioPrincipalCache.getInstance().metricas());
+            body.put("catalogoCache", CATALOGO_CACHE.metricas());
+            body.put("gemini", GEMINI_SERVICE.metricas());
+            body.put("chatbotCache", CacheRespuestasBot.getInstance().metricas());
+            body.put("respuestasPredef", RespuestasPredefinidas.getInstance().metricas());
+            body.put("colaLlm", COLA_LLM.metricas());
+            body.put("negocioStats", NegocioStatsStore.getInstance().metricas());
+            if (DespachoService.isEnabled()) {
+                body.put("despacho", DespachoService.getInstance().metricas());
+            }
+            if (ReconciliadorDashboard.isEnabled()) {
+                body.put("dashboard", ReconciliadorDashboard.getInstance().metricas());
+            }
+            if (IdempotenciaStore.isEnabled()) {
+                body.put("idempotencia", IdempotenciaStore.getInstance().metricas());
+            }
             ctx.status(dbOk ? io.javalin.http.HttpStatus.OK : io.javalin.http.HttpStatus.SERVICE_UNAVAILABLE);
             ctx.json(body);
         });
@@ -316,7 +403,7 @@ public class DeliveryApi {
             String correo = RequestValidator.requireEmail(body.correo, "correo");
             var pr = new com.mycompany.delivery.api.repository.PasswordResetRepository();
             try {
-                Long createdBy = Optional.ofNullable((Usuario) ctx.attribute("authUser")).map(Usuario::getIdUsuario).orElse(null);
+                Long createdBy = Optional.ofNullable(authUser(ctx)).map(Usuario::getIdUsuario).orElse(null);
                 var rc = pr.generarCodigo(correo, createdBy);
                 Map<String, Object> data = new HashMap<>();
                 data.put("correo", correo);
@@ -365,7 +452,7 @@ public class DeliveryApi {
         });
         // Cambiar contraseña (autenticado)
         app.put("/auth/cambiar-password", ctx -> {
-            Usuario auth = ctx.attribute("authUser");
+            Usuario auth = authUser(ctx);
             var body = ctx.bodyAsClass(Payloads.ChangePasswordRequest.class);
             RequestValidator.requireMinLength(body.nueva, 6, "nueva");
             handleResponse(ctx, USUARIO_CONTROLLER.cambiarContrasena(auth, body.actual, body.nueva));
@@ -399,7 +486,7 @@ public class DeliveryApi {
             handleResponse(ctx, USUARIO_CONTROLLER.registrar(u));
         });
         app.get("/usuarios", ctx -> {
-            handleResponse(ctx, USUARIO_CONTROLLER.listarUsuarios());
+            handlePagina(ctx, USUARIO_CONTROLLER.listarUsuarios(cursor(ctx), limite(ctx)));
         });
         app.get("/usuarios/{id}", ctx -> {
             var id = getLongId(ctx, "id");
@@ -447,9 +534,13 @@ public class DeliveryApi {
         app.get("/productos", ctx -> {
             String q = ctx.queryParam("query");
             String cat = ctx.queryParam("categoria");
-            var resp = (q != null || cat != null) ? PRODUCTO_CONTROLLER.buscarProductos(q, cat)
-                    : PRODUCTO_CONTROLLER.getAllProductos();
-            handleResponse(ctx, resp);
+            Integer negocio = parseNullableInt(ctx.queryParam("negocio"));
+            if (q != null || cat != null || negocio != null) {
+                Integer limit = parseNullableInt(ctx.queryParam("limit"));
+                handleResponse(ctx, PRODUCTO_CONTROLLER.buscarProductos(q, cat, negocio, limit != null ? limit : 0));
+                return;
+            }
+            responderCatalogo(ctx, CATALOGO_CACHE.obtener("productos", PRODUCTO_CONTROLLER::getAllProductos));
         });
         app.get("/productos/{id}", ctx -> {
             int id = getIntId(ctx, "id");
@@ -474,26 +565,28 @@ public class DeliveryApi {
 
         // --- CATEGORIAS ---
         app.get("/categorias", ctx -> {
-            handleResponse(ctx, PRODUCTO_CONTROLLER.obtenerCategorias());
+            responderCatalogo(ctx, CATALOGO_CACHE.obtener("categorias", PRODUCTO_CONTROLLER::obtenerCategorias));
         });
         // Nuevo endpoint: categorías directas desde la tabla (incluye vacías)
         app.get("/categorias-db", ctx -> {
-            handleResponse(ctx, PRODUCTO_CONTROLLER.obtenerCategoriasDb());
+            responderCatalogo(ctx, CATALOGO_CACHE.obtener("categorias-db", PRODUCTO_CONTROLLER::obtenerCategoriasDb));
         });
 
         // --- NEGOCIOS PUBLICOS ---
         app.get("/negocios", ctx -> {
-            var all = USUARIO_CONTROLLER.listarUsuarios();
-            java.util.List<Usuario> lista = (java.util.List<Usuario>) all.getData();
-            var negocios = new java.util.ArrayList<java.util.Map<String, Object>>();
-            if (lista != null) {
-                for (var u : lista) {
-                    if ("negocio".equalsIgnoreCase(u.getRol())) {
-                        negocios.add(u.toMap());
+            responderCatalogo(ctx, CATALOGO_CACHE.obtener("negocios", () -> {
+                var all = USUARIO_CONTROLLER.listarUsuarios();
+                java.util.List<Usuario> lista = (java.util.List<Usuario>) all.getData();
+                var negocios = new java.util.ArrayList<java.util.Map<String, Object>>();
+                if (lista != null) {
+                    for (var u : lista) {
+                        if ("negocio".equalsIgnoreCase(u.getRol())) {
+                            negocios.add(u.toMap());
+                        }
                     }
                 }
-            }
-            handleResponse(ctx, ApiResponse.success(200, "Negocios listados", negocios));
+                return ApiResponse.success(200, "Negocios listados", negocios);
+            }));
         });
         app.get("/negocios/{id}", ctx -> {
             var id = getLongId(ctx, "id");
@@ -591,7 +684,6 @@ public class DeliveryApi {
                 pedido.setDireccionEntrega(body.getDireccionEntrega());
                 pedido.setMetodoPago(body.metodoPago);
                 pedido.setEstado(body.estado != null ? body.estado : "pendiente");
-                pedido.setTotal(body.getTotal() != null ? body.getTotal() : 0.0);
 
                 var detalles = new ArrayList<DetallePedido>();
                 for (int i = 0; i < body.productos.size(); i++) {
@@ -605,18 +697,15 @@ public class DeliveryApi {
                     if (it.cantidad <= 0) {
                         throw new ApiException(400, "Producto #" + (i + 1) + " tiene cantidad inválida: " + it.cantidad);
                     }
-                    if (it.precioUnitario < 0) {
-                        throw new ApiException(400, "Producto #" + (i + 1) + " tiene precio inválido: " + it.precioUnitario);
-                    }
 
                     var d = new DetallePedido();
                     d.setIdProducto(it.idProducto);
                     d.setCantidad(it.cantidad);
-                    d.setPrecioUnitario(it.precioUnitario);
-                    d.setSubtotal(it.subtotal);
                     detalles.add(d);
                 }
 
+                // Precios, subtotales y total los fija el servidor con los precios vigentes
+
                 handleResponse(ctx, PEDIDO_CONTROLLER.crearPedido(pedido, detalles));
 
             } catch (JsonSyntaxException e) {
@@ -631,7 +720,7 @@ public class DeliveryApi {
             }
         });
         app.get("/pedidos", ctx -> {
-            handleResponse(ctx, PEDIDO_CONTROLLER.getPedidos());
+            handlePagina(ctx, PEDIDO_CONTROLLER.getPedidos(cursor(ctx), limite(ctx), expandirDetalles(ctx)));
         });
         // Colocar antes de /pedidos/{id} para que no capture 'disponibles'
         app.get("/pedidos/disponibles", ctx -> {
@@ -639,25 +728,29 @@ public class DeliveryApi {
             // desalineaciones.
             handleResponse(ctx, PEDIDO_CONTROLLER.listarPedidosDisponibles());
         });
+        // Varios pedidos con sus líneas en dos consultas: ?ids=1,2,3
+        app.get("/pedidos/detalle", ctx -> {
+            handleResponse(ctx, PEDIDO_CONTROLLER.obtenerPedidosConDetalle(idsPedido(ctx)));
+        });
         app.get("/pedidos/{id}", ctx -> {
             var id = getIntId(ctx, "id");
             handleResponse(ctx, PEDIDO_CONTROLLER.obtenerPedidoConDetalle(id));
         });
         app.get("/pedidos/cliente/{id}", ctx -> {
             var id = getIntId(ctx, "id");
-            handleResponse(ctx, PEDIDO_CONTROLLER.getPedidosPorCliente(id));
+            handleResponse(ctx, PEDIDO_CONTROLLER.getPedidosPorCliente(id, expandirDetalles(ctx)));
         });
         app.get("/pedidos/estado/{estado}", ctx -> {
             var estado = ctx.pathParam("estado");
-            handleResponse(ctx, PEDIDO_CONTROLLER.getPedidosPorEstado(estado));
+            handlePagina(ctx, PEDIDO_CONTROLLER.getPedidosPorEstado(estado, cursor(ctx), limite(ctx), expandirDetalles(ctx)));
         });
         app.get("/pedidos/delivery/{id}", ctx -> {
             var id = getIntId(ctx, "id");
-            handleResponse(ctx, PEDIDO_CONTROLLER.listarPedidosPorDelivery(id));
+            handleResponse(ctx, PEDIDO_CONTROLLER.listarPedidosPorDelivery(id, expandirDetalles(ctx)));
         });
         app.get("/pedidos/negocio/{id}", ctx -> {
             var id = getIntId(ctx, "id");
-            handleResponse(ctx, PEDIDO_CONTROLLER.getPedidosPorNegocio(id));
+            handlePagina(ctx, PEDIDO_CONTROLLER.getPedidosPorNegocio(id, cursor(ctx), limite(ctx), expandirDetalles(ctx)));
         });
         app.put("/pedidos/{id}/estado", ctx -> {
             var id = getIntId(ctx, "id");
@@ -690,7 +783,7 @@ public class DeliveryApi {
             handleResponse(ctx, ApiResponse.success("Ubicación actualizada correctamente"));
         });
         app.get("/ubicaciones/activas", ctx -> {
-            handleResponse(ctx, UBICACION_CONTROLLER.listarActivas());
+            handlePagina(ctx, UBICACION_CONTROLLER.listarActivas(cursor(ctx), limite(ctx)));
         });
         app.get("/ubicaciones/usuario/{id}", ctx -> {
             int id = getIntId(ctx, "id");
@@ -818,6 +911,17 @@ public class DeliveryApi {
                 }
             }
         });
+        // Stream SSE de la posición del repartidor (reemplaza el polling de /tracking/pedido/{idPedido})
+        app.sse("/tracking/pedido/{idPedido}/stream", client -> {
+            try {
+                var idPedido = getLongId(client.ctx(), "idPedido");
+                UBICACION_CONTROLLER.suscribirTracking(idPedido, client);
+                client.keepAlive();
+            } catch (ApiException ex) {
+                client.sendEvent("error", ApiResponse.error(ex.getStatus(), ex.getMessage()));
+                client.close();
+            }
+        });
         // (eliminado duplicado) PUT /ubicaciones/repartidor/{idRepartidor} ya se define arriba con el mismo handler
 
         // --- NUEVO ENDPOINT OPTIMIZADO ---
@@ -829,6 +933,19 @@ public class DeliveryApi {
             handleResponse(ctx, UBICACION_CONTROLLER.obtenerUbicacionesDeRepartidores(body.ids));
         });
 
+        app.get("/tracking/repartidores/cercanos", ctx -> {
+            Double lat = parseNullableDouble(ctx.queryParam("lat"));
+            Double lon = parseNullableDouble(ctx.queryParam("lon"));
+            if (lat == null || lon == null) {
+                throw new ApiException(400, "Los parámetros 'lat' y 'lon' son obligatorios");
+            }
+            Integer k = parseNullableInt(ctx.queryParam("k"));
+            Double radio = parseNullableDouble(ctx.queryParam("radio"));
+            boolean soloDisponibles = !"false".equalsIgnoreCase(ctx.queryParam("disponibles"));
+            handleResponse(ctx, UBICACION_CONTROLLER.obtenerRepartidoresCercanos(lat, lon,
+                    k != null ? k : 5, radio != null ? radio : 5_000, soloDisponibles));
+        });
+
         // --- GEOCODIFICAR ---
         app.post("/geocodificar", ctx -> {
             @SuppressWarnings("unchecked")
@@ -838,6 +955,18 @@ public class DeliveryApi {
             handleResponse(ctx, UBICACION_CONTROLLER.geocodificarDireccion(direccion));
         });
 
+        // --- EXPORTACIONES (streaming, sin paginar) ---
+        app.get("/admin/pedidos/export", ctx -> {
+            String estado = ctx.queryParam("estado");
+            Integer negocio = parseNullableInt(ctx.queryParam("negocio"));
+            RespuestaStreaming.responder(ctx, GSON, "Pedidos exportados", escritor ->
+                    PEDIDO_REPOSITORY.recorrerPedidos(estado, negocio, escritor::fila));
+        });
+        app.get("/admin/ubicaciones/export", ctx -> {
+            RespuestaStreaming.responder(ctx, GSON, "Ubicaciones activas exportadas", escritor ->
+                    UBICACION_REPOSITORY.recorrerActivas(escritor::fila));
+        });
+
         // --- DASHBOARD ---
         app.get("/admin/stats", ctx -> {
             handleResponse(ctx,
@@ -918,13 +1047,24 @@ public class DeliveryApi {
         app.get("/soporte/conversaciones/{id}/mensajes", ctx -> {
             long idConv = getLongId(ctx, "id");
 
-            // Obtener parámetros de paginación desde query params
-            int limit = ctx.queryParam("limit") != null ? Integer.parseInt(ctx.queryParam("limit")) : -1;
-            int offset = ctx.queryParam("offset") != null ? Integer.parseInt(ctx.queryParam("offset")) : 0;
+            // Paginación por cursor; ?offset= se mantiene para clientes antiguos
+            int limit = limite(ctx);
+            Integer offset = parseNullableInt(ctx.queryParam("offset"));
+            String cursor = ctx.queryParam("cursor");
+            String variante = limit + "." + (offset != null && cursor == null ? "o" + offset : "c" + cursor);
 
+            var validadores = CONVERSACION_VERSIONES.validadores(ConversacionVersiones.SOPORTE, idConv, variante);
+            if (responderSiNoModificado(ctx, validadores.etag(), validadores.modificadoMs())) {
+                return;
+            }
             try {
-                var mensajes = SOPORTE_REPO.listarMensajes(idConv, limit, offset);
-                handleResponse(ctx, ApiResponse.success(200, "Historial soporte", mensajes));
+                if (offset != null && cursor == null) {
+                    var mensajes = SOPORTE_REPO.listarMensajes(idConv, limit, Math.max(0, offset));
+                    handleResponse(ctx, ApiResponse.success(200, "Historial soporte", mensajes));
+                    return;
+                }
+                var pagina = SOPORTE_REPO.listarMensajes(idConv, Paginacion.decodificar(cursor), limit);
+                handlePagina(ctx, ApiResponse.success(200, "Historial soporte", pagina));
             } catch (SQLException e) {
                 throw new ApiException(500, "No se pudo obtener el historial de soporte", e);
             }
@@ -1199,12 +1339,25 @@ public class DeliveryApi {
         app.get("/chat/conversaciones/{id}/mensajes", ctx -> {
             var idConversacion = getLongId(ctx, "id");
 
-            // Obtener parámetros de paginación desde query params
-            int limit = ctx.queryParam("limit") != null ? Integer.parseInt(ctx.queryParam("limit")) : -1;
-            int offset = ctx.queryParam("offset") != null ? Integer.parseInt(ctx.queryParam("offset")) : 0;
+            // Paginación por cursor; ?offset= se mantiene para clientes antiguos
+            int limit = limite(ctx);
+            Integer offset = parseNullableInt(ctx.queryParam("offset"));
+            String cursor = ctx.queryParam("cursor");
+            boolean porOffset = offset != null && cursor == null;
 
-            var mensajes = CHAT_REPOSITORY.listarMensajes(idConversacion, limit, offset);
-            handleResponse(ctx, ApiResponse.success(200, "Historial de mensajes", mensajes));
+            // Renombrar a un remitente sube la versión de la conversación (trigger sobre usuarios)
+            String variante = limit + "." + (porOffset ? "o" + offset : "c" + cursor);
+            var validadores = CONVERSACION_VERSIONES.validadores(ConversacionVersiones.CHAT, idConversacion, variante);
+            if (responderSiNoModificado(ctx, validadores.etag(), validadores.modificadoMs())) {
+                return;
+            }
+            if (porOffset) {
+                var mensajes = CHAT_REPOSITORY.listarMensajes(idConversacion, limit, Math.max(0, offset));
+                handleResponse(ctx, ApiResponse.success(200, "Historial de mensajes", mensajes));
+                return;
+            }
+            var pagina = CHAT_REPOSITORY.listarMensajes(idConversacion, Paginacion.decodificar(cursor), limit);
+            handlePagina(ctx, ApiResponse.success(200, "Historial de mensajes", pagina));
         });
 
         app.post("/chat/bot/mensajes", ctx -> {
@@ -1240,39 +1393,32 @@ public class DeliveryApi {
 
                 // 4. Obtener el historial de la conversacion para el contexto de la IA
                 System.err.println("🔵 DEBUG: Obteniendo historial...");
-                List<Map<String, Object>> history = CHAT_REPOSITORY.listarMensajes(idConversacion);
+                List<MensajeChatFila> history = CHAT_REPOSITORY.listarMensajes(idConversacion);
                 if (history == null) {
                     history = java.util.Collections.emptyList();
                 }
                 System.err.println("🔵 DEBUG: Historial obtenido, " + history.size() + " mensajes");
 
-                // 5. Generar la respuesta del bot
-                System.err.println("🔵 DEBUG: Generando respuesta del bot...");
-                String botReply = CHATBOT_RESPONDER.generateReply(req.mensaje, history, req.idRemitente);
-                System.err.println("🔵 DEBUG: Bot reply generado: " + botReply);
-
-                // 6. Guardar la respuesta del bot usando el usuario del bot
-                System.err.println("🔵 DEBUG: Guardando respuesta del bot...");
-                long botUserId = CHAT_REPOSITORY.ensureBotUser();
-                CHAT_REPOSITORY.insertMensaje(idConversacion, botUserId, req.idRemitente.longValue(), botReply);
-                System.err.println("🔵 DEBUG: Respuesta del bot guardada");
-
-                // 7. Preparar respuesta con telemetría
-                String modelUsed = GEMINI_SERVICE.getLastModelUsed();
-                System.err.println("✅ DEBUG: modelUsed = " + modelUsed);
-                System.err.println("✅ DEBUG: botReply = " + botReply);
-                if (modelUsed != null && !modelUsed.isBlank()) {
-                    ctx.header("X-LLM-Model", modelUsed);
+                // 5. Si la conversación ya tiene mensajes en la cola, éste va detrás para responder en orden
+                if (COLA_LLM.tieneAbiertos(idConversacion)) {
+                    long idJob = COLA_LLM.encolar(idConversacion, req.idRemitente, req.mensaje);
+                    if (idJob > 0) {
+                        responderEncolado(ctx, idConversacion, idJob);
+                        return;
+                    }
                 }
 
-                // Evitar NPE: usar HashMap (acepta null) y asegurar defaults
-                System.err.println("✅ DEBUG: Creando HashMap para respuesta...");
-                java.util.Map<String, Object> result = new java.util.HashMap<>();
-                result.put("id_conversacion", idConversacion);
-                result.put("bot_reply", botReply != null ? botReply : "Estoy aquí para ayudarte con tu pedido.");
-                result.put("model_used", (modelUsed != null && !modelUsed.isBlank()) ? modelUsed : "predefinido");
-                System.err.println("✅ DEBUG: HashMap creado exitosamente");
-                handleResponse(ctx, ApiResponse.success(201, "Respuesta generada", result));
+                // 6. Generar la respuesta del bot sin retener el hilo de Jetty mientras responde la IA
+                System.err.println("🔵 DEBUG: Generando respuesta del bot...");
+                final long conversacion = idConversacion;
+                final int idRemitente = req.idRemitente;
+                final List<MensajeChatFila> historial = history;
+                ctx.future(() -> {
+                    CompletableFuture<GeminiService.Respuesta> respuesta = CHATBOT_RESPONDER.generateReplyAsync(
+                            req.mensaje, historial, idRemitente, CHATBOT_PLAZO_MS);
+                    cancelarAlDesconectar(ctx, respuesta);
+                    return respuesta.thenAccept(r -> responderBot(ctx, conversacion, idRemitente, req.mensaje, r));
+                });
 
             } catch (SQLException e) {
                 System.err.println("❌ Error SQL en chatbot: " + e.getMessage());
@@ -1390,6 +1536,133 @@ public class DeliveryApi {
     }
 
     // --- HELPERS ---
+    /**
+     * Usuario autenticado de la request (Authorization: Bearer &lt;token&gt;), o
+     * {@code null}. Se resuelve la primera vez que se pide y queda memorizado en
+     * el contexto; un token inválido equivale a petición anónima.
+     */
+    private static Usuario authUser(Context ctx) {
+        if (ctx.attribute(AUTH_RESUELTO) == null) {
+            ctx.attribute(AUTH_RESUELTO, Boolean.TRUE);
+            String auth = ctx.header("Authorization");
+            if (auth != null && auth.toLowerCase(Locale.ROOT).startsWith("bearer ")) {
+                try {
+                    ctx.attribute(AUTH_USER, USUARIO_CONTROLLER.validarToken(auth.substring(7).trim()));
+                } catch (ApiException ex) {
+                    // Token inválido o usuario desactivado: se trata como anónimo
+                }
+            }
+        }
+        return ctx.attribute(AUTH_USER);
+    }
+
+    /**
+     * Titular de una Idempotency-Key: el usuario autenticado o, en las rutas
+     * públicas de chat, el {@code idRemitente} del cuerpo. {@code null} si no
+     * hay ninguno (la petición se ejecuta sin idempotencia).
+     */
+    private static String titularIdempotencia(Context ctx) {
+        Usuario auth = authUser(ctx);
+        if (auth != null) {
+            return "u" + auth.getIdUsuario();
+        }
+        try {
+            JsonElement body = JsonParser.parseString(ctx.body());
+            if (body.isJsonObject() && body.getAsJsonObject().get("idRemitente") instanceof JsonPrimitive p) {
+                Long idRemitente = parseNullableLong(p.getAsString());
+                return idRemitente != null ? "r" + idRemitente : null;
+            }
+        } catch (JsonParseException e) {
+            // Cuerpo inválido: el handler responderá 400
+        }
+        return null;
+    }
+
+    /**
+     * Guarda la respuesta del bot y la envía (pasos 7 y 8 del chatbot; se
+     * ejecuta cuando termina la IA). Si la IA no tenía cupo, el mensaje pasa a
+     * la cola LLM y se responde 202: la respuesta llegará al historial.
+     */
+    private static void responderBot(Context ctx, long idConversacion, int idRemitente, String mensaje,
+            GeminiService.Respuesta respuesta) {
+        if (respuesta.sinCupo() && COLA_LLM.isActiva()) {
+            try {
+                long idJob = COLA_LLM.encolar(idConversacion, idRemitente, mensaje);
+                if (idJob > 0) {
+                    responderEncolado(ctx, idConversacion, idJob);
+                    return;
+                }
+            } catch (SQLException e) {
+                System.err.println("⚠️ No se pudo encolar el mensaje del chatbot: " + e.getMessage());
+            }
+        }
+        String botReply = respuesta.texto();
+        System.err.println("🔵 DEBUG: Bot reply generado: " + botReply);
+        try {
+            // 7. Guardar la respuesta del bot usando el usuario del bot
+            long botUserId = CHAT_REPOSITORY.ensureBotUser();
+            CHAT_REPOSITORY.insertMensaje(idConversacion, botUserId, (long) idRemitente, botReply);
+        } catch (SQLException e) {
+            System.err.println("❌ Error SQL en chatbot: " + e.getMessage());
+            throw new ApiException(500, "Error en la base de datos del chatbot: " + e.getMessage(), e);
+        }
+
+        // 8. Preparar respuesta con telemetría
+        String modelUsed = respuesta.modelo();
+        if (modelUsed != null && !modelUsed.isBlank()) {
+            ctx.header("X-LLM-Model", modelUsed);
+        }
+        // Evitar NPE: usar HashMap (acepta null) y asegurar defaults
+        Map<String, Object> result = new HashMap<>();
+        result.put("id_conversacion", idConversacion);
+        result.put("bot_reply", botReply != null ? botReply : "Estoy aquí para ayudarte con tu pedido.");
+        result.put("model_used", (modelUsed != null && !modelUsed.isBlank()) ? modelUsed : "predefinido");
+        handleResponse(ctx, ApiResponse.success(201, "Respuesta generada", result));
+    }
+
+    /**
+     * 202: el mensaje quedó en la cola LLM y la respuesta llegará al historial.
+     */
+    private static void responderEncolado(Context ctx, long idConversacion, long idJob) {
+        Map<String, Object> result = new HashMap<>();
+        result.put("id_conversacion", idConversacion);
+        result.put("id_job", idJob);
+        result.put("encolado", true);
+        result.put("bot_reply", "🤖 Estoy pensando... te respondo en este chat en unos segundos.");
+        result.put("model_used", "cola");
+        handleResponse(ctx, ApiResponse.success(202, "Respuesta en cola", result));
+    }
+
+    /**
+     * Cancela {@code futuro} si la petición asíncrona termina por error o
+     * vencimiento (p. ej. el cliente cerró la conexión), para no seguir
+     * esperando a la IA por nadie.
+     */
+    private static void cancelarAlDesconectar(Context ctx, CompletableFuture<?> futuro) {
+        if (!ctx.req().isAsyncStarted()) {
+            return;
+        }
+        ctx.req().getAsyncContext().addListener(new AsyncListener() {
+            @Override
+            public void onComplete(AsyncEvent event) {
+            }
+
+            @Override
+            public void onTimeout(AsyncEvent event) {
+                futuro.cancel(true);
+            }
+
+            @Override
+            public void onError(AsyncEvent event) {
+                futuro.cancel(true);
+            }
+
+            @Override
+            public void onStartAsync(AsyncEvent event) {
+            }
+        });
+    }
+
     private static void handleResponse(Context ctx, ApiResponse<?> response) {
         if (response == null) {
             throw new ApiException(500, "Respuesta nula del controlador");
@@ -1400,9 +1673,121 @@ public class DeliveryApi {
 
         // Si es 204 No Content, no enviamos body para respetar el estandar HTTP
         if (statusCode == 204) {
+            Idempotencia.capturar(ctx, new byte[0]);
+            return;
+        }
+        // Se serializa una sola vez a bytes (sin String intermedio); ctx.result mantiene la compresión de Javalin
+        byte[] json = Json.aBytes(response);
+        Idempotencia.capturar(ctx, json);
+        if (ctx.method() != io.javalin.http.HandlerType.GET || statusCode != 200) {
+            ctx.contentType("application/json");
+            ctx.result(json);
             return;
         }
-        ctx.json(response);
+        // GET condicional: ETag del contenido salvo que el handler ya fijara uno por versión
+        String etag = ctx.res().getHeader("ETag");
+        if (etag == null) {
+            etag = HttpCondicional.etag(json);
+        }
+        if (HttpCondicional.noModificado(ctx, etag, 0)) {
+            HttpCondicional.responderNoModificado(ctx, etag, 0);
+            return;
+        }
+        ctx.header("ETag", etag);
+        ctx.contentType("application/json");
+        ctx.result(json);
+    }
+
+    /**
+     * Responde una página: el cuerpo conserva la lista de siempre en {@code data}
+     * y el cursor de la página siguiente va en la cabecera {@code X-Next-Cursor}
+     * (ausente en la última página).
+     */
+    private static void handlePagina(Context ctx, ApiResponse<? extends Pagina<?>> response) {
+        Pagina<?> pagina = response.getData();
+        if (pagina.getSiguienteCursor() != null) {
+            ctx.header(Paginacion.HEADER_SIGUIENTE, pagina.getSiguienteCursor());
+        }
+        ctx.header("Access-Control-Expose-Headers", Paginacion.HEADER_SIGUIENTE);
+        handleResponse(ctx, ApiResponse.success(response.getStatus(), response.getMessage(), pagina.getItems()));
+    }
+
+    private static Paginacion.Cursor cursor(Context ctx) {
+        return Paginacion.decodificar(ctx.queryParam("cursor"));
+    }
+
+    /**
+     * {@code expand=detalles} en los listados de pedidos.
+     */
+    private static boolean expandirDetalles(Context ctx) {
+        for (String expand : ctx.queryParams("expand")) {
+            for (String valor : expand.split(",")) {
+                if ("detalles".equalsIgnoreCase(valor.trim())) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Identificadores de {@code ids}, separados por comas o repitiendo el parámetro.
+     */
+    private static List<Integer> idsPedido(Context ctx) {
+        List<Integer> ids = new ArrayList<>();
+        for (String param : ctx.queryParams("ids")) {
+            for (String valor : param.split(",")) {
+                if (valor.isBlank()) {
+                    continue;
+                }
+                Integer id = parseNullableInt(valor.trim());
+                if (id == null) {
+                    throw new ApiException(400, "ids debe contener números enteros: " + valor.trim());
+                }
+                ids.add(id);
+            }
+        }
+        return ids;
+    }
+
+    private static int limite(Context ctx) {
+        String limit = ctx.queryParam("limit");
+        Integer solicitado = parseNullableInt(limit);
+        if (limit != null && solicitado == null) {
+            throw new ApiException(400, "limit debe ser un número entero");
+        }
+        return Paginacion.limite(solicitado);
+    }
+
+    /**
+     * Responde 304 si el cliente ya tiene la versión {@code etag} de un recurso
+     * versionado, sin ejecutar la consulta. Si no, deja fijados los validadores
+     * para que {@link #handleResponse} los use.
+     *
+     * @return {@code true} si ya se respondió 304.
+     */
+    private static boolean responderSiNoModificado(Context ctx, String etag, long lastModifiedMs) {
+        if (HttpCondicional.noModificado(ctx, etag, lastModifiedMs)) {
+            HttpCondicional.responderNoModificado(ctx, etag, lastModifiedMs);
+            return true;
+        }
+        HttpCondicional.escribirValidadores(ctx, etag, lastModifiedMs);
+        return false;
+    }
+
+    /**
+     * Escribe una respuesta ya serializada de {@link CatalogoCache} con su ETag,
+     * sin volver a pasar por Gson.
+     */
+    private static void responderCatalogo(Context ctx, CatalogoCache.Snapshot snapshot) {
+        if (HttpCondicional.noModificado(ctx, snapshot.getEtag(), snapshot.getLastModifiedMs())) {
+            HttpCondicional.responderNoModificado(ctx, snapshot.getEtag(), snapshot.getLastModifiedMs());
+            return;
+        }
+        ctx.status(io.javalin.http.HttpStatus.forStatus(snapshot.getStatus()));
+        HttpCondicional.escribirValidadores(ctx, snapshot.getEtag(), snapshot.getLastModifiedMs());
+        ctx.contentType("application/json");
+        ctx.result(snapshot.getJson());
     }
 
     private static Ubicacion toUbicacion(Payloads.UbicacionRequest r) {
@@ -1502,6 +1887,20 @@ public class DeliveryApi {
         }
     }
 
+    private static Double parseNullableDouble(Object value) {
+        if (value == null) {
+            return null;
+        }
+        if (value instanceof Number number) {
+            return number.doubleValue();
+        }
+        try {
+            return Double.parseDouble(value.toString().trim());
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
     private static Integer parseNullableInt(Object value) {
         if (value == null) {
             return null;
@@ -34,4 +34,23 @@ public final class Config {
         String v = get(key);
         return (v == null || v.isBlank()) ? fallback : v.trim();
     }
+
+    /**
+     * Resuelve una clave con prioridad System properties > ENV > application.properties > fallback.
+     */
+    public static String resolve(String key, String fallback) {
+        String v = System.getProperty(key);
+        if (v != null && !v.isBlank()) return v.trim();
+        v = System.getenv(key);
+        if (v != null && !v.isBlank()) return v.trim();
+        return getOrDefault(key, fallback);
+    }
+
+    public static int resolveInt(String key, int fallback) {
+        try { return Integer.parseInt(resolve(key, String.valueOf(fallback))); } catch (Exception ignored) { return fallback; }
+    }
+
+    public static long resolveLong(String key, long fallback) {
+        try { return Long.parseLong(resolve(key, String.valueOf(fallback))); } catch (Exception ignored) { return fallback; }
+    }
 }
@@ -1,7 +1,18 @@
 package com.mycompany.delivery.api.config;
 
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 import com.zaxxer.hikari.HikariConfig;
 import com.zaxxer.hikari.HikariDataSource;
@@ -9,11 +20,21 @@ import com.zaxxer.hikari.HikariDataSource;
 /**
  * Gestiona el pool HikariCP reutilizado por toda la API.
  * Centralizar aquí la reconexión evita fugas de conexiones y mejora la estabilidad.
+ * <p>
+ * Con hilos virtuales ({@code SERVER_VIRTUAL_THREADS}) puede haber miles de
+ * peticiones pidiendo conexión a la vez. Un semáforo justo con tantos permisos
+ * como conexiones tiene el pool las pone en fila antes de llegar a Hikari
+ * (esperar en él sólo estaciona el hilo virtual) y con un plazo propio
+ * ({@code DB_QUEUE_TIMEOUT_MS}) más largo que {@code DB_CONN_TIMEOUT_MS}. El
+ * permiso se devuelve al cerrar la conexión.
  */
 public final class Database {
 
     private static final Object LOCK = new Object();
     private static HikariDataSource dataSource;
+    private static volatile Semaphore permisos; // null: sin límite propio (hilos de plataforma)
+    private static long esperaPermisoMs;
+    private static final AtomicLong esperasVencidas = new AtomicLong();
 
     static {
         initialiseDataSource();
@@ -57,6 +78,9 @@ public final class Database {
         }
 
         dataSource = new HikariDataSource(config);
+        boolean limitar = Boolean.parseBoolean(getEnv("DB_LIMITAR_CONCURRENCIA", getEnv("SERVER_VIRTUAL_THREADS", "false")));
+        permisos = limitar ? new Semaphore(maxPool, true) : null;
+        esperaPermisoMs = parseLong(getEnv("DB_QUEUE_TIMEOUT_MS", "30000"), 30000);
         System.out.println("✅ Pool de conexiones inicializado/reiniciado correctamente.");
     }
 
@@ -93,7 +117,72 @@ public final class Database {
      */
     public static Connection getConnection() throws SQLException {
         ensureDataSource();
-        return dataSource.getConnection();
+        Semaphore s = permisos;
+        if (s == null) {
+            return dataSource.getConnection();
+        }
+        try {
+            if (!s.tryAcquire(esperaPermisoMs, TimeUnit.MILLISECONDS)) {
+                esperasVencidas.incrementAndGet();
+                throw new SQLTransientConnectionException(
+                        "Tiempo de espera agotado en la fila de conexiones (" + esperaPermisoMs + " ms)");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLTransientConnectionException("Interrumpido esperando una conexión", e);
+        }
+        try {
+            return conPermiso(dataSource.getConnection(), s);
+        } catch (SQLException | RuntimeException e) {
+            s.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Envuelve la conexión para devolver el permiso una sola vez al cerrarla.
+     */
+    private static Connection conPermiso(Connection conexion, Semaphore s) {
+        AtomicBoolean liberado = new AtomicBoolean();
+        InvocationHandler handler = (proxy, method, args) -> {
+            if ("close".equals(method.getName()) && method.getParameterCount() == 0) {
+                try {
+                    conexion.close();
+                } finally {
+                    if (liberado.compareAndSet(false, true)) {
+                        s.release();
+                    }
+                }
+                return null;
+            }
+            return invocar(conexion, method, args);
+        };
+        return (Connection) Proxy.newProxyInstance(Database.class.getClassLoader(), new Class<?>[] { Connection.class }, handler);
+    }
+
+    private static Object invocar(Connection conexion, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(conexion, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    public static Map<String, Object> metricas() {
+        Map<String, Object> m = new HashMap<>();
+        HikariDataSource ds = dataSource;
+        if (ds != null && ds.getHikariPoolMXBean() != null) {
+            m.put("activas", ds.getHikariPoolMXBean().getActiveConnections());
+            m.put("inactivas", ds.getHikariPoolMXBean().getIdleConnections());
+            m.put("esperandoPool", ds.getHikariPoolMXBean().getThreadsAwaitingConnection());
+        }
+        Semaphore s = permisos;
+        if (s != null) {
+            m.put("permisosLibres", s.availablePermits());
+            m.put("enFila", s.getQueueLength());
+            m.put("esperasVencidas", esperasVencidas.get());
+        }
+        return m;
     }
 
     /**
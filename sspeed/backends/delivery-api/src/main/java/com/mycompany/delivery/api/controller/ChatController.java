@@ -1,6 +1,7 @@
 package com.mycompany.delivery.api.controller;
 
 import com.mycompany.delivery.api.model.Mensaje;
+import com.mycompany.delivery.api.model.MensajeChatFila;
 import com.mycompany.delivery.api.repository.ChatRepository;
 import java.util.List;
 import java.util.Map;
@@ -20,9 +21,9 @@ public class ChatController {
      * Obtiene todos los mensajes de un pedido específico.
      *
      * @param idPedido El ID del pedido del cual obtener los mensajes
-     * @return Una lista de mensajes en formato de Map
+     * @return Los mensajes del chat del pedido
      */
-    public List<Map<String, Object>> obtenerChatPorPedido(long idPedido) {
+    public List<MensajeChatFila> obtenerChatPorPedido(long idPedido) {
         return chatRepository.obtenerChatPorPedido(idPedido);
     }
 
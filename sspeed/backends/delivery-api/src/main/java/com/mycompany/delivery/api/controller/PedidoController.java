@@ -1,20 +1,29 @@
 package com.mycompany.delivery.api.controller;
 
+import java.sql.Array;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.sql.Types;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 
 import com.mycompany.delivery.api.config.Database;
 import com.mycompany.delivery.api.model.DetallePedido;
+import com.mycompany.delivery.api.model.DetallePedidoFila;
 import com.mycompany.delivery.api.model.Pedido;
+import com.mycompany.delivery.api.model.PedidoDetalleFila;
+import com.mycompany.delivery.api.model.PedidoFila;
+import com.mycompany.delivery.api.repository.PedidoRepository;
+import com.mycompany.delivery.api.services.NegocioStatsStore;
+import com.mycompany.delivery.api.services.UbicacionLiveStore;
 import com.mycompany.delivery.api.util.ApiException;
 import com.mycompany.delivery.api.util.ApiResponse;
+import com.mycompany.delivery.api.util.Pagina;
+import com.mycompany.delivery.api.util.Paginacion;
 
 /**
  * Controlador para manejar la lógica de negocio de los pedidos.
@@ -22,96 +31,20 @@ import com.mycompany.delivery.api.util.ApiResponse;
  */
 public class PedidoController {
 
+    private static final PedidoRepository PEDIDO_REPOSITORY = new PedidoRepository();
+    private static final int MAX_PEDIDOS_DETALLE = 100;
+
     // ===============================
-    // CREAR PEDIDO (versión robusta y transaccional)
+    // CREAR PEDIDO (una sola sentencia, precios del servidor)
     // ===============================
     public ApiResponse<Pedido> crearPedido(Pedido pedido, List<DetallePedido> detalles) {
         if (pedido == null || detalles == null || detalles.isEmpty()) {
             throw new ApiException(400, "Datos del pedido incompletos o inválidos");
         }
 
-        // Recalcular el total en el servidor para seguridad
-        final double shippingCost = 2.0;
-        double subtotal = detalles.stream().mapToDouble(DetallePedido::getSubtotal).sum();
-        double totalFinal = subtotal + shippingCost;
-        pedido.setTotal(totalFinal); // Actualiza el total en el objeto
-
-        String sqlPedido = """
-            INSERT INTO pedidos
-            (id_cliente, id_delivery, id_ubicacion, estado, direccion_entrega, metodo_pago, total)
-            VALUES (?, ?, ?, ?, ?, ?, ?)
-            RETURNING id_pedido
-        """;
-
-        // ✅ CORREGIDO: detalle_pedido ➜ detalle_pedidos
-        String sqlDetalle = """
-            INSERT INTO detalle_pedidos 
-            (id_pedido, id_producto, cantidad, precio_unitario, subtotal)
-            VALUES (?, ?, ?, ?, ?)
-        """;
-
-        try (var conn = Database.getConnection()) {
-            conn.setAutoCommit(false);
-            int idPedidoGenerado;
-
-            // ==========================
-            // 1️⃣ Insertar pedido
-            // ==========================
-            try (PreparedStatement stmtPedido = conn.prepareStatement(sqlPedido)) {
-               stmtPedido.setInt(1, pedido.getIdCliente());
-
-                if (pedido.getIdDelivery() != null) {
-                    stmtPedido.setInt(2, pedido.getIdDelivery());
-                } else {
-                    stmtPedido.setNull(2, Types.INTEGER);
-                }
-
-                if (pedido.getIdUbicacion() > 0) {
-                    stmtPedido.setInt(3, pedido.getIdUbicacion());
-                } else {
-                    stmtPedido.setNull(3, Types.INTEGER);
-                }
-
-                stmtPedido.setString(4, pedido.getEstado() != null ? pedido.getEstado() : "pendiente");
-                stmtPedido.setString(5, pedido.getDireccionEntrega());
-                stmtPedido.setString(6, pedido.getMetodoPago());
-                stmtPedido.setDouble(7, pedido.getTotal()); // Añadir el total calculado
-
-                try (var rs = stmtPedido.executeQuery()) {
-                    if (!rs.next()) {
-                        conn.rollback();
-                        throw new SQLException("No se generó el ID del pedido");
-                    }
-                    idPedidoGenerado = rs.getInt("id_pedido");
-                }
-            }
-
-            // ==========================
-            // 2️⃣ Insertar detalles
-            // ==========================
-            try (var stmtDetalle = conn.prepareStatement(sqlDetalle)) {
-                for (var d : detalles) {
-                    stmtDetalle.setInt(1, idPedidoGenerado);
-                    stmtDetalle.setInt(2, d.getIdProducto());
-                    stmtDetalle.setInt(3, d.getCantidad());
-                    stmtDetalle.setDouble(4, d.getPrecioUnitario());
-                    stmtDetalle.setDouble(5, d.getSubtotal());
-                    stmtDetalle.addBatch();
-                }
-                stmtDetalle.executeBatch();
-            }
-
-            // ==========================
-            // 3️⃣ Confirmar transacción
-            // ==========================
-            conn.commit();
-
-            // ==========================
-            // 4️⃣ Devolver respuesta
-            // ==========================
-            pedido.setIdPedido(idPedidoGenerado);
-            pedido.setDetalles(detalles);
-
+        try {
+            // Precio unitario, subtotales y total se recalculan con los precios vigentes
+            PEDIDO_REPOSITORY.crearPedido(pedido, detalles);
             return ApiResponse.success(201, "✅ Pedido creado correctamente", pedido);
 
         } catch (SQLException e) {
@@ -123,17 +56,22 @@ public class PedidoController {
     // ===============================
     // LISTAR TODOS LOS PEDIDOS
     // ===============================
-    public ApiResponse<List<Pedido>> getPedidos() {
-        String sql = "SELECT id_pedido, id_cliente, id_delivery, id_ubicacion, created_at, updated_at, estado, total, direccion_entrega, metodo_pago FROM pedidos ORDER BY created_at DESC";
+    /**
+     * Página de pedidos, del más reciente al más antiguo, a continuación de {@code desde}.
+     */
+    public ApiResponse<? extends Pagina<?>> getPedidos(Paginacion.Cursor desde, int limite, boolean conDetalles) {
+        String sql = """
+            SELECT id_pedido, id_cliente, id_delivery, id_ubicacion, created_at, updated_at, estado, total, direccion_entrega, metodo_pago
+            FROM pedidos
+            %s
+            ORDER BY created_at DESC, id_pedido DESC
+            LIMIT ?
+        """.formatted(desde != null ? "WHERE (created_at, id_pedido) < (?, ?)" : "");
         try (var conn = Database.getConnection();
-             var stmt = conn.prepareStatement(sql);
-             var rs = stmt.executeQuery()) {
-
-            var pedidos = new ArrayList<Pedido>();
-            while (rs.next()) {
-                pedidos.add(mapRowToPedido(rs));
-            }
-            return ApiResponse.success(200, "Pedidos obtenidos correctamente", pedidos);
+             var stmt = conn.prepareStatement(sql)) {
+            int i = bindCursor(stmt, 1, desde);
+            stmt.setInt(i, limite + 1);
+            return ApiResponse.success(200, "Pedidos obtenidos correctamente", leerPagina(conn, stmt, limite, conDetalles));
 
         } catch (SQLException e) {
             throw new ApiException(500, "Error al listar pedidos", e);
@@ -143,18 +81,12 @@ public class PedidoController {
     // ===============================
     // LISTAR POR CLIENTE
     // ===============================
-    public ApiResponse<List<Pedido>> getPedidosPorCliente(int idCliente) {
+    public ApiResponse<? extends List<?>> getPedidosPorCliente(int idCliente, boolean conDetalles) {
         String sql = "SELECT id_pedido, id_cliente, id_delivery, id_ubicacion, created_at, updated_at, estado, total, direccion_entrega, metodo_pago FROM pedidos WHERE id_cliente = ? ORDER BY created_at DESC";
         try (var conn = Database.getConnection();
              var stmt = conn.prepareStatement(sql)) {
             stmt.setInt(1, idCliente);
-            try (var rs = stmt.executeQuery()) {
-                var pedidos = new ArrayList<Pedido>();
-                while (rs.next()) {
-                    pedidos.add(mapRowToPedido(rs));
-                }
-                return ApiResponse.success(200, "Pedidos por cliente obtenidos", pedidos);
-            }
+            return ApiResponse.success(200, "Pedidos por cliente obtenidos", leerPedidos(conn, stmt, conDetalles));
 
         } catch (SQLException e) {
             throw new ApiException(500, "Error al obtener pedidos por cliente", e);
@@ -164,18 +96,22 @@ public class PedidoController {
     // ===============================
     // LISTAR POR ESTADO
     // ===============================
-    public ApiResponse<List<Pedido>> getPedidosPorEstado(String estado) {
-        String sql = "SELECT id_pedido, id_cliente, id_delivery, id_ubicacion, created_at, updated_at, estado, total, direccion_entrega, metodo_pago FROM pedidos WHERE estado = ?";
+    public ApiResponse<? extends Pagina<?>> getPedidosPorEstado(String estado, Paginacion.Cursor desde, int limite,
+            boolean conDetalles) {
+        String sql = """
+            SELECT id_pedido, id_cliente, id_delivery, id_ubicacion, created_at, updated_at, estado, total, direccion_entrega, metodo_pago
+            FROM pedidos
+            WHERE estado = ?
+            %s
+            ORDER BY created_at DESC, id_pedido DESC
+            LIMIT ?
+        """.formatted(desde != null ? "AND (created_at, id_pedido) < (?, ?)" : "");
         try (var conn = Database.getConnection();
              var stmt = conn.prepareStatement(sql)) {
             stmt.setString(1, estado);
-            try (var rs = stmt.executeQuery()) {
-                var pedidos = new ArrayList<Pedido>();
-                while (rs.next()) {
-                    pedidos.add(mapRowToPedido(rs));
-                }
-                return ApiResponse.success(200, "Pedidos por estado obtenidos", pedidos);
-            }
+            int i = bindCursor(stmt, 2, desde);
+            stmt.setInt(i, limite + 1);
+            return ApiResponse.success(200, "Pedidos por estado obtenidos", leerPagina(conn, stmt, limite, conDetalles));
 
         } catch (SQLException e) {
             throw new ApiException(500, "Error al listar pedidos por estado", e);
@@ -186,16 +122,26 @@ public class PedidoController {
     // ACTUALIZAR ESTADO
     // ===============================
     public ApiResponse<Void> updateEstadoPedido(int idPedido, String nuevoEstado) {
-        String sql = "UPDATE pedidos SET estado = ? WHERE id_pedido = ?";
+        // Devuelve el estado anterior para las estadísticas por negocio
+        String sql = """
+            UPDATE pedidos p SET estado = ?
+            FROM (SELECT id_pedido, estado FROM pedidos WHERE id_pedido = ? FOR UPDATE) previo
+            WHERE p.id_pedido = previo.id_pedido
+            RETURNING previo.estado
+        """;
         try (var conn = Database.getConnection();
              var stmt = conn.prepareStatement(sql)) {
             stmt.setString(1, nuevoEstado);
             stmt.setInt(2, idPedido);
-            int rows = stmt.executeUpdate();
-
-            if (rows == 0)
-                throw new ApiException(404, "Pedido no encontrado");
+            try (var rs = stmt.executeQuery()) {
+                if (!rs.next())
+                    throw new ApiException(404, "Pedido no encontrado");
+                NegocioStatsStore.getInstance().estadoCambiado(idPedido, rs.getString(1), nuevoEstado);
+            }
 
+            if ("entregado".equals(nuevoEstado) || "cancelado".equals(nuevoEstado)) {
+                UbicacionLiveStore.getInstance().olvidarPedido(idPedido);
+            }
             return ApiResponse.success("Estado actualizado correctamente");
 
         } catch (SQLException e) {
@@ -207,16 +153,28 @@ public class PedidoController {
     // ASIGNAR DELIVERY
     // ===============================
     public ApiResponse<Void> asignarPedido(int idPedido, int idDelivery) {
-        String sql = "UPDATE pedidos SET id_delivery = ? WHERE id_pedido = ?";
+        // Chequeo optimista: sólo se asigna si nadie más (u otro ciclo del despachador) lo tomó
+        String sql = "UPDATE pedidos SET id_delivery = ? WHERE id_pedido = ? AND (id_delivery IS NULL OR id_delivery = ?)";
         try (var conn = Database.getConnection();
              var stmt = conn.prepareStatement(sql)) {
             stmt.setInt(1, idDelivery);
             stmt.setInt(2, idPedido);
+            stmt.setInt(3, idDelivery);
             int rows = stmt.executeUpdate();
 
-            if (rows == 0)
-                throw new ApiException(404, "Pedido no encontrado");
+            if (rows == 0) {
+                try (var check = conn.prepareStatement("SELECT 1 FROM pedidos WHERE id_pedido = ?")) {
+                    check.setInt(1, idPedido);
+                    try (var rs = check.executeQuery()) {
+                        if (!rs.next()) {
+                            throw new ApiException(404, "Pedido no encontrado");
+                        }
+                    }
+                }
+                throw new ApiException(409, "El pedido ya fue asignado a otro repartidor");
+            }
 
+            UbicacionLiveStore.getInstance().registrarAsignacion(idPedido, idDelivery);
             return ApiResponse.success("Pedido asignado correctamente");
 
         } catch (SQLException e) {
@@ -235,71 +193,52 @@ public class PedidoController {
         }
     }
 
-    public ApiResponse<List<Pedido>> listarPedidosPorDelivery(int idDelivery) {
+    public ApiResponse<? extends List<?>> listarPedidosPorDelivery(int idDelivery, boolean conDetalles) {
         try {
-            return ApiResponse.success(200, "Pedidos por delivery", listarPedidosPorDeliveryRaw(idDelivery));
+            return ApiResponse.success(200, "Pedidos por delivery", listarPedidosPorDeliveryRaw(idDelivery, conDetalles));
         } catch (SQLException e) {
             throw new ApiException(500, "Error al listar pedidos por delivery", e);
         }
     }
 
-    public ApiResponse<Map<String, Object>> obtenerPedidoConDetalle(int idPedido) {
+    public ApiResponse<PedidoDetalleFila> obtenerPedidoConDetalle(int idPedido) {
         if (idPedido <= 0) {
             throw new ApiException(400, "Identificador de pedido invalido");
         }
-
-     String pedidoSql = """
-         SELECT id_pedido, id_cliente, id_delivery, id_ubicacion, created_at, updated_at,
-             estado, total, direccion_entrega, metodo_pago
-         FROM pedidos
-         WHERE id_pedido = ?
-         """;
-
-        String detallesSql = """
-            SELECT dp.id_detalle, dp.id_producto, dp.cantidad, dp.precio_unitario, dp.subtotal,
-                   pr.nombre AS nombre_producto, pr.imagen_url
-            FROM detalle_pedidos dp
-            JOIN productos pr ON pr.id_producto = dp.id_producto
-            WHERE dp.id_pedido = ?
-            ORDER BY dp.id_detalle
-            """;
-
-        try (var conn = Database.getConnection();
-             var pedidoStmt = conn.prepareStatement(pedidoSql);
-             var detalleStmt = conn.prepareStatement(detallesSql)) {
-
-            pedidoStmt.setInt(1, idPedido);
-            Map<String, Object> pedidoMap;
-            try (var rs = pedidoStmt.executeQuery()) {
-                if (rs.next()) {
-                    pedidoMap = mapPedido(rs);
-                } else {
-                    throw new ApiException(404, "Pedido no encontrado con ID: " + idPedido);
-                }
+        try {
+            List<PedidoDetalleFila> encontrados = cargarPedidosConDetalle(List.of(idPedido));
+            if (encontrados.isEmpty()) {
+                throw new ApiException(404, "Pedido no encontrado con ID: " + idPedido);
             }
+            return ApiResponse.success(200, "Pedido obtenido", encontrados.get(0));
+        } catch (SQLException e) {
+            throw new ApiException(500, "Error al obtener el pedido", e);
+        }
+    }
 
-            detalleStmt.setInt(1, idPedido);
-            List<Map<String, Object>> detalles = new ArrayList<>();
-            try (ResultSet rs = detalleStmt.executeQuery()) {
-                while (rs.next()) {
-                    var det = new HashMap<String, Object>();
-                    det.put("id_detalle", rs.getInt("id_detalle"));
-                    det.put("id_producto", rs.getInt("id_producto"));
-                    det.put("cantidad", rs.getInt("cantidad"));
-                    det.put("precio_unitario", rs.getDouble("precio_unitario"));
-                    det.put("subtotal", rs.getDouble("subtotal"));
-                    det.put("nombre_producto", rs.getString("nombre_producto"));
-                    det.put("imagen_url", rs.getString("imagen_url"));
-                    detalles.add(det);
-                }
+    // ===============================
+    // DETALLE DE VARIOS PEDIDOS
+    // ===============================
+    /**
+     * Pedidos con sus líneas en el orden de {@code ids}; los que no existen se
+     * omiten. Siempre dos consultas, sea cual sea el número de pedidos.
+     */
+    public ApiResponse<List<PedidoDetalleFila>> obtenerPedidosConDetalle(List<Integer> ids) {
+        if (ids == null || ids.isEmpty()) {
+            throw new ApiException(400, "ids es obligatorio");
+        }
+        if (ids.size() > MAX_PEDIDOS_DETALLE) {
+            throw new ApiException(400, "No se pueden pedir más de " + MAX_PEDIDOS_DETALLE + " pedidos a la vez");
+        }
+        for (Integer id : ids) {
+            if (id == null || id <= 0) {
+                throw new ApiException(400, "Identificador de pedido invalido: " + id);
             }
-
-            var out = new HashMap<String, Object>();
-            out.put("pedido", pedidoMap);
-            out.put("detalles", detalles);
-            return ApiResponse.success(200, "Pedido obtenido", out);
+        }
+        try {
+            return ApiResponse.success(200, "Pedidos obtenidos", cargarPedidosConDetalle(ids));
         } catch (SQLException e) {
-            throw new ApiException(500, "Error al obtener el pedido", e);
+            throw new ApiException(500, "Error al obtener los pedidos", e);
         }
     }
 
@@ -314,51 +253,212 @@ public class PedidoController {
     // ===============================
     // LISTAR PEDIDOS POR NEGOCIO
     // ===============================
-    public ApiResponse<List<Pedido>> getPedidosPorNegocio(int idNegocio) {
+    public ApiResponse<? extends Pagina<?>> getPedidosPorNegocio(int idNegocio, Paginacion.Cursor desde, int limite,
+            boolean conDetalles) {
+        // EXISTS en lugar de JOIN + DISTINCT: permite recorrer pedidos en orden y cortar en LIMIT
         String sql = """
-            SELECT DISTINCT p.id_pedido, p.id_cliente, p.id_delivery, p.id_ubicacion, 
+            SELECT p.id_pedido, p.id_cliente, p.id_delivery, p.id_ubicacion,
                    p.created_at, p.updated_at, p.estado, p.total, p.direccion_entrega, p.metodo_pago
             FROM pedidos p
-            INNER JOIN detalle_pedidos dp ON p.id_pedido = dp.id_pedido
-            INNER JOIN productos pr ON dp.id_producto = pr.id_producto
-            WHERE pr.id_negocio = ?
-            ORDER BY p.created_at DESC
-        """;
+            WHERE EXISTS (
+                SELECT 1
+                FROM detalle_pedidos dp
+                INNER JOIN productos pr ON dp.id_producto = pr.id_producto
+                WHERE dp.id_pedido = p.id_pedido AND pr.id_negocio = ?
+            )
+            %s
+            ORDER BY p.created_at DESC, p.id_pedido DESC
+            LIMIT ?
+        """.formatted(desde != null ? "AND (p.created_at, p.id_pedido) < (?, ?)" : "");
         
         try (var conn = Database.getConnection();
              var stmt = conn.prepareStatement(sql)) {
             stmt.setInt(1, idNegocio);
-            try (var rs = stmt.executeQuery()) {
-                var pedidos = new ArrayList<Pedido>();
+            int i = bindCursor(stmt, 2, desde);
+            stmt.setInt(i, limite + 1);
+            return ApiResponse.success(200, "Pedidos del negocio obtenidos", leerPagina(conn, stmt, limite, conDetalles));
+        } catch (SQLException e) {
+            throw new ApiException(500, "Error al obtener pedidos del negocio", e);
+        }
+    }
+
+    /**
+     * Enlaza la condición {@code (created_at, id_pedido) < (?, ?)} a partir de
+     * {@code pos} (sólo presente si hay cursor); devuelve la siguiente posición libre.
+     * La condición va en el SQL sólo cuando hace falta para que el plan recorra el
+     * índice desde el cursor y no desde el principio.
+     */
+    private static int bindCursor(PreparedStatement stmt, int pos, Paginacion.Cursor desde) throws SQLException {
+        if (desde == null) {
+            return pos;
+        }
+        stmt.setTimestamp(pos, desde.getFecha());
+        stmt.setLong(pos + 1, desde.getId());
+        return pos + 2;
+    }
+
+    /**
+     * Lee hasta {@code limite} pedidos; la consulta pide uno más para saber si hay otra página.
+     * Con {@code conDetalles} cada elemento es un {@link PedidoDetalleFila}, igual que en
+     * {@code /pedidos/detalle}, con las líneas cargadas en una sola consulta.
+     */
+    private Pagina<?> leerPagina(Connection conn, PreparedStatement stmt, int limite, boolean conDetalles)
+            throws SQLException {
+        try (var rs = stmt.executeQuery()) {
+            if (conDetalles) {
+                var pedidos = new ArrayList<PedidoFila>();
+                String siguiente = null;
                 while (rs.next()) {
-                    pedidos.add(mapRowToPedido(rs));
+                    if (pedidos.size() == limite) {
+                        PedidoFila ultimo = pedidos.get(limite - 1);
+                        siguiente = Paginacion.codificar(ultimo.createdAt(), ultimo.idPedido());
+                        break;
+                    }
+                    pedidos.add(mapPedido(rs));
                 }
-                return ApiResponse.success(200, "Pedidos del negocio obtenidos", pedidos);
+                return new Pagina<>(conLineas(conn, pedidos), siguiente);
             }
-        } catch (SQLException e) {
-            throw new ApiException(500, "Error al obtener pedidos del negocio", e);
+            var pedidos = new ArrayList<Pedido>();
+            String siguiente = null;
+            while (rs.next()) {
+                if (pedidos.size() == limite) {
+                    Pedido ultimo = pedidos.get(limite - 1);
+                    siguiente = Paginacion.codificar(ultimo.getFechaPedido(), ultimo.getIdPedido());
+                    break;
+                }
+                pedidos.add(mapRowToPedido(rs));
+            }
+            return new Pagina<>(pedidos, siguiente);
         }
     }
 
-    private Map<String, Object> mapPedido(ResultSet rs) throws SQLException {
-        var map = new HashMap<String, Object>();
-        map.put("id_pedido", rs.getInt("id_pedido"));
-        map.put("id_cliente", rs.getInt("id_cliente"));
-        
-        // Fix: Convertir Long a Integer correctamente
-        Object idDeliveryObj = rs.getObject("id_delivery");
-        map.put("id_delivery", idDeliveryObj != null ? ((Number) idDeliveryObj).intValue() : null);
-        
-        Object idUbicacionObj = rs.getObject("id_ubicacion");
-        map.put("id_ubicacion", idUbicacionObj != null ? ((Number) idUbicacionObj).intValue() : null);
-        
-        map.put("created_at", rs.getTimestamp("created_at"));
-        map.put("updated_at", rs.getTimestamp("updated_at"));
-        map.put("estado", rs.getString("estado"));
-        map.put("total", rs.getDouble("total"));
-        map.put("direccion_entrega", rs.getString("direccion_entrega"));
-        map.put("metodo_pago", rs.getString("metodo_pago"));
-        return map;
+    /**
+     * Todos los pedidos de la consulta; con {@code conDetalles}, como {@link PedidoDetalleFila}.
+     */
+    private List<?> leerPedidos(Connection conn, PreparedStatement stmt, boolean conDetalles) throws SQLException {
+        try (var rs = stmt.executeQuery()) {
+            if (conDetalles) {
+                var pedidos = new ArrayList<PedidoFila>();
+                while (rs.next()) {
+                    pedidos.add(mapPedido(rs));
+                }
+                return conLineas(conn, pedidos);
+            }
+            var pedidos = new ArrayList<Pedido>();
+            while (rs.next()) {
+                pedidos.add(mapRowToPedido(rs));
+            }
+            return pedidos;
+        }
+    }
+
+    /**
+     * Cabeceras y líneas (con nombre e imagen del producto) de {@code ids}: una
+     * consulta para cada una con {@code = ANY(?)}, unidas en memoria.
+     */
+    private List<PedidoDetalleFila> cargarPedidosConDetalle(List<Integer> ids) throws SQLException {
+        String pedidosSql = """
+            SELECT id_pedido, id_cliente, id_delivery, id_ubicacion, created_at, updated_at,
+                   estado, total, direccion_entrega, metodo_pago
+            FROM pedidos
+            WHERE id_pedido = ANY(?)
+            """;
+        Map<Integer, PedidoFila> pedidos = new HashMap<>();
+        Map<Integer, List<DetallePedidoFila>> lineas = Map.of();
+        try (var conn = Database.getConnection()) {
+            Array arrayIds = conn.createArrayOf("integer", ids.toArray());
+            try (var stmt = conn.prepareStatement(pedidosSql)) {
+                stmt.setArray(1, arrayIds);
+                try (var rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        PedidoFila p = mapPedido(rs);
+                        pedidos.put(p.idPedido(), p);
+                    }
+                }
+            }
+            if (!pedidos.isEmpty()) {
+                lineas = cargarLineas(conn, arrayIds);
+            }
+        }
+        List<PedidoDetalleFila> out = new ArrayList<>(pedidos.size());
+        for (Integer id : new LinkedHashSet<>(ids)) {
+            PedidoFila p = pedidos.get(id);
+            if (p != null) {
+                out.add(new PedidoDetalleFila(p, lineas.getOrDefault(id, List.of())));
+            }
+        }
+        return out;
+    }
+
+    /**
+     * Pedidos de un listado ({@code expand=detalles}) con sus líneas, en el
+     * mismo orden y con una sola consulta más.
+     */
+    private static List<PedidoDetalleFila> conLineas(Connection conn, List<PedidoFila> pedidos) throws SQLException {
+        if (pedidos.isEmpty()) {
+            return List.of();
+        }
+        Integer[] ids = pedidos.stream().map(PedidoFila::idPedido).toArray(Integer[]::new);
+        Map<Integer, List<DetallePedidoFila>> lineas = cargarLineas(conn, conn.createArrayOf("integer", ids));
+        List<PedidoDetalleFila> out = new ArrayList<>(pedidos.size());
+        for (PedidoFila p : pedidos) {
+            out.add(new PedidoDetalleFila(p, lineas.getOrDefault(p.idPedido(), List.of())));
+        }
+        return out;
+    }
+
+    /**
+     * Líneas (con nombre e imagen del producto) de los pedidos {@code ids}, por pedido.
+     */
+    private static Map<Integer, List<DetallePedidoFila>> cargarLineas(Connection conn, Array ids) throws SQLException {
+        String sql = """
+            SELECT dp.id_detalle, dp.id_producto, dp.cantidad, dp.precio_unitario, dp.subtotal,
+                   pr.nombre AS nombre_producto, pr.imagen_url, dp.id_pedido
+            FROM detalle_pedidos dp
+            JOIN productos pr ON pr.id_producto = dp.id_producto
+            WHERE dp.id_pedido = ANY(?)
+            ORDER BY dp.id_pedido, dp.id_detalle
+            """;
+        Map<Integer, List<DetallePedidoFila>> lineas = new HashMap<>();
+        try (var stmt = conn.prepareStatement(sql)) {
+            stmt.setArray(1, ids);
+            try (ResultSet rs = stmt.executeQuery()) {
+                // Índices según el orden del SELECT
+                while (rs.next()) {
+                    lineas.computeIfAbsent(rs.getInt(8), k -> new ArrayList<>()).add(new DetallePedidoFila(
+                            rs.getInt(1),
+                            rs.getInt(2),
+                            rs.getInt(3),
+                            rs.getDouble(4),
+                            rs.getDouble(5),
+                            rs.getString(6),
+                            rs.getString(7)));
+                }
+            }
+        }
+        return lineas;
+    }
+
+    /**
+     * Fila de {@code SELECT id_pedido, id_cliente, id_delivery, id_ubicacion, created_at,
+     * updated_at, estado, total, direccion_entrega, metodo_pago}, leída por posición.
+     */
+    private PedidoFila mapPedido(ResultSet rs) throws SQLException {
+        int idDelivery = rs.getInt(3);
+        Integer delivery = rs.wasNull() ? null : idDelivery;
+        int idUbicacion = rs.getInt(4);
+        Integer ubicacion = rs.wasNull() ? null : idUbicacion;
+        return new PedidoFila(
+                rs.getInt(1),
+                rs.getInt(2),
+                delivery,
+                ubicacion,
+                rs.getTimestamp(5),
+                rs.getTimestamp(6),
+                rs.getString(7),
+                rs.getDouble(8),
+                rs.getString(9),
+                rs.getString(10));
     }
 
     // ===============================
@@ -377,18 +477,12 @@ public class PedidoController {
         }
     }
 
-    private List<Pedido> listarPedidosPorDeliveryRaw(int idDelivery) throws SQLException {
+    private List<?> listarPedidosPorDeliveryRaw(int idDelivery, boolean conDetalles) throws SQLException {
         String sql = "SELECT id_pedido, id_cliente, id_delivery, id_ubicacion, created_at, updated_at, estado, total, direccion_entrega, metodo_pago FROM pedidos WHERE id_delivery = ? ORDER BY created_at DESC";
         try (var conn = Database.getConnection();
              var stmt = conn.prepareStatement(sql)) {
             stmt.setInt(1, idDelivery);
-            try (var rs = stmt.executeQuery()) {
-                var pedidos = new ArrayList<Pedido>();
-                while (rs.next()) {
-                    pedidos.add(mapRowToPedido(rs));
-                }
-                return pedidos;
-            }
+            return leerPedidos(conn, stmt, conDetalles);
         }
     }
 
@@ -7,6 +7,7 @@ import java.util.stream.Collectors;
 
 import com.mycompany.delivery.api.model.Producto;
 import com.mycompany.delivery.api.repository.ProductoRepository;
+import com.mycompany.delivery.api.services.ProductoBuscador;
 import com.mycompany.delivery.api.util.ApiException;
 import com.mycompany.delivery.api.util.ApiResponse;
 
@@ -17,6 +18,7 @@ import com.mycompany.delivery.api.util.ApiResponse;
 public class ProductoController {
 
     private final ProductoRepository repo = new ProductoRepository();
+    private final ProductoBuscador buscador = ProductoBuscador.getInstance();
 
     public ApiResponse<List<Producto>> getAllProductos() {
         try {
@@ -29,8 +31,16 @@ public class ProductoController {
     }
 
     public ApiResponse<List<Producto>> buscarProductos(String termino, String categoria) {
+        return buscarProductos(termino, categoria, null, 0);
+    }
+
+    /**
+     * Búsqueda sobre el índice en memoria: sin tildes ni mayúsculas, por
+     * prefijo y ordenada por relevancia.
+     */
+    public ApiResponse<List<Producto>> buscarProductos(String termino, String categoria, Integer idNegocio, int limite) {
         try {
-            List<Producto> productos = repo.buscarProductos(termino, categoria);
+            List<Producto> productos = buscador.buscar(termino, categoria, idNegocio, limite);
             return ApiResponse.success(200, "Productos filtrados", productos);
         } catch (SQLException e) {
             System.err.println("âŒ Error buscando productos: " + e.getMessage());
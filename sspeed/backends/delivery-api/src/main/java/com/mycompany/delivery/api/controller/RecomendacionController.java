@@ -1,5 +1,6 @@
 package com.mycompany.delivery.api.controller;
 
+import com.mycompany.delivery.api.model.RecomendacionFila;
 import com.mycompany.delivery.api.repository.ProductoRepository;
 import com.mycompany.delivery.api.repository.RecomendacionRepository;
 import com.mycompany.delivery.api.repository.UsuarioRepository;
@@ -51,7 +52,7 @@ public class RecomendacionController {
         }
         try {
             Map<String, Object> resumen = recomendacionRepository.resumen(idProducto);
-            List<Map<String, Object>> lista = recomendacionRepository.listarPorProducto(idProducto);
+            List<RecomendacionFila> lista = recomendacionRepository.listarPorProducto(idProducto);
             Map<String, Object> out = new HashMap<>();
             out.put("resumen", resumen);
             out.put("recomendaciones", lista);
@@ -10,6 +10,10 @@ import com.mycompany.delivery.api.model.Ubicacion;
 import com.mycompany.delivery.api.services.UbicacionService;
 import com.mycompany.delivery.api.util.ApiException;
 import com.mycompany.delivery.api.util.ApiResponse;
+import com.mycompany.delivery.api.util.Pagina;
+import com.mycompany.delivery.api.util.Paginacion;
+
+import io.javalin.http.sse.SseClient;
 
 public class UbicacionController {
 
@@ -53,6 +57,8 @@ public class UbicacionController {
             req.setLatitud(latitud);
             req.setLongitud(longitud);
             service.actualizarUbicacionRepartidor(idUsuario, req);
+        } catch (ApiException e) {
+            throw e;
         } catch (Exception e) {
             throw new ApiException(500, "Error inesperado al actualizar coordenadas", e);
         }
@@ -76,9 +82,9 @@ public class UbicacionController {
     // ===============================
     // LISTAR TODAS LAS UBICACIONES ACTIVAS
     // ===============================
-    public ApiResponse<List<Ubicacion>> listarActivas() {
+    public ApiResponse<Pagina<Ubicacion>> listarActivas(Paginacion.Cursor desde, int limite) {
         try {
-            List<Ubicacion> activas = service.listarUbicacionesActivas();
+            Pagina<Ubicacion> activas = service.listarUbicacionesActivas(desde, limite);
             return ApiResponse.success(200, "Ubicaciones activas obtenidas", activas);
         } catch (SQLException e) {
             throw new ApiException(500, "Error al listar ubicaciones activas", e);
@@ -117,6 +123,14 @@ public class UbicacionController {
         }
     }
 
+    public void suscribirTracking(long idPedido, SseClient client) {
+        try {
+            service.suscribirTracking(idPedido, client);
+        } catch (SQLException e) {
+            throw new ApiException(500, "Error al iniciar el stream de tracking", e);
+        }
+    }
+
     public ApiResponse<List<Map<String, Object>>> obtenerRutaTracking(long idPedido) {
         try {
             var eventos = service.obtenerRutaPedido(idPedido);
@@ -130,6 +144,16 @@ public class UbicacionController {
         }
     }
 
+    /**
+     * Repartidores con posición en vivo más cercanos a un punto (p. ej. el
+     * local de recogida), resueltos en memoria sin consultar la BD.
+     */
+    public ApiResponse<List<Map<String, Object>>> obtenerRepartidoresCercanos(double latitud, double longitud,
+            int k, double radioMetros, boolean soloDisponibles) {
+        return ApiResponse.success(200, "Repartidores cercanos",
+                service.buscarRepartidoresCercanos(latitud, longitud, k, radioMetros, soloDisponibles));
+    }
+
     /**
      * Obtiene las últimas ubicaciones de una lista de repartidores.
      *
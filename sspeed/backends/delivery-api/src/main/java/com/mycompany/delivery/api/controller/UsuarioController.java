@@ -5,8 +5,11 @@ import java.util.Optional;
 
 import com.mycompany.delivery.api.model.Usuario;
 import com.mycompany.delivery.api.repository.UsuarioRepository;
+import com.mycompany.delivery.api.services.UsuarioPrincipalCache;
 import com.mycompany.delivery.api.util.ApiException;
 import com.mycompany.delivery.api.util.ApiResponse;
+import com.mycompany.delivery.api.util.Pagina;
+import com.mycompany.delivery.api.util.Paginacion;
 import java.sql.SQLException;
 
 /**
@@ -16,17 +19,25 @@ import java.sql.SQLException;
 public class UsuarioController {
 
     private final UsuarioRepository repo = new UsuarioRepository();
+    private final UsuarioPrincipalCache principalCache = UsuarioPrincipalCache.getInstance();
 
     /**
-     * Valida el token JWT y devuelve el usuario autenticado.
+     * Valida el token JWT y devuelve el usuario autenticado. El usuario se
+     * toma de {@link UsuarioPrincipalCache} y sólo se consulta la BD si no
+     * está en caché.
      */
     public Usuario validarToken(String token) throws ApiException {
         try {
             var jwt = com.mycompany.delivery.api.util.JwtUtil.verify(token);
             long idUsuario = com.mycompany.delivery.api.util.JwtUtil.getUserId(jwt);
-            Optional<Usuario> usuarioOpt = repo.obtenerPorId(idUsuario);
+            Optional<Usuario> usuarioOpt = principalCache.obtener(idUsuario);
             if (usuarioOpt.isEmpty()) {
-                throw new ApiException(401, "Usuario no encontrado para el token");
+                long generacion = principalCache.generacion();
+                usuarioOpt = repo.obtenerPorId(idUsuario);
+                if (usuarioOpt.isEmpty()) {
+                    throw new ApiException(401, "Usuario no encontrado para el token");
+                }
+                principalCache.guardar(usuarioOpt.get(), generacion);
             }
             Usuario usuario = usuarioOpt.get();
             if (!usuario.isActivo()) {
@@ -66,6 +77,7 @@ public class UsuarioController {
                 ps.setLong(2, authUser.getIdUsuario());
                 ps.executeUpdate();
             }
+            principalCache.invalidar(authUser.getIdUsuario());
             return ApiResponse.success(200, "Contraseña actualizada correctamente", null);
         } catch (SQLException e) {
             throw new ApiException(500, "Error al cambiar la contraseña", e);
@@ -161,6 +173,16 @@ public class UsuarioController {
         }
     }
 
+    public ApiResponse<Pagina<Usuario>> listarUsuarios(Paginacion.Cursor desde, int limite) {
+        try {
+            Pagina<Usuario> pagina = repo.listarUsuarios(desde, limite);
+            pagina.getItems().forEach(u -> u.setContrasena(null));
+            return ApiResponse.success(200, "Usuarios listados correctamente", pagina);
+        } catch (SQLException e) {
+            throw new ApiException(500, "No se pudieron listar los usuarios", e);
+        }
+    }
+
     // ===========================
     // OBTENER POR ID
     // ===========================
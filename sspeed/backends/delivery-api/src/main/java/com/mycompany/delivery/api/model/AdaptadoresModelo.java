@@ -0,0 +1,217 @@
+package com.mycompany.delivery.api.model;
+
+import java.sql.Timestamp;
+import java.util.List;
+
+import com.google.gson.Gson;
+import com.google.gson.TypeAdapter;
+import com.google.gson.TypeAdapterFactory;
+import com.google.gson.reflect.TypeToken;
+import com.mycompany.delivery.api.util.AdaptadorCampos;
+
+/**
+ * {@code TypeAdapter}s escritos a mano para los modelos que viajan en casi
+ * todas las respuestas (y en algunos cuerpos de petición). Producen el mismo
+ * JSON que el adaptador reflexivo de Gson: nombres de campo del modelo, nulos
+ * omitidos y fechas con el adaptador de {@link Timestamp} de la instancia.
+ * <p>
+ * Al agregar un campo a uno de estos modelos hay que agregarlo aquí también.
+ */
+public final class AdaptadoresModelo implements TypeAdapterFactory {
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> TypeAdapter<T> create(Gson gson, TypeToken<T> type) {
+        Class<? super T> tipo = type.getRawType();
+        if (tipo == Pedido.class) {
+            return (TypeAdapter<T>) pedido(gson);
+        } else if (tipo == DetallePedido.class) {
+            return (TypeAdapter<T>) detallePedido(gson);
+        } else if (tipo == Producto.class) {
+            return (TypeAdapter<T>) producto(gson);
+        } else if (tipo == Usuario.class) {
+            return (TypeAdapter<T>) usuario(gson);
+        } else if (tipo == Ubicacion.class) {
+            return (TypeAdapter<T>) ubicacion(gson);
+        } else if (tipo == Negocio.class) {
+            return (TypeAdapter<T>) negocio(gson);
+        } else if (tipo == Mensaje.class) {
+            return (TypeAdapter<T>) mensaje(gson);
+        }
+        return null;
+    }
+
+    // ===============================
+    // PEDIDOS
+    // ===============================
+    private static TypeAdapter<Pedido> pedido(Gson gson) {
+        TypeAdapter<Timestamp> fechas = gson.getAdapter(Timestamp.class);
+        TypeToken<List<DetallePedido>> tipoDetalles = new TypeToken<>() {};
+        TypeAdapter<List<DetallePedido>> detalles = gson.getAdapter(tipoDetalles);
+        return AdaptadorCampos.de(gson, Pedido::new)
+                .campo(int.class, Pedido::setIdPedido, "idPedido")
+                .campo(int.class, Pedido::setIdCliente, "idCliente")
+                .campo(Integer.class, Pedido::setIdDelivery, "idDelivery")
+                .campo(int.class, Pedido::setIdUbicacion, "idUbicacion")
+                .campo(String.class, Pedido::setEstado, "estado")
+                .campo(double.class, Pedido::setTotal, "total")
+                .campo(String.class, Pedido::setDireccionEntrega, "direccionEntrega")
+                .campo(String.class, Pedido::setMetodoPago, "metodoPago")
+                .campo(Timestamp.class, Pedido::setFechaPedido, "fechaPedido")
+                .campo(Timestamp.class, Pedido::setFechaEntrega, "fechaEntrega")
+                .campo(tipoDetalles, Pedido::setDetalles, "detalles")
+                .escritura((out, p) -> {
+                    out.name("idPedido").value(p.getIdPedido());
+                    out.name("idCliente").value(p.getIdCliente());
+                    out.name("idDelivery").value(p.getIdDelivery());
+                    out.name("idUbicacion").value(p.getIdUbicacion());
+                    out.name("estado").value(p.getEstado());
+                    out.name("total").value(p.getTotal());
+                    out.name("direccionEntrega").value(p.getDireccionEntrega());
+                    out.name("metodoPago").value(p.getMetodoPago());
+                    out.name("fechaPedido");
+                    fechas.write(out, p.getFechaPedido());
+                    out.name("fechaEntrega");
+                    fechas.write(out, p.getFechaEntrega());
+                    out.name("detalles");
+                    detalles.write(out, p.getDetalles());
+                });
+    }
+
+    private static TypeAdapter<DetallePedido> detallePedido(Gson gson) {
+        return AdaptadorCampos.de(gson, DetallePedido::new)
+                .campo(int.class, DetallePedido::setIdDetalle, "idDetalle")
+                .campo(int.class, DetallePedido::setIdPedido, "idPedido")
+                .campo(int.class, DetallePedido::setIdProducto, "idProducto")
+                .campo(int.class, DetallePedido::setCantidad, "cantidad")
+                .campo(double.class, DetallePedido::setPrecioUnitario, "precioUnitario")
+                .campo(double.class, DetallePedido::setSubtotal, "subtotal")
+                .escritura((out, d) -> {
+                    out.name("idDetalle").value(d.getIdDetalle());
+                    out.name("idPedido").value(d.getIdPedido());
+                    out.name("idProducto").value(d.getIdProducto());
+                    out.name("cantidad").value(d.getCantidad());
+                    out.name("precioUnitario").value(d.getPrecioUnitario());
+                    out.name("subtotal").value(d.getSubtotal());
+                });
+    }
+
+    // ===============================
+    // CATÁLOGO
+    // ===============================
+    private static TypeAdapter<Producto> producto(Gson gson) {
+        return AdaptadorCampos.de(gson, Producto::new)
+                .campo(int.class, Producto::setIdProducto, "idProducto")
+                .campo(String.class, Producto::setNombre, "nombre")
+                .campo(String.class, Producto::setDescripcion, "descripcion")
+                .campo(double.class, Producto::setPrecio, "precio")
+                .campo(boolean.class, Producto::setDisponible, "disponible")
+                .campo(String.class, Producto::setImagenUrl, "imagenUrl")
+                .campo(String.class, Producto::setCategoria, "categoria")
+                .campo(int.class, Producto::setIdCategoria, "idCategoria")
+                .campo(Integer.class, Producto::setIdNegocio, "idNegocio")
+                .escritura((out, p) -> {
+                    out.name("idProducto").value(p.getIdProducto());
+                    out.name("nombre").value(p.getNombre());
+                    out.name("descripcion").value(p.getDescripcion());
+                    out.name("precio").value(p.getPrecio());
+                    out.name("disponible").value(p.isDisponible());
+                    out.name("imagenUrl").value(p.getImagenUrl());
+                    out.name("categoria").value(p.getCategoria());
+                    out.name("idCategoria").value(p.getIdCategoria());
+                    out.name("idNegocio").value(p.getIdNegocio());
+                });
+    }
+
+    private static TypeAdapter<Negocio> negocio(Gson gson) {
+        return AdaptadorCampos.de(gson, Negocio::new)
+                .campo(int.class, Negocio::setIdNegocio, "idNegocio")
+                .campo(int.class, Negocio::setIdUsuario, "idUsuario")
+                .campo(String.class, Negocio::setNombreComercial, "nombreComercial")
+                .campo(String.class, Negocio::setRuc, "ruc")
+                .campo(String.class, Negocio::setDireccion, "direccion")
+                .campo(String.class, Negocio::setTelefono, "telefono")
+                .campo(String.class, Negocio::setLogoUrl, "logoUrl")
+                .campo(boolean.class, Negocio::setActivo, "activo")
+                .escritura((out, n) -> {
+                    out.name("idNegocio").value(n.getIdNegocio());
+                    out.name("idUsuario").value(n.getIdUsuario());
+                    out.name("nombreComercial").value(n.getNombreComercial());
+                    out.name("ruc").value(n.getRuc());
+                    out.name("direccion").value(n.getDireccion());
+                    out.name("telefono").value(n.getTelefono());
+                    out.name("logoUrl").value(n.getLogoUrl());
+                    out.name("activo").value(n.isActivo());
+                });
+    }
+
+    // ===============================
+    // USUARIOS Y UBICACIONES
+    // ===============================
+    private static TypeAdapter<Usuario> usuario(Gson gson) {
+        return AdaptadorCampos.de(gson, Usuario::new)
+                .campo(long.class, Usuario::setIdUsuario, "idUsuario")
+                .campo(String.class, Usuario::setNombre, "nombre")
+                .campo(String.class, Usuario::setCorreo, "correo")
+                .campo(String.class, Usuario::setContrasena, "contrasena")
+                .campo(String.class, Usuario::setTelefono, "telefono")
+                .campo(String.class, Usuario::setRol, "rol")
+                .campo(boolean.class, Usuario::setActivo, "activo")
+                .escritura((out, u) -> {
+                    out.name("idUsuario").value(u.getIdUsuario());
+                    out.name("nombre").value(u.getNombre());
+                    out.name("correo").value(u.getCorreo());
+                    out.name("contrasena").value(u.getContrasena());
+                    out.name("telefono").value(u.getTelefono());
+                    out.name("rol").value(u.getRol());
+                    out.name("activo").value(u.isActivo());
+                });
+    }
+
+    private static TypeAdapter<Ubicacion> ubicacion(Gson gson) {
+        TypeAdapter<Timestamp> fechas = gson.getAdapter(Timestamp.class);
+        return AdaptadorCampos.de(gson, Ubicacion::new)
+                .campo(long.class, Ubicacion::setIdUbicacion, "idUbicacion")
+                .campo(long.class, Ubicacion::setIdUsuario, "idUsuario")
+                .campo(double.class, Ubicacion::setLatitud, "latitud")
+                .campo(double.class, Ubicacion::setLongitud, "longitud")
+                .campo(String.class, Ubicacion::setDescripcion, "descripcion")
+                .campo(String.class, Ubicacion::setDireccion, "direccion")
+                .campo(boolean.class, Ubicacion::setActiva, "activa")
+                .campo(String.class, Ubicacion::setEstado, "estado")
+                .campo(Timestamp.class, Ubicacion::setFechaRegistro, "fechaRegistro")
+                .escritura((out, u) -> {
+                    out.name("idUbicacion").value(u.getIdUbicacion());
+                    out.name("idUsuario").value(u.getIdUsuario());
+                    out.name("latitud").value(u.getLatitud());
+                    out.name("longitud").value(u.getLongitud());
+                    out.name("descripcion").value(u.getDescripcion());
+                    out.name("direccion").value(u.getDireccion());
+                    out.name("activa").value(u.isActiva());
+                    out.name("estado").value(u.getEstado());
+                    out.name("fechaRegistro");
+                    fechas.write(out, u.getFechaRegistro());
+                });
+    }
+
+    // ===============================
+    // MENSAJES
+    // ===============================
+    private static TypeAdapter<Mensaje> mensaje(Gson gson) {
+        TypeAdapter<Timestamp> fechas = gson.getAdapter(Timestamp.class);
+        return AdaptadorCampos.de(gson, Mensaje::new)
+                .campo(long.class, Mensaje::setIdMensaje, "idMensaje")
+                .campo(long.class, Mensaje::setIdPedido, "idPedido")
+                .campo(int.class, Mensaje::setIdRemitente, "idRemitente")
+                .campo(String.class, Mensaje::setMensaje, "mensaje")
+                .campo(Timestamp.class, Mensaje::setFechaEnvio, "fechaEnvio")
+                .escritura((out, m) -> {
+                    out.name("idMensaje").value(m.getIdMensaje());
+                    out.name("idPedido").value(m.getIdPedido());
+                    out.name("idRemitente").value(m.getIdRemitente());
+                    out.name("mensaje").value(m.getMensaje());
+                    out.name("fechaEnvio");
+                    fechas.write(out, m.getFechaEnvio());
+                });
+    }
+}
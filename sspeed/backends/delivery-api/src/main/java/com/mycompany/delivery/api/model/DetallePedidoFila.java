@@ -0,0 +1,41 @@
+package com.mycompany.delivery.api.model;
+
+import java.io.IOException;
+import java.sql.Timestamp;
+
+import com.google.gson.Gson;
+import com.google.gson.TypeAdapter;
+import com.google.gson.annotations.JsonAdapter;
+import com.google.gson.stream.JsonWriter;
+import com.mycompany.delivery.api.util.FabricaProyeccion;
+
+/**
+ * Línea de un pedido con el nombre e imagen del producto.
+ */
+@JsonAdapter(DetallePedidoFila.Json.class)
+public record DetallePedidoFila(
+        int idDetalle,
+        int idProducto,
+        int cantidad,
+        double precioUnitario,
+        double subtotal,
+        String nombreProducto,
+        String imagenUrl) {
+
+    public static final class Json extends FabricaProyeccion<DetallePedidoFila> {
+        public Json() {
+            super(DetallePedidoFila.class);
+        }
+
+        @Override
+        protected void escribir(JsonWriter out, DetallePedidoFila d, Gson gson, TypeAdapter<Timestamp> fechas) throws IOException {
+            out.name("id_detalle").value(d.idDetalle);
+            out.name("id_producto").value(d.idProducto);
+            out.name("cantidad").value(d.cantidad);
+            out.name("precio_unitario").value(d.precioUnitario);
+            out.name("subtotal").value(d.subtotal);
+            out.name("nombre_producto").value(d.nombreProducto);
+            out.name("imagen_url").value(d.imagenUrl);
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package com.mycompany.delivery.api.model;
+
+import java.io.IOException;
+import java.sql.Timestamp;
+
+import com.google.gson.Gson;
+import com.google.gson.TypeAdapter;
+import com.google.gson.annotations.JsonAdapter;
+import com.google.gson.stream.JsonWriter;
+import com.mycompany.delivery.api.util.FabricaProyeccion;
+
+/**
+ * Mensaje de chat tal como se lista en el historial de una conversación.
+ */
+@JsonAdapter(MensajeChatFila.Json.class)
+public record MensajeChatFila(
+        long idMensaje,
+        long idConversacion,
+        long idRemitente,
+        Long idDestinatario,
+        String mensaje,
+        Timestamp createdAt,
+        String remitenteNombre,
+        boolean esBot) {
+
+    public static final class Json extends FabricaProyeccion<MensajeChatFila> {
+        public Json() {
+            super(MensajeChatFila.class);
+        }
+
+        @Override
+        protected void escribir(JsonWriter out, MensajeChatFila m, Gson gson, TypeAdapter<Timestamp> fechas) throws IOException {
+            out.name("id_mensaje").value(m.idMensaje);
+            out.name("id_conversacion").value(m.idConversacion);
+            out.name("id_remitente").value(m.idRemitente);
+            out.name("id_destinatario").value(m.idDestinatario);
+            out.name("mensaje").value(m.mensaje);
+            out.name("created_at");
+            fechas.write(out, m.createdAt);
+            out.name("remitente_nombre").value(m.remitenteNombre);
+            out.name("es_bot").value(m.esBot);
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package com.mycompany.delivery.api.model;
+
+import java.io.IOException;
+import java.sql.Timestamp;
+
+import com.google.gson.Gson;
+import com.google.gson.TypeAdapter;
+import com.google.gson.annotations.JsonAdapter;
+import com.google.gson.stream.JsonWriter;
+import com.mycompany.delivery.api.util.FabricaProyeccion;
+
+/**
+ * Mensaje de una conversación de soporte. {@code created_at} se expone en ISO-8601.
+ */
+@JsonAdapter(MensajeSoporteFila.Json.class)
+public record MensajeSoporteFila(
+        long id,
+        long idConversacion,
+        Long idRemitente,
+        boolean esAgente,
+        String tipo,
+        String mensaje,
+        Timestamp createdAt) {
+
+    public static final class Json extends FabricaProyeccion<MensajeSoporteFila> {
+        public Json() {
+            super(MensajeSoporteFila.class);
+        }
+
+        @Override
+        protected void escribir(JsonWriter out, MensajeSoporteFila m, Gson gson, TypeAdapter<Timestamp> fechas) throws IOException {
+            out.name("id").value(m.id);
+            out.name("id_conversacion").value(m.idConversacion);
+            out.name("id_remitente").value(m.idRemitente);
+            out.name("es_agente").value(m.esAgente);
+            out.name("tipo").value(m.tipo);
+            out.name("mensaje").value(m.mensaje);
+            out.name("created_at").value(m.createdAt != null ? m.createdAt.toInstant().toString() : null);
+        }
+    }
+}
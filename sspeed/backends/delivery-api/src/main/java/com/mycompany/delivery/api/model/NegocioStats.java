@@ -0,0 +1,25 @@
+package com.mycompany.delivery.api.model;
+
+import java.time.LocalDate;
+import java.util.Map;
+
+/**
+ * Contadores de un negocio (fila de {@code negocio_stats}). Los importes van
+ * en centavos; {@code pedidosHoy} y {@code ventasHoyCentavos} son del día
+ * {@code dia}.
+ */
+public record NegocioStats(
+        long idNegocio,
+        int totalProductos,
+        long pedidosCompletados,
+        long ingresosCentavos,
+        long productosVendidos,
+        LocalDate dia,
+        int pedidosHoy,
+        long ventasHoyCentavos,
+        Map<String, Long> pedidosPorEstado) {
+
+    public static NegocioStats vacio(long idNegocio, LocalDate dia) {
+        return new NegocioStats(idNegocio, 0, 0, 0, 0, dia, 0, 0, Map.of());
+    }
+}
@@ -0,0 +1,65 @@
+package com.mycompany.delivery.api.model;
+
+import java.io.IOException;
+import java.sql.Timestamp;
+
+import com.google.gson.Gson;
+import com.google.gson.TypeAdapter;
+import com.google.gson.annotations.JsonAdapter;
+import com.google.gson.stream.JsonWriter;
+import com.mycompany.delivery.api.util.FabricaProyeccion;
+
+/**
+ * Opinión de la app. El listado público sólo expone nombre, rating, comentario,
+ * clasificación, plataforma y fecha; el de administración la fila completa
+ * ({@link #admin()}).
+ */
+@JsonAdapter(OpinionFila.Json.class)
+public record OpinionFila(
+        int id,
+        Long idUsuario,
+        String nombre,
+        String email,
+        int rating,
+        String comentario,
+        String clasificacion,
+        String plataforma,
+        String estado,
+        Timestamp createdAt,
+        Timestamp updatedAt,
+        boolean admin) {
+
+    public static OpinionFila publica(int id, String nombre, int rating, String comentario,
+            String clasificacion, String plataforma, Timestamp createdAt) {
+        return new OpinionFila(id, null, nombre, null, rating, comentario, clasificacion, plataforma,
+                null, createdAt, null, false);
+    }
+
+    public static final class Json extends FabricaProyeccion<OpinionFila> {
+        public Json() {
+            super(OpinionFila.class);
+        }
+
+        @Override
+        protected void escribir(JsonWriter out, OpinionFila o, Gson gson, TypeAdapter<Timestamp> fechas) throws IOException {
+            out.name("id").value(o.id);
+            out.name("nombre").value(o.nombre);
+            out.name("rating").value(o.rating);
+            out.name("comentario").value(o.comentario);
+            out.name("clasificacion").value(o.clasificacion);
+            out.name("plataforma").value(o.plataforma);
+            if (!o.admin) {
+                out.name("fecha");
+                fechas.write(out, o.createdAt);
+                return;
+            }
+            out.name("id_usuario").value(o.idUsuario);
+            out.name("email").value(o.email);
+            out.name("estado").value(o.estado);
+            out.name("created_at");
+            fechas.write(out, o.createdAt);
+            out.name("updated_at");
+            fechas.write(out, o.updatedAt);
+        }
+    }
+}
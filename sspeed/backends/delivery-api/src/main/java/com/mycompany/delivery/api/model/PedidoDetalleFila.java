@@ -0,0 +1,37 @@
+package com.mycompany.delivery.api.model;
+
+import java.io.IOException;
+import java.sql.Timestamp;
+import java.util.List;
+
+import com.google.gson.Gson;
+import com.google.gson.TypeAdapter;
+import com.google.gson.annotations.JsonAdapter;
+import com.google.gson.stream.JsonWriter;
+import com.mycompany.delivery.api.util.FabricaProyeccion;
+
+/**
+ * Pedido con sus líneas, tal como lo devuelve {@code GET /pedidos/{id}}.
+ */
+@JsonAdapter(PedidoDetalleFila.Json.class)
+public record PedidoDetalleFila(PedidoFila pedido, List<DetallePedidoFila> detalles) {
+
+    public static final class Json extends FabricaProyeccion<PedidoDetalleFila> {
+        public Json() {
+            super(PedidoDetalleFila.class);
+        }
+
+        @Override
+        protected void escribir(JsonWriter out, PedidoDetalleFila p, Gson gson, TypeAdapter<Timestamp> fechas) throws IOException {
+            TypeAdapter<PedidoFila> pedidos = gson.getAdapter(PedidoFila.class);
+            TypeAdapter<DetallePedidoFila> detalles = gson.getAdapter(DetallePedidoFila.class);
+            out.name("pedido");
+            pedidos.write(out, p.pedido);
+            out.name("detalles").beginArray();
+            for (DetallePedidoFila d : p.detalles) {
+                detalles.write(out, d);
+            }
+            out.endArray();
+        }
+    }
+}
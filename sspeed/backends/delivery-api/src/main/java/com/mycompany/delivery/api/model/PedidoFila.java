@@ -0,0 +1,50 @@
+package com.mycompany.delivery.api.model;
+
+import java.io.IOException;
+import java.sql.Timestamp;
+
+import com.google.gson.Gson;
+import com.google.gson.TypeAdapter;
+import com.google.gson.annotations.JsonAdapter;
+import com.google.gson.stream.JsonWriter;
+import com.mycompany.delivery.api.util.FabricaProyeccion;
+
+/**
+ * Cabecera de pedido con los nombres de columna de la tabla (a diferencia de
+ * {@link Pedido}, que usa los del modelo).
+ */
+@JsonAdapter(PedidoFila.Json.class)
+public record PedidoFila(
+        int idPedido,
+        int idCliente,
+        Integer idDelivery,
+        Integer idUbicacion,
+        Timestamp createdAt,
+        Timestamp updatedAt,
+        String estado,
+        double total,
+        String direccionEntrega,
+        String metodoPago) {
+
+    public static final class Json extends FabricaProyeccion<PedidoFila> {
+        public Json() {
+            super(PedidoFila.class);
+        }
+
+        @Override
+        protected void escribir(JsonWriter out, PedidoFila p, Gson gson, TypeAdapter<Timestamp> fechas) throws IOException {
+            out.name("id_pedido").value(p.idPedido);
+            out.name("id_cliente").value(p.idCliente);
+            out.name("id_delivery").value(p.idDelivery);
+            out.name("id_ubicacion").value(p.idUbicacion);
+            out.name("created_at");
+            fechas.write(out, p.createdAt);
+            out.name("updated_at");
+            fechas.write(out, p.updatedAt);
+            out.name("estado").value(p.estado);
+            out.name("total").value(p.total);
+            out.name("direccion_entrega").value(p.direccionEntrega);
+            out.name("metodo_pago").value(p.metodoPago);
+        }
+    }
+}
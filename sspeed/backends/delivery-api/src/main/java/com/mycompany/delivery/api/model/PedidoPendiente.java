@@ -0,0 +1,36 @@
+package com.mycompany.delivery.api.model;
+
+/**
+ * Pedido pendiente sin repartidor, con las coordenadas de su ubicación,
+ * tal como lo consume el despachador automático.
+ */
+public final class PedidoPendiente {
+
+    private final int idPedido;
+    private final double latitud;
+    private final double longitud;
+    private final long creadoMs;
+
+    public PedidoPendiente(int idPedido, double latitud, double longitud, long creadoMs) {
+        this.idPedido = idPedido;
+        this.latitud = latitud;
+        this.longitud = longitud;
+        this.creadoMs = creadoMs;
+    }
+
+    public int getIdPedido() {
+        return idPedido;
+    }
+
+    public double getLatitud() {
+        return latitud;
+    }
+
+    public double getLongitud() {
+        return longitud;
+    }
+
+    public long getCreadoMs() {
+        return creadoMs;
+    }
+}
@@ -0,0 +1,47 @@
+package com.mycompany.delivery.api.model;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Última posición GPS reportada por un repartidor.
+ * Inmutable y con campos primitivos para poder publicarse entre hilos sin locks.
+ */
+public final class PosicionRepartidor {
+
+    private final long idRepartidor;
+    private final double latitud;
+    private final double longitud;
+    private final long timestampMs;
+
+    public PosicionRepartidor(long idRepartidor, double latitud, double longitud, long timestampMs) {
+        this.idRepartidor = idRepartidor;
+        this.latitud = latitud;
+        this.longitud = longitud;
+        this.timestampMs = timestampMs;
+    }
+
+    public long getIdRepartidor() {
+        return idRepartidor;
+    }
+
+    public double getLatitud() {
+        return latitud;
+    }
+
+    public double getLongitud() {
+        return longitud;
+    }
+
+    public long getTimestampMs() {
+        return timestampMs;
+    }
+
+    public Map<String, Object> toMap() {
+        Map<String, Object> map = new HashMap<>();
+        map.put("id_repartidor", idRepartidor);
+        map.put("latitud", latitud);
+        map.put("longitud", longitud);
+        return map;
+    }
+}
@@ -0,0 +1,40 @@
+package com.mycompany.delivery.api.model;
+
+import java.io.IOException;
+import java.sql.Timestamp;
+
+import com.google.gson.Gson;
+import com.google.gson.TypeAdapter;
+import com.google.gson.annotations.JsonAdapter;
+import com.google.gson.stream.JsonWriter;
+import com.mycompany.delivery.api.util.FabricaProyeccion;
+
+/**
+ * Reseña de un producto en el listado por producto.
+ */
+@JsonAdapter(RecomendacionFila.Json.class)
+public record RecomendacionFila(
+        int idRecomendacion,
+        int idProducto,
+        int idUsuario,
+        int puntuacion,
+        String comentario,
+        Timestamp fecha) {
+
+    public static final class Json extends FabricaProyeccion<RecomendacionFila> {
+        public Json() {
+            super(RecomendacionFila.class);
+        }
+
+        @Override
+        protected void escribir(JsonWriter out, RecomendacionFila r, Gson gson, TypeAdapter<Timestamp> fechas) throws IOException {
+            out.name("id_recomendacion").value(r.idRecomendacion);
+            out.name("id_producto").value(r.idProducto);
+            out.name("id_usuario").value(r.idUsuario);
+            out.name("puntuacion").value(r.puntuacion);
+            out.name("comentario").value(r.comentario);
+            out.name("fecha");
+            fechas.write(out, r.fecha);
+        }
+    }
+}
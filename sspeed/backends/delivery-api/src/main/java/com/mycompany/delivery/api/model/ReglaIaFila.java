@@ -0,0 +1,18 @@
+package com.mycompany.delivery.api.model;
+
+import java.util.List;
+
+/**
+ * Respuesta automática activa por palabras clave (fila de
+ * {@code ia_respuestas_automaticas}).
+ */
+public record ReglaIaFila(
+        long idRespuesta,
+        String scope,
+        String canal,
+        String idioma,
+        String intent,
+        List<String> keywords,
+        String respuesta,
+        int prioridad) {
+}
@@ -0,0 +1,13 @@
+package com.mycompany.delivery.api.model;
+
+/**
+ * Respuesta predefinida activa con sus patrones separados por {@code |}
+ * (fila de {@code soporte_respuestas_predef}).
+ */
+public record ReglaPatronFila(
+        long idPredef,
+        String categoria,
+        String preguntaPatron,
+        String respuesta,
+        int prioridad) {
+}
@@ -0,0 +1,12 @@
+package com.mycompany.delivery.api.model;
+
+/**
+ * Mensaje de chat pendiente de respuesta de la IA (fila de {@code chat_llm_jobs}).
+ */
+public record TrabajoLlm(
+        long idJob,
+        long idConversacion,
+        int idRemitente,
+        String mensaje,
+        int intentos) {
+}
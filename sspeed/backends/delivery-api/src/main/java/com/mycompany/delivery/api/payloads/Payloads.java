@@ -2,7 +2,12 @@ package com.mycompany.delivery.api.payloads;
 
 import java.util.List;
 
+import com.google.gson.Gson;
+import com.google.gson.TypeAdapter;
+import com.google.gson.TypeAdapterFactory;
 import com.google.gson.annotations.SerializedName;
+import com.google.gson.reflect.TypeToken;
+import com.mycompany.delivery.api.util.AdaptadorCampos;
 
 /**
  * Clases de soporte para la API Delivery (compatibles con snake_case y
@@ -304,4 +309,156 @@ public class Payloads {
 
         public String intent;
     }
+
+    // =========================== ADAPTADORES JSON ===========================
+    /**
+     * Lectores escritos a mano para los cuerpos de petición, con los mismos
+     * nombres y alias que las anotaciones {@code @SerializedName} (que se
+     * mantienen como documentación y para cualquier otra instancia de Gson).
+     * La escritura, que casi no se usa, sigue siendo la reflexiva.
+     */
+    public static final class Adaptadores implements TypeAdapterFactory {
+
+        private static final TypeToken<List<PedidoDetallePayload>> DETALLES = new TypeToken<>() {};
+        private static final TypeToken<List<Integer>> IDS = new TypeToken<>() {};
+        private static final TypeToken<List<String>> TEXTOS = new TypeToken<>() {};
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public <T> TypeAdapter<T> create(Gson gson, TypeToken<T> type) {
+            AdaptadorCampos.Constructor<?> c = lector(gson, type.getRawType());
+            if (c == null) {
+                return null;
+            }
+            TypeAdapter<T> reflexivo = gson.getDelegateAdapter(this, type);
+            return ((AdaptadorCampos.Constructor<T>) c).escrituraDelegada(reflexivo);
+        }
+
+        private static AdaptadorCampos.Constructor<?> lector(Gson gson, Class<?> tipo) {
+            if (tipo == LoginRequest.class) {
+                return AdaptadorCampos.de(gson, LoginRequest::new)
+                        .campo(String.class, (r, v) -> r.correo = v, "correo")
+                        .campo(String.class, (r, v) -> r.email = v, "email")
+                        .campo(String.class, (r, v) -> r.contrasena = v, "contrasena")
+                        .campo(String.class, (r, v) -> r.password = v, "password");
+            } else if (tipo == RegistroRequest.class) {
+                return AdaptadorCampos.de(gson, RegistroRequest::new)
+                        .campo(String.class, (r, v) -> r.nombre = v, "nombre")
+                        .campo(String.class, (r, v) -> r.correo = v, "correo")
+                        .campo(String.class, (r, v) -> r.contrasena = v, "contrasena")
+                        .campo(String.class, (r, v) -> r.telefono = v, "telefono")
+                        .campo(String.class, (r, v) -> r.rol = v, "rol");
+            } else if (tipo == ResetGenerateRequest.class) {
+                return AdaptadorCampos.de(gson, ResetGenerateRequest::new)
+                        .campo(String.class, (r, v) -> r.correo = v, "correo");
+            } else if (tipo == ResetConfirmRequest.class) {
+                return AdaptadorCampos.de(gson, ResetConfirmRequest::new)
+                        .campo(String.class, (r, v) -> r.correo = v, "correo")
+                        .campo(String.class, (r, v) -> r.codigo = v, "codigo")
+                        .campo(String.class, (r, v) -> r.nuevaContrasena = v, "nuevaContrasena", "nueva_contrasena", "newPassword");
+            } else if (tipo == ChangePasswordRequest.class) {
+                return AdaptadorCampos.de(gson, ChangePasswordRequest::new)
+                        .campo(String.class, (r, v) -> r.actual = v, "actual", "current", "oldPassword")
+                        .campo(String.class, (r, v) -> r.nueva = v, "nueva", "new", "newPassword");
+            } else if (tipo == ProductoPayload.class) {
+                return AdaptadorCampos.de(gson, ProductoPayload::new)
+                        .campo(String.class, (r, v) -> r.nombre = v, "nombre")
+                        .campo(String.class, (r, v) -> r.descripcion = v, "descripcion")
+                        .campo(Double.class, (r, v) -> r.precio = v, "precio")
+                        .campo(String.class, (r, v) -> r.imagenUrlSnake = v, "imagen_url")
+                        .campo(String.class, (r, v) -> r.imagenUrlCamel = v, "imageUrl")
+                        .campo(String.class, (r, v) -> r.categoria = v, "categoria")
+                        .campo(Boolean.class, (r, v) -> r.disponible = v, "disponible");
+            } else if (tipo == PedidoDetallePayload.class) {
+                return AdaptadorCampos.de(gson, PedidoDetallePayload::new)
+                        .campo(int.class, (r, v) -> r.idProducto = v, "id_producto", "idProducto")
+                        .campo(int.class, (r, v) -> r.cantidad = v, "cantidad")
+                        .campo(double.class, (r, v) -> r.subtotal = v, "subtotal")
+                        .campo(double.class, (r, v) -> r.precioUnitario = v, "precio_unitario", "precioUnitario");
+            } else if (tipo == PedidoPayload.class) {
+                return AdaptadorCampos.de(gson, PedidoPayload::new)
+                        .campo(Integer.class, (r, v) -> r.idCliente = v, "id_cliente")
+                        .campo(Integer.class, (r, v) -> r.idDelivery = v, "id_delivery")
+                        .campo(Integer.class, (r, v) -> r.idUbicacion = v, "id_ubicacion")
+                        .campo(String.class, (r, v) -> r.direccionEntregaSnake = v, "direccion_entrega")
+                        .campo(String.class, (r, v) -> r.direccionEntregaCamel = v, "direccionEntrega")
+                        .campo(String.class, (r, v) -> r.metodoPago = v, "metodo_pago", "metodoPago")
+                        .campo(String.class, (r, v) -> r.estado = v, "estado")
+                        .campo(Double.class, (r, v) -> r.total = v, "total", "monto_total")
+                        .campo(DETALLES, (r, v) -> r.productos = v, "productos");
+            } else if (tipo == EstadoUpdateRequest.class) {
+                return AdaptadorCampos.de(gson, EstadoUpdateRequest::new)
+                        .campo(String.class, (r, v) -> r.estado = v, "estado");
+            } else if (tipo == AsignarPedidoRequest.class) {
+                return AdaptadorCampos.de(gson, AsignarPedidoRequest::new)
+                        .campo(Integer.class, (r, v) -> r.idDelivery = v, "id_delivery");
+            } else if (tipo == TrackingPayload.class) {
+                return AdaptadorCampos.de(gson, TrackingPayload::new)
+                        .campo(Double.class, (r, v) -> r.latitud = v, "latitud")
+                        .campo(Double.class, (r, v) -> r.longitud = v, "longitud");
+            } else if (tipo == UbicacionRequest.class) {
+                return AdaptadorCampos.de(gson, UbicacionRequest::new)
+                        .campo(Integer.class, (r, v) -> r.idUsuarioSnake = v, "id_usuario")
+                        .campo(Integer.class, (r, v) -> r.idUsuarioCamel = v, "idUsuario")
+                        .campo(Double.class, (r, v) -> r.latitud = v, "latitud")
+                        .campo(Double.class, (r, v) -> r.longitud = v, "longitud")
+                        .campo(String.class, (r, v) -> r.direccionSnake = v, "direccion")
+                        .campo(String.class, (r, v) -> r.direccionCamel = v, "direccionEntrega")
+                        .campo(String.class, (r, v) -> r.descripcion = v, "descripcion")
+                        .campo(Boolean.class, (r, v) -> r.activa = v, "activa");
+            } else if (tipo == RecomendacionPayload.class) {
+                return AdaptadorCampos.de(gson, RecomendacionPayload::new)
+                        .campo(Integer.class, (r, v) -> r.idUsuarioSnake = v, "id_usuario")
+                        .campo(Integer.class, (r, v) -> r.idUsuarioCamel = v, "idUsuario")
+                        .campo(Integer.class, (r, v) -> r.puntuacion = v, "puntuacion")
+                        .campo(Integer.class, (r, v) -> r.rating = v, "rating")
+                        .campo(String.class, (r, v) -> r.comentario = v, "comentario");
+            } else if (tipo == PedidoMensajePayload.class) {
+                return AdaptadorCampos.de(gson, PedidoMensajePayload::new)
+                        .campo(Long.class, (r, v) -> r.idConversacion = v, "idConversacion")
+                        .campo(Integer.class, (r, v) -> r.idRemitente = v, "idRemitente")
+                        .campo(Integer.class, (r, v) -> r.idDestinatario = v, "idDestinatario")
+                        .campo(Integer.class, (r, v) -> r.idPedido = v, "idPedido")
+                        .campo(Integer.class, (r, v) -> r.idCliente = v, "idCliente")
+                        .campo(Integer.class, (r, v) -> r.idDelivery = v, "idDelivery")
+                        .campo(String.class, (r, v) -> r.mensaje = v, "mensaje");
+            } else if (tipo == ChatBotRequest.class) {
+                return AdaptadorCampos.de(gson, ChatBotRequest::new)
+                        .campo(Integer.class, (r, v) -> r.idRemitente = v, "idRemitente")
+                        .campo(Long.class, (r, v) -> r.idConversacion = v, "idConversacion")
+                        .campo(String.class, (r, v) -> r.mensaje = v, "mensaje");
+            } else if (tipo == UbicacionesRequest.class) {
+                return AdaptadorCampos.de(gson, UbicacionesRequest::new)
+                        .campo(IDS, (r, v) -> r.ids = v, "ids");
+            } else if (tipo == SoporteMensajeRequest.class) {
+                return AdaptadorCampos.de(gson, SoporteMensajeRequest::new)
+                        .campo(Long.class, (r, v) -> r.idConversacion = v, "id_conversacion", "idConversacion")
+                        .campo(Integer.class, (r, v) -> r.idRemitente = v, "id_remitente", "idRemitente")
+                        .campo(Integer.class, (r, v) -> r.idDestinatario = v, "id_destinatario", "idDestinatario")
+                        .campo(String.class, (r, v) -> r.mensaje = v, "mensaje");
+            } else if (tipo == SoporteAsignacionRequest.class) {
+                return AdaptadorCampos.de(gson, SoporteAsignacionRequest::new)
+                        .campo(Long.class, (r, v) -> r.idConversacion = v, "id_conversacion", "idConversacion")
+                        .campo(Integer.class, (r, v) -> r.idAgente = v, "id_agente", "idAgente", "idSoporte");
+            } else if (tipo == SoporteCerrarRequest.class) {
+                return AdaptadorCampos.de(gson, SoporteCerrarRequest::new)
+                        .campo(Long.class, (r, v) -> r.idConversacion = v, "id_conversacion", "idConversacion");
+            } else if (tipo == SoporteRespuestaPayload.class) {
+                return AdaptadorCampos.de(gson, SoporteRespuestaPayload::new)
+                        .campo(String.class, (r, v) -> r.categoria = v, "categoria")
+                        .campo(String.class, (r, v) -> r.pregunta = v, "pregunta")
+                        .campo(String.class, (r, v) -> r.respuesta = v, "respuesta")
+                        .campo(String.class, (r, v) -> r.scope = v, "scope", "scope_destino")
+                        .campo(String.class, (r, v) -> r.canal = v, "canal")
+                        .campo(String.class, (r, v) -> r.idioma = v, "idioma")
+                        .campo(String.class, (r, v) -> r.tono = v, "tono")
+                        .campo(Short.class, (r, v) -> r.prioridad = v, "prioridad")
+                        .campo(Boolean.class, (r, v) -> r.activo = v, "activo")
+                        .campo(TEXTOS, (r, v) -> r.keywords = v, "keywords")
+                        .campo(String.class, (r, v) -> r.regex = v, "regex", "regex_match")
+                        .campo(String.class, (r, v) -> r.intent = v, "intent");
+            }
+            return null;
+        }
+    }
 }
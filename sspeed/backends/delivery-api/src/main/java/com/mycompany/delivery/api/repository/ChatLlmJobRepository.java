@@ -0,0 +1,206 @@
+package com.mycompany.delivery.api.repository;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.mycompany.delivery.api.config.Database;
+import com.mycompany.delivery.api.model.TrabajoLlm;
+
+/**
+ * Cola persistente de mensajes del chatbot que esperan respuesta de la IA
+ * ({@code chat_llm_jobs}).
+ * <p>
+ * Un trabajo sólo se toma si es el más antiguo sin terminar de su
+ * conversación, así que las respuestas de una misma conversación salen en
+ * orden aunque haya varios workers (o varias instancias: la toma usa
+ * {@code FOR UPDATE SKIP LOCKED}).
+ */
+public class ChatLlmJobRepository {
+
+    public static final String PENDIENTE = "pendiente";
+    public static final String PROCESANDO = "procesando";
+    public static final String COMPLETADO = "completado";
+    public static final String FALLIDO = "fallido";
+
+    /**
+     * Indica si la tabla existe (migración aplicada).
+     */
+    public boolean disponible() throws SQLException {
+        try (Connection c = Database.getConnection();
+                PreparedStatement ps = c.prepareStatement("SELECT to_regclass('chat_llm_jobs') IS NOT NULL");
+                ResultSet rs = ps.executeQuery()) {
+            return rs.next() && rs.getBoolean(1);
+        }
+    }
+
+    /**
+     * Indica si la conversación tiene trabajos sin terminar (pendientes o en proceso).
+     */
+    public boolean tieneAbiertos(long idConversacion) throws SQLException {
+        String sql = """
+                SELECT EXISTS (
+                    SELECT 1 FROM chat_llm_jobs
+                    WHERE id_conversacion = ? AND estado IN ('pendiente', 'procesando')
+                )
+                """;
+        try (Connection c = Database.getConnection(); PreparedStatement ps = c.prepareStatement(sql)) {
+            ps.setLong(1, idConversacion);
+            try (ResultSet rs = ps.executeQuery()) {
+                return rs.next() && rs.getBoolean(1);
+            }
+        }
+    }
+
+    /**
+     * Encola el mensaje si hay menos de {@code maxPendientes} trabajos sin terminar.
+     *
+     * @return id del trabajo, o -1 si la cola está llena.
+     */
+    public long encolar(long idConversacion, int idRemitente, String mensaje, int maxPendientes) throws SQLException {
+        String sql = """
+                INSERT INTO chat_llm_jobs (id_conversacion, id_remitente, mensaje)
+                SELECT ?, ?, ?
+                WHERE (SELECT COUNT(*) FROM chat_llm_jobs WHERE estado IN ('pendiente', 'procesando')) < ?
+                RETURNING id_job
+                """;
+        try (Connection c = Database.getConnection(); PreparedStatement ps = c.prepareStatement(sql)) {
+            ps.setLong(1, idConversacion);
+            ps.setInt(2, idRemitente);
+            ps.setString(3, mensaje);
+            ps.setInt(4, maxPendientes);
+            try (ResultSet rs = ps.executeQuery()) {
+                return rs.next() ? rs.getLong(1) : -1;
+            }
+        }
+    }
+
+    /**
+     * Marca como {@code procesando} hasta {@code maximo} trabajos listos, uno
+     * por conversación y siempre el más antiguo de cada una.
+     */
+    public List<TrabajoLlm> tomar(int maximo) throws SQLException {
+        String sql = """
+                UPDATE chat_llm_jobs j
+                SET estado = 'procesando', intentos = j.intentos + 1, updated_at = NOW()
+                WHERE j.id_job IN (
+                    SELECT p.id_job FROM chat_llm_jobs p
+                    WHERE p.estado = 'pendiente'
+                      AND p.proximo_intento <= NOW()
+                      AND NOT EXISTS (
+                          SELECT 1 FROM chat_llm_jobs o
+                          WHERE o.id_conversacion = p.id_conversacion
+                            AND o.id_job < p.id_job
+                            AND o.estado IN ('pendiente', 'procesando'))
+                    ORDER BY p.id_job
+                    LIMIT ?
+                    FOR UPDATE SKIP LOCKED)
+                RETURNING j.id_job, j.id_conversacion, j.id_remitente, j.mensaje, j.intentos
+                """;
+        List<TrabajoLlm> trabajos = new ArrayList<>();
+        try (Connection c = Database.getConnection(); PreparedStatement ps = c.prepareStatement(sql)) {
+            ps.setInt(1, maximo);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    trabajos.add(new TrabajoLlm(rs.getLong(1), rs.getLong(2), rs.getInt(3), rs.getString(4), rs.getInt(5)));
+                }
+            }
+        }
+        return trabajos;
+    }
+
+    /**
+     * Guarda la respuesta del bot en {@code chat_mensajes} y cierra el trabajo
+     * con {@code estadoFinal} en una sola sentencia. No hace nada si el trabajo
+     * ya no está en el intento {@code trabajo.intentos()} (p. ej. se recuperó
+     * como huérfano y lo tomó otro worker), así que no se duplican respuestas.
+     *
+     * @return id del mensaje insertado, o -1 si el intento ya no era vigente.
+     */
+    public long responder(TrabajoLlm trabajo, long idBot, String texto, String estadoFinal, String error) throws SQLException {
+        String sql = """
+                WITH vigente AS (
+                    SELECT id_job FROM chat_llm_jobs
+                    WHERE id_job = ? AND estado = 'procesando' AND intentos = ?
+                    FOR UPDATE
+                ), mensaje AS (
+                    INSERT INTO chat_mensajes (id_conversacion, id_remitente, id_destinatario, mensaje, created_at)
+                    SELECT ?, ?, ?, ?, NOW() FROM vigente
+                    RETURNING id_mensaje
+                )
+                UPDATE chat_llm_jobs j
+                SET estado = ?, error = ?, id_mensaje_respuesta = mensaje.id_mensaje, updated_at = NOW()
+                FROM mensaje
+                WHERE j.id_job = ?
+                RETURNING mensaje.id_mensaje
+                """;
+        try (Connection c = Database.getConnection(); PreparedStatement ps = c.prepareStatement(sql)) {
+            ps.setLong(1, trabajo.idJob());
+            ps.setInt(2, trabajo.intentos());
+            ps.setLong(3, trabajo.idConversacion());
+            ps.setLong(4, idBot);
+            ps.setLong(5, trabajo.idRemitente());
+            ps.setString(6, texto);
+            ps.setString(7, estadoFinal);
+            ps.setString(8, error);
+            ps.setLong(9, trabajo.idJob());
+            try (ResultSet rs = ps.executeQuery()) {
+                return rs.next() ? rs.getLong(1) : -1;
+            }
+        }
+    }
+
+    /**
+     * Devuelve el trabajo a la cola para reintentarlo dentro de {@code esperaMs}.
+     */
+    public void reintentar(long idJob, String error, long esperaMs) throws SQLException {
+        String sql = """
+                UPDATE chat_llm_jobs
+                SET estado = 'pendiente', error = ?, proximo_intento = NOW() + (? * INTERVAL '1 millisecond'), updated_at = NOW()
+                WHERE id_job = ?
+                """;
+        try (Connection c = Database.getConnection(); PreparedStatement ps = c.prepareStatement(sql)) {
+            ps.setString(1, error);
+            ps.setLong(2, esperaMs);
+            ps.setLong(3, idJob);
+            ps.executeUpdate();
+        }
+    }
+
+    /**
+     * Cierra el trabajo como fallido sin respuesta.
+     */
+    public void fallar(long idJob, String error) throws SQLException {
+        String sql = """
+                UPDATE chat_llm_jobs
+                SET estado = 'fallido', error = ?, updated_at = NOW()
+                WHERE id_job = ?
+                """;
+        try (Connection c = Database.getConnection(); PreparedStatement ps = c.prepareStatement(sql)) {
+            ps.setString(1, error);
+            ps.setLong(2, idJob);
+            ps.executeUpdate();
+        }
+    }
+
+    /**
+     * Devuelve a la cola los trabajos que quedaron en {@code procesando} más de
+     * {@code vencidoMs} (p. ej. el proceso se detuvo a mitad de la llamada).
+     *
+     * @return trabajos recuperados.
+     */
+    public int recuperarHuerfanos(long vencidoMs) throws SQLException {
+        String sql = """
+                UPDATE chat_llm_jobs
+                SET estado = 'pendiente', updated_at = NOW()
+                WHERE estado = 'procesando' AND updated_at < NOW() - (? * INTERVAL '1 millisecond')
+                """;
+        try (Connection c = Database.getConnection(); PreparedStatement ps = c.prepareStatement(sql)) {
+            ps.setLong(1, vencidoMs);
+            return ps.executeUpdate();
+        }
+    }
+}
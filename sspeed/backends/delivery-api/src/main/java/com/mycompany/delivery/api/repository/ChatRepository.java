@@ -11,6 +11,11 @@ import java.util.Map;
 import java.util.Optional;
 
 import com.mycompany.delivery.api.config.Database;
+import com.mycompany.delivery.api.model.MensajeChatFila;
+import com.mycompany.delivery.api.services.ConversacionVersiones;
+import com.mycompany.delivery.api.services.RespuestasPredefinidas;
+import com.mycompany.delivery.api.util.Pagina;
+import com.mycompany.delivery.api.util.Paginacion;
 
 /**
  * Repositorio para gestionar las operaciones de la base de datos relacionadas
@@ -45,7 +50,7 @@ public class ChatRepository {
     }
 
     // Método público para obtener el chat por pedido
-    public java.util.List<java.util.Map<String, Object>> obtenerChatPorPedido(long idPedido) {
+    public java.util.List<MensajeChatFila> obtenerChatPorPedido(long idPedido) {
         try {
             // Buscar la conversación por idPedido
             String sql = "SELECT id_conversacion FROM chat_conversaciones WHERE id_pedido = ? LIMIT 1";
@@ -136,6 +141,7 @@ public class ChatRepository {
                     map.put("id_destinatario", idDestinatario);
                     map.put("mensaje", mensaje);
                     map.put("created_at", rs.getTimestamp("created_at"));
+                    ConversacionVersiones.getInstance().tocar(ConversacionVersiones.CHAT, idConversacion);
                     return map;
                 }
             }
@@ -147,10 +153,10 @@ public class ChatRepository {
      * Lista todos los mensajes de una conversación específica, ordenados por fecha.
      *
      * @param idConversacion El ID de la conversación.
-     * @return Una lista de mapas, donde cada mapa es un mensaje.
+     * @return Los mensajes de la conversación.
      * @throws SQLException Si ocurre un error en la base de datos.
      */
-    public List<Map<String, Object>> listarMensajes(long idConversacion) throws SQLException {
+    public List<MensajeChatFila> listarMensajes(long idConversacion) throws SQLException {
         return listarMensajes(idConversacion, -1, 0);
     }
 
@@ -160,10 +166,10 @@ public class ChatRepository {
      * @param idConversacion el ID de la conversación.
      * @param limit el número máximo de mensajes a retornar (-1 para sin límite).
      * @param offset el offset desde el cual iniciar (para paginación).
-     * @return una lista de mensajes (cada uno como un mapa con sus datos).
+     * @return una lista de mensajes.
      * @throws SQLException Si ocurre un error en la base de datos.
      */
-    public List<Map<String, Object>> listarMensajes(long idConversacion, int limit, int offset) throws SQLException {
+    public List<MensajeChatFila> listarMensajes(long idConversacion, int limit, int offset) throws SQLException {
         StringBuilder sql = new StringBuilder("""
                 SELECT m.id_mensaje,
                        m.id_conversacion,
@@ -193,24 +199,85 @@ public class ChatRepository {
             }
             
             try (ResultSet rs = ps.executeQuery()) {
-                List<Map<String, Object>> list = new ArrayList<>();
+                List<MensajeChatFila> list = new ArrayList<>();
                 while (rs.next()) {
-                    Map<String, Object> row = new HashMap<>();
-                    row.put("id_mensaje", rs.getLong("id_mensaje"));
-                    row.put("id_conversacion", rs.getLong("id_conversacion"));
-                    row.put("id_remitente", rs.getLong("id_remitente"));
-                    row.put("id_destinatario", rs.getObject("id_destinatario") != null ? rs.getLong("id_destinatario") : null);
-                    row.put("mensaje", rs.getString("mensaje"));
-                    row.put("created_at", rs.getTimestamp("created_at"));
-                    row.put("remitente_nombre", rs.getString("remitente_nombre"));
-                    row.put("es_bot", rs.getBoolean("es_bot"));
-                    list.add(row);
+                    list.add(mapMensaje(rs));
                 }
                 return list;
             }
         }
     }
 
+    /**
+     * Página de mensajes en orden cronológico a continuación de {@code desde}
+     * (keyset sobre {@code (created_at, id_mensaje)}).
+     *
+     * @param desde  cursor de la página anterior, o null para empezar por el primer mensaje.
+     * @param limite número máximo de mensajes de la página.
+     */
+    public Pagina<MensajeChatFila> listarMensajes(long idConversacion, Paginacion.Cursor desde, int limite) throws SQLException {
+        String sql = """
+                SELECT m.id_mensaje,
+                       m.id_conversacion,
+                       m.id_remitente,
+                       m.id_destinatario,
+                       m.mensaje,
+                       m.created_at,
+                       u.nombre AS remitente_nombre,
+                       (LOWER(u.correo) = LOWER(?)) AS es_bot
+                FROM chat_mensajes m
+                LEFT JOIN usuarios u ON u.id_usuario = m.id_remitente
+                WHERE m.id_conversacion = ?
+                %s
+                ORDER BY m.created_at ASC, m.id_mensaje ASC
+                LIMIT ?
+                """.formatted(desde != null ? "AND (m.created_at, m.id_mensaje) > (?, ?)" : "");
+
+        try (Connection c = Database.getConnection(); PreparedStatement ps = c.prepareStatement(sql)) {
+            int i = 1;
+            ps.setString(i++, BOT_EMAIL);
+            ps.setLong(i++, idConversacion);
+            if (desde != null) {
+                ps.setTimestamp(i++, desde.getFecha());
+                ps.setLong(i++, desde.getId());
+            }
+            ps.setInt(i, limite + 1);
+
+            try (ResultSet rs = ps.executeQuery()) {
+                List<MensajeChatFila> list = new ArrayList<>();
+                String siguiente = null;
+                while (rs.next()) {
+                    if (list.size() == limite) {
+                        MensajeChatFila ultimo = list.get(limite - 1);
+                        siguiente = Paginacion.codificar(ultimo.createdAt(), ultimo.idMensaje());
+                        break;
+                    }
+                    list.add(mapMensaje(rs));
+                }
+                return new Pagina<>(list, siguiente);
+            }
+        }
+    }
+
+    /**
+     * Fila de {@code SELECT m.id_mensaje, m.id_conversacion, m.id_remitente,
+     * m.id_destinatario, m.mensaje, m.created_at, remitente_nombre, es_bot};
+     * se lee por posición, sin buscar columnas por nombre.
+     */
+    private static MensajeChatFila mapMensaje(ResultSet rs) throws SQLException {
+        long idDestinatario = rs.getLong(4);
+        Long destinatario = rs.wasNull() ? null : idDestinatario;
+        return new MensajeChatFila(
+                rs.getLong(1),
+                rs.getLong(2),
+                rs.getLong(3),
+                destinatario,
+                rs.getString(5),
+                rs.getTimestamp(6),
+                rs.getString(7),
+                rs.getBoolean(8));
+    }
+
     /**
      * Lista todas las conversaciones en las que participa un usuario.
      *
@@ -382,19 +449,9 @@ public class ChatRepository {
     }
 
     public Optional<String> buscarRespuestaPredefinida(String mensaje, String scope) throws SQLException {
-        String sql = "SELECT respuesta FROM fn_chatbot_match_predef(?, ?, ?, 'es')";
-        try (Connection conn = Database.getConnection();
-             PreparedStatement ps = conn.prepareStatement(sql)) {
-            ps.setString(1, mensaje);
-            ps.setString(2, scope);
-            ps.setString(3, "general"); // O el canal que corresponda
-            try (ResultSet rs = ps.executeQuery()) {
-                if (rs.next()) {
-                    return Optional.ofNullable(rs.getString("respuesta"));
-                }
-            }
-        }
-        return Optional.empty();
+        return RespuestasPredefinidas.getInstance()
+                .buscarIa(mensaje, scope, "general", "es") // O el canal que corresponda
+                .map(RespuestasPredefinidas.Coincidencia::respuesta);
     }
 
     private void ensureSchema() throws SQLException {
@@ -0,0 +1,68 @@
+package com.mycompany.delivery.api.repository;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.Optional;
+
+import com.mycompany.delivery.api.config.Database;
+
+/**
+ * Versión de los mensajes de cada conversación, que mantienen los triggers de
+ * {@code sql/20261018_conversacion_version.sql}.
+ */
+public class ConversacionVersionRepository {
+
+    public record Version(long numero, long modificadoMs) {}
+
+    /**
+     * Indica si la migración está aplicada completa: las columnas de versión y
+     * el trigger que la sube al renombrar a un remitente.
+     */
+    public boolean disponible() throws SQLException {
+        final String sql = """
+                SELECT EXISTS (
+                           SELECT 1 FROM information_schema.columns
+                           WHERE table_name = 'chat_conversaciones' AND column_name = 'version_mensajes')
+                       AND to_regproc('trg_usuario_conversacion_version') IS NOT NULL
+                """;
+        try (Connection c = Database.getConnection();
+                PreparedStatement ps = c.prepareStatement(sql);
+                ResultSet rs = ps.executeQuery()) {
+            return rs.next() && rs.getBoolean(1);
+        }
+    }
+
+    public Optional<Version> buscarChat(long idConversacion) throws SQLException {
+        return buscar("""
+                SELECT version_mensajes, mensajes_modificado_en
+                FROM chat_conversaciones
+                WHERE id_conversacion = ?
+                """, idConversacion);
+    }
+
+    public Optional<Version> buscarSoporte(long idConversacion) throws SQLException {
+        return buscar("""
+                SELECT version_mensajes, mensajes_modificado_en
+                FROM soporte_conversaciones
+                WHERE id_soporte_conv = ?
+                """, idConversacion);
+    }
+
+    private Optional<Version> buscar(String sql, long idConversacion) throws SQLException {
+        try (Connection c = Database.getConnection();
+                PreparedStatement ps = c.prepareStatement(sql)) {
+            ps.setLong(1, idConversacion);
+            try (ResultSet rs = ps.executeQuery()) {
+                if (!rs.next()) {
+                    return Optional.empty();
+                }
+                Timestamp modificado = rs.getTimestamp("mensajes_modificado_en");
+                return Optional.of(new Version(rs.getLong("version_mensajes"),
+                        modificado != null ? modificado.getTime() : 0L));
+            }
+        }
+    }
+}
@@ -7,12 +7,137 @@ import java.sql.SQLException;
 import java.util.HashMap;
 import java.util.Map;
 
+import com.mycompany.delivery.api.config.Config;
 import com.mycompany.delivery.api.config.Database;
 import com.mycompany.delivery.api.util.ApiException;
 
+/**
+ * Estadísticas del dashboard. Se leen de los agregados que mantienen los
+ * triggers de {@code sql/20261018_dashboard_agregados.sql} (unas pocas filas
+ * por consulta); sin la migración, o si la lectura falla, se calculan sobre
+ * las tablas base como antes.
+ */
 public class DashboardDAO {
 
+    // null = aún no comprobado
+    private static volatile Boolean agregados;
+    // Clave del advisory lock de la reconciliación (compartida entre instancias)
+    private static final long LOCK_RECONCILIAR = 0x64617368_72636e6cL;
+
+    // ===============================
+    // AGREGADOS
+    // ===============================
+    public static boolean isAgregadosEnabled() {
+        return Boolean.parseBoolean(Config.resolve("DASHBOARD_AGREGADOS_ENABLED", "true"));
+    }
+
+    /**
+     * Indica si las tablas de agregados existen (migración aplicada).
+     */
+    public boolean agregadosDisponibles() throws SQLException {
+        try (Connection c = Database.getConnection();
+                PreparedStatement ps = c.prepareStatement("SELECT to_regclass('dashboard_totales') IS NOT NULL");
+                ResultSet rs = ps.executeQuery()) {
+            return rs.next() && rs.getBoolean(1);
+        }
+    }
+
+    /**
+     * Corrige la deriva de los agregados respecto a pedidos, detalle_pedidos y
+     * usuarios. El cálculo corre en una transacción REPEATABLE READ sin
+     * bloquear tablas y la corrección, en otra, sólo toca las filas que
+     * difieren. El advisory lock evita que dos instancias la apliquen a la vez.
+     *
+     * @return filas corregidas, o -1 si otra instancia está reconciliando.
+     */
+    public int reconciliar() throws SQLException {
+        try (Connection c = Database.getConnection()) {
+            try (PreparedStatement ps = c.prepareStatement("SELECT pg_try_advisory_lock(?)")) {
+                ps.setLong(1, LOCK_RECONCILIAR);
+                try (ResultSet rs = ps.executeQuery()) {
+                    if (!rs.next() || !rs.getBoolean(1)) {
+                        return -1;
+                    }
+                }
+            }
+            try {
+                int filas;
+                c.setAutoCommit(false);
+                c.setTransactionIsolation(Connection.TRANSACTION_REPEATABLE_READ);
+                try (PreparedStatement ps = c.prepareStatement("SELECT fn_dashboard_calcular_deriva()");
+                        ResultSet rs = ps.executeQuery()) {
+                    filas = rs.next() ? rs.getInt(1) : 0;
+                }
+                c.commit();
+                c.setTransactionIsolation(Connection.TRANSACTION_READ_COMMITTED);
+                try (PreparedStatement ps = c.prepareStatement("SELECT fn_dashboard_aplicar_deriva()")) {
+                    ps.execute();
+                }
+                c.commit();
+                return filas;
+            } catch (SQLException e) {
+                c.rollback();
+                throw e;
+            } finally {
+                c.setAutoCommit(true);
+                try (PreparedStatement ps = c.prepareStatement("SELECT pg_advisory_unlock(?)")) {
+                    ps.setLong(1, LOCK_RECONCILIAR);
+                    ps.execute();
+                }
+            }
+        }
+    }
+
+    private boolean usarAgregados() {
+        if (!isAgregadosEnabled()) {
+            return false;
+        }
+        Boolean disponibles = agregados;
+        if (disponibles == null) {
+            try {
+                disponibles = agregadosDisponibles();
+            } catch (SQLException e) {
+                return false;
+            }
+            agregados = disponibles;
+        }
+        return disponibles;
+    }
+
+    // ===============================
+    // ADMIN
+    // ===============================
     public Map<String, Object> obtenerEstadisticasAdmin() {
+        if (usarAgregados()) {
+            final String sql = """
+                SELECT (SELECT COALESCE(SUM(ventas), 0) FROM dashboard_dia WHERE dia = CURRENT_DATE) AS ventas_hoy,
+                       t.ventas_totales, t.pedidos_pendientes, t.pedidos_entregados,
+                       (SELECT COALESCE(SUM(nuevos_usuarios), 0) FROM dashboard_dia
+                         WHERE dia = CURRENT_DATE)::int AS nuevos_clientes,
+                       COALESCE(tp.nombre, 'N/D') AS producto_mas_vendido,
+                       COALESCE(tp.cantidad, 0)::int AS producto_mas_vendido_cantidad
+                FROM (SELECT COALESCE(SUM(ventas), 0) AS ventas_totales,
+                             COALESCE(SUM(pendientes), 0)::int AS pedidos_pendientes,
+                             COALESCE(SUM(entregados), 0)::int AS pedidos_entregados
+                        FROM dashboard_totales) t
+                LEFT JOIN LATERAL (
+                    SELECT p.nombre, v.cantidad
+                    FROM dashboard_productos v
+                    JOIN productos p ON p.id_producto = v.id_producto
+                    WHERE v.cantidad > 0
+                    ORDER BY v.cantidad DESC
+                    LIMIT 1
+                ) tp ON TRUE
+            """;
+            try (Connection conn = Database.getConnection();
+                 PreparedStatement stmt = conn.prepareStatement(sql);
+                 ResultSet rs = stmt.executeQuery()) {
+                if (rs.next()) return mapStats(rs);
+            } catch (SQLException e) {
+                System.err.println("⚠️ Agregados del dashboard no disponibles: " + e.getMessage());
+            }
+        }
+
         // Intento función consolidada
         try (Connection conn = Database.getConnection();
              PreparedStatement stmt = conn.prepareStatement("SELECT * FROM fn_admin_dashboard()");
@@ -70,7 +195,30 @@ public class DashboardDAO {
         return empty;
     }
 
+    // ===============================
+    // DELIVERY
+    // ===============================
     public Map<String, Object> obtenerEstadisticasDelivery(int idDelivery) {
+        if (usarAgregados()) {
+            final String sql = """
+                SELECT COALESCE(d.entregas, 0) AS pedidos_completados_hoy,
+                       COALESCE(d.total, 0) AS total_generado_hoy,
+                       CASE WHEN r.entregas > 0 THEN r.minutos / r.entregas END AS tiempo_promedio_min
+                FROM (SELECT ?::bigint AS id_delivery) x
+                LEFT JOIN dashboard_repartidores r ON r.id_delivery = x.id_delivery
+                LEFT JOIN dashboard_repartidores_dia d ON d.id_delivery = x.id_delivery AND d.dia = CURRENT_DATE
+            """;
+            try (Connection c = Database.getConnection();
+                 PreparedStatement ps = c.prepareStatement(sql)) {
+                ps.setInt(1, idDelivery);
+                try (ResultSet rs = ps.executeQuery()) {
+                    return mapDelivery(rs);
+                }
+            } catch (SQLException e) {
+                System.err.println("⚠️ Agregados del dashboard no disponibles: " + e.getMessage());
+            }
+        }
+
         final String sql = """
             SELECT
               COUNT(*) FILTER (WHERE estado='entregado' AND updated_at::date=CURRENT_DATE)::int AS pedidos_completados_hoy,
@@ -84,23 +232,27 @@ public class DashboardDAO {
              PreparedStatement ps = c.prepareStatement(sql)) {
             ps.setInt(1, idDelivery);
             try (ResultSet rs = ps.executeQuery()) {
-                Map<String, Object> out = new HashMap<>();
-                out.put("pedidos_completados_hoy", 0);
-                out.put("total_generado_hoy", 0.0);
-                out.put("tiempo_promedio_min", 0.0);
-                if (rs.next()) {
-                    out.put("pedidos_completados_hoy", rs.getInt("pedidos_completados_hoy"));
-                    out.put("total_generado_hoy", rs.getDouble("total_generado_hoy"));
-                    double t = rs.getDouble("tiempo_promedio_min");
-                    if (!rs.wasNull()) out.put("tiempo_promedio_min", t);
-                }
-                return out;
+                return mapDelivery(rs);
             }
         } catch (SQLException e) {
             throw new ApiException(500, "Error obteniendo estadísticas del delivery", e);
         }
     }
 
+    private Map<String, Object> mapDelivery(ResultSet rs) throws SQLException {
+        Map<String, Object> out = new HashMap<>();
+        out.put("pedidos_completados_hoy", 0);
+        out.put("total_generado_hoy", 0.0);
+        out.put("tiempo_promedio_min", 0.0);
+        if (rs.next()) {
+            out.put("pedidos_completados_hoy", rs.getInt("pedidos_completados_hoy"));
+            out.put("total_generado_hoy", rs.getDouble("total_generado_hoy"));
+            double t = rs.getDouble("tiempo_promedio_min");
+            if (!rs.wasNull()) out.put("tiempo_promedio_min", t);
+        }
+        return out;
+    }
+
     private Map<String, Object> mapStats(ResultSet rs) throws SQLException {
         Map<String, Object> stats = new HashMap<>();
         stats.put("ventas_hoy", rs.getBigDecimal("ventas_hoy"));
@@ -0,0 +1,127 @@
+package com.mycompany.delivery.api.repository;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Optional;
+
+import com.mycompany.delivery.api.config.Database;
+
+/**
+ * Claves de idempotencia ({@code idempotencia}) que respaldan a
+ * {@code IdempotenciaStore} entre reinicios e instancias.
+ */
+public class IdempotenciaRepository {
+
+    /**
+     * Fila vigente de una clave; {@code status} y {@code cuerpo} sólo están
+     * informados si {@code completada}.
+     */
+    public record Registro(byte[] huella, boolean completada, int status, byte[] cuerpo, long restaMs) {}
+
+    /**
+     * Indica si la tabla existe (migración aplicada).
+     */
+    public boolean disponible() throws SQLException {
+        try (Connection c = Database.getConnection();
+                PreparedStatement ps = c.prepareStatement("SELECT to_regclass('idempotencia') IS NOT NULL");
+                ResultSet rs = ps.executeQuery()) {
+            return rs.next() && rs.getBoolean(1);
+        }
+    }
+
+    /**
+     * Reserva la clave para una petición en curso. También la toma si la fila
+     * existente venció o lleva más de {@code enCursoMs} en curso (la instancia
+     * que la reservó cayó sin liberarla).
+     *
+     * @return {@code false} si otra petición ya la tiene.
+     */
+    public boolean reservar(byte[] clave, byte[] huella, long ttlMs, long enCursoMs) throws SQLException {
+        final String sql = """
+                INSERT INTO idempotencia (clave, huella, estado, expira_en)
+                VALUES (?, ?, 'en_curso', NOW() + ? * INTERVAL '1 millisecond')
+                ON CONFLICT (clave) DO UPDATE SET
+                    huella = EXCLUDED.huella,
+                    estado = 'en_curso',
+                    status = NULL,
+                    cuerpo = NULL,
+                    created_at = NOW(),
+                    expira_en = EXCLUDED.expira_en
+                WHERE idempotencia.expira_en < NOW()
+                   OR (idempotencia.estado = 'en_curso'
+                       AND idempotencia.created_at < NOW() - ? * INTERVAL '1 millisecond')
+                RETURNING 1
+                """;
+        try (Connection c = Database.getConnection();
+                PreparedStatement ps = c.prepareStatement(sql)) {
+            ps.setBytes(1, clave);
+            ps.setBytes(2, huella);
+            ps.setLong(3, ttlMs);
+            ps.setLong(4, enCursoMs);
+            try (ResultSet rs = ps.executeQuery()) {
+                return rs.next();
+            }
+        }
+    }
+
+    public Optional<Registro> buscar(byte[] clave) throws SQLException {
+        final String sql = """
+                SELECT huella, estado = 'completada' AS completada, status, cuerpo,
+                       (EXTRACT(EPOCH FROM expira_en - NOW()) * 1000)::bigint AS resta_ms
+                FROM idempotencia
+                WHERE clave = ? AND expira_en >= NOW()
+                """;
+        try (Connection c = Database.getConnection();
+                PreparedStatement ps = c.prepareStatement(sql)) {
+            ps.setBytes(1, clave);
+            try (ResultSet rs = ps.executeQuery()) {
+                if (!rs.next()) {
+                    return Optional.empty();
+                }
+                return Optional.of(new Registro(rs.getBytes("huella"), rs.getBoolean("completada"),
+                        rs.getInt("status"), rs.getBytes("cuerpo"), rs.getLong("resta_ms")));
+            }
+        }
+    }
+
+    /**
+     * Guarda la respuesta de una clave reservada y renueva su vencimiento.
+     */
+    public void completar(byte[] clave, byte[] huella, int status, byte[] cuerpo, long ttlMs) throws SQLException {
+        final String sql = """
+                UPDATE idempotencia
+                SET estado = 'completada', status = ?, cuerpo = ?, expira_en = NOW() + ? * INTERVAL '1 millisecond'
+                WHERE clave = ? AND huella = ?
+                """;
+        try (Connection c = Database.getConnection();
+                PreparedStatement ps = c.prepareStatement(sql)) {
+            ps.setInt(1, status);
+            ps.setBytes(2, cuerpo);
+            ps.setLong(3, ttlMs);
+            ps.setBytes(4, clave);
+            ps.setBytes(5, huella);
+            ps.executeUpdate();
+        }
+    }
+
+    /**
+     * Suelta una reserva cuya petición falló, para que el reintento se ejecute.
+     */
+    public void liberar(byte[] clave) throws SQLException {
+        try (Connection c = Database.getConnection();
+                PreparedStatement ps = c.prepareStatement(
+                        "DELETE FROM idempotencia WHERE clave = ? AND estado = 'en_curso'")) {
+            ps.setBytes(1, clave);
+            ps.executeUpdate();
+        }
+    }
+
+    public int purgarVencidas() throws SQLException {
+        try (Connection c = Database.getConnection();
+                PreparedStatement ps = c.prepareStatement("DELETE FROM idempotencia WHERE expira_en < NOW()")) {
+            return ps.executeUpdate();
+        }
+    }
+}
@@ -2,6 +2,8 @@ package com.mycompany.delivery.api.repository;
 
 import com.mycompany.delivery.api.config.Database;
 import com.mycompany.delivery.api.model.Negocio;
+import com.mycompany.delivery.api.services.CatalogoCache;
+import com.mycompany.delivery.api.services.NegocioStatsStore;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
@@ -15,6 +17,12 @@ import java.util.Optional;
 public class NegocioRepository {
 
     public Map<String, Object> getNegocioStats(long negocioId) throws SQLException {
+        NegocioStatsStore store = NegocioStatsStore.getInstance();
+        if (store.isActivo()) {
+            return store.estadisticas(negocioId);
+        }
+
+        // Sin la tabla negocio_stats: cálculo directo sobre el historial
         String sql = """
             SELECT
                 COALESCE(SUM(dp.subtotal), 0) AS ingresos_totales,
@@ -136,6 +144,7 @@ public class NegocioRepository {
             ps.setObject(7, n.isActivo());
             try (ResultSet rs = ps.executeQuery()) {
                 if (rs.next()) {
+                    CatalogoCache.getInstance().invalidar();
                     return mapRow(rs);
                 }
             }
@@ -159,6 +168,7 @@ public class NegocioRepository {
             ps.setInt(7, n.getIdNegocio());
             ps.executeUpdate();
         }
+        CatalogoCache.getInstance().invalidar();
     }
 
     private Negocio mapRow(ResultSet rs) throws SQLException {
@@ -0,0 +1,241 @@
+package com.mycompany.delivery.api.repository;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
+import com.mycompany.delivery.api.config.Database;
+import com.mycompany.delivery.api.model.NegocioStats;
+import com.mycompany.delivery.api.util.Json;
+
+/**
+ * Instantáneas de las estadísticas por negocio ({@code negocio_stats}) y las
+ * consultas que alimentan {@code NegocioStatsStore}.
+ */
+public class NegocioStatsRepository {
+
+    /**
+     * Parte de un pedido que corresponde a un negocio.
+     */
+    public record Aporte(long idNegocio, long subtotalCentavos, long unidades) {}
+
+    /**
+     * Indica si la tabla existe (migración aplicada).
+     */
+    public boolean disponible() throws SQLException {
+        try (Connection c = Database.getConnection();
+                PreparedStatement ps = c.prepareStatement("SELECT to_regclass('negocio_stats') IS NOT NULL");
+                ResultSet rs = ps.executeQuery()) {
+            return rs.next() && rs.getBoolean(1);
+        }
+    }
+
+    // ===============================
+    // CARGA
+    // ===============================
+    public List<NegocioStats> cargarInstantaneas() throws SQLException {
+        final String sql = """
+                SELECT id_negocio, total_productos, pedidos_completados, ingresos_totales, productos_vendidos,
+                       dia, pedidos_hoy, ventas_hoy, pedidos_por_estado::text AS pedidos_por_estado
+                FROM negocio_stats
+                """;
+        List<NegocioStats> out = new ArrayList<>();
+        try (Connection c = Database.getConnection();
+                PreparedStatement ps = c.prepareStatement(sql);
+                ResultSet rs = ps.executeQuery()) {
+            while (rs.next()) {
+                out.add(new NegocioStats(
+                        rs.getLong("id_negocio"),
+                        rs.getInt("total_productos"),
+                        rs.getLong("pedidos_completados"),
+                        centavos(rs.getBigDecimal("ingresos_totales")),
+                        rs.getLong("productos_vendidos"),
+                        rs.getDate("dia").toLocalDate(),
+                        rs.getInt("pedidos_hoy"),
+                        centavos(rs.getBigDecimal("ventas_hoy")),
+                        leerEstados(rs.getString("pedidos_por_estado"))));
+            }
+        }
+        return out;
+    }
+
+    /**
+     * Calcula desde pedidos y productos los negocios que aún no tienen
+     * instantánea (primer arranque o fila borrada para forzar el recálculo).
+     */
+    public List<NegocioStats> calcularSinInstantanea() throws SQLException {
+        return calcular(true);
+    }
+
+    /**
+     * Calcula todos los negocios desde pedidos y productos (reconciliación).
+     */
+    public List<NegocioStats> calcularTodos() throws SQLException {
+        return calcular(false);
+    }
+
+    private List<NegocioStats> calcular(boolean soloSinInstantanea) throws SQLException {
+        final String sinInstantanea = "NOT EXISTS (SELECT 1 FROM negocio_stats s WHERE s.id_negocio = %s)";
+        final String sqlNegocios = """
+                SELECT n.id_negocio,
+                       (SELECT COUNT(*) FROM productos pr WHERE pr.id_negocio = n.id_negocio)::int AS total_productos
+                FROM negocios n
+                WHERE %s
+                """.formatted(soloSinInstantanea ? sinInstantanea.formatted("n.id_negocio") : "TRUE");
+        final String sqlPedidos = """
+                WITH por_pedido AS (
+                    SELECT pr.id_negocio, p.estado, p.created_at::date = CURRENT_DATE AS hoy,
+                           SUM(dp.subtotal) AS subtotal, SUM(dp.cantidad) AS unidades
+                    FROM pedidos p
+                    JOIN detalle_pedidos dp ON dp.id_pedido = p.id_pedido
+                    JOIN productos pr ON pr.id_producto = dp.id_producto
+                    WHERE %s
+                    GROUP BY pr.id_negocio, p.id_pedido, p.estado, p.created_at
+                )
+                SELECT id_negocio, estado, COUNT(*) AS pedidos,
+                       COALESCE(SUM(subtotal), 0) AS subtotal, COALESCE(SUM(unidades), 0) AS unidades,
+                       COUNT(*) FILTER (WHERE hoy)::int AS pedidos_hoy,
+                       COALESCE(SUM(subtotal) FILTER (WHERE hoy), 0) AS subtotal_hoy
+                FROM por_pedido
+                GROUP BY id_negocio, estado
+                """.formatted(soloSinInstantanea ? sinInstantanea.formatted("pr.id_negocio") : "TRUE");
+        LocalDate hoy = LocalDate.now();
+        Map<Long, NegocioStats> porNegocio = new HashMap<>();
+        try (Connection c = Database.getConnection()) {
+            // Las dos consultas sobre la misma instantánea de la BD
+            c.setAutoCommit(false);
+            c.setTransactionIsolation(Connection.TRANSACTION_REPEATABLE_READ);
+            try (PreparedStatement ps = c.prepareStatement(sqlNegocios);
+                    ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    long id = rs.getLong("id_negocio");
+                    porNegocio.put(id, new NegocioStats(id, rs.getInt("total_productos"), 0, 0, 0, hoy, 0, 0,
+                            new HashMap<>()));
+                }
+            }
+            try (PreparedStatement ps = c.prepareStatement(sqlPedidos);
+                    ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    NegocioStats s = porNegocio.get(rs.getLong("id_negocio"));
+                    if (s == null) {
+                        continue;
+                    }
+                    String estado = rs.getString("estado");
+                    long pedidos = rs.getLong("pedidos");
+                    boolean entregado = "entregado".equals(estado);
+                    s.pedidosPorEstado().merge(estado, pedidos, Long::sum);
+                    porNegocio.put(s.idNegocio(), new NegocioStats(s.idNegocio(), s.totalProductos(),
+                            s.pedidosCompletados() + (entregado ? pedidos : 0),
+                            s.ingresosCentavos() + (entregado ? centavos(rs.getBigDecimal("subtotal")) : 0),
+                            s.productosVendidos() + (entregado ? rs.getLong("unidades") : 0),
+                            hoy,
+                            s.pedidosHoy() + rs.getInt("pedidos_hoy"),
+                            s.ventasHoyCentavos() + centavos(rs.getBigDecimal("subtotal_hoy")),
+                            s.pedidosPorEstado()));
+                }
+            }
+            c.commit();
+        }
+        List<NegocioStats> out = new ArrayList<>();
+        for (NegocioStats s : porNegocio.values()) {
+            out.add(new NegocioStats(s.idNegocio(), s.totalProductos(), s.pedidosCompletados(), s.ingresosCentavos(),
+                    s.productosVendidos(), s.dia(), s.pedidosHoy(), s.ventasHoyCentavos(),
+                    Map.copyOf(s.pedidosPorEstado())));
+        }
+        return out;
+    }
+
+    /**
+     * Reparto de un pedido entre los negocios de sus productos.
+     */
+    public List<Aporte> desglosePedido(long idPedido) throws SQLException {
+        final String sql = """
+                SELECT pr.id_negocio, SUM(dp.subtotal) AS subtotal, SUM(dp.cantidad) AS unidades
+                FROM detalle_pedidos dp
+                JOIN productos pr ON pr.id_producto = dp.id_producto
+                WHERE dp.id_pedido = ?
+                GROUP BY pr.id_negocio
+                """;
+        List<Aporte> out = new ArrayList<>();
+        try (Connection c = Database.getConnection();
+                PreparedStatement ps = c.prepareStatement(sql)) {
+            ps.setLong(1, idPedido);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    out.add(new Aporte(rs.getLong("id_negocio"), centavos(rs.getBigDecimal("subtotal")),
+                            rs.getLong("unidades")));
+                }
+            }
+        }
+        return out;
+    }
+
+    // ===============================
+    // INSTANTÁNEA
+    // ===============================
+    public void guardar(Collection<NegocioStats> stats) throws SQLException {
+        if (stats.isEmpty()) {
+            return;
+        }
+        final String sql = """
+                INSERT INTO negocio_stats (id_negocio, total_productos, pedidos_completados, ingresos_totales,
+                                           productos_vendidos, dia, pedidos_hoy, ventas_hoy, pedidos_por_estado, updated_at)
+                SELECT ?, ?, ?, ?, ?, ?, ?, ?, ?::jsonb, NOW()
+                WHERE EXISTS (SELECT 1 FROM negocios WHERE id_negocio = ?)
+                ON CONFLICT (id_negocio) DO UPDATE SET
+                    total_productos = EXCLUDED.total_productos,
+                    pedidos_completados = EXCLUDED.pedidos_completados,
+                    ingresos_totales = EXCLUDED.ingresos_totales,
+                    productos_vendidos = EXCLUDED.productos_vendidos,
+                    dia = EXCLUDED.dia,
+                    pedidos_hoy = EXCLUDED.pedidos_hoy,
+                    ventas_hoy = EXCLUDED.ventas_hoy,
+                    pedidos_por_estado = EXCLUDED.pedidos_por_estado,
+                    updated_at = NOW()
+                """;
+        try (Connection c = Database.getConnection();
+                PreparedStatement ps = c.prepareStatement(sql)) {
+            for (NegocioStats s : stats) {
+                ps.setLong(1, s.idNegocio());
+                ps.setInt(2, s.totalProductos());
+                ps.setLong(3, s.pedidosCompletados());
+                ps.setBigDecimal(4, BigDecimal.valueOf(s.ingresosCentavos(), 2));
+                ps.setLong(5, s.productosVendidos());
+                ps.setDate(6, Date.valueOf(s.dia()));
+                ps.setInt(7, s.pedidosHoy());
+                ps.setBigDecimal(8, BigDecimal.valueOf(s.ventasHoyCentavos(), 2));
+                ps.setString(9, Json.GSON.toJson(s.pedidosPorEstado()));
+                ps.setLong(10, s.idNegocio());
+                ps.addBatch();
+            }
+            ps.executeBatch();
+        }
+    }
+
+    private static long centavos(BigDecimal valor) {
+        return valor == null ? 0 : valor.movePointRight(2).setScale(0, RoundingMode.HALF_UP).longValueExact();
+    }
+
+    private static Map<String, Long> leerEstados(String json) {
+        if (json == null || json.isBlank()) {
+            return Map.of();
+        }
+        Map<String, Long> out = new HashMap<>();
+        for (Map.Entry<String, JsonElement> e : JsonParser.parseString(json).getAsJsonObject().entrySet()) {
+            out.put(e.getKey(), e.getValue().getAsLong());
+        }
+        return Map.copyOf(out);
+    }
+}
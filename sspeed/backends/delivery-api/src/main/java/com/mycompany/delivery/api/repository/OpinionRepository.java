@@ -1,12 +1,13 @@
 package com.mycompany.delivery.api.repository;
 
 import com.mycompany.delivery.api.config.Database;
+import com.mycompany.delivery.api.model.OpinionFila;
 import java.sql.*;
 import java.util.*;
 
 public class OpinionRepository {
 
-    public List<Map<String, Object>> listarOpinionesAprobadas(int limit) throws SQLException {
+    public List<OpinionFila> listarOpinionesAprobadas(int limit) throws SQLException {
         String sql = """
             SELECT 
                 id_opinion,
@@ -22,7 +23,7 @@ public class OpinionRepository {
             LIMIT ?
         """;
         
-        List<Map<String, Object>> opiniones = new ArrayList<>();
+        List<OpinionFila> opiniones = new ArrayList<>();
         
         try (Connection conn = Database.getConnection();
              PreparedStatement stmt = conn.prepareStatement(sql)) {
@@ -30,16 +31,10 @@ public class OpinionRepository {
             stmt.setInt(1, limit);
             
             try (ResultSet rs = stmt.executeQuery()) {
+                // Índices según el orden del SELECT
                 while (rs.next()) {
-                    Map<String, Object> opinion = new HashMap<>();
-                    opinion.put("id", rs.getInt("id_opinion"));
-                    opinion.put("nombre", rs.getString("nombre"));
-                    opinion.put("rating", rs.getInt("rating"));
-                    opinion.put("comentario", rs.getString("comentario"));
-                    opinion.put("clasificacion", rs.getString("clasificacion"));
-                    opinion.put("plataforma", rs.getString("plataforma"));
-                    opinion.put("fecha", rs.getTimestamp("created_at"));
-                    opiniones.add(opinion);
+                    opiniones.add(OpinionFila.publica(rs.getInt(1), rs.getString(2), rs.getInt(3),
+                            rs.getString(4), rs.getString(5), rs.getString(6), rs.getTimestamp(7)));
                 }
             }
         }
@@ -69,7 +64,7 @@ public class OpinionRepository {
         }
     }
     
-    public List<Map<String, Object>> listarOpinionesAdmin(String clasificacion, int limit) throws SQLException {
+    public List<OpinionFila> listarOpinionesAdmin(String clasificacion, int limit) throws SQLException {
         StringBuilder sql = new StringBuilder("""
             SELECT 
                 id_opinion,
@@ -96,7 +91,7 @@ public class OpinionRepository {
         sql.append(" ORDER BY created_at DESC LIMIT ?");
         params.add(limit);
         
-        List<Map<String, Object>> opiniones = new ArrayList<>();
+        List<OpinionFila> opiniones = new ArrayList<>();
         
         try (Connection conn = Database.getConnection();
              PreparedStatement stmt = conn.prepareStatement(sql.toString())) {
@@ -106,20 +101,22 @@ public class OpinionRepository {
             }
             
             try (ResultSet rs = stmt.executeQuery()) {
+                // Índices según el orden del SELECT
                 while (rs.next()) {
-                    Map<String, Object> opinion = new HashMap<>();
-                    opinion.put("id", rs.getInt("id_opinion"));
-                    opinion.put("id_usuario", rs.getObject("id_usuario"));
-                    opinion.put("nombre", rs.getString("nombre"));
-                    opinion.put("email", rs.getString("email"));
-                    opinion.put("rating", rs.getInt("rating"));
-                    opinion.put("comentario", rs.getString("comentario"));
-                    opinion.put("clasificacion", rs.getString("clasificacion"));
-                    opinion.put("plataforma", rs.getString("plataforma"));
-                    opinion.put("estado", rs.getString("estado"));
-                    opinion.put("created_at", rs.getTimestamp("created_at"));
-                    opinion.put("updated_at", rs.getTimestamp("updated_at"));
-                    opiniones.add(opinion);
+                    long idUsuario = rs.getLong(2);
+                    opiniones.add(new OpinionFila(
+                            rs.getInt(1),
+                            rs.wasNull() ? null : idUsuario,
+                            rs.getString(3),
+                            rs.getString(4),
+                            rs.getInt(5),
+                            rs.getString(6),
+                            rs.getString(7),
+                            rs.getString(8),
+                            rs.getString(9),
+                            rs.getTimestamp(10),
+                            rs.getTimestamp(11),
+                            true));
                 }
             }
         }
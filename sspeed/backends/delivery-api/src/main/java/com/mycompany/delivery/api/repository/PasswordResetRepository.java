@@ -15,6 +15,7 @@ import org.mindrot.jbcrypt.BCrypt;
 
 import com.mycompany.delivery.api.config.Database;
 import com.mycompany.delivery.api.model.Usuario;
+import com.mycompany.delivery.api.services.UsuarioPrincipalCache;
 import com.mycompany.delivery.api.util.ApiException;
 
 public class PasswordResetRepository {
@@ -110,6 +111,7 @@ public class PasswordResetRepository {
                     up.setLong(2, userId);
                     up.executeUpdate();
                 }
+                UsuarioPrincipalCache.getInstance().invalidar(userId);
                 try (PreparedStatement up2 = c.prepareStatement("UPDATE password_resets SET used_at = NOW() WHERE id=?")) {
                     up2.setLong(1, resetId);
                     up2.executeUpdate();
@@ -1,80 +1,141 @@
 package com.mycompany.delivery.api.repository;
 
+import java.io.IOException;
+import java.math.BigDecimal;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.sql.Statement;
 import java.sql.Types;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 
 import com.mycompany.delivery.api.config.Database;
 import com.mycompany.delivery.api.model.DetallePedido;
 import com.mycompany.delivery.api.model.Pedido;
+import com.mycompany.delivery.api.model.PedidoPendiente;
+import com.mycompany.delivery.api.services.NegocioStatsStore;
+import com.mycompany.delivery.api.util.ApiException;
+import com.mycompany.delivery.api.util.RespuestaStreaming;
 
 /**
  * Repositorio JDBC para operaciones con la tabla pedidos.
- * Controla transacciones al crear pedidos con sus detalles.
+ * Crea cada pedido con sus detalles en una sola sentencia.
  */
 public class PedidoRepository {
 
-    public int crearPedido(Pedido pedido, List<DetallePedido> detalles) throws SQLException {
-        String sqlPedido = "INSERT INTO pedidos (id_cliente, id_delivery, id_ubicacion, estado, total, direccion_entrega, metodo_pago) VALUES (?, ?, ?, ?, ?, ?, ?)";
-    String sqlDetalle = "INSERT INTO detalle_pedidos (id_pedido, id_producto, cantidad, precio_unitario, subtotal) VALUES (?, ?, ?, ?, ?)";
+    private static final BigDecimal COSTO_ENVIO = new BigDecimal("2.00");
 
-        try (Connection conn = Database.getConnection()) {
-            conn.setAutoCommit(false);
+    /**
+     * Crea el pedido y sus líneas en una sola sentencia con los precios
+     * vigentes de {@code productos} (no los del cliente): el precio, el total
+     * y las inserciones salen de la misma instantánea, así que una edición de
+     * precio concurrente no deja un total que no cuadra con sus líneas. Si
+     * algún producto no existe o no está disponible no se inserta nada.
+     * <p>
+     * Completa en {@code pedido} el id y el total, y en cada detalle el precio
+     * unitario y el subtotal cobrados.
+     *
+     * @return id del pedido creado.
+     */
+    public int crearPedido(Pedido pedido, List<DetallePedido> detalles) throws SQLException {
+        final String sql = """
+                WITH lineas AS (
+                    SELECT l.orden, l.id_producto, l.cantidad, pr.precio, pr.id_negocio
+                    FROM unnest(?::bigint[], ?::int[]) WITH ORDINALITY AS l(id_producto, cantidad, orden)
+                    JOIN productos pr ON pr.id_producto = l.id_producto AND pr.disponible
+                ), resumen AS (
+                    SELECT COUNT(*) AS encontradas, COALESCE(SUM(precio * cantidad), 0) AS subtotal
+                    FROM lineas
+                ), nuevo AS (
+                    INSERT INTO pedidos (id_cliente, id_delivery, id_ubicacion, estado, direccion_entrega, metodo_pago, total)
+                    SELECT ?, ?, ?, ?, ?, ?, r.subtotal + ?
+                    FROM resumen r
+                    WHERE r.encontradas = ?
+                    RETURNING id_pedido, total
+                ), detalle AS (
+                    INSERT INTO detalle_pedidos (id_pedido, id_producto, cantidad, precio_unitario, subtotal)
+                    SELECT n.id_pedido, l.id_producto, l.cantidad, l.precio, l.precio * l.cantidad
+                    FROM nuevo n CROSS JOIN lineas l
+                )
+                SELECT l.orden, l.precio, l.precio * l.cantidad AS subtotal, l.id_negocio, n.id_pedido, n.total
+                FROM lineas l
+                LEFT JOIN nuevo n ON TRUE
+                ORDER BY l.orden
+                """;
+        int n = detalles.size();
+        Long[] productos = new Long[n];
+        Integer[] cantidades = new Integer[n];
+        for (int i = 0; i < n; i++) {
+            productos[i] = (long) detalles.get(i).getIdProducto();
+            cantidades[i] = detalles.get(i).getCantidad();
+        }
+        String estado = pedido.getEstado() != null ? pedido.getEstado() : "pendiente";
 
-            try (PreparedStatement stmtPedido = conn.prepareStatement(sqlPedido, Statement.RETURN_GENERATED_KEYS);
-                 PreparedStatement stmtDetalle = conn.prepareStatement(sqlDetalle)) {
+        try (Connection conn = Database.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setArray(1, conn.createArrayOf("bigint", productos));
+            stmt.setArray(2, conn.createArrayOf("integer", cantidades));
+            stmt.setInt(3, pedido.getIdCliente());
+            if (pedido.getIdDelivery() != null) {
+                stmt.setInt(4, pedido.getIdDelivery());
+            } else {
+                stmt.setNull(4, Types.INTEGER);
+            }
+            if (pedido.getIdUbicacion() > 0) {
+                stmt.setInt(5, pedido.getIdUbicacion());
+            } else {
+                stmt.setNull(5, Types.INTEGER);
+            }
+            stmt.setString(6, estado);
+            stmt.setString(7, pedido.getDireccionEntrega());
+            stmt.setString(8, pedido.getMetodoPago());
+            stmt.setBigDecimal(9, COSTO_ENVIO);
+            stmt.setInt(10, n);
 
-                stmtPedido.setInt(1, pedido.getIdCliente());
-                if (pedido.getIdDelivery() != null) {
-                    stmtPedido.setInt(2, pedido.getIdDelivery());
-                } else {
-                    stmtPedido.setNull(2, Types.INTEGER);
-                }
-                stmtPedido.setInt(3, pedido.getIdUbicacion());
-                stmtPedido.setString(4, pedido.getEstado());
-                stmtPedido.setDouble(5, pedido.getTotal());
-                stmtPedido.setString(6, pedido.getDireccionEntrega());
-                stmtPedido.setString(7, pedido.getMetodoPago());
-
-                if (stmtPedido.executeUpdate() == 0) {
-                    conn.rollback();
-                    throw new SQLException("No se pudo insertar el pedido");
+            boolean[] encontrados = new boolean[n];
+            Map<Long, long[]> porNegocio = new HashMap<>();
+            int idPedido = 0;
+            BigDecimal total = null;
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    int i = rs.getInt("orden") - 1;
+                    encontrados[i] = true;
+                    BigDecimal subtotal = rs.getBigDecimal("subtotal");
+                    DetallePedido d = detalles.get(i);
+                    d.setPrecioUnitario(rs.getBigDecimal("precio").doubleValue());
+                    d.setSubtotal(subtotal.doubleValue());
+                    long[] aporte = porNegocio.computeIfAbsent(rs.getLong("id_negocio"), k -> new long[2]);
+                    aporte[0] += subtotal.movePointRight(2).longValueExact();
+                    aporte[1] += d.getCantidad();
+                    idPedido = rs.getInt("id_pedido");
+                    total = rs.getBigDecimal("total");
                 }
-
-                int idPedido;
-                try (ResultSet rs = stmtPedido.getGeneratedKeys()) {
-                    if (!rs.next()) {
-                        conn.rollback();
-                        throw new SQLException("No se obtuvo el ID del pedido generado");
+            }
+            if (total == null) {
+                List<Integer> faltantes = new ArrayList<>();
+                for (int i = 0; i < n; i++) {
+                    if (!encontrados[i]) {
+                        faltantes.add(detalles.get(i).getIdProducto());
                     }
-                    idPedido = rs.getInt(1);
-                }
-
-                for (DetallePedido d : detalles) {
-                    stmtDetalle.setInt(1, idPedido);
-                    stmtDetalle.setInt(2, d.getIdProducto());
-                    stmtDetalle.setInt(3, d.getCantidad());
-                    stmtDetalle.setDouble(4, d.getPrecioUnitario());
-                    stmtDetalle.setDouble(5, d.getSubtotal());
-                    stmtDetalle.addBatch();
                 }
+                throw new ApiException(409, "Productos inexistentes o no disponibles: " + faltantes);
+            }
 
-                stmtDetalle.executeBatch();
-                conn.commit();
-                return idPedido;
+            pedido.setIdPedido(idPedido);
+            pedido.setEstado(estado);
+            pedido.setTotal(total.doubleValue());
+            pedido.setDetalles(detalles);
 
-            } catch (SQLException e) {
-                conn.rollback();
-                throw e;
-            } finally {
-                conn.setAutoCommit(true);
-            }
+            List<NegocioStatsRepository.Aporte> aportes = new ArrayList<>();
+            porNegocio.forEach((idNegocio, a) -> aportes.add(new NegocioStatsRepository.Aporte(idNegocio, a[0], a[1])));
+            NegocioStatsStore.getInstance().pedidoCreado(idPedido, estado, aportes);
+            return idPedido;
         }
     }
 
@@ -93,6 +154,50 @@ public class PedidoRepository {
         return pedidos;
     }
 
+    /**
+     * Recorre los pedidos (más recientes primero) con un cursor del servidor,
+     * entregando cada uno a {@code consumidor} sin acumular la lista.
+     *
+     * @param estado    filtra por estado, o null.
+     * @param idNegocio sólo pedidos con productos del negocio, o null.
+     */
+    public void recorrerPedidos(String estado, Integer idNegocio, RespuestaStreaming.ConsumidorFilas<Pedido> consumidor)
+            throws SQLException, IOException {
+        StringBuilder sql = new StringBuilder("SELECT * FROM pedidos p WHERE TRUE");
+        if (estado != null) {
+            sql.append(" AND p.estado = ?");
+        }
+        if (idNegocio != null) {
+            sql.append(" AND EXISTS (SELECT 1 FROM detalle_pedidos dp")
+               .append(" INNER JOIN productos pr ON dp.id_producto = pr.id_producto")
+               .append(" WHERE dp.id_pedido = p.id_pedido AND pr.id_negocio = ?)");
+        }
+        sql.append(" ORDER BY p.created_at DESC, p.id_pedido DESC");
+
+        try (Connection conn = Database.getConnection()) {
+            // Con autocommit el driver de PostgreSQL ignora el fetch size y trae todo el resultado
+            conn.setAutoCommit(false);
+            try (PreparedStatement stmt = conn.prepareStatement(sql.toString())) {
+                stmt.setFetchSize(RespuestaStreaming.FETCH_SIZE);
+                int i = 1;
+                if (estado != null) {
+                    stmt.setString(i++, estado);
+                }
+                if (idNegocio != null) {
+                    stmt.setInt(i, idNegocio);
+                }
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        consumidor.aceptar(mapRowToPedido(rs));
+                    }
+                }
+                conn.commit();
+            } finally {
+                conn.setAutoCommit(true);
+            }
+        }
+    }
+
     public Optional<Pedido> obtenerPorId(int idPedido) throws SQLException {
         String sql = "SELECT * FROM pedidos WHERE id_pedido = ?";
 
@@ -141,19 +246,36 @@ public class PedidoRepository {
     }
 
     public boolean actualizarEstado(int idPedido, String nuevoEstado) throws SQLException {
-        String sql = "UPDATE pedidos SET estado = ?, fecha_entrega = CASE WHEN ? = 'entregado' THEN CURRENT_TIMESTAMP ELSE fecha_entrega END WHERE id_pedido = ?";
+        // Devuelve el estado anterior (la subconsulta bloquea y lee la última versión de la fila)
+        String sql = """
+                UPDATE pedidos p
+                SET estado = ?, fecha_entrega = CASE WHEN ? = 'entregado' THEN CURRENT_TIMESTAMP ELSE p.fecha_entrega END
+                FROM (SELECT id_pedido, estado FROM pedidos WHERE id_pedido = ? FOR UPDATE) previo
+                WHERE p.id_pedido = previo.id_pedido
+                RETURNING previo.estado
+                """;
 
         try (Connection conn = Database.getConnection();
              PreparedStatement stmt = conn.prepareStatement(sql)) {
             stmt.setString(1, nuevoEstado);
             stmt.setString(2, nuevoEstado);
             stmt.setInt(3, idPedido);
-            return stmt.executeUpdate() > 0;
+            try (ResultSet rs = stmt.executeQuery()) {
+                if (!rs.next()) {
+                    return false;
+                }
+                NegocioStatsStore.getInstance().estadoCambiado(idPedido, rs.getString(1), nuevoEstado);
+                return true;
+            }
         }
     }
 
+    /**
+     * Asigna el repartidor sólo si el pedido sigue pendiente y sin repartidor
+     * (chequeo optimista): si otro proceso lo tomó antes, devuelve false.
+     */
     public boolean asignarDelivery(int idPedido, int idDelivery) throws SQLException {
-        String sql = "UPDATE pedidos SET id_delivery = ? WHERE id_pedido = ? AND id_delivery IS NULL";
+        String sql = "UPDATE pedidos SET id_delivery = ? WHERE id_pedido = ? AND id_delivery IS NULL AND estado = 'pendiente'";
 
         try (Connection conn = Database.getConnection();
              PreparedStatement stmt = conn.prepareStatement(sql)) {
@@ -161,9 +283,52 @@ public class PedidoRepository {
             stmt.setInt(2, idPedido);
             return stmt.executeUpdate() > 0;
         }
-    
+    }
+
+    /**
+     * Pedidos pendientes sin repartidor con las coordenadas de su ubicación,
+     * del más antiguo al más reciente.
+     */
+    public List<PedidoPendiente> listarPendientesSinRepartidor(int limite) throws SQLException {
+        String sql = """
+                SELECT p.id_pedido, u.latitud, u.longitud, p.created_at
+                FROM pedidos p
+                JOIN ubicaciones u ON u.id_ubicacion = p.id_ubicacion
+                WHERE p.estado = 'pendiente' AND p.id_delivery IS NULL
+                ORDER BY p.created_at ASC
+                LIMIT ?
+                """;
+        List<PedidoPendiente> pedidos = new ArrayList<>();
+        try (Connection conn = Database.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setInt(1, limite);
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    var creado = rs.getTimestamp("created_at");
+                    pedidos.add(new PedidoPendiente(rs.getInt("id_pedido"), rs.getDouble("latitud"),
+                            rs.getDouble("longitud"), creado != null ? creado.getTime() : System.currentTimeMillis()));
+                }
+            }
+        }
+        return pedidos;
+    }
+
+    /**
+     * Repartidores con algún pedido sin finalizar.
+     */
+    public Set<Long> listarRepartidoresOcupados() throws SQLException {
+        String sql = "SELECT DISTINCT id_delivery FROM pedidos WHERE id_delivery IS NOT NULL AND estado NOT IN ('entregado', 'cancelado')";
+        Set<Long> ids = new HashSet<>();
+        try (Connection conn = Database.getConnection();
+             PreparedStatement stmt = conn.prepareStatement(sql);
+             ResultSet rs = stmt.executeQuery()) {
+            while (rs.next()) {
+                ids.add(rs.getLong("id_delivery"));
+            }
         }
-    
+        return ids;
+    }
+
 
     public Optional<Pedido> obtenerPedidoMasRecientePorCliente(int idCliente) throws SQLException {
         String sql = """
@@ -10,6 +10,8 @@ import java.util.Optional;
 
 import com.mycompany.delivery.api.config.Database;
 import com.mycompany.delivery.api.model.Producto;
+import com.mycompany.delivery.api.services.CatalogoCache;
+import com.mycompany.delivery.api.services.NegocioStatsStore;
 
 /**
  * Acceso a datos para productos. Todas las consultas respetan el esquema
@@ -108,6 +110,8 @@ public class ProductoRepository {
                         producto.setIdProducto(rs.getInt("id_producto"));
                         producto.setIdCategoria(idCategoria);
                         producto.setIdNegocio(idNegocio);
+                        CatalogoCache.getInstance().invalidar();
+                        NegocioStatsStore.getInstance().productoCreado(idNegocio);
                         return Optional.of(producto);
                     }
                 }
@@ -155,10 +159,13 @@ public class ProductoRepository {
             int idCategoria = resolveCategoriaId(conn, producto);
             int idNegocio = resolveNegocioId(conn, producto, idCategoria);
 
+            // Devuelve el negocio anterior por si el producto cambió de negocio
             String sql = """
-                    UPDATE productos
+                    UPDATE productos p
                     SET id_negocio = ?, id_categoria = ?, nombre = ?, descripcion = ?, precio = ?, imagen_url = ?, disponible = ?
-                    WHERE id_producto = ?
+                    FROM (SELECT id_producto, id_negocio FROM productos WHERE id_producto = ? FOR UPDATE) previo
+                    WHERE p.id_producto = previo.id_producto
+                    RETURNING previo.id_negocio
                     """;
             try (PreparedStatement stmt = conn.prepareStatement(sql)) {
                 stmt.setInt(1, idNegocio);
@@ -169,7 +176,15 @@ public class ProductoRepository {
                 stmt.setString(6, producto.getImagenUrl());
                 stmt.setBoolean(7, producto.isDisponible());
                 stmt.setInt(8, producto.getIdProducto());
-                return stmt.executeUpdate() > 0;
+                boolean actualizado;
+                try (ResultSet rs = stmt.executeQuery()) {
+                    actualizado = rs.next();
+                    if (actualizado) {
+                        NegocioStatsStore.getInstance().productoMovido(rs.getLong(1), idNegocio);
+                    }
+                }
+                CatalogoCache.getInstance().invalidar();
+                return actualizado;
             }
         }
     }
@@ -178,7 +193,9 @@ public class ProductoRepository {
         String sql = "UPDATE productos SET disponible = FALSE WHERE id_producto = ?";
         try (Connection conn = Database.getConnection(); PreparedStatement stmt = conn.prepareStatement(sql)) {
             stmt.setInt(1, idProducto);
-            return stmt.executeUpdate() > 0;
+            boolean eliminado = stmt.executeUpdate() > 0;
+            CatalogoCache.getInstance().invalidar();
+            return eliminado;
         }
     }
 
@@ -10,6 +10,7 @@ import java.util.List;
 import java.util.Map;
 
 import com.mycompany.delivery.api.config.Database;
+import com.mycompany.delivery.api.model.RecomendacionFila;
 
 public class RecomendacionRepository {
 
@@ -76,22 +77,17 @@ public class RecomendacionRepository {
         }
     }
 
-    public List<Map<String, Object>> listarPorProducto(int idProducto) throws SQLException {
+    public List<RecomendacionFila> listarPorProducto(int idProducto) throws SQLException {
         String sql = "SELECT id_recomendacion, id_producto, id_usuario, puntuacion, comentario, created_at as fecha FROM recomendaciones WHERE id_producto = ? ORDER BY fecha DESC";
         try (Connection c = Database.getConnection();
              PreparedStatement ps = c.prepareStatement(sql)) {
             ps.setInt(1, idProducto);
             try (ResultSet rs = ps.executeQuery()) {
-                List<Map<String, Object>> out = new ArrayList<>();
+                List<RecomendacionFila> out = new ArrayList<>();
+                // Índices según el orden del SELECT
                 while (rs.next()) {
-                    Map<String, Object> r = new HashMap<>();
-                    r.put("id_recomendacion", rs.getInt("id_recomendacion"));
-                    r.put("id_producto", rs.getInt("id_producto"));
-                    r.put("id_usuario", rs.getInt("id_usuario"));
-                    r.put("puntuacion", rs.getInt("puntuacion"));
-                    r.put("comentario", rs.getString("comentario"));
-                    r.put("fecha", rs.getTimestamp("fecha"));
-                    out.add(r);
+                    out.add(new RecomendacionFila(rs.getInt(1), rs.getInt(2), rs.getInt(3), rs.getInt(4),
+                            rs.getString(5), rs.getTimestamp(6)));
                 }
                 return out;
             }
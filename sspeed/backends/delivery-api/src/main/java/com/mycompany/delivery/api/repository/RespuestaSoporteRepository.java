@@ -7,14 +7,18 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Timestamp;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 
 import com.mycompany.delivery.api.config.Database;
+import com.mycompany.delivery.api.model.ReglaIaFila;
+import com.mycompany.delivery.api.model.ReglaPatronFila;
 import com.mycompany.delivery.api.model.RespuestaSoporte;
 import com.mycompany.delivery.api.payloads.Payloads.SoporteRespuestaPayload;
+import com.mycompany.delivery.api.services.RespuestasPredefinidas;
 
 /**
  * Catálogo de respuestas predefinidas para soporte (sin IA).
@@ -53,6 +57,7 @@ public final class RespuestaSoporteRepository {
                 ps.setObject(11, payload.activo);
                 try (ResultSet rs = ps.executeQuery()) {
                     if (rs.next()) {
+                        alCambiarRespuestas();
                         return rs.getInt(1);
                     }
                 }
@@ -152,28 +157,19 @@ public final class RespuestaSoporteRepository {
         if (texto == null || texto.isBlank()) {
             return Optional.empty();
         }
-        String sql = "SELECT id_predef, respuesta, prioridad FROM fn_chatbot_match_predef(?, ?, 'soporte', 'es') ORDER BY prioridad LIMIT 1";
         List<String> scopes = List.of("cliente", "mixto", "delivery");
-        try (Connection conn = Database.getConnection()) {
-            for (String scope : scopes) {
-                try (PreparedStatement ps = conn.prepareStatement(sql)) {
-                    ps.setString(1, texto);
-                    ps.setString(2, scope);
-                    try (ResultSet rs = ps.executeQuery()) {
-                        if (rs.next()) {
-                            RespuestaSoporte respuesta = new RespuestaSoporte();
-                            respuesta.setIdRespuesta(rs.getInt("id_predef"));
-                            respuesta.setCategoria(scope);
-                            respuesta.setMensaje(rs.getString("respuesta"));
-                            respuesta.setPrioridad(rs.getInt("prioridad"));
-                            respuesta.setConMarca(false);
-                            return Optional.of(respuesta);
-                        }
-                    }
-                }
+        for (String scope : scopes) {
+            Optional<RespuestasPredefinidas.Coincidencia> c =
+                    RespuestasPredefinidas.getInstance().buscarIa(texto, scope, "soporte", "es");
+            if (c.isPresent()) {
+                RespuestaSoporte respuesta = new RespuestaSoporte();
+                respuesta.setIdRespuesta(Math.toIntExact(c.get().id()));
+                respuesta.setCategoria(scope);
+                respuesta.setMensaje(c.get().respuesta());
+                respuesta.setPrioridad(c.get().prioridad());
+                respuesta.setConMarca(false);
+                return Optional.of(respuesta);
             }
-        } catch (SQLException e) {
-            System.err.println("Error buscando respuesta similar: " + e.getMessage());
         }
         return Optional.empty();
     }
@@ -223,6 +219,7 @@ public final class RespuestaSoporteRepository {
                 ps.executeUpdate();
             }
         }
+        alCambiarRespuestas();
     }
 
     public void borrarAutoRespuesta(int id) throws SQLException {
@@ -235,6 +232,14 @@ public final class RespuestaSoporteRepository {
             ps.setInt(1, id);
             ps.executeUpdate();
         }
+        alCambiarRespuestas();
+    }
+
+    /**
+     * Las respuestas automáticas cambiaron: se reconstruye el motor en memoria.
+     */
+    private static void alCambiarRespuestas() {
+        RespuestasPredefinidas.getInstance().invalidar();
     }
 
     private Integer ensureCategoria(Connection conn, String categoria) throws SQLException {
@@ -344,43 +349,11 @@ public final class RespuestaSoporteRepository {
     /**
      * Busca una respuesta predefinida que coincida con el mensaje del usuario.
      * Usa la tabla soporte_respuestas_predef con patrón ILIKE separado por |
+     * (resuelto en memoria por {@link RespuestasPredefinidas}).
      * Retorna null si no encuentra coincidencia.
      */
     public String buscarRespuesta(String mensaje) {
-        if (mensaje == null || mensaje.trim().isEmpty()) {
-            return null;
-        }
-
-        String sql = """
-                SELECT respuesta
-                FROM soporte_respuestas_predef
-                WHERE categoria = 'soporte'
-                  AND activo = TRUE
-                  AND (
-                    pregunta_patron ILIKE '%' || ? || '%'
-                    OR ? ~* ANY(string_to_array(pregunta_patron, '|'))
-                  )
-                ORDER BY prioridad ASC, id_predef DESC
-                LIMIT 1
-                """;
-
-        try (Connection conn = Database.getConnection();
-             PreparedStatement ps = conn.prepareStatement(sql)) {
-            
-            String mensajeLimpio = mensaje.trim();
-            ps.setString(1, mensajeLimpio);
-            ps.setString(2, mensajeLimpio);
-            
-            try (ResultSet rs = ps.executeQuery()) {
-                if (rs.next()) {
-                    return rs.getString("respuesta");
-                }
-            }
-        } catch (SQLException e) {
-            System.err.println("⚠️ Error buscando respuesta predefinida: " + e.getMessage());
-        }
-        
-        return null;
+        return RespuestasPredefinidas.getInstance().buscarPatron("soporte", mensaje);
     }
     
     /**
@@ -388,39 +361,57 @@ public final class RespuestaSoporteRepository {
      * Similar al anterior pero para categoria='bot'
      */
     public String buscarRespuestaBot(String mensaje) {
-        if (mensaje == null || mensaje.trim().isEmpty()) {
-            return null;
-        }
+        return RespuestasPredefinidas.getInstance().buscarPatron("bot", mensaje);
+    }
 
+    // ===============================
+    // CARGA DEL MOTOR EN MEMORIA
+    // ===============================
+    public List<ReglaPatronFila> cargarReglasPatron() throws SQLException {
         String sql = """
-                SELECT respuesta
+                SELECT id_predef, categoria, pregunta_patron, respuesta, prioridad
                 FROM soporte_respuestas_predef
-                WHERE categoria = 'bot'
-                  AND activo = TRUE
-                  AND (
-                    pregunta_patron ILIKE '%' || ? || '%'
-                    OR ? ~* ANY(string_to_array(pregunta_patron, '|'))
-                  )
-                ORDER BY prioridad ASC, id_predef DESC
-                LIMIT 1
+                WHERE activo = TRUE
                 """;
+        List<ReglaPatronFila> reglas = new ArrayList<>();
+        try (Connection conn = Database.getConnection();
+             PreparedStatement ps = conn.prepareStatement(sql);
+             ResultSet rs = ps.executeQuery()) {
+            while (rs.next()) {
+                reglas.add(new ReglaPatronFila(
+                        rs.getLong("id_predef"),
+                        rs.getString("categoria"),
+                        rs.getString("pregunta_patron"),
+                        rs.getString("respuesta"),
+                        rs.getInt("prioridad")));
+            }
+        }
+        return reglas;
+    }
 
+    public List<ReglaIaFila> cargarReglasIa() throws SQLException {
+        String sql = """
+                SELECT id_respuesta_ia, scope_destino, canal, idioma, intent, keywords, respuesta, prioridad
+                FROM ia_respuestas_automaticas
+                WHERE activo = TRUE
+                """;
+        List<ReglaIaFila> reglas = new ArrayList<>();
         try (Connection conn = Database.getConnection();
-             PreparedStatement ps = conn.prepareStatement(sql)) {
-            
-            String mensajeLimpio = mensaje.trim();
-            ps.setString(1, mensajeLimpio);
-            ps.setString(2, mensajeLimpio);
-            
-            try (ResultSet rs = ps.executeQuery()) {
-                if (rs.next()) {
-                    return rs.getString("respuesta");
-                }
+             PreparedStatement ps = conn.prepareStatement(sql);
+             ResultSet rs = ps.executeQuery()) {
+            while (rs.next()) {
+                Array keywords = rs.getArray("keywords");
+                reglas.add(new ReglaIaFila(
+                        rs.getLong("id_respuesta_ia"),
+                        rs.getString("scope_destino"),
+                        rs.getString("canal"),
+                        rs.getString("idioma"),
+                        rs.getString("intent"),
+                        keywords != null ? Arrays.asList((String[]) keywords.getArray()) : null,
+                        rs.getString("respuesta"),
+                        rs.getInt("prioridad")));
             }
-        } catch (SQLException e) {
-            System.err.println("⚠️ Error buscando respuesta bot predefinida: " + e.getMessage());
         }
-        
-        return null;
+        return reglas;
     }
 }
@@ -12,6 +12,11 @@ import java.util.Map;
 import java.util.Optional;
 
 import com.mycompany.delivery.api.config.Database;
+import com.mycompany.delivery.api.model.MensajeSoporteFila;
+import com.mycompany.delivery.api.services.ConversacionVersiones;
+import com.mycompany.delivery.api.services.RespuestasPredefinidas;
+import com.mycompany.delivery.api.util.Pagina;
+import com.mycompany.delivery.api.util.Paginacion;
 
 /**
  * Repositorio especializado para la capa de soporte (tickets independientes
@@ -94,6 +99,7 @@ public final class SoporteRepository {
             ps.setString(3, mensaje);
             ps.executeUpdate();
         }
+        ConversacionVersiones.getInstance().tocar(ConversacionVersiones.SOPORTE, idConversacion);
     }
 
     public void insertMensajeSoporte(long idConversacion, long idSoporte, String mensaje) throws SQLException {
@@ -107,6 +113,7 @@ public final class SoporteRepository {
             ps.setString(3, mensaje);
             ps.executeUpdate();
         }
+        ConversacionVersiones.getInstance().tocar(ConversacionVersiones.SOPORTE, idConversacion);
     }
 
     public Optional<Map<String, Object>> getInfoConversacion(long idConversacion) throws SQLException {
@@ -162,32 +169,24 @@ public final class SoporteRepository {
         }
         scopes.add("mixto"); // fallback
 
-        String sql = "SELECT respuesta FROM fn_chatbot_match_predef(?, ?, 'soporte', 'es') ORDER BY prioridad LIMIT 1";
-
-        try (Connection conn = Database.getConnection()) {
-            for (String scope : scopes) {
-                try (PreparedStatement ps = conn.prepareStatement(sql)) {
-                    ps.setString(1, normalizado);
-                    ps.setString(2, scope);
-                    try (ResultSet rs = ps.executeQuery()) {
-                        if (rs.next()) {
-                            String respuesta = rs.getString("respuesta");
-                            if (respuesta != null && !respuesta.isBlank()) {
-                                return Optional.of(respuesta.trim());
-                            }
-                        }
-                    }
-                }
+        for (String scope : scopes) {
+            Optional<String> respuesta = RespuestasPredefinidas.getInstance()
+                    .buscarIa(normalizado, scope, "soporte", "es")
+                    .map(RespuestasPredefinidas.Coincidencia::respuesta)
+                    .filter(r -> r != null && !r.isBlank())
+                    .map(String::trim);
+            if (respuesta.isPresent()) {
+                return respuesta;
             }
         }
         return Optional.empty();
     }
 
-    public List<Map<String, Object>> listarMensajes(long idConversacion) throws SQLException {
+    public List<MensajeSoporteFila> listarMensajes(long idConversacion) throws SQLException {
         return listarMensajes(idConversacion, -1, 0);
     }
 
-    public List<Map<String, Object>> listarMensajes(long idConversacion, int limit, int offset) throws SQLException {
+    public List<MensajeSoporteFila> listarMensajes(long idConversacion, int limit, int offset) throws SQLException {
         StringBuilder sql = new StringBuilder("""
                 SELECT id_sop_msj,
                        id_soporte_conv,
@@ -205,7 +204,7 @@ public final class SoporteRepository {
             sql.append(" LIMIT ? OFFSET ?");
         }
         
-        List<Map<String, Object>> mensajes = new ArrayList<>();
+        List<MensajeSoporteFila> mensajes = new ArrayList<>();
         try (Connection conn = Database.getConnection(); PreparedStatement ps = conn.prepareStatement(sql.toString())) {
             ps.setLong(1, idConversacion);
             
@@ -216,22 +215,75 @@ public final class SoporteRepository {
             
             try (ResultSet rs = ps.executeQuery()) {
                 while (rs.next()) {
-                    Map<String, Object> map = new HashMap<>();
-                    map.put("id", rs.getLong("id_sop_msj"));
-                    map.put("id_conversacion", rs.getLong("id_soporte_conv"));
-                    map.put("id_remitente", rs.getObject("id_remitente"));
-                    map.put("es_agente", rs.getBoolean("es_agente"));
-                    map.put("tipo", rs.getString("tipo"));
-                    map.put("mensaje", rs.getString("mensaje"));
-                    Timestamp created = rs.getTimestamp("created_at");
-                    map.put("created_at", created != null ? created.toInstant().toString() : null);
-                    mensajes.add(map);
+                    mensajes.add(mapMensaje(rs));
                 }
             }
         }
         return mensajes;
     }
 
+    /**
+     * Página de mensajes en orden cronológico a continuación de {@code desde}
+     * (keyset sobre {@code (created_at, id_sop_msj)}).
+     */
+    public Pagina<MensajeSoporteFila> listarMensajes(long idConversacion, Paginacion.Cursor desde, int limite) throws SQLException {
+        String sql = """
+                SELECT id_sop_msj,
+                       id_soporte_conv,
+                       id_remitente,
+                       es_agente,
+                       tipo,
+                       mensaje,
+                       created_at
+                FROM soporte_mensajes
+                WHERE id_soporte_conv = ?
+                %s
+                ORDER BY created_at ASC, id_sop_msj ASC
+                LIMIT ?
+                """.formatted(desde != null ? "AND (created_at, id_sop_msj) > (?, ?)" : "");
+
+        try (Connection conn = Database.getConnection(); PreparedStatement ps = conn.prepareStatement(sql)) {
+            int i = 1;
+            ps.setLong(i++, idConversacion);
+            if (desde != null) {
+                ps.setTimestamp(i++, desde.getFecha());
+                ps.setLong(i++, desde.getId());
+            }
+            ps.setInt(i, limite + 1);
+
+            try (ResultSet rs = ps.executeQuery()) {
+                List<MensajeSoporteFila> mensajes = new ArrayList<>();
+                String siguiente = null;
+                while (rs.next()) {
+                    if (mensajes.size() == limite) {
+                        MensajeSoporteFila ultimo = mensajes.get(limite - 1);
+                        siguiente = Paginacion.codificar(ultimo.createdAt(), ultimo.id());
+                        break;
+                    }
+                    mensajes.add(mapMensaje(rs));
+                }
+                return new Pagina<>(mensajes, siguiente);
+            }
+        }
+    }
+
+    /**
+     * Fila de {@code SELECT id_sop_msj, id_soporte_conv, id_remitente, es_agente,
+     * tipo, mensaje, created_at}; se lee por posición, sin buscar columnas por nombre.
+     */
+    private static MensajeSoporteFila mapMensaje(ResultSet rs) throws SQLException {
+        long idRemitente = rs.getLong(3);
+        Long remitente = rs.wasNull() ? null : idRemitente;
+        return new MensajeSoporteFila(
+                rs.getLong(1),
+                rs.getLong(2),
+                remitente,
+                rs.getBoolean(4),
+                rs.getString(5),
+                rs.getString(6),
+                rs.getTimestamp(7));
+    }
+
     public List<Map<String, Object>> listarConversacionesPorUsuario(long idUsuario) throws SQLException {
         String sql = """
                 SELECT id_soporte_conv,
@@ -1,17 +1,24 @@
 package com.mycompany.delivery.api.repository;
 
+import java.io.IOException;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Timestamp;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 
 import com.mycompany.delivery.api.config.Database;
+import com.mycompany.delivery.api.model.PosicionRepartidor;
 import com.mycompany.delivery.api.model.TrackingEvento;
 import com.mycompany.delivery.api.model.Ubicacion;
+import com.mycompany.delivery.api.util.Pagina;
+import com.mycompany.delivery.api.util.Paginacion;
+import com.mycompany.delivery.api.util.RespuestaStreaming;
 
 public class UbicacionRepository {
 
@@ -73,6 +80,84 @@ public class UbicacionRepository {
         }
     }
 
+    /**
+     * Persiste en lote la última posición de varios repartidores: un UPDATE por
+     * repartidor en un único batch y, para los que aún no tienen fila
+     * 'LIVE_TRACKING', un segundo batch de INSERT. Todo en una transacción.
+     */
+    public void guardarUbicacionesLive(Collection<PosicionRepartidor> posiciones) throws SQLException {
+        if (posiciones == null || posiciones.isEmpty()) {
+            return;
+        }
+        String sqlUpdate = """
+                    UPDATE ubicaciones SET latitud = ?, longitud = ?, updated_at = ?
+                    WHERE id_usuario = ? AND descripcion = 'LIVE_TRACKING'
+                """;
+        String sqlInsert = """
+                INSERT INTO ubicaciones (id_usuario, latitud, longitud, descripcion, activa, updated_at)
+                VALUES (?, ?, ?, 'LIVE_TRACKING', TRUE, ?)
+                """;
+        List<PosicionRepartidor> lote = new ArrayList<>(posiciones);
+
+        try (Connection conn = Database.getConnection()) {
+            conn.setAutoCommit(false);
+            try {
+                int[] actualizadas;
+                try (PreparedStatement stmt = conn.prepareStatement(sqlUpdate)) {
+                    for (PosicionRepartidor p : lote) {
+                        stmt.setDouble(1, p.getLatitud());
+                        stmt.setDouble(2, p.getLongitud());
+                        stmt.setTimestamp(3, new Timestamp(p.getTimestampMs()));
+                        stmt.setLong(4, p.getIdRepartidor());
+                        stmt.addBatch();
+                    }
+                    actualizadas = stmt.executeBatch();
+                }
+
+                List<PosicionRepartidor> nuevas = new ArrayList<>();
+                for (int i = 0; i < actualizadas.length; i++) {
+                    if (actualizadas[i] == 0) {
+                        nuevas.add(lote.get(i));
+                    }
+                }
+                if (!nuevas.isEmpty()) {
+                    try (PreparedStatement stmt = conn.prepareStatement(sqlInsert)) {
+                        for (PosicionRepartidor p : nuevas) {
+                            stmt.setLong(1, p.getIdRepartidor());
+                            stmt.setDouble(2, p.getLatitud());
+                            stmt.setDouble(3, p.getLongitud());
+                            stmt.setTimestamp(4, new Timestamp(p.getTimestampMs()));
+                            stmt.addBatch();
+                        }
+                        stmt.executeBatch();
+                    }
+                }
+                conn.commit();
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
+        }
+    }
+
+    /**
+     * Devuelve el repartidor asignado a un pedido (si lo tiene).
+     */
+    public Optional<Long> obtenerRepartidorDePedido(long idPedido) throws SQLException {
+        String sql = "SELECT id_delivery FROM pedidos WHERE id_pedido = ? AND id_delivery IS NOT NULL";
+        try (Connection conn = Database.getConnection(); PreparedStatement st = conn.prepareStatement(sql)) {
+            st.setLong(1, idPedido);
+            try (ResultSet rs = st.executeQuery()) {
+                if (rs.next()) {
+                    return Optional.of(rs.getLong("id_delivery"));
+                }
+            }
+        }
+        return Optional.empty();
+    }
+
     public void registrarEventoTracking(long idDelivery, double latitud, double longitud) throws SQLException {
         String sql = """
                     INSERT INTO tracking_ruta (id_pedido, latitud, longitud)
@@ -89,6 +174,46 @@ public class UbicacionRepository {
         }
     }
 
+    /**
+     * Inserta en una sola sentencia un lote de puntos de ruta de varios
+     * repartidores. Cada punto se replica en los pedidos activos del repartidor,
+     * igual que {@link #registrarEventoTracking}.
+     *
+     * @return número de filas insertadas en tracking_ruta.
+     */
+    public int registrarEventosTracking(List<PosicionRepartidor> puntos) throws SQLException {
+        if (puntos == null || puntos.isEmpty()) {
+            return 0;
+        }
+        String sql = """
+                    INSERT INTO tracking_ruta (id_pedido, latitud, longitud, registrado_en)
+                    SELECT p.id_pedido, t.latitud, t.longitud, t.registrado_en
+                    FROM unnest(?::bigint[], ?::float8[], ?::float8[], ?::timestamp[])
+                         AS t(id_delivery, latitud, longitud, registrado_en)
+                    JOIN pedidos p ON p.id_delivery = t.id_delivery
+                    WHERE p.estado NOT IN ('entregado', 'cancelado')
+                """;
+        int n = puntos.size();
+        Long[] ids = new Long[n];
+        Double[] latitudes = new Double[n];
+        Double[] longitudes = new Double[n];
+        Timestamp[] fechas = new Timestamp[n];
+        for (int i = 0; i < n; i++) {
+            PosicionRepartidor p = puntos.get(i);
+            ids[i] = p.getIdRepartidor();
+            latitudes[i] = p.getLatitud();
+            longitudes[i] = p.getLongitud();
+            fechas[i] = new Timestamp(p.getTimestampMs());
+        }
+        try (Connection conn = Database.getConnection(); PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setArray(1, conn.createArrayOf("int8", ids));
+            stmt.setArray(2, conn.createArrayOf("float8", latitudes));
+            stmt.setArray(3, conn.createArrayOf("float8", longitudes));
+            stmt.setArray(4, conn.createArrayOf("timestamp", fechas));
+            return stmt.executeUpdate();
+        }
+    }
+
     public Optional<Map<String, Double>> obtenerUbicacionTracking(long idPedido) throws SQLException {
         String sql = """
                 SELECT u.latitud, u.longitud FROM ubicaciones u
@@ -155,19 +280,62 @@ public class UbicacionRepository {
     // ===============================
     // LISTAR TODAS LAS UBICACIONES ACTIVAS
     // ===============================
-    public List<Ubicacion> listarActivas() throws SQLException {
-        List<Ubicacion> lista = new ArrayList<>();
+    public Pagina<Ubicacion> listarActivas(Paginacion.Cursor desde, int limite) throws SQLException {
         // CORRECCIÓN: También se excluyen las ubicaciones de tracking en vivo de
         // este listado general.
-        String sql = "SELECT * FROM ubicaciones WHERE activa = TRUE AND (descripcion IS NULL OR descripcion != 'LIVE_TRACKING')";
-        try (Connection conn = Database.getConnection();
-                PreparedStatement stmt = conn.prepareStatement(sql);
-                ResultSet rs = stmt.executeQuery()) {
-            while (rs.next()) {
-                lista.add(mapRow(rs));
+        String sql = """
+                SELECT * FROM ubicaciones
+                WHERE activa = TRUE AND (descripcion IS NULL OR descripcion != 'LIVE_TRACKING')
+                %s
+                ORDER BY id_ubicacion ASC
+                LIMIT ?
+                """.formatted(desde != null ? "AND id_ubicacion > ?" : "");
+        try (Connection conn = Database.getConnection(); PreparedStatement stmt = conn.prepareStatement(sql)) {
+            int i = 1;
+            if (desde != null) {
+                stmt.setLong(i++, desde.getId());
+            }
+            stmt.setInt(i, limite + 1);
+            try (ResultSet rs = stmt.executeQuery()) {
+                List<Ubicacion> lista = new ArrayList<>();
+                String siguiente = null;
+                while (rs.next()) {
+                    if (lista.size() == limite) {
+                        siguiente = Paginacion.codificar(null, lista.get(limite - 1).getIdUbicacion());
+                        break;
+                    }
+                    lista.add(mapRow(rs));
+                }
+                return new Pagina<>(lista, siguiente);
+            }
+        }
+    }
+
+    /**
+     * Recorre todas las ubicaciones activas con un cursor del servidor, sin
+     * acumular la lista (exportaciones).
+     */
+    public void recorrerActivas(RespuestaStreaming.ConsumidorFilas<Ubicacion> consumidor) throws SQLException, IOException {
+        String sql = """
+                SELECT * FROM ubicaciones
+                WHERE activa = TRUE AND (descripcion IS NULL OR descripcion != 'LIVE_TRACKING')
+                ORDER BY id_ubicacion ASC
+                """;
+        try (Connection conn = Database.getConnection()) {
+            // Con autocommit el driver de PostgreSQL ignora el fetch size y trae todo el resultado
+            conn.setAutoCommit(false);
+            try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+                stmt.setFetchSize(RespuestaStreaming.FETCH_SIZE);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        consumidor.aceptar(mapRow(rs));
+                    }
+                }
+                conn.commit();
+            } finally {
+                conn.setAutoCommit(true);
             }
         }
-        return lista;
     }
 
     // ===============================
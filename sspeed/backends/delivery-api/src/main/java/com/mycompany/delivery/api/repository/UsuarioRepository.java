@@ -13,6 +13,10 @@ import org.mindrot.jbcrypt.BCrypt;
 
 import com.mycompany.delivery.api.config.Database;
 import com.mycompany.delivery.api.model.Usuario;
+import com.mycompany.delivery.api.services.CatalogoCache;
+import com.mycompany.delivery.api.services.UsuarioPrincipalCache;
+import com.mycompany.delivery.api.util.Pagina;
+import com.mycompany.delivery.api.util.Paginacion;
 
 /**
  * Repositorio que maneja las operaciones CRUD de los usuarios. Implementa
@@ -68,6 +72,7 @@ public class UsuarioRepository {
             stmt.setLong(2, idUsuario);
             stmt.executeUpdate();
         }
+        UsuarioPrincipalCache.getInstance().invalidar(idUsuario);
     }
 
     // ===============================
@@ -109,7 +114,9 @@ public class UsuarioRepository {
             stmt.setString(3, hash);
             stmt.setString(4, telefono);
             stmt.setInt(5, resolveRoleId(conn, rol));
-            return stmt.executeUpdate() > 0;
+            boolean creado = stmt.executeUpdate() > 0;
+            CatalogoCache.getInstance().invalidar();
+            return creado;
         }
     }
 
@@ -134,6 +141,39 @@ public class UsuarioRepository {
         return lista;
     }
 
+    /**
+     * Página de usuarios por id ascendente a continuación de {@code desde}.
+     */
+    public Pagina<Usuario> listarUsuarios(Paginacion.Cursor desde, int limite) throws SQLException {
+        String sql = """
+                SELECT u.*, r.nombre AS rol_nombre
+                FROM usuarios u
+                LEFT JOIN roles r ON r.id_rol = u.id_rol
+                %s
+                ORDER BY u.id_usuario ASC
+                LIMIT ?
+                """.formatted(desde != null ? "WHERE u.id_usuario > ?" : "");
+        try (Connection conn = Database.getConnection(); PreparedStatement stmt = conn.prepareStatement(sql)) {
+            int i = 1;
+            if (desde != null) {
+                stmt.setLong(i++, desde.getId());
+            }
+            stmt.setInt(i, limite + 1);
+            try (ResultSet rs = stmt.executeQuery()) {
+                List<Usuario> lista = new ArrayList<>();
+                String siguiente = null;
+                while (rs.next()) {
+                    if (lista.size() == limite) {
+                        siguiente = Paginacion.codificar(null, lista.get(limite - 1).getIdUsuario());
+                        break;
+                    }
+                    lista.add(mapRow(rs));
+                }
+                return new Pagina<>(lista, siguiente);
+            }
+        }
+    }
+
     // ===============================
     // OBTENER POR ID
     // ===============================
@@ -207,7 +247,10 @@ public class UsuarioRepository {
                     }
                 }
                 
-                return stmt.executeUpdate() > 0;
+                boolean actualizado = stmt.executeUpdate() > 0;
+                UsuarioPrincipalCache.getInstance().invalidar(usuario.getIdUsuario());
+                CatalogoCache.getInstance().invalidar();
+                return actualizado;
             }
         }
     }
@@ -219,7 +262,10 @@ public class UsuarioRepository {
         String sql = "DELETE FROM usuarios WHERE id_usuario = ?";
         try (Connection conn = Database.getConnection(); PreparedStatement stmt = conn.prepareStatement(sql)) {
             stmt.setLong(1, idUsuario);
-            return stmt.executeUpdate() > 0;
+            boolean eliminado = stmt.executeUpdate() > 0;
+            UsuarioPrincipalCache.getInstance().invalidar(idUsuario);
+            CatalogoCache.getInstance().invalidar();
+            return eliminado;
         }
     }
 
@@ -235,7 +281,10 @@ public class UsuarioRepository {
         try (Connection conn = Database.getConnection(); PreparedStatement stmt = conn.prepareStatement(sql)) {
             stmt.setString(1, nuevoRol);
             stmt.setLong(2, idUsuario);
-            return stmt.executeUpdate() > 0;
+            boolean actualizado = stmt.executeUpdate() > 0;
+            UsuarioPrincipalCache.getInstance().invalidar(idUsuario);
+            CatalogoCache.getInstance().invalidar();
+            return actualizado;
         }
     }
 
@@ -0,0 +1,144 @@
+package com.mycompany.delivery.api.services;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.mycompany.delivery.api.config.Config;
+import com.mycompany.delivery.api.util.Texto;
+
+/**
+ * Caché de respuestas de la IA del chatbot por intención del mensaje.
+ * <p>
+ * La clave de un mensaje es el conjunto ordenado de sus palabras normalizadas
+ * (sin tildes, mayúsculas, signos ni palabras vacías), de modo que "¿Dónde
+ * está mi pedido?" y "donde esta el pedido" comparten entrada. Quien guarda
+ * decide el prefijo de la clave (usuario y estado del pedido) y la vigencia
+ * de cada entrada. Las respuestas predefinidas no pasan por aquí: el motor en
+ * memoria ya es barato y compara el texto original.
+ * <p>
+ * Las entradas caducan por TTL y, al superar {@code CHATBOT_CACHE_MAX}, se
+ * expulsa la menos usada recientemente.
+ */
+public final class CacheRespuestasBot {
+
+    /** Respuestas de la IA a consultas de pedido. */
+    public static final String PEDIDO = "pedido";
+
+    private static final Set<String> VACIAS_CHAT = Set.of("mi", "mis", "me", "tu", "su", "que", "es",
+            "porfa", "favor", "porfavor");
+
+    private static final class Holder {
+        private static final CacheRespuestasBot INSTANCE = new CacheRespuestasBot(
+                Math.max(16, Config.resolveInt("CHATBOT_CACHE_MAX", 5_000)));
+    }
+
+    /**
+     * Respuesta guardada y modelo que la generó.
+     */
+    public record Entrada(String texto, String modelo, long venceMs) {}
+
+    private final int maximo;
+    private final LinkedHashMap<String, Entrada> entradas;
+
+    // Métricas
+    private final AtomicLong aciertos = new AtomicLong();
+    private final AtomicLong fallos = new AtomicLong();
+    private final AtomicLong aciertosIa = new AtomicLong();
+    private final AtomicLong vencidas = new AtomicLong();
+    private final AtomicLong expulsiones = new AtomicLong();
+
+    CacheRespuestasBot(int maximo) {
+        this.maximo = maximo;
+        this.entradas = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entrada> mayor) {
+                if (size() > CacheRespuestasBot.this.maximo) {
+                    expulsiones.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    public static CacheRespuestasBot getInstance() {
+        return Holder.INSTANCE;
+    }
+
+    public static boolean isEnabled() {
+        return Boolean.parseBoolean(Config.resolve("CHATBOT_CACHE_ENABLED", "true"));
+    }
+
+    /**
+     * Clave de intención de un mensaje; vacía si no tiene palabras útiles.
+     */
+    public static String intencion(String mensaje) {
+        String[] palabras = Texto.palabras(Texto.normalizar(mensaje));
+        TreeSet<String> utiles = new TreeSet<>();
+        for (String p : palabras) {
+            if (!Texto.VACIAS.contains(p) && !VACIAS_CHAT.contains(p)) {
+                utiles.add(p);
+            }
+        }
+        if (utiles.isEmpty()) {
+            // Sólo palabras vacías ("¿y el de la?"): se compara el mensaje completo
+            return String.join(" ", palabras);
+        }
+        return String.join(" ", utiles);
+    }
+
+    /**
+     * Entrada vigente de {@code clave} o {@code null} si no hay o ya venció.
+     */
+    public Entrada obtener(String tipo, String clave) {
+        String k = tipo + "|" + clave;
+        long ahora = System.currentTimeMillis();
+        synchronized (entradas) {
+            Entrada e = entradas.get(k);
+            if (e != null && e.venceMs > ahora) {
+                aciertos.incrementAndGet();
+                if (PEDIDO.equals(tipo)) {
+                    aciertosIa.incrementAndGet();
+                }
+                return e;
+            }
+            if (e != null) {
+                entradas.remove(k);
+                vencidas.incrementAndGet();
+            }
+        }
+        fallos.incrementAndGet();
+        return null;
+    }
+
+    public void guardar(String tipo, String clave, String texto, String modelo, long ttlMs) {
+        if (ttlMs <= 0) {
+            return;
+        }
+        Entrada e = new Entrada(texto, modelo, System.currentTimeMillis() + ttlMs);
+        synchronized (entradas) {
+            entradas.put(tipo + "|" + clave, e);
+        }
+    }
+
+    public Map<String, Object> metricas() {
+        long a = aciertos.get();
+        long f = fallos.get();
+        Map<String, Object> m = new HashMap<>();
+        synchronized (entradas) {
+            m.put("entradas", entradas.size());
+        }
+        m.put("maximo", maximo);
+        m.put("aciertos", a);
+        m.put("fallos", f);
+        m.put("ratioAciertos", a + f == 0 ? 0.0 : (double) a / (a + f));
+        m.put("llamadasIaEvitadas", aciertosIa.get());
+        m.put("vencidas", vencidas.get());
+        m.put("expulsiones", expulsiones.get());
+        return m;
+    }
+}
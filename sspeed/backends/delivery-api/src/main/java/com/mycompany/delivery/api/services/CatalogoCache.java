@@ -0,0 +1,133 @@
+package com.mycompany.delivery.api.services;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import com.google.gson.Gson;
+import com.mycompany.delivery.api.util.ApiResponse;
+import com.mycompany.delivery.api.util.HttpCondicional;
+import com.mycompany.delivery.api.util.Json;
+
+/**
+ * Caché versionada del catálogo público (productos, categorías, negocios).
+ * <p>
+ * Cada lectura se guarda ya serializada a JSON junto con su ETag, de modo que
+ * el camino caliente no ejecuta SQL ni Gson. Cualquier escritura sobre
+ * productos, categorías o negocios llama a {@link #invalidar()}, que sube la
+ * versión del catálogo; la siguiente lectura de cada clave la reconstruye una
+ * sola vez (las lecturas concurrentes esperan a esa reconstrucción).
+ */
+public final class CatalogoCache {
+
+    private static final class Holder {
+        private static final CatalogoCache INSTANCE = new CatalogoCache(Json.GSON);
+    }
+
+    /**
+     * Respuesta pre-serializada de una clave del catálogo.
+     */
+    public static final class Snapshot {
+        private final byte[] json;
+        private final String etag;
+        private final int status;
+        private final long version;
+        private final long lastModifiedMs;
+
+        Snapshot(byte[] json, String etag, int status, long version, long lastModifiedMs) {
+            this.json = json;
+            this.etag = etag;
+            this.status = status;
+            this.version = version;
+            this.lastModifiedMs = lastModifiedMs;
+        }
+
+        public byte[] getJson() {
+            return json;
+        }
+
+        public String getEtag() {
+            return etag;
+        }
+
+        public int getStatus() {
+            return status;
+        }
+
+        public long getVersion() {
+            return version;
+        }
+
+        public long getLastModifiedMs() {
+            return lastModifiedMs;
+        }
+    }
+
+    private final Gson gson;
+    private final AtomicLong version = new AtomicLong(1);
+    private volatile long lastModifiedMs = System.currentTimeMillis();
+    private final Map<String, Snapshot> snapshots = new ConcurrentHashMap<>();
+    private final Map<String, Object> cerrojos = new ConcurrentHashMap<>();
+
+    // Métricas
+    private final AtomicLong aciertos = new AtomicLong();
+    private final AtomicLong reconstrucciones = new AtomicLong();
+    private final AtomicLong invalidaciones = new AtomicLong();
+
+    CatalogoCache(Gson gson) {
+        this.gson = gson;
+    }
+
+    public static CatalogoCache getInstance() {
+        return Holder.INSTANCE;
+    }
+
+    /**
+     * Devuelve la respuesta cacheada de {@code clave} para la versión actual
+     * del catálogo o la reconstruye con {@code cargador}.
+     */
+    public Snapshot obtener(String clave, Supplier<ApiResponse<?>> cargador) {
+        Snapshot s = snapshots.get(clave);
+        if (s != null && s.version == version.get()) {
+            aciertos.incrementAndGet();
+            return s;
+        }
+        synchronized (cerrojos.computeIfAbsent(clave, k -> new Object())) {
+            long v = version.get();
+            long modificado = lastModifiedMs;
+            s = snapshots.get(clave);
+            if (s != null && s.version == v) {
+                aciertos.incrementAndGet();
+                return s;
+            }
+            ApiResponse<?> respuesta = cargador.get();
+            byte[] json = Json.aBytes(gson, respuesta);
+            // Si hubo una escritura durante la carga, la versión ya no coincide y la próxima lectura recarga
+            s = new Snapshot(json, HttpCondicional.etag(json), respuesta.getStatus(), v, modificado);
+            snapshots.put(clave, s);
+            reconstrucciones.incrementAndGet();
+            return s;
+        }
+    }
+
+    public void invalidar() {
+        lastModifiedMs = System.currentTimeMillis();
+        version.incrementAndGet();
+        invalidaciones.incrementAndGet();
+    }
+
+    public long version() {
+        return version.get();
+    }
+
+    public Map<String, Object> metricas() {
+        Map<String, Object> m = new HashMap<>();
+        m.put("version", version.get());
+        m.put("aciertos", aciertos.get());
+        m.put("reconstrucciones", reconstrucciones.get());
+        m.put("invalidaciones", invalidaciones.get());
+        return m;
+    }
+}
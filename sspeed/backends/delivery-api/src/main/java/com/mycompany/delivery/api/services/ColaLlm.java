@@ -0,0 +1,264 @@
+package com.mycompany.delivery.api.services;
+
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.mycompany.delivery.api.config.Config;
+import com.mycompany.delivery.api.model.MensajeChatFila;
+import com.mycompany.delivery.api.model.TrabajoLlm;
+import com.mycompany.delivery.api.repository.ChatLlmJobRepository;
+import com.mycompany.delivery.api.repository.ChatRepository;
+import com.mycompany.delivery.api.util.ChatBotResponder;
+
+/**
+ * Cola de trabajo de la IA para los mensajes del chatbot que no se pudieron
+ * responder en línea por falta de cupo (sustituye al antiguo
+ * {@code GeminiQueueManager}, que perdía los mensajes encolados).
+ * <p>
+ * Los trabajos viven en {@code chat_llm_jobs}, así que sobreviven a un
+ * reinicio. Un despachador toma como máximo un trabajo cada
+ * {@code 60 000 / presupuestoRpm} ms (el ritmo que admiten los modelos
+ * configurados) y lo entrega a un pool de workers dimensionado por la ley de
+ * Little: {@code presupuestoRpm × latencia esperada / 60 s}. Cada conversación
+ * se atiende en orden (ver {@link ChatLlmJobRepository#tomar}).
+ * <p>
+ * La respuesta se guarda en {@code chat_mensajes} y se avisa al cliente
+ * subiendo la versión de la conversación ({@link ConversacionVersiones}), con
+ * lo que su siguiente GET condicional del historial trae el mensaje nuevo. Si
+ * la IA no responde se reintenta con backoff exponencial; agotados los
+ * intentos se guarda el mensaje alternativo para no dejar al usuario sin
+ * respuesta.
+ */
+public final class ColaLlm {
+
+    private final ChatLlmJobRepository repo;
+    private final ChatRepository chatRepo;
+    private final ChatBotResponder responder;
+    private final int presupuestoRpm;
+    private final int workers;
+    private final int maxPendientes;
+    private final int maxIntentos;
+    private final long backoffMs;
+    private final long plazoMs;
+
+    private final Semaphore libres;
+    private ScheduledExecutorService despachador;
+    private ExecutorService pool;
+    private volatile boolean activa;
+    private long ultimaRecuperacionMs;
+
+    // Métricas
+    private final AtomicLong encolados = new AtomicLong();
+    private final AtomicLong rechazados = new AtomicLong();
+    private final AtomicLong completados = new AtomicLong();
+    private final AtomicLong reintentos = new AtomicLong();
+    private final AtomicLong fallidos = new AtomicLong();
+    private final AtomicInteger enCurso = new AtomicInteger();
+
+    public ColaLlm(ChatLlmJobRepository repo, ChatRepository chatRepo, ChatBotResponder responder, int presupuestoRpm) {
+        this.repo = repo;
+        this.chatRepo = chatRepo;
+        this.responder = responder;
+        this.presupuestoRpm = Math.max(1, presupuestoRpm);
+        long latenciaMs = Math.max(100L, Config.resolveLong("LLM_COLA_LATENCIA_MS", 10_000L));
+        int porPresupuesto = (int) Math.ceil(this.presupuestoRpm * latenciaMs / 60_000.0);
+        this.workers = Math.max(1, Config.resolveInt("LLM_COLA_WORKERS", porPresupuesto));
+        this.maxPendientes = Math.max(1, Config.resolveInt("LLM_COLA_MAX_PENDIENTES", 1_000));
+        this.maxIntentos = Math.max(1, Config.resolveInt("LLM_COLA_MAX_INTENTOS", 5));
+        this.backoffMs = Math.max(100L, Config.resolveLong("LLM_COLA_BACKOFF_MS", 5_000L));
+        this.plazoMs = Math.max(1_000L, Config.resolveLong("LLM_COLA_PLAZO_MS", 60_000L));
+        this.libres = new Semaphore(workers);
+    }
+
+    public static boolean isEnabled() {
+        return Boolean.parseBoolean(Config.resolve("LLM_COLA_ENABLED", "true"));
+    }
+
+    /**
+     * Arranca el despachador si la tabla {@code chat_llm_jobs} existe.
+     */
+    public synchronized void iniciar() {
+        if (despachador != null) {
+            return;
+        }
+        try {
+            if (!repo.disponible()) {
+                System.err.println("⚠️ Cola LLM desactivada: falta la tabla chat_llm_jobs (sql/20261018_chat_llm_jobs.sql)");
+                return;
+            }
+        } catch (SQLException e) {
+            System.err.println("⚠️ Cola LLM desactivada: " + e.getMessage());
+            return;
+        }
+        long intervalo = Math.max(100L, 60_000L / presupuestoRpm);
+        pool = Executors.newFixedThreadPool(workers, r -> {
+            Thread t = new Thread(r, "cola-llm-worker");
+            t.setDaemon(true);
+            return t;
+        });
+        despachador = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "cola-llm");
+            t.setDaemon(true);
+            return t;
+        });
+        despachador.scheduleWithFixedDelay(this::cicloSeguro, intervalo, intervalo, TimeUnit.MILLISECONDS);
+        activa = true;
+        System.out.println("✅ Cola LLM activa (" + workers + " workers, 1 trabajo cada " + intervalo + " ms)");
+    }
+
+    public synchronized void shutdown() {
+        activa = false;
+        if (despachador != null) {
+            despachador.shutdownNow();
+            despachador = null;
+        }
+        if (pool != null) {
+            // Los trabajos a medias quedan en 'procesando' y se recuperan al volver a arrancar
+            pool.shutdownNow();
+            pool = null;
+        }
+    }
+
+    public boolean isActiva() {
+        return activa;
+    }
+
+    /**
+     * Indica si la conversación tiene trabajos sin responder: un mensaje nuevo
+     * debe ir a la cola detrás de ellos para conservar el orden.
+     */
+    public boolean tieneAbiertos(long idConversacion) throws SQLException {
+        return activa && repo.tieneAbiertos(idConversacion);
+    }
+
+    /**
+     * Encola el mensaje del usuario para responderlo cuando haya cupo.
+     *
+     * @return id del trabajo, o -1 si la cola no está activa o está llena.
+     */
+    public long encolar(long idConversacion, int idRemitente, String mensaje) throws SQLException {
+        if (!activa) {
+            return -1;
+        }
+        long idJob = repo.encolar(idConversacion, idRemitente, mensaje, maxPendientes);
+        if (idJob < 0) {
+            rechazados.incrementAndGet();
+        } else {
+            encolados.incrementAndGet();
+        }
+        return idJob;
+    }
+
+    // ===============================
+    // DESPACHO
+    // ===============================
+    private void cicloSeguro() {
+        try {
+            recuperarHuerfanos();
+            if (!libres.tryAcquire()) {
+                return;
+            }
+            List<TrabajoLlm> trabajos;
+            try {
+                trabajos = repo.tomar(1);
+            } catch (SQLException | RuntimeException e) {
+                libres.release();
+                throw e;
+            }
+            if (trabajos.isEmpty()) {
+                libres.release();
+                return;
+            }
+            TrabajoLlm trabajo = trabajos.get(0);
+            enCurso.incrementAndGet();
+            pool.execute(() -> {
+                try {
+                    procesar(trabajo);
+                } finally {
+                    enCurso.decrementAndGet();
+                    libres.release();
+                }
+            });
+        } catch (Exception e) {
+            System.err.println("⚠️ Cola LLM: " + e.getMessage());
+        }
+    }
+
+    private void recuperarHuerfanos() throws SQLException {
+        long ahora = System.currentTimeMillis();
+        if (ahora - ultimaRecuperacionMs < 60_000L) {
+            return;
+        }
+        ultimaRecuperacionMs = ahora;
+        int recuperados = repo.recuperarHuerfanos(2 * plazoMs + 60_000L);
+        if (recuperados > 0) {
+            System.out.println("ℹ️ Cola LLM: " + recuperados + " trabajos recuperados");
+        }
+    }
+
+    private void procesar(TrabajoLlm trabajo) {
+        try {
+            List<MensajeChatFila> historial = chatRepo.listarMensajes(trabajo.idConversacion());
+            GeminiService.Respuesta respuesta = responder
+                    .generateReplyAsync(trabajo.mensaje(), historial, trabajo.idRemitente(), plazoMs)
+                    .join();
+            if (respuesta.alternativa() && trabajo.intentos() < maxIntentos) {
+                reintentar(trabajo, respuesta.sinCupo() ? "sin cupo en los modelos" : "la IA no respondió");
+                return;
+            }
+            String estado = respuesta.alternativa() ? ChatLlmJobRepository.FALLIDO : ChatLlmJobRepository.COMPLETADO;
+            String error = respuesta.alternativa() ? "sin respuesta de la IA tras " + trabajo.intentos() + " intentos" : null;
+            long idMensaje = repo.responder(trabajo, chatRepo.ensureBotUser(), respuesta.texto(), estado, error);
+            if (idMensaje < 0) {
+                return; // otro worker ya tiene este trabajo
+            }
+            ConversacionVersiones.getInstance().tocar(ConversacionVersiones.CHAT, trabajo.idConversacion());
+            (respuesta.alternativa() ? fallidos : completados).incrementAndGet();
+        } catch (SQLException | CompletionException e) {
+            try {
+                if (trabajo.intentos() < maxIntentos) {
+                    reintentar(trabajo, e.getMessage());
+                } else {
+                    repo.fallar(trabajo.idJob(), e.getMessage());
+                    fallidos.incrementAndGet();
+                }
+            } catch (SQLException ex) {
+                // Queda en 'procesando' y se recupera como huérfano
+                System.err.println("⚠️ Cola LLM: no se pudo reprogramar el trabajo " + trabajo.idJob() + ": " + ex.getMessage());
+            }
+        }
+    }
+
+    private void reintentar(TrabajoLlm trabajo, String motivo) throws SQLException {
+        // Backoff exponencial con jitter (±20 %), tope de 5 minutos
+        long espera = Math.min(300_000L, backoffMs << Math.min(16, trabajo.intentos() - 1));
+        espera = (long) (espera * ThreadLocalRandom.current().nextDouble(0.8, 1.2));
+        repo.reintentar(trabajo.idJob(), motivo, espera);
+        reintentos.incrementAndGet();
+    }
+
+    public Map<String, Object> metricas() {
+        Map<String, Object> m = new HashMap<>();
+        m.put("activa", activa);
+        m.put("workers", workers);
+        m.put("presupuestoRpm", presupuestoRpm);
+        m.put("enCurso", enCurso.get());
+        m.put("encolados", encolados.get());
+        m.put("rechazados", rechazados.get());
+        m.put("completados", completados.get());
+        m.put("reintentos", reintentos.get());
+        m.put("fallidos", fallidos.get());
+        return m;
+    }
+}
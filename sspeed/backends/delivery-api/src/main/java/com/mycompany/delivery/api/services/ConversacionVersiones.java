@@ -0,0 +1,117 @@
+package com.mycompany.delivery.api.services;
+
+import java.sql.SQLException;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.mycompany.delivery.api.repository.ConversacionVersionRepository;
+import com.mycompany.delivery.api.repository.ConversacionVersionRepository.Version;
+
+/**
+ * Versión de cada conversación (chat y soporte) para responder GET
+ * condicionales sin consultar los mensajes.
+ * <p>
+ * La versión vive en la propia fila de la conversación y la suben triggers
+ * sobre los mensajes y, en el chat, sobre el nombre o correo de quienes
+ * escribieron en ella (sql/20261018_conversacion_version.sql): comprobarla es
+ * una lectura por clave primaria y todas las instancias ven la misma, así que
+ * un mensaje escrito en otra instancia invalida el ETag en ésta.
+ * <p>
+ * Sin la migración se usa una versión en memoria que sube
+ * {@link #tocar(String, long)} en cada inserción. Sólo es correcta con una
+ * única instancia; una conversación sin versión registrada (p. ej. tras
+ * reiniciar) se da por modificada en la primera lectura y el ETag incluye el
+ * instante de arranque para que nunca coincida con uno de otro proceso. En el
+ * chat se añade además la generación de {@link UsuarioPrincipalCache} (cambios
+ * de usuarios en esta instancia) y no se da Last-Modified, que no la reflejaría.
+ */
+public final class ConversacionVersiones {
+
+    public static final String CHAT = "chat";
+    public static final String SOPORTE = "soporte";
+
+    private static final class Holder {
+        private static final ConversacionVersiones INSTANCE = new ConversacionVersiones(
+                new ConversacionVersionRepository());
+    }
+
+    /**
+     * Validadores HTTP de una variante concreta del historial.
+     */
+    public record Validadores(String etag, long modificadoMs) {}
+
+    private final ConversacionVersionRepository repo;
+    private final String arranque = Long.toString(System.currentTimeMillis(), 36);
+    private final Map<String, Version> versiones = new ConcurrentHashMap<>();
+    // null = aún no comprobado
+    private volatile Boolean conBd;
+
+    ConversacionVersiones(ConversacionVersionRepository repo) {
+        this.repo = repo;
+    }
+
+    public static ConversacionVersiones getInstance() {
+        return Holder.INSTANCE;
+    }
+
+    /**
+     * Marca la conversación como modificada (nuevo mensaje). Con la migración
+     * aplicada lo hacen los triggers y esto sólo mantiene la versión en memoria.
+     */
+    public void tocar(String tipo, long idConversacion) {
+        long now = System.currentTimeMillis();
+        versiones.merge(clave(tipo, idConversacion), new Version(1, now),
+                (actual, nueva) -> new Version(actual.numero() + 1, Math.max(now, actual.modificadoMs())));
+    }
+
+    /**
+     * ETag y última modificación de la conversación para una variante
+     * concreta de la respuesta (p. ej. la paginación pedida).
+     */
+    public Validadores validadores(String tipo, long idConversacion, String variante) {
+        if (usarBd()) {
+            try {
+                Optional<Version> v = CHAT.equals(tipo)
+                        ? repo.buscarChat(idConversacion)
+                        : repo.buscarSoporte(idConversacion);
+                Version version = v.orElse(new Version(0, 0));
+                return new Validadores(
+                        "\"" + tipo + "-" + idConversacion + "-" + version.numero() + "-" + variante + "\"",
+                        version.modificadoMs());
+            } catch (SQLException e) {
+                System.err.println("⚠️ Versión de conversación no disponible: " + e.getMessage());
+            }
+        }
+        Version v = versiones.computeIfAbsent(clave(tipo, idConversacion),
+                k -> new Version(0, System.currentTimeMillis()));
+        if (CHAT.equals(tipo)) {
+            return new Validadores("\"" + tipo + "-" + idConversacion + "-" + arranque + "-" + v.numero()
+                    + "-u" + UsuarioPrincipalCache.getInstance().generacion() + "-" + variante + "\"", 0L);
+        }
+        return new Validadores(
+                "\"" + tipo + "-" + idConversacion + "-" + arranque + "-" + v.numero() + "-" + variante + "\"",
+                v.modificadoMs());
+    }
+
+    private boolean usarBd() {
+        Boolean disponible = conBd;
+        if (disponible == null) {
+            try {
+                disponible = repo.disponible();
+            } catch (SQLException e) {
+                return false;
+            }
+            if (!disponible) {
+                System.err.println("⚠️ Versiones de conversación sólo en memoria (una instancia): "
+                        + "falta sql/20261018_conversacion_version.sql");
+            }
+            conBd = disponible;
+        }
+        return disponible;
+    }
+
+    private static String clave(String tipo, long idConversacion) {
+        return tipo + ":" + idConversacion;
+    }
+}
@@ -0,0 +1,186 @@
+package com.mycompany.delivery.api.services;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.mycompany.delivery.api.config.Config;
+import com.mycompany.delivery.api.model.PedidoPendiente;
+import com.mycompany.delivery.api.repository.PedidoRepository;
+
+/**
+ * Despachador automático de pedidos pendientes.
+ * <p>
+ * Cada DISPATCH_INTERVAL_MS toma los pedidos pendientes sin repartidor y, con
+ * el índice espacial en memoria, obtiene para cada uno los
+ * DISPATCH_CANDIDATOS repartidores libres más cercanos dentro de
+ * DISPATCH_RADIO_M. Resuelve el lote con un emparejamiento voraz por
+ * distancia (pares ordenados de menor a mayor distancia, cada pedido y cada
+ * repartidor se usan una sola vez) y asigna con el chequeo optimista de
+ * {@link PedidoRepository#asignarDelivery}, de modo que un pedido tomado
+ * manualmente entre medias no se pisa.
+ * <p>
+ * Se activa con DISPATCH_ENABLED=true.
+ */
+public final class DespachoService {
+
+    private static final class Holder {
+        private static final DespachoService INSTANCE = new DespachoService(
+                new PedidoRepository(),
+                UbicacionLiveStore.getInstance(),
+                RepartidorGeoIndex.getInstance(),
+                Config.resolveInt("DISPATCH_CANDIDATOS", 5),
+                Config.resolveLong("DISPATCH_RADIO_M", 8_000L),
+                Config.resolveInt("DISPATCH_MAX_PEDIDOS", 500));
+    }
+
+    private static final class Par {
+        final PedidoPendiente pedido;
+        final long idRepartidor;
+        final double distanciaMetros;
+
+        Par(PedidoPendiente pedido, long idRepartidor, double distanciaMetros) {
+            this.pedido = pedido;
+            this.idRepartidor = idRepartidor;
+            this.distanciaMetros = distanciaMetros;
+        }
+    }
+
+    private final PedidoRepository repo;
+    private final UbicacionLiveStore liveStore;
+    private final RepartidorGeoIndex geoIndex;
+    private final int candidatos;
+    private final double radioMetros;
+    private final int maxPedidos;
+    private ScheduledExecutorService scheduler;
+
+    // Métricas
+    private final AtomicLong ciclos = new AtomicLong();
+    private final AtomicLong asignados = new AtomicLong();
+    private final AtomicLong conflictos = new AtomicLong();
+    private final AtomicLong distanciaTotalM = new AtomicLong();
+    private final AtomicLong esperaTotalMs = new AtomicLong();
+    private volatile long ultimoCicloMs;
+
+    DespachoService(PedidoRepository repo, UbicacionLiveStore liveStore, RepartidorGeoIndex geoIndex,
+            int candidatos, long radioMetros, int maxPedidos) {
+        this.repo = repo;
+        this.liveStore = liveStore;
+        this.geoIndex = geoIndex;
+        this.candidatos = Math.max(1, candidatos);
+        this.radioMetros = Math.max(100L, radioMetros);
+        this.maxPedidos = Math.max(1, maxPedidos);
+    }
+
+    public static DespachoService getInstance() {
+        return Holder.INSTANCE;
+    }
+
+    public static boolean isEnabled() {
+        return Boolean.parseBoolean(Config.resolve("DISPATCH_ENABLED", "false"));
+    }
+
+    public synchronized void iniciar() {
+        if (scheduler != null) {
+            return;
+        }
+        long intervalo = Math.max(1_000L, Config.resolveLong("DISPATCH_INTERVAL_MS", 5_000L));
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "despacho-pedidos");
+            t.setDaemon(true);
+            return t;
+        });
+        scheduler.scheduleWithFixedDelay(this::cicloSeguro, intervalo, intervalo, TimeUnit.MILLISECONDS);
+        System.out.println("✅ Despacho automático activo (cada " + intervalo + " ms)");
+    }
+
+    public synchronized void shutdown() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+    }
+
+    /**
+     * Ejecuta un ciclo de despacho.
+     *
+     * @return número de pedidos asignados en el ciclo.
+     */
+    public int ejecutarCiclo() throws SQLException {
+        long t0 = System.nanoTime();
+        ciclos.incrementAndGet();
+        List<PedidoPendiente> pendientes = repo.listarPendientesSinRepartidor(maxPedidos);
+        if (pendientes.isEmpty()) {
+            ultimoCicloMs = (System.nanoTime() - t0) / 1_000_000L;
+            return 0;
+        }
+
+        Set<Long> ocupados = new HashSet<>(repo.listarRepartidoresOcupados());
+        ocupados.addAll(liveStore.repartidoresOcupados());
+
+        List<Par> pares = new ArrayList<>();
+        for (PedidoPendiente pedido : pendientes) {
+            for (RepartidorGeoIndex.Cercano c : geoIndex.cercanos(pedido.getLatitud(), pedido.getLongitud(),
+                    candidatos, radioMetros, id -> !ocupados.contains(id))) {
+                pares.add(new Par(pedido, c.getPosicion().getIdRepartidor(), c.getDistanciaMetros()));
+            }
+        }
+        pares.sort(Comparator.comparingDouble(p -> p.distanciaMetros));
+
+        Set<Integer> pedidosResueltos = new HashSet<>();
+        Set<Long> repartidoresUsados = new HashSet<>();
+        int asignadosCiclo = 0;
+        for (Par par : pares) {
+            int idPedido = par.pedido.getIdPedido();
+            if (pedidosResueltos.contains(idPedido) || repartidoresUsados.contains(par.idRepartidor)) {
+                continue;
+            }
+            pedidosResueltos.add(idPedido);
+            if (repo.asignarDelivery(idPedido, Math.toIntExact(par.idRepartidor))) {
+                repartidoresUsados.add(par.idRepartidor);
+                liveStore.registrarAsignacion(idPedido, par.idRepartidor);
+                asignadosCiclo++;
+                asignados.incrementAndGet();
+                distanciaTotalM.addAndGet(Math.round(par.distanciaMetros));
+                esperaTotalMs.addAndGet(Math.max(0L, System.currentTimeMillis() - par.pedido.getCreadoMs()));
+            } else {
+                // Otro proceso lo asignó o cambió de estado entre la lectura y el UPDATE
+                conflictos.incrementAndGet();
+            }
+        }
+        ultimoCicloMs = (System.nanoTime() - t0) / 1_000_000L;
+        return asignadosCiclo;
+    }
+
+    public Map<String, Object> metricas() {
+        long total = asignados.get();
+        Map<String, Object> m = new HashMap<>();
+        m.put("ciclos", ciclos.get());
+        m.put("asignados", total);
+        m.put("conflictos", conflictos.get());
+        m.put("distanciaMediaM", total > 0 ? distanciaTotalM.get() / total : 0);
+        m.put("esperaMediaMs", total > 0 ? esperaTotalMs.get() / total : 0);
+        m.put("ultimoCicloMs", ultimoCicloMs);
+        return m;
+    }
+
+    private void cicloSeguro() {
+        try {
+            int n = ejecutarCiclo();
+            if (n > 0) {
+                System.out.println("[Despacho] " + n + " pedidos asignados automáticamente");
+            }
+        } catch (SQLException | RuntimeException e) {
+            System.err.println("⚠️ Error en ciclo de despacho: " + e.getMessage());
+        }
+    }
+}
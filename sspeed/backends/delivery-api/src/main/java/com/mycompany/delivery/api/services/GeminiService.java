@@ -5,15 +5,24 @@ import java.net.URI;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
 import java.time.Duration;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import com.google.gson.Gson;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
+import com.mycompany.delivery.api.model.MensajeChatFila;
 
 import io.github.cdimascio.dotenv.Dotenv;
 
@@ -21,6 +30,15 @@ import io.github.cdimascio.dotenv.Dotenv;
  * Servicio ligero que consume la API de Gemini (Generative Language) v1
  * empleando {@link java.net.http.HttpClient}. Construye un payload compatible
  * con el endpoint /v1/models/:generateContent.
+ * <p>
+ * El camino del chatbot usa {@link #generateSmartReplyAsync}: la llamada HTTP es
+ * asíncrona ({@code sendAsync}), con plazo total por petición, cancelable y con
+ * un máximo de llamadas en vuelo ({@code GEMINI_MAX_EN_VUELO}); al superarlo se
+ * responde de inmediato el mensaje de alta demanda en lugar de encolar.
+ * <p>
+ * Cada modelo tiene su {@link LimitadorCuota} (RPM/TPM sin cerrojos); los
+ * tokens se cobran con la estimación y se corrigen con el
+ * {@code usageMetadata} de la respuesta.
  */
 public final class GeminiService {
 
@@ -29,6 +47,8 @@ public final class GeminiService {
             "https://generativelanguage.googleapis.com/v1beta/models/%s:generateContent?key=%s";
     private static final String FALLBACK_MESSAGE =
             "Lo siento, mi cerebro (IA) no esta disponible en este momento. Por favor, contacta a soporte.";
+    private static final String BUSY_MESSAGE =
+            "Estoy con mucha demanda ahora mismo. Inténtalo en unos segundos o contacta a soporte.";
 
     private static final Gson GSON = new Gson();
     private static final HttpClient HTTP_CLIENT = HttpClient.newBuilder()
@@ -54,15 +74,77 @@ public final class GeminiService {
     private final String fallbackModel;  // cuando hay límite o modo ahorro
     private final String heavyModel;     // prompts largos/complejos
 
-    // Limitadores simples por minuto (RPM/TPM aproximado)
-    private final RateLimiter primaryLimiter;
-    private final RateLimiter fallbackLimiter;
-    private final RateLimiter heavyLimiter;
+    // Cuota por modelo (RPM/TPM)
+    private final LimitadorCuota primaryLimiter;
+    private final LimitadorCuota fallbackLimiter;
+    private final LimitadorCuota heavyLimiter;
 
     // Telemetría por-request (segura para concurrencia con hilos HTTP)
     private final ThreadLocal<String> lastModelUsed = new ThreadLocal<>();
     private final ThreadLocal<Integer> lastEstimatedTokens = new ThreadLocal<>();
 
+    // Llamadas asíncronas: plazo por llamada HTTP y máximo en vuelo
+    private final long timeoutMs;
+    private final int maxEnVuelo;
+    private final Semaphore enVuelo;
+    private final AtomicLong llamadasRechazadas = new AtomicLong();
+    private final AtomicLong llamadasVencidas = new AtomicLong();
+    private final AtomicLong llamadasCanceladas = new AtomicLong();
+
+    /**
+     * Modelo elegido y la cuota a la que se cobró.
+     */
+    private record Ruta(String modelo, LimitadorCuota limitador) {}
+
+    /**
+     * Texto extraído de una respuesta de Gemini y tokens reales que informó
+     * ({@code -1} si no trae {@code usageMetadata}); {@code valido} es falso si
+     * el modelo no dio una respuesta utilizable.
+     */
+    private record Generado(String texto, int tokensReales, boolean valido) {
+        static Generado fallo(int tokensReales) {
+            return new Generado(FALLBACK_MESSAGE, tokensReales, false);
+        }
+    }
+
+    /**
+     * Texto generado y modelo que lo produjo ({@code null} si no se llamó a ningún modelo).
+     */
+    public record Respuesta(String texto, String modelo, int tokensEstimados, Estado estado) {
+
+        public enum Estado {
+            /** Respuesta real (del modelo, predefinida o de caché). */
+            OK,
+            /** No hubo cupo (limitadores o llamadas en vuelo): vale la pena reintentar más tarde. */
+            SIN_CUPO,
+            /** El modelo falló o no respondió a tiempo. */
+            FALLO
+        }
+
+        public static Respuesta sinModelo(String texto) {
+            return new Respuesta(texto, null, 0, Estado.OK);
+        }
+
+        static Respuesta ocupado(int tokensEstimados) {
+            return new Respuesta(BUSY_MESSAGE, null, tokensEstimados, Estado.SIN_CUPO);
+        }
+
+        static Respuesta fallo(String modelo, int tokensEstimados) {
+            return new Respuesta(FALLBACK_MESSAGE, modelo, tokensEstimados, Estado.FALLO);
+        }
+
+        public boolean sinCupo() {
+            return estado == Estado.SIN_CUPO;
+        }
+
+        /**
+         * Mensaje alternativo en lugar de una respuesta real del modelo.
+         */
+        public boolean alternativa() {
+            return estado != Estado.OK;
+        }
+    }
+
     public GeminiService() {
         this.apiKey = resolveApiKey();
         this.modelName = resolveModelName();
@@ -81,22 +163,25 @@ public final class GeminiService {
         int heavyRpm = parseInt(readEnv("GEMINI_HEAVY_RPM"), 2);
         int heavyTpm = parseInt(readEnv("GEMINI_HEAVY_TPM"), 125_000);
 
-        this.primaryLimiter = new RateLimiter(primaryRpm, primaryTpm);
-        this.fallbackLimiter = new RateLimiter(fallbackRpm, fallbackTpm);
-        this.heavyLimiter = new RateLimiter(heavyRpm, heavyTpm);
+        this.primaryLimiter = new LimitadorCuota(primaryRpm, primaryTpm);
+        this.fallbackLimiter = new LimitadorCuota(fallbackRpm, fallbackTpm);
+        this.heavyLimiter = new LimitadorCuota(heavyRpm, heavyTpm);
+
+        this.timeoutMs = Math.max(1000, parseInt(readEnv("GEMINI_TIMEOUT_MS"), 30_000));
+        this.maxEnVuelo = Math.max(1, parseInt(readEnv("GEMINI_MAX_EN_VUELO"), 16));
+        this.enVuelo = new Semaphore(maxEnVuelo);
     }
 
     /**
      * Genera una respuesta a partir del prompt y la conversacion previa.
      *
      * @param prompt        Mensaje actual del usuario.
-     * @param history       Historial de mensajes (cada elemento debe contener al menos
-     *                      las claves "id_remitente" y "mensaje").
+     * @param history       Historial de mensajes de la conversación.
      * @param currentUserId Identificador del usuario actual (para determinar su rol).
      * @return Texto devuelto por Gemini o un mensaje alternativo si no fue posible.
      */
     public String generateReply(String prompt,
-                                List<Map<String, Object>> history,
+                                List<MensajeChatFila> history,
                                 int currentUserId) {
         if (apiKey == null || apiKey.isBlank()) {
             return FALLBACK_MESSAGE;
@@ -127,97 +212,233 @@ public final class GeminiService {
      */
     public String generateReplyWithModel(String model,
                                          String prompt,
-                                         List<Map<String, Object>> history,
+                                         List<MensajeChatFila> history,
                                          int currentUserId) throws IOException, InterruptedException {
+        HttpResponse<String> response = HTTP_CLIENT.send(
+                buildRequest(model, prompt, history, currentUserId, timeoutMs),
+                HttpResponse.BodyHandlers.ofString());
+        return replyFrom(response).texto();
+    }
+
+    private HttpRequest buildRequest(String model, String prompt, List<MensajeChatFila> history,
+                                     int currentUserId, long timeout) {
         JsonObject requestPayload = buildPayload(prompt, history, currentUserId);
-        HttpRequest request = HttpRequest.newBuilder()
+        return HttpRequest.newBuilder()
                 .uri(URI.create(String.format(API_URL_TEMPLATE, model, apiKey)))
                 .header("Content-Type", "application/json")
-                .timeout(Duration.ofSeconds(30))
+                .timeout(Duration.ofMillis(timeout))
                 .POST(HttpRequest.BodyPublishers.ofString(GSON.toJson(requestPayload)))
                 .build();
+    }
 
-        HttpResponse<String> response = HTTP_CLIENT.send(
-                request,
-                HttpResponse.BodyHandlers.ofString());
-
+    private Generado replyFrom(HttpResponse<String> response) {
         if (response.statusCode() != 200) {
             System.err.printf("Gemini API error %d: %s%n",
                     response.statusCode(), response.body());
-            return FALLBACK_MESSAGE;
+            return Generado.fallo(-1);
         }
-
         return extractReply(response.body());
     }
 
     /**
      * Selecciona modelo automáticamente según longitud y límites actuales
      * y hace fallback inteligente para cuidar las cuotas.
+     * <p>
+     * Versión bloqueante de {@link #generateSmartReplyAsync} (mismo plazo que
+     * dos llamadas), para procesos en segundo plano.
      */
     public String generateSmartReply(String prompt,
-                                     List<Map<String, Object>> history,
+                                     List<MensajeChatFila> history,
                                      int currentUserId) {
-        if (apiKey == null || apiKey.isBlank()) return FALLBACK_MESSAGE;
+        Respuesta respuesta;
+        try {
+            respuesta = generateSmartReplyAsync(prompt, history, currentUserId, 2 * timeoutMs).join();
+        } catch (CompletionException | CancellationException e) {
+            respuesta = Respuesta.fallo(null, 0);
+        }
+        lastModelUsed.set(respuesta.modelo());
+        lastEstimatedTokens.set(respuesta.tokensEstimados());
+        return respuesta.texto();
+    }
+
+    /**
+     * Igual que {@link #generateSmartReply} pero sin bloquear el hilo que llama.
+     * <p>
+     * El futuro siempre termina con una {@link Respuesta} (los errores del
+     * modelo se traducen al mensaje alternativo) salvo que se cancele; cancelarlo
+     * aborta la llamada HTTP en curso y evita el reintento con el modelo de
+     * respaldo.
+     *
+     * @param plazoMs tiempo máximo para todo el proceso, reintento incluido.
+     */
+    public CompletableFuture<Respuesta> generateSmartReplyAsync(String prompt,
+                                                                List<MensajeChatFila> history,
+                                                                int currentUserId,
+                                                                long plazoMs) {
+        if (apiKey == null || apiKey.isBlank()) {
+            return CompletableFuture.completedFuture(Respuesta.fallo(null, 0));
+        }
 
         final String safePrompt = prompt == null ? "" : prompt.trim();
-        if (safePrompt.isEmpty()) return "Podrias indicarme tu consulta?";
+        if (safePrompt.isEmpty()) {
+            return CompletableFuture.completedFuture(Respuesta.sinModelo("Podrias indicarme tu consulta?"));
+        }
 
-    int estimatedTokens = estimateTokens(safePrompt, history);
-    lastEstimatedTokens.set(estimatedTokens);
-        int heavyTrigger = parseInt(readEnv("GEMINI_HEAVY_TRIGGER_TOKENS"), 2500);
+        int estimatedTokens = estimateTokens(safePrompt, history);
+        // Primero el permiso en vuelo: la cuota RPM/TPM sólo se cobra a llamadas que sí se harán
+        if (!enVuelo.tryAcquire()) {
+            llamadasRechazadas.incrementAndGet();
+            return CompletableFuture.completedFuture(Respuesta.ocupado(estimatedTokens));
+        }
+        Ruta ruta = chooseModel(estimatedTokens);
+        if (ruta == null) {
+            enVuelo.release();
+            return CompletableFuture.completedFuture(Respuesta.ocupado(estimatedTokens));
+        }
 
-        String chosen = this.primaryModel;
-        RateLimiter limiter = this.primaryLimiter;
-        if (estimatedTokens >= heavyTrigger) {
-            chosen = this.heavyModel;
-            limiter = this.heavyLimiter;
-        }
-
-        // Si el limitador rechaza (RPM/TPM), probar fallback
-        if (!limiter.tryConsume(1, estimatedTokens)) {
-            if (chosen.equals(this.heavyModel)) {
-                // Segundo intento: usar primary si cabe
-                if (primaryLimiter.tryConsume(1, estimatedTokens)) {
-                    chosen = this.primaryModel;
-                    limiter = this.primaryLimiter;
-                } else if (fallbackLimiter.tryConsume(1, estimatedTokens)) {
-                    chosen = this.fallbackModel;
-                    limiter = this.fallbackLimiter;
-                } else {
-                    return "Estoy con mucha demanda ahora mismo. Inténtalo en unos segundos o contacta a soporte.";
-                }
+        Llamada llamada = new Llamada(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(Math.max(1, plazoMs)));
+        String chosen = ruta.modelo();
+        CompletableFuture<Respuesta> proceso = callAsync(llamada, ruta, estimatedTokens, safePrompt, history, currentUserId)
+                .thenApply(generado -> {
+                    logRouting(chosen, estimatedTokens, "primary/heavy");
+                    return respuesta(generado, chosen, estimatedTokens);
+                })
+                .exceptionallyCompose(e -> {
+                    if (llamada.cancelada) {
+                        return CompletableFuture.failedFuture(e);
+                    }
+                    System.err.println("Fallo con modelo " + chosen + ": " + causa(e).getMessage());
+                    // Intento final: fallbackModel si no era el que usamos y queda plazo
+                    if (chosen.equals(fallbackModel) || llamada.restanteMs() <= 0
+                            || !fallbackLimiter.tryConsume(1, estimatedTokens)) {
+                        return CompletableFuture.completedFuture(Respuesta.fallo(chosen, estimatedTokens));
+                    }
+                    Ruta respaldo = new Ruta(fallbackModel, fallbackLimiter);
+                    return callAsync(llamada, respaldo, estimatedTokens, safePrompt, history, currentUserId)
+                            .thenApply(generado -> {
+                                logRouting(fallbackModel, estimatedTokens, "exception-fallback");
+                                return respuesta(generado, fallbackModel, estimatedTokens);
+                            })
+                            .exceptionally(e2 -> Respuesta.fallo(fallbackModel, estimatedTokens));
+                });
+
+        CompletableFuture<Respuesta> resultado = new CompletableFuture<>();
+        proceso.whenComplete((respuesta, error) -> {
+            enVuelo.release();
+            if (error == null) {
+                resultado.complete(respuesta);
             } else {
-                if (fallbackLimiter.tryConsume(1, estimatedTokens)) {
-                    chosen = this.fallbackModel;
-                    limiter = this.fallbackLimiter;
-                } else if (heavyLimiter.tryConsume(1, estimatedTokens)) {
-                    chosen = this.heavyModel;
-                    limiter = this.heavyLimiter;
-                } else {
-                    return "Estoy con mucha demanda ahora mismo. Inténtalo en unos segundos o contacta a soporte.";
-                }
+                resultado.completeExceptionally(error);
+            }
+        });
+        resultado.whenComplete((respuesta, error) -> {
+            if (resultado.isCancelled()) {
+                llamada.cancelar();
+                llamadasCanceladas.incrementAndGet();
             }
+        });
+        return resultado;
+    }
+
+    /**
+     * Modelo según tamaño del prompt y cuotas disponibles, o {@code null} si
+     * todos los limitadores rechazan.
+     */
+    private Ruta chooseModel(int estimatedTokens) {
+        int heavyTrigger = parseInt(readEnv("GEMINI_HEAVY_TRIGGER_TOKENS"), 2500);
+
+        // Orden de preferencia; si el limitador rechaza (RPM/TPM), se prueba el siguiente
+        if (estimatedTokens >= heavyTrigger) {
+            return primeraConCupo(estimatedTokens,
+                    heavyModel, heavyLimiter, primaryModel, primaryLimiter, fallbackModel, fallbackLimiter);
         }
+        return primeraConCupo(estimatedTokens,
+                primaryModel, primaryLimiter, fallbackModel, fallbackLimiter, heavyModel, heavyLimiter);
+    }
 
-        try {
-            lastModelUsed.set(chosen);
-            String text = generateReplyWithModel(chosen, safePrompt, history, currentUserId);
-            logRouting(chosen, estimatedTokens, "primary/heavy");
-            return text;
-        } catch (Exception e) {
-            System.err.println("Fallo con modelo " + chosen + ": " + e.getMessage());
-            // Intento final: fallbackModel si no era el que usamos
-            if (!chosen.equals(fallbackModel)) {
-                try {
-                    if (fallbackLimiter.tryConsume(1, estimatedTokens)) {
-                        lastModelUsed.set(fallbackModel);
-                        String text = generateReplyWithModel(fallbackModel, safePrompt, history, currentUserId);
-                        logRouting(fallbackModel, estimatedTokens, "exception-fallback");
-                        return text;
+    private static Ruta primeraConCupo(int estimatedTokens,
+                                       String m1, LimitadorCuota l1,
+                                       String m2, LimitadorCuota l2,
+                                       String m3, LimitadorCuota l3) {
+        if (l1.tryConsume(1, estimatedTokens)) {
+            return new Ruta(m1, l1);
+        }
+        if (l2.tryConsume(1, estimatedTokens)) {
+            return new Ruta(m2, l2);
+        }
+        return l3.tryConsume(1, estimatedTokens) ? new Ruta(m3, l3) : null;
+    }
+
+    private static Respuesta respuesta(Generado generado, String modelo, int estimatedTokens) {
+        return generado.valido()
+                ? new Respuesta(generado.texto(), modelo, estimatedTokens, Respuesta.Estado.OK)
+                : Respuesta.fallo(modelo, estimatedTokens);
+    }
+
+    /**
+     * Una llamada HTTP asíncrona con el plazo que le quede a la petición.
+     */
+    private CompletableFuture<Generado> callAsync(Llamada llamada, Ruta ruta, int estimatedTokens, String prompt,
+                                                List<MensajeChatFila> history, int currentUserId) {
+        long restante = llamada.restanteMs();
+        if (restante <= 0) {
+            llamadasVencidas.incrementAndGet();
+            return CompletableFuture.failedFuture(new HttpTimeoutException("plazo de la petición agotado"));
+        }
+        HttpRequest request = buildRequest(ruta.modelo(), prompt, history, currentUserId, Math.min(timeoutMs, restante));
+        CompletableFuture<HttpResponse<String>> http = HTTP_CLIENT.sendAsync(request, HttpResponse.BodyHandlers.ofString());
+        if (!llamada.enCurso(http)) {
+            return CompletableFuture.failedFuture(new CancellationException("llamada cancelada"));
+        }
+        return http.whenComplete((response, error) -> {
+                    if (causa(error) instanceof HttpTimeoutException) {
+                        llamadasVencidas.incrementAndGet();
                     }
-                } catch (Exception ignored) {}
+                })
+                .thenApply(response -> {
+                    Generado generado = replyFrom(response);
+                    if (generado.tokensReales() >= 0) {
+                        ruta.limitador().corregirTokens(generado.tokensReales() - estimatedTokens);
+                    }
+                    return generado;
+                });
+    }
+
+    private static Throwable causa(Throwable e) {
+        return e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+    }
+
+    /**
+     * Estado de una petición asíncrona: plazo total y la llamada HTTP en curso
+     * (para abortarla si el cliente se va).
+     */
+    private static final class Llamada {
+        final long limiteNanos;
+        volatile boolean cancelada;
+        private CompletableFuture<?> http;
+
+        Llamada(long limiteNanos) {
+            this.limiteNanos = limiteNanos;
+        }
+
+        long restanteMs() {
+            return TimeUnit.NANOSECONDS.toMillis(limiteNanos - System.nanoTime());
+        }
+
+        synchronized boolean enCurso(CompletableFuture<?> http) {
+            if (cancelada) {
+                http.cancel(true);
+                return false;
+            }
+            this.http = http;
+            return true;
+        }
+
+        synchronized void cancelar() {
+            cancelada = true;
+            if (http != null) {
+                http.cancel(true);
             }
-            return FALLBACK_MESSAGE;
         }
     }
 
@@ -225,7 +446,7 @@ public final class GeminiService {
      * Variante que devuelve además metadatos del enrutamiento (modelo y tokens estimados).
      */
     public Map<String, Object> generateSmartReplyWithInfo(String prompt,
-                                                          List<Map<String, Object>> history,
+                                                          List<MensajeChatFila> history,
                                                           int currentUserId) {
         String text = generateSmartReply(prompt, history, currentUserId);
         return java.util.Map.of(
@@ -243,6 +464,34 @@ public final class GeminiService {
         return lastEstimatedTokens.get();
     }
 
+    /**
+     * Peticiones por minuto que admiten, entre todos, los modelos configurados.
+     */
+    public int presupuestoRpm() {
+        return primaryLimiter.maxRpm + fallbackLimiter.maxRpm + heavyLimiter.maxRpm;
+    }
+
+    public Map<String, Object> metricas() {
+        Map<String, Object> m = new HashMap<>();
+        m.put("maxEnVuelo", maxEnVuelo);
+        m.put("enVuelo", maxEnVuelo - enVuelo.availablePermits());
+        m.put("rechazadas", llamadasRechazadas.get());
+        m.put("vencidas", llamadasVencidas.get());
+        m.put("canceladas", llamadasCanceladas.get());
+        Map<String, Object> cuotas = new HashMap<>();
+        cuotas.put("primary", cuota(primaryModel, primaryLimiter));
+        cuotas.put("fallback", cuota(fallbackModel, fallbackLimiter));
+        cuotas.put("heavy", cuota(heavyModel, heavyLimiter));
+        m.put("cuotas", cuotas);
+        return m;
+    }
+
+    private static Map<String, Object> cuota(String modelo, LimitadorCuota limitador) {
+        Map<String, Object> m = limitador.metricas();
+        m.put("modelo", modelo);
+        return m;
+    }
+
     private void logRouting(String model, int estimatedTokens, String stage) {
         try {
             String json = GSON.toJson(java.util.Map.of(
@@ -257,7 +506,7 @@ public final class GeminiService {
     }
 
     private JsonObject buildPayload(String prompt,
-                                    List<Map<String, Object>> history,
+                                    List<MensajeChatFila> history,
                                     int currentUserId) {
         JsonArray contents = new JsonArray();
 
@@ -269,24 +518,15 @@ public final class GeminiService {
         if (history != null && !history.isEmpty()) {
             int start = Math.max(0, history.size() - 12);
             for (int i = start; i < history.size(); i++) {
-                Map<String, Object> message = history.get(i);
+                MensajeChatFila message = history.get(i);
                 if (message == null) {
                     continue;
                 }
-                Object textObj = message.get("mensaje");
-                if (textObj == null) {
-                    continue;
-                }
-                String text = textObj.toString();
-                if (text.isBlank()) {
+                String text = message.mensaje();
+                if (text == null || text.isBlank()) {
                     continue;
                 }
-                int senderId = -1;
-                Object senderObj = message.get("id_remitente");
-                if (senderObj instanceof Number number) {
-                    senderId = number.intValue();
-                }
-                String role = (senderId == currentUserId) ? "user" : "model";
+                String role = (message.idRemitente() == currentUserId) ? "user" : "model";
                 contents.add(content(role, text));
             }
         }
@@ -309,22 +549,23 @@ public final class GeminiService {
         return content;
     }
 
-    private String extractReply(String body) {
+    private Generado extractReply(String body) {
         JsonObject json = GSON.fromJson(body, JsonObject.class);
+        int tokensReales = tokensUsados(json);
         JsonArray candidates = json != null ? json.getAsJsonArray("candidates") : null;
         if (candidates == null || candidates.isEmpty()) {
-            return FALLBACK_MESSAGE;
+            return Generado.fallo(tokensReales);
         }
 
         JsonObject candidate = candidates.get(0).getAsJsonObject();
         JsonObject content = candidate.getAsJsonObject("content");
         if (content == null) {
-            return FALLBACK_MESSAGE;
+            return Generado.fallo(tokensReales);
         }
 
         JsonArray parts = content.getAsJsonArray("parts");
         if (parts == null) {
-            return FALLBACK_MESSAGE;
+            return Generado.fallo(tokensReales);
         }
 
         List<String> fragments = new ArrayList<>();
@@ -343,9 +584,18 @@ public final class GeminiService {
         }
 
         if (fragments.isEmpty()) {
-            return FALLBACK_MESSAGE;
+            return Generado.fallo(tokensReales);
         }
-        return String.join("\n", fragments);
+        return new Generado(String.join("\n", fragments), tokensReales, true);
+    }
+
+    /**
+     * {@code usageMetadata.totalTokenCount} (entrada + salida) o {@code -1}.
+     */
+    private static int tokensUsados(JsonObject json) {
+        JsonObject uso = json != null ? json.getAsJsonObject("usageMetadata") : null;
+        JsonElement total = uso != null ? uso.get("totalTokenCount") : null;
+        return total != null && total.isJsonPrimitive() ? total.getAsInt() : -1;
     }
 
     private String resolveApiKey() {
@@ -407,49 +657,15 @@ public final class GeminiService {
         try { return v == null ? def : Integer.parseInt(v.trim()); } catch (Exception e) { return def; }
     }
 
-    private static int estimateTokens(String prompt, List<Map<String, Object>> history) {
+    private static int estimateTokens(String prompt, List<MensajeChatFila> history) {
         int chars = prompt == null ? 0 : prompt.length();
         if (history != null) {
-            for (Map<String, Object> m : history) {
-                Object t = m == null ? null : m.get("mensaje");
-                if (t != null) chars += t.toString().length();
+            for (MensajeChatFila m : history) {
+                String t = m == null ? null : m.mensaje();
+                if (t != null) chars += t.length();
             }
         }
         // Aproximación: ~4 chars/token
         return Math.max(1, chars / 4);
     }
-
-    /**
-     * Rate limiter simple por ventana de 60s con control de requests y tokens.
-     */
-    private static final class RateLimiter {
-        private final int maxRpm;
-        private final int maxTpm;
-        private long windowStartMs = System.currentTimeMillis();
-        private int usedRequests = 0;
-        private int usedTokens = 0;
-
-        RateLimiter(int maxRpm, int maxTpm) {
-            this.maxRpm = Math.max(1, maxRpm);
-            this.maxTpm = Math.max(1000, maxTpm);
-        }
-
-        synchronized boolean tryConsume(int requests, int tokens) {
-            rollWindow();
-            if (usedRequests + requests > maxRpm) return false;
-            if (usedTokens + tokens > maxTpm) return false;
-            usedRequests += requests;
-            usedTokens += tokens;
-            return true;
-        }
-
-        private void rollWindow() {
-            long now = System.currentTimeMillis();
-            if (now - windowStartMs >= 60_000) {
-                windowStartMs = now;
-                usedRequests = 0;
-                usedTokens = 0;
-            }
-        }
-    }
 }
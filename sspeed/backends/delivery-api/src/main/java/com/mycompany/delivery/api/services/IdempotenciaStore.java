@@ -0,0 +1,281 @@
+package com.mycompany.delivery.api.services;
+
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.mycompany.delivery.api.config.Config;
+import com.mycompany.delivery.api.repository.IdempotenciaRepository;
+import com.mycompany.delivery.api.repository.IdempotenciaRepository.Registro;
+
+/**
+ * Respuestas guardadas por clave de idempotencia.
+ * <p>
+ * Un LRU en memoria acotado a IDEMPOTENCIA_MAX claves resuelve los reintentos
+ * habituales (mismo cliente, pocos segundos después) sin tocar la BD. La tabla
+ * {@code idempotencia} es la fuente de verdad: la reserva es un único
+ * {@code INSERT ... ON CONFLICT}, así que dos peticiones con la misma clave en
+ * instancias distintas no pueden ejecutarse ambas, y la respuesta sobrevive a
+ * reinicios durante IDEMPOTENCIA_TTL_MS. Sin la migración el store funciona
+ * sólo en memoria (por instancia).
+ * <p>
+ * Una reserva cuya petición no termina (caída de la instancia) se puede volver
+ * a tomar pasados IDEMPOTENCIA_EN_CURSO_MS.
+ */
+public final class IdempotenciaStore {
+
+    public enum Resultado {
+        /** Clave reservada: la petición debe ejecutarse. */
+        NUEVA,
+        /** Ya hay respuesta guardada para la clave y el mismo cuerpo. */
+        REPETIDA,
+        /** Otra petición con la misma clave se está ejecutando. */
+        EN_CURSO,
+        /** La clave se usó con otro cuerpo. */
+        OTRO_CUERPO
+    }
+
+    public record Decision(Resultado resultado, int status, byte[] cuerpo) {
+        static Decision de(Resultado r) {
+            return new Decision(r, 0, null);
+        }
+    }
+
+    private static final class Holder {
+        private static final IdempotenciaStore INSTANCE = new IdempotenciaStore(new IdempotenciaRepository(),
+                Config.resolveInt("IDEMPOTENCIA_MAX", 10_000),
+                Config.resolveLong("IDEMPOTENCIA_TTL_MS", 86_400_000L),
+                Config.resolveLong("IDEMPOTENCIA_EN_CURSO_MS", 120_000L));
+    }
+
+    private record Entrada(byte[] huella, boolean completada, int status, byte[] cuerpo, long venceMs) {}
+
+    private final IdempotenciaRepository repo;
+    private final int maximo;
+    private final long ttlMs;
+    private final long enCursoMs;
+    private final LinkedHashMap<String, Entrada> entradas;
+    private volatile boolean conBd;
+    private ScheduledExecutorService purga;
+
+    // Métricas
+    private final AtomicLong solicitudes = new AtomicLong();
+    private final AtomicLong nuevas = new AtomicLong();
+    private final AtomicLong aciertosMemoria = new AtomicLong();
+    private final AtomicLong aciertosBd = new AtomicLong();
+    private final AtomicLong enCurso = new AtomicLong();
+    private final AtomicLong otroCuerpo = new AtomicLong();
+    private final AtomicLong erroresBd = new AtomicLong();
+    private final AtomicLong expulsiones = new AtomicLong();
+    private final AtomicLong purgadas = new AtomicLong();
+
+    IdempotenciaStore(IdempotenciaRepository repo, int maximo, long ttlMs, long enCursoMs) {
+        this.repo = repo;
+        this.maximo = Math.max(100, maximo);
+        this.ttlMs = Math.max(60_000L, ttlMs);
+        this.enCursoMs = Math.max(1_000L, enCursoMs);
+        this.entradas = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entrada> mayor) {
+                if (size() > IdempotenciaStore.this.maximo) {
+                    expulsiones.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    public static IdempotenciaStore getInstance() {
+        return Holder.INSTANCE;
+    }
+
+    public static boolean isEnabled() {
+        return Boolean.parseBoolean(Config.resolve("IDEMPOTENCIA_ENABLED", "true"));
+    }
+
+    /**
+     * Activa la tabla si existe y programa la purga de claves vencidas.
+     */
+    public synchronized void iniciar() {
+        if (purga != null) {
+            return;
+        }
+        try {
+            if (!repo.disponible()) {
+                System.err.println("⚠️ Idempotencia sólo en memoria: falta sql/20261018_idempotencia.sql");
+                return;
+            }
+        } catch (SQLException e) {
+            System.err.println("⚠️ Idempotencia sólo en memoria: " + e.getMessage());
+            return;
+        }
+        conBd = true;
+        long intervalo = Math.max(60_000L, Config.resolveLong("IDEMPOTENCIA_PURGA_MS", 600_000L));
+        purga = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "idempotencia-purga");
+            t.setDaemon(true);
+            return t;
+        });
+        purga.scheduleWithFixedDelay(this::purgar, intervalo, intervalo, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void shutdown() {
+        if (purga != null) {
+            purga.shutdownNow();
+            purga = null;
+        }
+    }
+
+    // ===============================
+    // RESERVA Y RESPUESTA
+    // ===============================
+    public Decision reservar(byte[] clave, byte[] huella) {
+        solicitudes.incrementAndGet();
+        String k = HexFormat.of().formatHex(clave);
+        long ahora = System.currentTimeMillis();
+        synchronized (entradas) {
+            Entrada e = entradas.get(k);
+            if (e != null && e.venceMs > ahora) {
+                return decidir(e.huella, e.completada, e.status, e.cuerpo, huella, aciertosMemoria);
+            }
+            if (!conBd) {
+                entradas.put(k, new Entrada(huella, false, 0, null, ahora + enCursoMs));
+                nuevas.incrementAndGet();
+                return Decision.de(Resultado.NUEVA);
+            }
+            entradas.remove(k);
+        }
+        try {
+            // Si la fila desaparece entre la reserva fallida y la lectura
+            // (purga o liberación) se reintenta una vez.
+            for (int intento = 0; intento < 2; intento++) {
+                if (repo.reservar(clave, huella, ttlMs, enCursoMs)) {
+                    recordar(k, new Entrada(huella, false, 0, null, ahora + enCursoMs));
+                    nuevas.incrementAndGet();
+                    return Decision.de(Resultado.NUEVA);
+                }
+                Optional<Registro> r = repo.buscar(clave);
+                if (r.isPresent()) {
+                    Registro reg = r.get();
+                    if (reg.completada()) {
+                        recordar(k, new Entrada(reg.huella(), true, reg.status(), reg.cuerpo(),
+                                ahora + Math.min(ttlMs, reg.restaMs())));
+                    }
+                    return decidir(reg.huella(), reg.completada(), reg.status(), reg.cuerpo(), huella, aciertosBd);
+                }
+            }
+            enCurso.incrementAndGet();
+            return Decision.de(Resultado.EN_CURSO);
+        } catch (SQLException e) {
+            // Sin BD se degrada a la protección de esta instancia
+            erroresBd.incrementAndGet();
+            System.err.println("⚠️ Error reservando clave de idempotencia: " + e.getMessage());
+            synchronized (entradas) {
+                Entrada previa = entradas.get(k);
+                if (previa != null && previa.venceMs > ahora) {
+                    return decidir(previa.huella, previa.completada, previa.status, previa.cuerpo, huella,
+                            aciertosMemoria);
+                }
+                entradas.put(k, new Entrada(huella, false, 0, null, ahora + enCursoMs));
+            }
+            nuevas.incrementAndGet();
+            return Decision.de(Resultado.NUEVA);
+        }
+    }
+
+    /**
+     * Guarda la respuesta de una petición reservada con {@link #reservar}.
+     */
+    public void completar(byte[] clave, byte[] huella, int status, byte[] cuerpo) {
+        recordar(HexFormat.of().formatHex(clave),
+                new Entrada(huella, true, status, cuerpo, System.currentTimeMillis() + ttlMs));
+        if (!conBd) {
+            return;
+        }
+        try {
+            repo.completar(clave, huella, status, cuerpo, ttlMs);
+        } catch (SQLException e) {
+            erroresBd.incrementAndGet();
+            System.err.println("⚠️ Error guardando respuesta idempotente: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Suelta la reserva de una petición que falló para que pueda reintentarse.
+     */
+    public void liberar(byte[] clave) {
+        synchronized (entradas) {
+            entradas.remove(HexFormat.of().formatHex(clave));
+        }
+        if (!conBd) {
+            return;
+        }
+        try {
+            repo.liberar(clave);
+        } catch (SQLException e) {
+            erroresBd.incrementAndGet();
+            System.err.println("⚠️ Error liberando clave de idempotencia: " + e.getMessage());
+        }
+    }
+
+    public Map<String, Object> metricas() {
+        Map<String, Object> m = new HashMap<>();
+        long total = solicitudes.get();
+        long repeticiones = aciertosMemoria.get() + aciertosBd.get();
+        m.put("bd", conBd);
+        synchronized (entradas) {
+            m.put("entradas", entradas.size());
+        }
+        m.put("maximo", maximo);
+        m.put("solicitudes", total);
+        m.put("nuevas", nuevas.get());
+        m.put("repeticiones", repeticiones);
+        m.put("aciertosMemoria", aciertosMemoria.get());
+        m.put("aciertosBd", aciertosBd.get());
+        m.put("ratioAciertos", total == 0 ? 0.0 : (double) repeticiones / total);
+        m.put("enCurso", enCurso.get());
+        m.put("otroCuerpo", otroCuerpo.get());
+        m.put("erroresBd", erroresBd.get());
+        m.put("expulsiones", expulsiones.get());
+        m.put("purgadas", purgadas.get());
+        return m;
+    }
+
+    private Decision decidir(byte[] huellaGuardada, boolean completada, int status, byte[] cuerpo, byte[] huella,
+            AtomicLong aciertos) {
+        if (!Arrays.equals(huellaGuardada, huella)) {
+            otroCuerpo.incrementAndGet();
+            return Decision.de(Resultado.OTRO_CUERPO);
+        }
+        if (!completada) {
+            enCurso.incrementAndGet();
+            return Decision.de(Resultado.EN_CURSO);
+        }
+        aciertos.incrementAndGet();
+        return new Decision(Resultado.REPETIDA, status, cuerpo);
+    }
+
+    private void recordar(String k, Entrada e) {
+        synchronized (entradas) {
+            entradas.put(k, e);
+        }
+    }
+
+    private void purgar() {
+        try {
+            purgadas.addAndGet(repo.purgarVencidas());
+        } catch (SQLException | RuntimeException e) {
+            erroresBd.incrementAndGet();
+            System.err.println("⚠️ Error purgando claves de idempotencia: " + e.getMessage());
+        }
+    }
+}
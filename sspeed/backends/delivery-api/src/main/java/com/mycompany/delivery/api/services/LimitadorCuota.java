@@ -0,0 +1,133 @@
+package com.mycompany.delivery.api.services;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Cuota de un modelo (peticiones y tokens por minuto) sin cerrojos.
+ * <p>
+ * Son dos cubos de fichas que se rellenan de forma continua y se consumen a la
+ * vez con un único {@code compareAndSet} sobre un estado inmutable; un rechazo
+ * no escribe nada. Cada cubo se rellena a la cuota completa por minuto, así que
+ * el caudal sostenido llega al límite; la capacidad (una cuarta parte de la
+ * cuota) sólo acota la ráfaga tras un rato sin tráfico. En el peor caso una
+ * ventana de 60 s admite la cuota más esa ráfaga (la ventana fija anterior
+ * admitía el doble alrededor del cambio de minuto).
+ * <p>
+ * Los tokens se cobran con la estimación al admitir la petición y se corrigen
+ * con {@link #corregirTokens(int)} cuando la respuesta trae el uso real. El
+ * cubo de tokens puede quedar en negativo (deuda): las peticiones siguientes
+ * esperan a que se recupere. Una petición mayor que la capacidad del cubo sólo
+ * entra con el cubo lleno.
+ */
+final class LimitadorCuota {
+
+    private static final double MINUTO_NANOS = TimeUnit.MINUTES.toNanos(1);
+    private static final int FRACCION_RAFAGA = 4;
+
+    private record Estado(long nanos, double peticiones, double tokens) {}
+
+    final int maxRpm;
+    final int maxTpm;
+    private final double capacidadPeticiones;
+    private final double capacidadTokens;
+    private final double peticionesPorNano;
+    private final double tokensPorNano;
+    private final AtomicReference<Estado> estado;
+
+    // Métricas
+    private final LongAdder admitidas = new LongAdder();
+    private final LongAdder rechazosRpm = new LongAdder();
+    private final LongAdder rechazosTpm = new LongAdder();
+    private final LongAdder tokensCobrados = new LongAdder();
+    private final LongAdder tokensCorregidos = new LongAdder();
+
+    LimitadorCuota(int maxRpm, int maxTpm) {
+        this.maxRpm = Math.max(1, maxRpm);
+        this.maxTpm = Math.max(1000, maxTpm);
+        this.capacidadPeticiones = rafaga(this.maxRpm);
+        this.capacidadTokens = rafaga(this.maxTpm);
+        this.peticionesPorNano = this.maxRpm / MINUTO_NANOS;
+        this.tokensPorNano = this.maxTpm / MINUTO_NANOS;
+        this.estado = new AtomicReference<>(new Estado(System.nanoTime(), capacidadPeticiones, capacidadTokens));
+    }
+
+    private static double rafaga(int porMinuto) {
+        return Math.max(1, (porMinuto + FRACCION_RAFAGA - 1) / FRACCION_RAFAGA);
+    }
+
+    /**
+     * Admite la petición si caben {@code peticiones} y {@code tokens} estimados.
+     */
+    boolean tryConsume(int peticiones, int tokens) {
+        double minimoTokens = Math.min(tokens, capacidadTokens);
+        Estado actual = estado.get();
+        while (true) {
+            Estado lleno = rellenar(actual, System.nanoTime());
+            if (lleno.peticiones < peticiones) {
+                rechazosRpm.increment();
+                return false;
+            }
+            if (lleno.tokens < minimoTokens) {
+                rechazosTpm.increment();
+                return false;
+            }
+            Estado nuevo = new Estado(lleno.nanos, lleno.peticiones - peticiones, lleno.tokens - tokens);
+            if (estado.compareAndSet(actual, nuevo)) {
+                admitidas.increment();
+                tokensCobrados.add(tokens);
+                return true;
+            }
+            actual = estado.get();
+        }
+    }
+
+    /**
+     * Ajusta el cubo de tokens con la diferencia entre el uso real y lo cobrado
+     * al admitir ({@code delta > 0} si se usaron más tokens de los estimados).
+     */
+    void corregirTokens(int delta) {
+        if (delta == 0) {
+            return;
+        }
+        Estado actual = estado.get();
+        while (true) {
+            Estado lleno = rellenar(actual, System.nanoTime());
+            Estado nuevo = new Estado(lleno.nanos, lleno.peticiones,
+                    Math.min(capacidadTokens, lleno.tokens - delta));
+            if (estado.compareAndSet(actual, nuevo)) {
+                tokensCorregidos.add(delta);
+                return;
+            }
+            actual = estado.get();
+        }
+    }
+
+    private Estado rellenar(Estado e, long ahora) {
+        long transcurrido = ahora - e.nanos;
+        if (transcurrido <= 0) {
+            return e;
+        }
+        return new Estado(ahora,
+                Math.min(capacidadPeticiones, e.peticiones + transcurrido * peticionesPorNano),
+                Math.min(capacidadTokens, e.tokens + transcurrido * tokensPorNano));
+    }
+
+    Map<String, Object> metricas() {
+        Estado e = rellenar(estado.get(), System.nanoTime());
+        Map<String, Object> m = new HashMap<>();
+        m.put("maxRpm", maxRpm);
+        m.put("maxTpm", maxTpm);
+        m.put("peticionesDisponibles", (long) Math.floor(e.peticiones));
+        m.put("tokensDisponibles", (long) Math.floor(e.tokens));
+        m.put("admitidas", admitidas.sum());
+        m.put("rechazosRpm", rechazosRpm.sum());
+        m.put("rechazosTpm", rechazosTpm.sum());
+        m.put("tokensCobrados", tokensCobrados.sum());
+        m.put("tokensCorregidos", tokensCorregidos.sum());
+        return m;
+    }
+}
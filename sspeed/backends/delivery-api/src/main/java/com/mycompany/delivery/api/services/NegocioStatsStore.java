@@ -0,0 +1,346 @@
+package com.mycompany.delivery.api.services;
+
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.mycompany.delivery.api.config.Config;
+import com.mycompany.delivery.api.model.NegocioStats;
+import com.mycompany.delivery.api.repository.NegocioStatsRepository;
+import com.mycompany.delivery.api.repository.NegocioStatsRepository.Aporte;
+
+/**
+ * Estadísticas por negocio en memoria para {@code /negocios/{id}/stats}.
+ * <p>
+ * Cada negocio tiene un {@link NegocioStats} inmutable en un mapa concurrente:
+ * las lecturas no tocan la BD ni dependen del historial de pedidos. Los
+ * caminos de escritura (alta de pedido, cambio de estado, alta o cambio de
+ * negocio de un producto) avisan después de confirmar y un único hilo aplica
+ * los cambios en orden de llegada, así que no hay escrituras concurrentes
+ * sobre un mismo negocio. Un cambio de estado resta el pedido del estado
+ * anterior y lo suma al nuevo, con lo que el resultado no depende del orden
+ * en que lleguen los avisos.
+ * <p>
+ * Cada NEGOCIO_STATS_INSTANTANEA_MS los negocios modificados se vuelcan a
+ * {@code negocio_stats}, que se lee al arrancar para servir de inmediato; los
+ * que no tienen fila se calculan una vez desde pedidos. La instantánea no es
+ * la fuente de verdad: nada más arrancar y después cada
+ * NEGOCIO_STATS_RECONCILIAR_MS todos los contadores se recalculan desde
+ * pedidos y productos en el hilo del store. Eso corrige lo que pierda una
+ * parada brusca (como mucho un intervalo de instantánea) y, con varias
+ * instancias, las escrituras de las demás, que cada una sólo ve al
+ * reconciliar.
+ */
+public final class NegocioStatsStore {
+
+    private static final String ENTREGADO = "entregado";
+
+    private static final class Holder {
+        private static final NegocioStatsStore INSTANCE = new NegocioStatsStore(new NegocioStatsRepository());
+    }
+
+    private final NegocioStatsRepository repo;
+    private final ConcurrentHashMap<Long, NegocioStats> porNegocio = new ConcurrentHashMap<>();
+    // Sólo los toca el hilo del store
+    private final Set<Long> sucios = new HashSet<>();
+    private volatile ScheduledExecutorService hilo;
+    private volatile boolean activo;
+
+    // Métricas
+    private final AtomicLong eventos = new AtomicLong();
+    private final AtomicLong erroresEventos = new AtomicLong();
+    private final AtomicLong instantaneas = new AtomicLong();
+    private final AtomicLong negociosGuardados = new AtomicLong();
+    private final AtomicLong reconciliaciones = new AtomicLong();
+    private final AtomicLong erroresReconciliacion = new AtomicLong();
+    private volatile long ultimaInstantaneaMs;
+    private volatile long ultimaReconciliacionMs;
+
+    NegocioStatsStore(NegocioStatsRepository repo) {
+        this.repo = repo;
+    }
+
+    public static NegocioStatsStore getInstance() {
+        return Holder.INSTANCE;
+    }
+
+    public static boolean isEnabled() {
+        return Boolean.parseBoolean(Config.resolve("NEGOCIO_STATS_ENABLED", "true"));
+    }
+
+    /**
+     * Carga los contadores y programa las instantáneas. Se llama antes de
+     * aceptar peticiones para que ninguna escritura quede contada dos veces
+     * (en el cálculo inicial y en su aviso).
+     */
+    public synchronized void iniciar() {
+        if (hilo != null) {
+            return;
+        }
+        try {
+            if (!repo.disponible()) {
+                System.err.println("⚠️ Estadísticas por negocio sin migrar (sql/20261018_negocio_stats.sql)");
+                return;
+            }
+            long t0 = System.nanoTime();
+            for (NegocioStats s : repo.cargarInstantaneas()) {
+                porNegocio.put(s.idNegocio(), s);
+            }
+            for (NegocioStats s : repo.calcularSinInstantanea()) {
+                porNegocio.put(s.idNegocio(), s);
+                sucios.add(s.idNegocio());
+            }
+            System.out.println("✅ Estadísticas por negocio cargadas (" + porNegocio.size() + " negocios, "
+                    + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - t0) + " ms)");
+        } catch (SQLException | RuntimeException e) {
+            porNegocio.clear();
+            sucios.clear();
+            System.err.println("⚠️ Estadísticas por negocio desactivadas: " + e.getMessage());
+            return;
+        }
+        long intervalo = Math.max(1_000L, Config.resolveLong("NEGOCIO_STATS_INSTANTANEA_MS", 60_000L));
+        hilo = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "negocio-stats");
+            t.setDaemon(true);
+            return t;
+        });
+        hilo.scheduleWithFixedDelay(this::guardarSucios, 0, intervalo, TimeUnit.MILLISECONDS);
+        long reconciliar = Config.resolveLong("NEGOCIO_STATS_RECONCILIAR_MS", 3_600_000L);
+        if (reconciliar > 0) {
+            hilo.scheduleWithFixedDelay(this::reconciliar, 0, Math.max(60_000L, reconciliar), TimeUnit.MILLISECONDS);
+        }
+        activo = true;
+    }
+
+    /**
+     * Aplica los avisos pendientes y guarda la última instantánea.
+     */
+    public synchronized void shutdown() {
+        if (hilo == null) {
+            return;
+        }
+        activo = false;
+        hilo.shutdown();
+        try {
+            hilo.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        hilo.shutdownNow();
+        hilo = null;
+        guardarSucios();
+    }
+
+    public boolean isActivo() {
+        return activo;
+    }
+
+    // ===============================
+    // LECTURA
+    // ===============================
+    public Map<String, Object> estadisticas(long idNegocio) {
+        LocalDate hoy = LocalDate.now();
+        NegocioStats s = porNegocio.getOrDefault(idNegocio, NegocioStats.vacio(idNegocio, hoy));
+        boolean deHoy = hoy.equals(s.dia());
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("ingresos_totales", s.ingresosCentavos() / 100.0);
+        stats.put("pedidos_completados", s.pedidosCompletados());
+        stats.put("productos_vendidos", s.productosVendidos());
+        stats.put("total_productos", s.totalProductos());
+        stats.put("ticket_promedio", s.pedidosCompletados() == 0 ? 0.0
+                : Math.round((double) s.ingresosCentavos() / s.pedidosCompletados()) / 100.0);
+        stats.put("pedidos_hoy", deHoy ? s.pedidosHoy() : 0);
+        stats.put("ventas_hoy", deHoy ? s.ventasHoyCentavos() / 100.0 : 0.0);
+        stats.put("pedidos_por_estado", s.pedidosPorEstado());
+        return stats;
+    }
+
+    public Map<String, Object> metricas() {
+        Map<String, Object> m = new HashMap<>();
+        m.put("activo", activo);
+        m.put("negocios", porNegocio.size());
+        m.put("eventos", eventos.get());
+        m.put("erroresEventos", erroresEventos.get());
+        m.put("instantaneas", instantaneas.get());
+        m.put("negociosGuardados", negociosGuardados.get());
+        m.put("ultimaInstantaneaMs", ultimaInstantaneaMs);
+        m.put("reconciliaciones", reconciliaciones.get());
+        m.put("erroresReconciliacion", erroresReconciliacion.get());
+        m.put("ultimaReconciliacionMs", ultimaReconciliacionMs);
+        return m;
+    }
+
+    // ===============================
+    // AVISOS DE ESCRITURA
+    // ===============================
+    /**
+     * @param aportes parte del pedido de cada negocio, tal como se insertó.
+     */
+    public void pedidoCreado(long idPedido, String estado, List<Aporte> aportes) {
+        encolar(() -> {
+            LocalDate hoy = LocalDate.now();
+            for (Aporte a : aportes) {
+                NegocioStats s = conDia(actual(a.idNegocio()), hoy);
+                s = new NegocioStats(s.idNegocio(), s.totalProductos(), s.pedidosCompletados(),
+                        s.ingresosCentavos(), s.productosVendidos(), s.dia(), s.pedidosHoy() + 1,
+                        s.ventasHoyCentavos() + a.subtotalCentavos(), s.pedidosPorEstado());
+                guardarEnMemoria(contarEstado(s, a, estado, 1));
+            }
+        });
+    }
+
+    public void estadoCambiado(long idPedido, String anterior, String nuevo) {
+        if (anterior == null || anterior.equals(nuevo)) {
+            return;
+        }
+        encolar(() -> {
+            for (Aporte a : repo.desglosePedido(idPedido)) {
+                NegocioStats s = contarEstado(actual(a.idNegocio()), a, anterior, -1);
+                guardarEnMemoria(contarEstado(s, a, nuevo, 1));
+            }
+        });
+    }
+
+    public void productoCreado(long idNegocio) {
+        encolar(() -> sumarProductos(idNegocio, 1));
+    }
+
+    public void productoMovido(long negocioAnterior, long negocioNuevo) {
+        if (negocioAnterior == negocioNuevo) {
+            return;
+        }
+        encolar(() -> {
+            sumarProductos(negocioAnterior, -1);
+            sumarProductos(negocioNuevo, 1);
+        });
+    }
+
+    // ===============================
+    // HILO DEL STORE
+    // ===============================
+    private interface Tarea {
+        void ejecutar() throws SQLException;
+    }
+
+    private void encolar(Tarea tarea) {
+        ScheduledExecutorService h = hilo;
+        if (!activo || h == null) {
+            return;
+        }
+        try {
+            h.execute(() -> {
+                try {
+                    tarea.ejecutar();
+                    eventos.incrementAndGet();
+                } catch (SQLException | RuntimeException e) {
+                    erroresEventos.incrementAndGet();
+                    System.err.println("⚠️ Error actualizando estadísticas de negocio: " + e.getMessage());
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // Apagándose
+        }
+    }
+
+    private NegocioStats actual(long idNegocio) {
+        return porNegocio.getOrDefault(idNegocio, NegocioStats.vacio(idNegocio, LocalDate.now()));
+    }
+
+    private void guardarEnMemoria(NegocioStats s) {
+        porNegocio.put(s.idNegocio(), s);
+        sucios.add(s.idNegocio());
+    }
+
+    private void sumarProductos(long idNegocio, int delta) {
+        NegocioStats s = actual(idNegocio);
+        guardarEnMemoria(new NegocioStats(s.idNegocio(), Math.max(0, s.totalProductos() + delta),
+                s.pedidosCompletados(), s.ingresosCentavos(), s.productosVendidos(), s.dia(), s.pedidosHoy(),
+                s.ventasHoyCentavos(), s.pedidosPorEstado()));
+    }
+
+    private static NegocioStats conDia(NegocioStats s, LocalDate hoy) {
+        if (hoy.equals(s.dia())) {
+            return s;
+        }
+        return new NegocioStats(s.idNegocio(), s.totalProductos(), s.pedidosCompletados(), s.ingresosCentavos(),
+                s.productosVendidos(), hoy, 0, 0, s.pedidosPorEstado());
+    }
+
+    /**
+     * Suma ({@code signo = 1}) o resta (-1) la parte de un pedido en
+     * {@code estado}; los entregados cuentan también en ingresos y unidades.
+     */
+    private static NegocioStats contarEstado(NegocioStats s, Aporte a, String estado, int signo) {
+        Map<String, Long> porEstado = new HashMap<>(s.pedidosPorEstado());
+        long n = porEstado.getOrDefault(estado, 0L) + signo;
+        if (n > 0) {
+            porEstado.put(estado, n);
+        } else {
+            porEstado.remove(estado);
+        }
+        boolean entregado = ENTREGADO.equals(estado);
+        return new NegocioStats(s.idNegocio(), s.totalProductos(),
+                s.pedidosCompletados() + (entregado ? signo : 0),
+                s.ingresosCentavos() + (entregado ? signo * a.subtotalCentavos() : 0),
+                s.productosVendidos() + (entregado ? signo * a.unidades() : 0),
+                s.dia(), s.pedidosHoy(), s.ventasHoyCentavos(), Map.copyOf(porEstado));
+    }
+
+    /**
+     * Sustituye los contadores por los calculados desde la BD. Corre en el
+     * hilo del store, así que no se mezcla con la aplicación de avisos; un
+     * aviso de una escritura confirmada justo antes de la consulta puede
+     * contarse dos veces hasta la siguiente reconciliación.
+     */
+    private void reconciliar() {
+        try {
+            List<NegocioStats> calculadas = repo.calcularTodos();
+            Set<Long> vigentes = new HashSet<>();
+            for (NegocioStats s : calculadas) {
+                vigentes.add(s.idNegocio());
+                if (!s.equals(porNegocio.get(s.idNegocio()))) {
+                    guardarEnMemoria(s);
+                }
+            }
+            porNegocio.keySet().retainAll(vigentes);
+            reconciliaciones.incrementAndGet();
+            ultimaReconciliacionMs = System.currentTimeMillis();
+        } catch (SQLException | RuntimeException e) {
+            erroresReconciliacion.incrementAndGet();
+            System.err.println("⚠️ Error reconciliando estadísticas de negocio: " + e.getMessage());
+        }
+    }
+
+    private void guardarSucios() {
+        if (sucios.isEmpty()) {
+            return;
+        }
+        List<NegocioStats> lote = new ArrayList<>(sucios.size());
+        for (Long id : sucios) {
+            NegocioStats s = porNegocio.get(id);
+            if (s != null) {
+                lote.add(s);
+            }
+        }
+        try {
+            repo.guardar(lote);
+            sucios.clear();
+            instantaneas.incrementAndGet();
+            negociosGuardados.addAndGet(lote.size());
+            ultimaInstantaneaMs = System.currentTimeMillis();
+        } catch (SQLException | RuntimeException e) {
+            System.err.println("⚠️ Error guardando estadísticas de negocio: " + e.getMessage());
+        }
+    }
+}
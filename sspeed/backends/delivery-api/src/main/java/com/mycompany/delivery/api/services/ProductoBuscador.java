@@ -0,0 +1,305 @@
+package com.mycompany.delivery.api.services;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+
+import com.mycompany.delivery.api.model.Producto;
+import com.mycompany.delivery.api.repository.ProductoRepository;
+import com.mycompany.delivery.api.util.Texto;
+
+/**
+ * Búsqueda de productos sobre un índice invertido en memoria (nombre y
+ * descripción), en lugar de {@code LOWER(...) LIKE '%term%'} contra la BD.
+ * <p>
+ * Los textos se normalizan sin tildes ni mayúsculas ("Piña" → "pina"). Cada
+ * palabra de la consulta se busca como prefijo (type-ahead) en el diccionario
+ * ordenado de términos y todas deben coincidir. El ranking premia coincidencias
+ * en el nombre sobre la descripción, palabras completas sobre prefijos y
+ * nombres que empiezan por la consulta.
+ * <p>
+ * El índice se reconstruye, una sola vez, cuando cambia la versión de
+ * {@link CatalogoCache}, que ya se invalida en cada escritura del catálogo.
+ */
+public final class ProductoBuscador {
+
+    private static final double NOMBRE_EXACTO = 4.0;
+    private static final double NOMBRE_PREFIJO = 2.5;
+    private static final double DESCRIPCION_EXACTO = 1.0;
+    private static final double DESCRIPCION_PREFIJO = 0.5;
+    private static final double NOMBRE_EMPIEZA_CON_CONSULTA = 3.0;
+
+    private static final class Holder {
+        private static final ProductoBuscador INSTANCE = new ProductoBuscador(
+                new ProductoRepository(), CatalogoCache.getInstance());
+    }
+
+    private static final class Indice {
+        final long version;
+        final Producto[] productos;
+        final String[] nombres;
+        final String[] categorias;
+        final String[] terminos;
+        final int[][] enNombre;
+        final int[][] enDescripcion;
+
+        Indice(long version, Producto[] productos, String[] nombres, String[] categorias,
+                String[] terminos, int[][] enNombre, int[][] enDescripcion) {
+            this.version = version;
+            this.productos = productos;
+            this.nombres = nombres;
+            this.categorias = categorias;
+            this.terminos = terminos;
+            this.enNombre = enNombre;
+            this.enDescripcion = enDescripcion;
+        }
+    }
+
+    /**
+     * Puntaje por producto de la palabra en curso. Sólo siguen en carrera los
+     * productos que coincidieron con todas las palabras anteriores.
+     */
+    private static final class Acumulador {
+        final int[] coincidencias;
+        final int[] marca;
+        final double[] mejor;
+        int[] tocados;
+        int nTocados;
+        int palabra;
+
+        Acumulador(int n) {
+            coincidencias = new int[n];
+            marca = new int[n];
+            mejor = new double[n];
+            tocados = new int[Math.max(1, Math.min(n, 64))];
+        }
+
+        void nuevaPalabra(int q) {
+            palabra = q;
+            nTocados = 0;
+        }
+
+        void sumar(int[] postings, double puntos) {
+            for (int pid : postings) {
+                if (coincidencias[pid] != palabra) {
+                    continue;
+                }
+                if (marca[pid] != palabra + 1) {
+                    marca[pid] = palabra + 1;
+                    mejor[pid] = puntos;
+                    if (nTocados == tocados.length) {
+                        tocados = Arrays.copyOf(tocados, tocados.length * 2);
+                    }
+                    tocados[nTocados++] = pid;
+                } else if (puntos > mejor[pid]) {
+                    mejor[pid] = puntos;
+                }
+            }
+        }
+
+        void cerrarPalabra(double[] puntaje) {
+            for (int i = 0; i < nTocados; i++) {
+                int pid = tocados[i];
+                puntaje[pid] += mejor[pid];
+                coincidencias[pid]++;
+            }
+        }
+    }
+
+    private final ProductoRepository repo;
+    private final CatalogoCache catalogo;
+    private volatile Indice indice;
+
+    ProductoBuscador(ProductoRepository repo, CatalogoCache catalogo) {
+        this.repo = repo;
+        this.catalogo = catalogo;
+    }
+
+    public static ProductoBuscador getInstance() {
+        return Holder.INSTANCE;
+    }
+
+    // ===============================
+    // BÚSQUEDA
+    // ===============================
+    /**
+     * Productos disponibles que contienen (como prefijo) todas las palabras de
+     * {@code termino}, ordenados por relevancia.
+     *
+     * @param categoria nombre de categoría exacto (sin importar tildes/mayúsculas), o null.
+     * @param idNegocio negocio al que debe pertenecer el producto, o null.
+     * @param limite    máximo de resultados ({@code <= 0} sin límite).
+     */
+    public List<Producto> buscar(String termino, String categoria, Integer idNegocio, int limite) throws SQLException {
+        Indice idx = vigente();
+        String consulta = normalizar(termino);
+        String[] tokens = tokensConsulta(consulta);
+        String cat = categoria != null && !categoria.isBlank() ? normalizar(categoria).trim() : null;
+        int n = idx.productos.length;
+
+        double[] puntaje = new double[n];
+        int[] candidatos;
+        int nCandidatos;
+        if (tokens.length == 0) {
+            candidatos = new int[n];
+            for (int i = 0; i < n; i++) {
+                candidatos[i] = i;
+            }
+            nCandidatos = n;
+        } else {
+            Acumulador acc = new Acumulador(n);
+            for (int q = 0; q < tokens.length; q++) {
+                acc.nuevaPalabra(q);
+                int desde = inicioPrefijo(idx.terminos, tokens[q]);
+                for (int t = desde; t < idx.terminos.length && idx.terminos[t].startsWith(tokens[q]); t++) {
+                    boolean exacto = idx.terminos[t].length() == tokens[q].length();
+                    acc.sumar(idx.enNombre[t], exacto ? NOMBRE_EXACTO : NOMBRE_PREFIJO);
+                    acc.sumar(idx.enDescripcion[t], exacto ? DESCRIPCION_EXACTO : DESCRIPCION_PREFIJO);
+                }
+                acc.cerrarPalabra(puntaje);
+            }
+            candidatos = acc.tocados;
+            nCandidatos = acc.nTocados;
+        }
+
+        String frase = String.join(" ", tokens(consulta));
+        Comparator<Integer> orden = Comparator.<Integer>comparingDouble(pid -> -puntaje[pid])
+                .thenComparing(pid -> idx.nombres[pid]);
+        // Con límite sólo se mantienen los mejores (montículo acotado) en vez de ordenar todo
+        PriorityQueue<Integer> mejores = limite > 0 ? new PriorityQueue<>(limite + 1, orden.reversed()) : null;
+        List<Integer> todos = limite > 0 ? null : new ArrayList<>();
+        for (int i = 0; i < nCandidatos; i++) {
+            int pid = candidatos[i];
+            if (cat != null && !cat.equals(idx.categorias[pid])) {
+                continue;
+            }
+            if (idNegocio != null && !idNegocio.equals(idx.productos[pid].getIdNegocio())) {
+                continue;
+            }
+            if (!frase.isEmpty() && idx.nombres[pid].startsWith(frase)) {
+                puntaje[pid] += NOMBRE_EMPIEZA_CON_CONSULTA;
+            }
+            if (mejores == null) {
+                todos.add(pid);
+            } else {
+                mejores.add(pid);
+                if (mejores.size() > limite) {
+                    mejores.poll();
+                }
+            }
+        }
+        List<Integer> resultado = mejores != null ? new ArrayList<>(mejores) : todos;
+        resultado.sort(orden);
+
+        List<Producto> productos = new ArrayList<>(resultado.size());
+        for (int pid : resultado) {
+            productos.add(idx.productos[pid]);
+        }
+        return productos;
+    }
+
+    // ===============================
+    // CONSTRUCCIÓN DEL ÍNDICE
+    // ===============================
+    private Indice vigente() throws SQLException {
+        Indice idx = indice;
+        long version = catalogo.version();
+        if (idx != null && idx.version == version) {
+            return idx;
+        }
+        synchronized (this) {
+            idx = indice;
+            version = catalogo.version();
+            if (idx == null || idx.version != version) {
+                idx = construir(version, repo.listarTodosLosProductos());
+                indice = idx;
+            }
+            return idx;
+        }
+    }
+
+    private static Indice construir(long version, List<Producto> todos) {
+        List<Producto> disponibles = new ArrayList<>(todos.size());
+        for (Producto p : todos) {
+            if (p.isDisponible()) {
+                disponibles.add(p);
+            }
+        }
+        int n = disponibles.size();
+        Producto[] productos = disponibles.toArray(new Producto[0]);
+        String[] nombres = new String[n];
+        String[] categorias = new String[n];
+        TreeMap<String, List<Integer>> nombreTerm = new TreeMap<>();
+        TreeMap<String, List<Integer>> descripcionTerm = new TreeMap<>();
+        for (int i = 0; i < n; i++) {
+            Producto p = productos[i];
+            nombres[i] = String.join(" ", tokens(normalizar(p.getNombre())));
+            categorias[i] = normalizar(p.getCategoria()).trim();
+            indexar(nombreTerm, nombres[i], i);
+            indexar(descripcionTerm, normalizar(p.getDescripcion()), i);
+        }
+        TreeMap<String, Boolean> todosTerminos = new TreeMap<>();
+        nombreTerm.keySet().forEach(t -> todosTerminos.put(t, Boolean.TRUE));
+        descripcionTerm.keySet().forEach(t -> todosTerminos.put(t, Boolean.TRUE));
+        String[] terminos = todosTerminos.keySet().toArray(new String[0]);
+        int[][] enNombre = new int[terminos.length][];
+        int[][] enDescripcion = new int[terminos.length][];
+        for (int t = 0; t < terminos.length; t++) {
+            enNombre[t] = aArreglo(nombreTerm.get(terminos[t]));
+            enDescripcion[t] = aArreglo(descripcionTerm.get(terminos[t]));
+        }
+        return new Indice(version, productos, nombres, categorias, terminos, enNombre, enDescripcion);
+    }
+
+    private static void indexar(Map<String, List<Integer>> terminos, String texto, int pid) {
+        for (String t : tokens(texto)) {
+            List<Integer> postings = terminos.computeIfAbsent(t, k -> new ArrayList<>());
+            // Un producto por término aunque la palabra se repita
+            if (postings.isEmpty() || postings.get(postings.size() - 1) != pid) {
+                postings.add(pid);
+            }
+        }
+    }
+
+    private static int[] aArreglo(List<Integer> lista) {
+        if (lista == null) {
+            return new int[0];
+        }
+        int[] a = new int[lista.size()];
+        for (int i = 0; i < a.length; i++) {
+            a[i] = lista.get(i);
+        }
+        return a;
+    }
+
+    // ===============================
+    // NORMALIZACIÓN
+    // ===============================
+    static String normalizar(String texto) {
+        return Texto.normalizar(texto);
+    }
+
+    private static String[] tokens(String normalizado) {
+        return Texto.palabras(normalizado);
+    }
+
+    /**
+     * Palabras de la consulta sin duplicados; se descartan las vacías ("de",
+     * "con"...) salvo que la consulta no tenga otra cosa.
+     */
+    private static String[] tokensConsulta(String normalizado) {
+        String[] todos = Arrays.stream(tokens(normalizado)).distinct().toArray(String[]::new);
+        String[] utiles = Arrays.stream(todos).filter(t -> !Texto.VACIAS.contains(t)).toArray(String[]::new);
+        return utiles.length > 0 ? utiles : todos;
+    }
+
+    private static int inicioPrefijo(String[] terminos, String prefijo) {
+        int pos = Arrays.binarySearch(terminos, prefijo);
+        return pos >= 0 ? pos : -pos - 1;
+    }
+}
@@ -0,0 +1,120 @@
+package com.mycompany.delivery.api.services;
+
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.mycompany.delivery.api.config.Config;
+import com.mycompany.delivery.api.repository.DashboardDAO;
+
+/**
+ * Reconciliación periódica de los agregados del dashboard.
+ * <p>
+ * Los triggers mantienen los agregados al día en cada escritura; cada
+ * DASHBOARD_RECONCILIAR_MS se recalculan desde las tablas base para corregir
+ * cualquier deriva (cargas con los triggers desactivados, restauraciones
+ * parciales). El recálculo no bloquea las escrituras de pedidos y la
+ * corrección sólo toca las filas que difieren; si otra instancia ya está
+ * reconciliando, esta ejecución se omite.
+ */
+public final class ReconciliadorDashboard {
+
+    private static final class Holder {
+        private static final ReconciliadorDashboard INSTANCE = new ReconciliadorDashboard(new DashboardDAO());
+    }
+
+    private final DashboardDAO dao;
+    private ScheduledExecutorService scheduler;
+
+    // Métricas
+    private final AtomicLong ejecuciones = new AtomicLong();
+    private final AtomicLong omitidas = new AtomicLong();
+    private final AtomicLong filasCorregidas = new AtomicLong();
+    private final AtomicLong errores = new AtomicLong();
+    private volatile long ultimaDuracionMs;
+    private volatile long ultimaEjecucionMs;
+
+    ReconciliadorDashboard(DashboardDAO dao) {
+        this.dao = dao;
+    }
+
+    public static ReconciliadorDashboard getInstance() {
+        return Holder.INSTANCE;
+    }
+
+    public static boolean isEnabled() {
+        return DashboardDAO.isAgregadosEnabled()
+                && Config.resolveLong("DASHBOARD_RECONCILIAR_MS", 3_600_000L) > 0;
+    }
+
+    /**
+     * Programa la reconciliación si las tablas de agregados existen.
+     */
+    public synchronized void iniciar() {
+        if (scheduler != null) {
+            return;
+        }
+        try {
+            if (!dao.agregadosDisponibles()) {
+                System.err.println("⚠️ Agregados del dashboard sin migrar (sql/20261018_dashboard_agregados.sql)");
+                return;
+            }
+        } catch (SQLException e) {
+            System.err.println("⚠️ Reconciliación del dashboard desactivada: " + e.getMessage());
+            return;
+        }
+        long intervalo = Math.max(60_000L, Config.resolveLong("DASHBOARD_RECONCILIAR_MS", 3_600_000L));
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "dashboard-reconciliar");
+            t.setDaemon(true);
+            return t;
+        });
+        scheduler.scheduleWithFixedDelay(this::reconciliarSeguro, intervalo, intervalo, TimeUnit.MILLISECONDS);
+        System.out.println("✅ Reconciliación del dashboard activa (cada " + intervalo + " ms)");
+    }
+
+    public synchronized void shutdown() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+    }
+
+    public void reconciliar() throws SQLException {
+        long t0 = System.nanoTime();
+        int filas = dao.reconciliar();
+        if (filas < 0) {
+            omitidas.incrementAndGet();
+            return;
+        }
+        filasCorregidas.addAndGet(filas);
+        ejecuciones.incrementAndGet();
+        ultimaDuracionMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - t0);
+        ultimaEjecucionMs = System.currentTimeMillis();
+    }
+
+    public Map<String, Object> metricas() {
+        Map<String, Object> m = new HashMap<>();
+        m.put("activa", scheduler != null);
+        m.put("ejecuciones", ejecuciones.get());
+        m.put("omitidas", omitidas.get());
+        m.put("filasCorregidas", filasCorregidas.get());
+        m.put("errores", errores.get());
+        m.put("ultimaDuracionMs", ultimaDuracionMs);
+        m.put("ultimaEjecucionMs", ultimaEjecucionMs);
+        return m;
+    }
+
+    private void reconciliarSeguro() {
+        try {
+            reconciliar();
+        } catch (SQLException | RuntimeException e) {
+            errores.incrementAndGet();
+            System.err.println("⚠️ Error reconciliando el dashboard: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,215 @@
+package com.mycompany.delivery.api.services;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongPredicate;
+
+import com.mycompany.delivery.api.config.Config;
+import com.mycompany.delivery.api.model.PosicionRepartidor;
+
+/**
+ * Índice espacial en memoria (rejilla de celdas lat/lon) sobre las posiciones
+ * en vivo de los repartidores. Se mantiene al día escuchando a
+ * {@link UbicacionLiveStore}; cada ping sólo mueve al repartidor de celda si
+ * cambió de celda.
+ * <p>
+ * La búsqueda de los k más cercanos recorre anillos de celdas alrededor del
+ * punto y se detiene en cuanto el anillo siguiente ya no puede mejorar el
+ * k-ésimo resultado, por lo que sólo visita los repartidores de la zona.
+ * Tamaño de celda: TRACKING_GRID_CELL_DEG (0.01° ≈ 1.1 km).
+ */
+public final class RepartidorGeoIndex {
+
+    private static final double METROS_POR_GRADO = 111_320.0;
+    private static final double RADIO_TIERRA_M = 6_371_000.0;
+
+    private static final class Holder {
+        private static final RepartidorGeoIndex INSTANCE = new RepartidorGeoIndex(
+                UbicacionLiveStore.getInstance(),
+                Double.parseDouble(Config.resolve("TRACKING_GRID_CELL_DEG", "0.01")));
+    }
+
+    /**
+     * Resultado de una búsqueda de cercanía.
+     */
+    public static final class Cercano {
+        private final PosicionRepartidor posicion;
+        private final double distanciaMetros;
+
+        Cercano(PosicionRepartidor posicion, double distanciaMetros) {
+            this.posicion = posicion;
+            this.distanciaMetros = distanciaMetros;
+        }
+
+        public PosicionRepartidor getPosicion() {
+            return posicion;
+        }
+
+        public double getDistanciaMetros() {
+            return distanciaMetros;
+        }
+
+        public Map<String, Object> toMap() {
+            Map<String, Object> map = posicion.toMap();
+            map.put("distancia_m", Math.round(distanciaMetros));
+            return map;
+        }
+    }
+
+    private final UbicacionLiveStore liveStore;
+    private final double celdaGrados;
+    private final Map<Long, Set<Long>> celdas = new ConcurrentHashMap<>();
+    private final Map<Long, Long> celdaPorRepartidor = new ConcurrentHashMap<>();
+
+    RepartidorGeoIndex(UbicacionLiveStore liveStore, double celdaGrados) {
+        this.liveStore = liveStore;
+        this.celdaGrados = celdaGrados > 0 ? celdaGrados : 0.01;
+        liveStore.agregarListener(this::actualizar);
+    }
+
+    public static RepartidorGeoIndex getInstance() {
+        return Holder.INSTANCE;
+    }
+
+    // ===============================
+    // MANTENIMIENTO
+    // ===============================
+    public void actualizar(PosicionRepartidor pos) {
+        long id = pos.getIdRepartidor();
+        long nueva = clave(fila(pos.getLatitud()), columna(pos.getLongitud()));
+        Long anterior = celdaPorRepartidor.put(id, nueva);
+        if (anterior != null && anterior == nueva) {
+            return;
+        }
+        celdas.compute(nueva, (k, ids) -> {
+            Set<Long> set = ids != null ? ids : ConcurrentHashMap.<Long>newKeySet();
+            set.add(id);
+            return set;
+        });
+        if (anterior != null) {
+            quitarDeCelda(anterior, id);
+        }
+    }
+
+    public void eliminar(long idRepartidor) {
+        Long anterior = celdaPorRepartidor.remove(idRepartidor);
+        if (anterior != null) {
+            quitarDeCelda(anterior, idRepartidor);
+        }
+    }
+
+    public int size() {
+        return celdaPorRepartidor.size();
+    }
+
+    // ===============================
+    // BÚSQUEDA
+    // ===============================
+    /**
+     * Devuelve hasta {@code k} repartidores con posición vigente dentro de
+     * {@code radioMetros}, ordenados del más cercano al más lejano.
+     *
+     * @param disponible filtro opcional (p. ej. excluir repartidores ocupados).
+     */
+    public List<Cercano> cercanos(double latitud, double longitud, int k, double radioMetros, LongPredicate disponible) {
+        if (k <= 0 || radioMetros <= 0) {
+            return List.of();
+        }
+        // Lado más corto de una celda en metros (la longitud se encoge con el coseno de la latitud)
+        double ladoMinimoM = celdaGrados * METROS_POR_GRADO * Math.max(0.01, Math.cos(Math.toRadians(Math.abs(latitud) + celdaGrados)));
+        int maxAnillo = (int) Math.ceil(radioMetros / ladoMinimoM) + 1;
+        int fila0 = fila(latitud);
+        int col0 = columna(longitud);
+
+        // Max-heap con los k mejores vistos hasta ahora
+        PriorityQueue<Cercano> mejores = new PriorityQueue<>(k + 1,
+                Comparator.comparingDouble(Cercano::getDistanciaMetros).reversed());
+        // Un repartidor puede estar un instante en dos celdas mientras cambia de una a otra
+        Set<Long> vistos = new HashSet<>();
+
+        for (int anillo = 0; anillo <= maxAnillo; anillo++) {
+            // Ningún punto del anillo está a menos de (anillo - 1) celdas del origen
+            if (mejores.size() == k && (anillo - 1) * ladoMinimoM > mejores.peek().getDistanciaMetros()) {
+                break;
+            }
+            for (int df = -anillo; df <= anillo; df++) {
+                int paso = (Math.abs(df) == anillo) ? 1 : 2 * anillo;
+                for (int dc = -anillo; dc <= anillo; dc += Math.max(1, paso)) {
+                    long celda = clave(fila0 + df, col0 + dc);
+                    Set<Long> ids = celdas.get(celda);
+                    if (ids == null) {
+                        continue;
+                    }
+                    for (Long id : ids) {
+                        if (!vistos.add(id)) {
+                            continue;
+                        }
+                        if (disponible != null && !disponible.test(id)) {
+                            continue;
+                        }
+                        Optional<PosicionRepartidor> pos = liveStore.obtener(id);
+                        if (pos.isEmpty()) {
+                            // Posición obsoleta o purgada: se retira del índice si no se movió entretanto
+                            if (celdaPorRepartidor.remove(id, celda)) {
+                                quitarDeCelda(celda, id);
+                            }
+                            continue;
+                        }
+                        double d = distanciaMetros(latitud, longitud, pos.get().getLatitud(), pos.get().getLongitud());
+                        if (d > radioMetros) {
+                            continue;
+                        }
+                        if (mejores.size() < k) {
+                            mejores.add(new Cercano(pos.get(), d));
+                        } else if (d < mejores.peek().getDistanciaMetros()) {
+                            mejores.poll();
+                            mejores.add(new Cercano(pos.get(), d));
+                        }
+                    }
+                }
+            }
+        }
+
+        List<Cercano> resultado = new ArrayList<>(mejores);
+        resultado.sort(Comparator.comparingDouble(Cercano::getDistanciaMetros));
+        return resultado;
+    }
+
+    /**
+     * Distancia de círculo máximo (haversine) en metros.
+     */
+    public static double distanciaMetros(double lat1, double lon1, double lat2, double lon2) {
+        double dLat = Math.toRadians(lat2 - lat1);
+        double dLon = Math.toRadians(lon2 - lon1);
+        double a = Math.sin(dLat / 2) * Math.sin(dLat / 2)
+                + Math.cos(Math.toRadians(lat1)) * Math.cos(Math.toRadians(lat2))
+                * Math.sin(dLon / 2) * Math.sin(dLon / 2);
+        return 2 * RADIO_TIERRA_M * Math.asin(Math.min(1.0, Math.sqrt(a)));
+    }
+
+    private void quitarDeCelda(long clave, long idRepartidor) {
+        celdas.computeIfPresent(clave, (k, ids) -> {
+            ids.remove(idRepartidor);
+            return ids.isEmpty() ? null : ids;
+        });
+    }
+
+    private int fila(double latitud) {
+        return (int) Math.floor(latitud / celdaGrados);
+    }
+
+    private int columna(double longitud) {
+        return (int) Math.floor(longitud / celdaGrados);
+    }
+
+    private static long clave(int fila, int columna) {
+        return ((long) fila << 32) | (columna & 0xffffffffL);
+    }
+}
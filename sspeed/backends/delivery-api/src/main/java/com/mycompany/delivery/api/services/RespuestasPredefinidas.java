@@ -0,0 +1,426 @@
+package com.mycompany.delivery.api.services;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import com.mycompany.delivery.api.config.Config;
+import com.mycompany.delivery.api.model.ReglaIaFila;
+import com.mycompany.delivery.api.model.ReglaPatronFila;
+import com.mycompany.delivery.api.repository.RespuestaSoporteRepository;
+import com.mycompany.delivery.api.util.AhoCorasick;
+import com.mycompany.delivery.api.util.Texto;
+
+/**
+ * Motor en memoria de respuestas predefinidas del bot y de soporte.
+ * <p>
+ * Sustituye a las consultas por mensaje ({@code pregunta_patron ILIKE} sobre
+ * {@code soporte_respuestas_predef} y {@code fn_chatbot_match_predef} sobre
+ * {@code ia_respuestas_automaticas}) con las mismas reglas de coincidencia:
+ * <ul>
+ * <li>Patrones: gana la regla de menor prioridad (y mayor id) cuyo patrón
+ * contiene el mensaje o alguna de cuyas alternativas {@code a|b|c} aparece en
+ * él; las alternativas con metacaracteres se evalúan como regex.</li>
+ * <li>IA: primero las reglas con alguna palabra clave en el mensaje y, si no
+ * hay, las que tienen el intent en el mensaje (o no tienen intent) o cuya
+ * respuesta contiene el mensaje; se consideran las particiones del idioma con
+ * el scope pedido o {@code mixto} y el canal pedido o {@code general}.</li>
+ * </ul>
+ * Las palabras clave, alternativas e intents de cada partición forman un
+ * autómata de Aho–Corasick cuyos identificadores son el orden de prioridad,
+ * así que una sola pasada sobre el mensaje da la regla ganadora. El texto se
+ * compara sin tildes ni mayúsculas.
+ * <p>
+ * El índice se reconstruye cuando {@link #invalidar()} sube la versión (los
+ * endpoints {@code /admin/soporte/respuestas}) y cada
+ * {@code RESPUESTAS_PREDEF_RECARGA_MS} para recoger cambios hechos directo en
+ * la BD; mientras un hilo recarga, los demás siguen con el índice anterior.
+ */
+public final class RespuestasPredefinidas {
+
+    private static final Pattern METACARACTERES = Pattern.compile("[\\\\^$.?*+()\\[\\]{}]");
+    private static final long REINTENTO_MS = 30_000;
+    private static final Comparator<ReglaPatronFila> ORDEN_PATRON = Comparator
+            .comparingInt(ReglaPatronFila::prioridad)
+            .thenComparing(Comparator.comparingLong(ReglaPatronFila::idPredef).reversed());
+    private static final Comparator<ReglaIaFila> ORDEN_IA = Comparator
+            .comparingInt(ReglaIaFila::prioridad)
+            .thenComparing(Comparator.comparingLong(ReglaIaFila::idRespuesta).reversed());
+
+    private static final class Holder {
+        private static final RespuestasPredefinidas INSTANCE = new RespuestasPredefinidas(
+                new RespuestaSoporteRepository(),
+                Math.max(1_000L, Config.resolveLong("RESPUESTAS_PREDEF_RECARGA_MS", 300_000L)));
+    }
+
+    /**
+     * Respuesta elegida de {@code ia_respuestas_automaticas}.
+     */
+    public record Coincidencia(long id, String respuesta, int prioridad) {}
+
+    /**
+     * Reglas de una categoría de {@code soporte_respuestas_predef} en orden de prioridad.
+     */
+    private static final class Patrones {
+        final ReglaPatronFila[] reglas;
+        final String[] patrones;
+        final Pattern[][] regex;
+        final AhoCorasick alternativas;
+        final int primeraSiempre;
+
+        Patrones(List<ReglaPatronFila> filas) {
+            filas.sort(ORDEN_PATRON);
+            int n = filas.size();
+            reglas = filas.toArray(new ReglaPatronFila[0]);
+            patrones = new String[n];
+            regex = new Pattern[n][];
+            AhoCorasick.Constructor ac = AhoCorasick.constructor();
+            int siempre = AhoCorasick.NINGUNO;
+            for (int r = 0; r < n; r++) {
+                String patron = reglas[r].preguntaPatron() == null ? "" : reglas[r].preguntaPatron();
+                patrones[r] = Texto.normalizar(patron);
+                List<Pattern> expresiones = new ArrayList<>();
+                for (String alternativa : patron.split("\\|", -1)) {
+                    if (alternativa.isEmpty()) {
+                        // Igual que en SQL, una alternativa vacía coincide con cualquier mensaje
+                        siempre = Math.min(siempre, r);
+                    } else if (METACARACTERES.matcher(alternativa).find()) {
+                        compilar(alternativa, reglas[r].idPredef(), expresiones);
+                    } else {
+                        ac.agregar(Texto.normalizar(alternativa), r);
+                    }
+                }
+                regex[r] = expresiones.toArray(new Pattern[0]);
+            }
+            alternativas = ac.construir();
+            primeraSiempre = siempre;
+        }
+
+        String buscar(String mensaje, String normalizado) {
+            int mejor = Math.min(alternativas.menor(normalizado), primeraSiempre);
+            int limite = Math.min(mejor, reglas.length);
+            // Sólo las reglas de más prioridad que la encontrada pueden ganarle
+            for (int r = 0; r < limite; r++) {
+                if (patrones[r].contains(normalizado) || coincide(regex[r], mensaje)) {
+                    mejor = r;
+                    break;
+                }
+            }
+            return mejor < reglas.length ? reglas[mejor].respuesta() : null;
+        }
+
+        private static boolean coincide(Pattern[] expresiones, String mensaje) {
+            for (Pattern p : expresiones) {
+                if (p.matcher(mensaje).find()) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Reglas de {@code ia_respuestas_automaticas} de un idioma, scope y canal.
+     */
+    private static final class ParticionIa {
+        final ReglaIaFila[] reglas;
+        final String[] respuestas;
+        final AhoCorasick claves;
+        final AhoCorasick intents;
+        final int primeraClaveVacia;
+        final int primeraSinIntent;
+
+        ParticionIa(List<ReglaIaFila> filas) {
+            filas.sort(ORDEN_IA);
+            int n = filas.size();
+            reglas = filas.toArray(new ReglaIaFila[0]);
+            respuestas = new String[n];
+            AhoCorasick.Constructor ac = AhoCorasick.constructor();
+            AhoCorasick.Constructor ai = AhoCorasick.constructor();
+            int claveVacia = AhoCorasick.NINGUNO;
+            int sinIntent = AhoCorasick.NINGUNO;
+            for (int r = 0; r < n; r++) {
+                ReglaIaFila regla = reglas[r];
+                respuestas[r] = Texto.normalizar(regla.respuesta());
+                if (regla.keywords() != null) {
+                    for (String k : regla.keywords()) {
+                        String clave = Texto.normalizar(k);
+                        if (k == null) {
+                            continue;
+                        }
+                        if (clave.isEmpty()) {
+                            claveVacia = Math.min(claveVacia, r);
+                        } else {
+                            ac.agregar(clave, r);
+                        }
+                    }
+                }
+                String intent = Texto.normalizar(regla.intent());
+                if (intent.isEmpty()) {
+                    sinIntent = Math.min(sinIntent, r);
+                } else {
+                    ai.agregar(intent, r);
+                }
+            }
+            claves = ac.construir();
+            intents = ai.construir();
+            primeraClaveVacia = claveVacia;
+            primeraSinIntent = sinIntent;
+        }
+
+        ReglaIaFila porClave(String normalizado) {
+            int r = Math.min(claves.menor(normalizado), primeraClaveVacia);
+            return r < reglas.length ? reglas[r] : null;
+        }
+
+        ReglaIaFila porTexto(String normalizado) {
+            int mejor = Math.min(intents.menor(normalizado), primeraSinIntent);
+            int limite = Math.min(mejor, reglas.length);
+            for (int r = 0; r < limite; r++) {
+                if (respuestas[r].contains(normalizado)) {
+                    mejor = r;
+                    break;
+                }
+            }
+            return mejor < reglas.length ? reglas[mejor] : null;
+        }
+    }
+
+    private static final class Indice {
+        final long version;
+        final long proximaCargaMs;
+        final Map<String, Patrones> patrones;
+        final Map<String, ParticionIa> ia;
+        final int reglasPatron;
+        final int reglasIa;
+
+        Indice(long version, long proximaCargaMs, Map<String, Patrones> patrones, Map<String, ParticionIa> ia,
+                int reglasPatron, int reglasIa) {
+            this.version = version;
+            this.proximaCargaMs = proximaCargaMs;
+            this.patrones = patrones;
+            this.ia = ia;
+            this.reglasPatron = reglasPatron;
+            this.reglasIa = reglasIa;
+        }
+    }
+
+    private final RespuestaSoporteRepository repo;
+    private final long recargaMs;
+    private final AtomicLong version = new AtomicLong(1);
+    private final ReentrantLock cargando = new ReentrantLock();
+    private volatile Indice indice;
+
+    // Métricas
+    private final AtomicLong recargas = new AtomicLong();
+    private final AtomicLong fallosCarga = new AtomicLong();
+    private final AtomicLong busquedas = new AtomicLong();
+    private final AtomicLong aciertos = new AtomicLong();
+
+    RespuestasPredefinidas(RespuestaSoporteRepository repo, long recargaMs) {
+        this.repo = repo;
+        this.recargaMs = recargaMs;
+    }
+
+    public static RespuestasPredefinidas getInstance() {
+        return Holder.INSTANCE;
+    }
+
+    // ===============================
+    // BÚSQUEDA
+    // ===============================
+    /**
+     * Respuesta de {@code soporte_respuestas_predef} para la categoría
+     * ({@code bot}, {@code soporte}...) o {@code null}.
+     */
+    public String buscarPatron(String categoria, String mensaje) {
+        String texto = mensaje == null ? "" : mensaje.trim();
+        if (texto.isEmpty()) {
+            return null;
+        }
+        busquedas.incrementAndGet();
+        Patrones p = vigente().patrones.get(categoria);
+        String respuesta = p != null ? p.buscar(texto, Texto.normalizar(texto)) : null;
+        if (respuesta != null) {
+            aciertos.incrementAndGet();
+        }
+        return respuesta;
+    }
+
+    /**
+     * Igual que {@code fn_chatbot_match_predef(texto, scope, canal, idioma)}.
+     */
+    public Optional<Coincidencia> buscarIa(String mensaje, String scope, String canal, String idioma) {
+        String normalizado = Texto.normalizar(mensaje == null ? "" : mensaje.trim());
+        if (normalizado.isEmpty()) {
+            return Optional.empty();
+        }
+        busquedas.incrementAndGet();
+        Indice idx = vigente();
+        List<ParticionIa> particiones = new ArrayList<>(4);
+        for (String s : alternativas(scope, "mixto")) {
+            for (String c : alternativas(canal, "general")) {
+                ParticionIa p = idx.ia.get(claveIa(idioma, s, c));
+                if (p != null) {
+                    particiones.add(p);
+                }
+            }
+        }
+        ReglaIaFila mejor = null;
+        for (ParticionIa p : particiones) {
+            mejor = menor(mejor, p.porClave(normalizado));
+        }
+        if (mejor == null) {
+            for (ParticionIa p : particiones) {
+                mejor = menor(mejor, p.porTexto(normalizado));
+            }
+        }
+        if (mejor == null) {
+            return Optional.empty();
+        }
+        aciertos.incrementAndGet();
+        return Optional.of(new Coincidencia(mejor.idRespuesta(), mejor.respuesta(), mejor.prioridad()));
+    }
+
+    private static ReglaIaFila menor(ReglaIaFila a, ReglaIaFila b) {
+        if (a == null) {
+            return b;
+        }
+        return b != null && ORDEN_IA.compare(b, a) < 0 ? b : a;
+    }
+
+    private static Set<String> alternativas(String valor, String comodin) {
+        Set<String> s = new LinkedHashSet<>(2);
+        if (valor != null) {
+            s.add(valor);
+        }
+        s.add(comodin);
+        return s;
+    }
+
+    private static String claveIa(String idioma, String scope, String canal) {
+        return idioma + "|" + scope + "|" + canal;
+    }
+
+    /**
+     * Fuerza la reconstrucción del índice en la próxima búsqueda.
+     */
+    public void invalidar() {
+        version.incrementAndGet();
+    }
+
+    // ===============================
+    // CONSTRUCCIÓN DEL ÍNDICE
+    // ===============================
+    private Indice vigente() {
+        Indice idx = indice;
+        if (idx != null && idx.version == version.get() && System.currentTimeMillis() < idx.proximaCargaMs) {
+            return idx;
+        }
+        if (idx == null) {
+            cargando.lock();
+        } else if (!cargando.tryLock()) {
+            return idx;
+        }
+        try {
+            idx = indice;
+            long v = version.get();
+            if (idx == null || idx.version != v || System.currentTimeMillis() >= idx.proximaCargaMs) {
+                idx = cargar(v, idx);
+                indice = idx;
+            }
+            return idx;
+        } finally {
+            cargando.unlock();
+        }
+    }
+
+    private Indice cargar(long v, Indice anterior) {
+        boolean fallo = false;
+        Map<String, Patrones> patrones;
+        int reglasPatron;
+        try {
+            List<ReglaPatronFila> filas = repo.cargarReglasPatron();
+            patrones = indexarPatrones(filas);
+            reglasPatron = filas.size();
+        } catch (SQLException e) {
+            System.err.println("⚠️ Error cargando soporte_respuestas_predef: " + e.getMessage());
+            fallo = true;
+            patrones = anterior != null ? anterior.patrones : Map.of();
+            reglasPatron = anterior != null ? anterior.reglasPatron : 0;
+        }
+
+        Map<String, ParticionIa> ia;
+        int reglasIa;
+        try {
+            List<ReglaIaFila> filas = repo.cargarReglasIa();
+            ia = indexarIa(filas);
+            reglasIa = filas.size();
+        } catch (SQLException e) {
+            System.err.println("⚠️ Error cargando ia_respuestas_automaticas: " + e.getMessage());
+            fallo = true;
+            ia = anterior != null ? anterior.ia : Map.of();
+            reglasIa = anterior != null ? anterior.reglasIa : 0;
+        }
+
+        if (fallo) {
+            fallosCarga.incrementAndGet();
+        } else {
+            recargas.incrementAndGet();
+        }
+        long proxima = System.currentTimeMillis() + (fallo ? Math.min(REINTENTO_MS, recargaMs) : recargaMs);
+        return new Indice(v, proxima, patrones, ia, reglasPatron, reglasIa);
+    }
+
+    private static Map<String, Patrones> indexarPatrones(List<ReglaPatronFila> filas) {
+        Map<String, List<ReglaPatronFila>> porCategoria = new HashMap<>();
+        for (ReglaPatronFila f : filas) {
+            porCategoria.computeIfAbsent(f.categoria(), k -> new ArrayList<>()).add(f);
+        }
+        Map<String, Patrones> patrones = new HashMap<>();
+        porCategoria.forEach((k, lista) -> patrones.put(k, new Patrones(lista)));
+        return patrones;
+    }
+
+    private static Map<String, ParticionIa> indexarIa(List<ReglaIaFila> filas) {
+        Map<String, List<ReglaIaFila>> porParticion = new HashMap<>();
+        for (ReglaIaFila f : filas) {
+            porParticion.computeIfAbsent(claveIa(f.idioma(), f.scope(), f.canal()), k -> new ArrayList<>()).add(f);
+        }
+        Map<String, ParticionIa> ia = new HashMap<>();
+        porParticion.forEach((k, lista) -> ia.put(k, new ParticionIa(lista)));
+        return ia;
+    }
+
+    private static void compilar(String alternativa, long idPredef, List<Pattern> destino) {
+        try {
+            destino.add(Pattern.compile(alternativa, Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE));
+        } catch (PatternSyntaxException e) {
+            System.err.println("⚠️ Patrón inválido en respuesta predefinida " + idPredef + ": " + alternativa);
+        }
+    }
+
+    public Map<String, Object> metricas() {
+        Indice idx = indice;
+        Map<String, Object> m = new HashMap<>();
+        m.put("version", version.get());
+        m.put("reglasPatron", idx != null ? idx.reglasPatron : 0);
+        m.put("reglasIa", idx != null ? idx.reglasIa : 0);
+        m.put("particionesIa", idx != null ? idx.ia.size() : 0);
+        m.put("recargas", recargas.get());
+        m.put("fallosCarga", fallosCarga.get());
+        m.put("busquedas", busquedas.get());
+        m.put("aciertos", aciertos.get());
+        return m;
+    }
+}
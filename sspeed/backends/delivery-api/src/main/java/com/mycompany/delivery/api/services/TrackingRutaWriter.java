@@ -0,0 +1,168 @@
+package com.mycompany.delivery.api.services;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.mycompany.delivery.api.config.Config;
+import com.mycompany.delivery.api.model.PosicionRepartidor;
+import com.mycompany.delivery.api.repository.UbicacionRepository;
+
+/**
+ * Cola acotada de escritura diferida para los puntos de ruta (tracking_ruta).
+ * <p>
+ * Los pings GPS de todos los repartidores se encolan y un único hilo los
+ * inserta en lotes con {@link UbicacionRepository#registrarEventosTracking},
+ * en lugar de pedir una conexión del pool por cada ping. Un lote se escribe al
+ * alcanzar el tamaño máximo o al vencer el tiempo máximo de espera.
+ * <p>
+ * Configuración: TRACKING_RUTA_QUEUE_CAPACITY (10000), TRACKING_RUTA_BATCH_SIZE (500),
+ * TRACKING_RUTA_LINGER_MS (1000) y TRACKING_RUTA_OFFER_TIMEOUT_MS (50).
+ */
+public final class TrackingRutaWriter {
+
+    private static final class Holder {
+        private static final TrackingRutaWriter INSTANCE = new TrackingRutaWriter(
+                new UbicacionRepository(),
+                Config.resolveInt("TRACKING_RUTA_QUEUE_CAPACITY", 10_000),
+                Config.resolveInt("TRACKING_RUTA_BATCH_SIZE", 500),
+                Config.resolveLong("TRACKING_RUTA_LINGER_MS", 1_000L),
+                Config.resolveLong("TRACKING_RUTA_OFFER_TIMEOUT_MS", 50L));
+    }
+
+    private final UbicacionRepository repo;
+    private final BlockingQueue<PosicionRepartidor> cola;
+    private final int maxBatch;
+    private final long lingerMs;
+    private final long offerTimeoutMs;
+    private final Thread worker;
+    private volatile boolean activo = true;
+
+    // Métricas
+    private final AtomicLong encolados = new AtomicLong();
+    private final AtomicLong descartados = new AtomicLong();
+    private final AtomicLong volcados = new AtomicLong();
+    private final AtomicLong lotes = new AtomicLong();
+
+    TrackingRutaWriter(UbicacionRepository repo, int capacidad, int maxBatch, long lingerMs, long offerTimeoutMs) {
+        this.repo = repo;
+        this.cola = new ArrayBlockingQueue<>(Math.max(1, capacidad));
+        this.maxBatch = Math.max(1, maxBatch);
+        this.lingerMs = Math.max(1L, lingerMs);
+        this.offerTimeoutMs = Math.max(0L, offerTimeoutMs);
+        this.worker = new Thread(this::bucle, "tracking-ruta-writer");
+        this.worker.setDaemon(true);
+        this.worker.start();
+    }
+
+    public static TrackingRutaWriter getInstance() {
+        return Holder.INSTANCE;
+    }
+
+    /**
+     * Encola un punto de ruta. Si la cola está llena espera como máximo
+     * TRACKING_RUTA_OFFER_TIMEOUT_MS; si sigue llena el punto se descarta.
+     *
+     * @return {@code false} si el punto fue rechazado (el llamador debe frenar).
+     */
+    public boolean registrar(PosicionRepartidor punto) {
+        if (!activo) {
+            descartados.incrementAndGet();
+            return false;
+        }
+        try {
+            if (cola.offer(punto, offerTimeoutMs, TimeUnit.MILLISECONDS)) {
+                encolados.incrementAndGet();
+                return true;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        descartados.incrementAndGet();
+        return false;
+    }
+
+    /**
+     * Detiene el hilo de escritura y persiste los puntos que queden en cola.
+     */
+    public void shutdown() {
+        activo = false;
+        worker.interrupt();
+        try {
+            worker.join(lingerMs * 2);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        List<PosicionRepartidor> lote = new ArrayList<>(maxBatch);
+        while (cola.drainTo(lote, maxBatch) > 0) {
+            escribir(lote);
+            lote.clear();
+        }
+    }
+
+    public Map<String, Object> metricas() {
+        Map<String, Object> m = new HashMap<>();
+        m.put("encolados", encolados.get());
+        m.put("descartados", descartados.get());
+        m.put("volcados", volcados.get());
+        m.put("lotes", lotes.get());
+        m.put("enCola", cola.size());
+        return m;
+    }
+
+    private void bucle() {
+        List<PosicionRepartidor> lote = new ArrayList<>(maxBatch);
+        while (activo) {
+            try {
+                PosicionRepartidor primero = cola.poll(lingerMs, TimeUnit.MILLISECONDS);
+                if (primero == null) {
+                    continue;
+                }
+                lote.add(primero);
+                long limite = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(lingerMs);
+                while (lote.size() < maxBatch) {
+                    if (cola.drainTo(lote, maxBatch - lote.size()) > 0) {
+                        continue;
+                    }
+                    long restante = limite - System.nanoTime();
+                    if (restante <= 0) {
+                        break;
+                    }
+                    PosicionRepartidor siguiente = cola.poll(restante, TimeUnit.NANOSECONDS);
+                    if (siguiente == null) {
+                        break;
+                    }
+                    lote.add(siguiente);
+                }
+            } catch (InterruptedException e) {
+                // shutdown(): se escribe lo acumulado y se sale del bucle
+                if (!activo) {
+                    break;
+                }
+            }
+            escribir(lote);
+            lote.clear();
+        }
+        escribir(lote);
+    }
+
+    private void escribir(List<PosicionRepartidor> lote) {
+        if (lote.isEmpty()) {
+            return;
+        }
+        try {
+            repo.registrarEventosTracking(lote);
+            volcados.addAndGet(lote.size());
+            lotes.incrementAndGet();
+        } catch (SQLException | RuntimeException e) {
+            descartados.addAndGet(lote.size());
+            System.err.println("⚠️ No se pudo escribir un lote de " + lote.size() + " puntos de ruta: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,235 @@
+package com.mycompany.delivery.api.services;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.mycompany.delivery.api.config.Config;
+import com.mycompany.delivery.api.model.PosicionRepartidor;
+
+import io.javalin.http.sse.SseClient;
+
+/**
+ * Difunde por Server-Sent Events la posición del repartidor a los clientes
+ * suscritos a un pedido, en lugar de que consulten GET /tracking/pedido/{id}.
+ * <p>
+ * Cada ping GPS sólo deja la posición en la ranura pendiente de los
+ * suscriptores de los canales de ese repartidor (índice por repartidor que se
+ * mantiene con las asignaciones), conservando la más reciente. Un hilo emisor
+ * recorre las ranuras como máximo una vez cada TRACKING_SSE_MIN_INTERVAL_MS
+ * (1000) y lanza cada envío en un hilo virtual propio del cliente; si no hubo
+ * cambios manda un comentario de keep-alive cada TRACKING_SSE_KEEPALIVE_MS
+ * (15000). Un cliente lento no retrasa a los demás: mientras su envío anterior
+ * no termina se le saltan los ciclos (sólo recibirá la última posición) y si
+ * pasa de TRACKING_SSE_ENVIO_MAX_MS (30000) se cierra su conexión.
+ */
+public final class TrackingStreamHub {
+
+    private static final class Holder {
+        private static final TrackingStreamHub INSTANCE = new TrackingStreamHub(
+                UbicacionLiveStore.getInstance(),
+                Config.resolveLong("TRACKING_SSE_MIN_INTERVAL_MS", 1_000L),
+                Config.resolveLong("TRACKING_SSE_KEEPALIVE_MS", 15_000L),
+                Config.resolveLong("TRACKING_SSE_ENVIO_MAX_MS", 30_000L));
+    }
+
+    private static final class Suscriptor {
+        final SseClient client;
+        final AtomicReference<PosicionRepartidor> pendiente = new AtomicReference<>();
+        final AtomicBoolean enviando = new AtomicBoolean();
+        volatile long inicioEnvioMs;
+        volatile long ultimoEnvioMs = System.currentTimeMillis();
+
+        Suscriptor(SseClient client) {
+            this.client = client;
+        }
+    }
+
+    private static final class Canal {
+        final long idPedido;
+        // Sólo se modifica dentro de canales.compute*
+        long idRepartidor;
+        final Set<Suscriptor> suscriptores = ConcurrentHashMap.newKeySet();
+
+        Canal(long idPedido, long idRepartidor) {
+            this.idPedido = idPedido;
+            this.idRepartidor = idRepartidor;
+        }
+    }
+
+    private final long keepAliveMs;
+    private final long envioMaxMs;
+    private final Map<Long, Canal> canales = new ConcurrentHashMap<>();
+    private final Map<Long, Set<Canal>> canalesPorRepartidor = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService emisor;
+    private final ExecutorService envios = Executors.newVirtualThreadPerTaskExecutor();
+
+    TrackingStreamHub(UbicacionLiveStore liveStore, long minIntervalMs, long keepAliveMs, long envioMaxMs) {
+        this.keepAliveMs = Math.max(1_000L, keepAliveMs);
+        this.envioMaxMs = Math.max(1_000L, envioMaxMs);
+        long intervalo = Math.max(100L, minIntervalMs);
+        this.emisor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "tracking-sse-emisor");
+            t.setDaemon(true);
+            return t;
+        });
+        this.emisor.scheduleWithFixedDelay(this::emitir, intervalo, intervalo, TimeUnit.MILLISECONDS);
+        liveStore.agregarListener(this::onPosicion);
+        liveStore.agregarListenerAsignacion(this::onAsignacion);
+    }
+
+    public static TrackingStreamHub getInstance() {
+        return Holder.INSTANCE;
+    }
+
+    /**
+     * Suscribe un cliente SSE al pedido. Si ya hay una posición conocida se
+     * enviará en el próximo ciclo del emisor.
+     */
+    public void suscribir(SseClient client, long idPedido, long idRepartidor, PosicionRepartidor inicial) {
+        Suscriptor s = new Suscriptor(client);
+        if (inicial != null) {
+            s.pendiente.set(inicial);
+        }
+        canales.compute(idPedido, (id, canal) -> {
+            Canal c = canal;
+            if (c == null) {
+                c = new Canal(id, idRepartidor);
+                indexar(idRepartidor, c);
+            } else {
+                moverCanal(c, idRepartidor);
+            }
+            c.suscriptores.add(s);
+            return c;
+        });
+        client.onClose(() -> desuscribir(idPedido, s));
+    }
+
+    public int suscriptoresActivos() {
+        return canales.values().stream().mapToInt(c -> c.suscriptores.size()).sum();
+    }
+
+    private void desuscribir(long idPedido, Suscriptor s) {
+        canales.computeIfPresent(idPedido, (id, canal) -> {
+            canal.suscriptores.remove(s);
+            if (!canal.suscriptores.isEmpty()) {
+                return canal;
+            }
+            desindexar(canal.idRepartidor, canal);
+            return null;
+        });
+    }
+
+    // ===============================
+    // ÍNDICE REPARTIDOR -> CANALES
+    // ===============================
+    private void onAsignacion(long idPedido, long idRepartidor) {
+        canales.computeIfPresent(idPedido, (id, canal) -> {
+            moverCanal(canal, idRepartidor);
+            return canal;
+        });
+    }
+
+    private void moverCanal(Canal canal, long idRepartidor) {
+        if (canal.idRepartidor == idRepartidor) {
+            return;
+        }
+        desindexar(canal.idRepartidor, canal);
+        canal.idRepartidor = idRepartidor;
+        indexar(idRepartidor, canal);
+    }
+
+    private void indexar(long idRepartidor, Canal canal) {
+        canalesPorRepartidor.compute(idRepartidor, (id, set) -> {
+            Set<Canal> s = set != null ? set : ConcurrentHashMap.newKeySet();
+            s.add(canal);
+            return s;
+        });
+    }
+
+    private void desindexar(long idRepartidor, Canal canal) {
+        canalesPorRepartidor.computeIfPresent(idRepartidor, (id, set) -> {
+            set.remove(canal);
+            return set.isEmpty() ? null : set;
+        });
+    }
+
+    private void onPosicion(PosicionRepartidor pos) {
+        Set<Canal> delRepartidor = canalesPorRepartidor.get(pos.getIdRepartidor());
+        if (delRepartidor == null) {
+            return;
+        }
+        for (Canal canal : delRepartidor) {
+            for (Suscriptor s : canal.suscriptores) {
+                s.pendiente.set(pos);
+            }
+        }
+    }
+
+    // ===============================
+    // EMISIÓN
+    // ===============================
+    private void emitir() {
+        long now = System.currentTimeMillis();
+        for (Canal canal : canales.values()) {
+            for (Suscriptor s : canal.suscriptores) {
+                if (s.client.terminated()) {
+                    desuscribir(canal.idPedido, s);
+                    continue;
+                }
+                if (s.enviando.get()) {
+                    if (now - s.inicioEnvioMs >= envioMaxMs) {
+                        cerrar(canal.idPedido, s);
+                    }
+                    continue;
+                }
+                PosicionRepartidor pos = s.pendiente.getAndSet(null);
+                if (pos == null && now - s.ultimoEnvioMs < keepAliveMs) {
+                    continue;
+                }
+                s.enviando.set(true);
+                s.inicioEnvioMs = now;
+                try {
+                    envios.execute(() -> enviar(canal.idPedido, s, pos, now));
+                } catch (RejectedExecutionException e) {
+                    s.enviando.set(false);
+                }
+            }
+        }
+    }
+
+    private void enviar(long idPedido, Suscriptor s, PosicionRepartidor pos, long now) {
+        try {
+            if (pos != null) {
+                s.client.sendEvent("ubicacion", Map.of(
+                        "id_pedido", idPedido,
+                        "latitud", pos.getLatitud(),
+                        "longitud", pos.getLongitud(),
+                        "timestamp", pos.getTimestampMs()));
+            } else {
+                s.client.sendComment("keep-alive");
+            }
+            s.ultimoEnvioMs = now;
+        } catch (RuntimeException e) {
+            desuscribir(idPedido, s);
+        } finally {
+            s.enviando.set(false);
+        }
+    }
+
+    private void cerrar(long idPedido, Suscriptor s) {
+        desuscribir(idPedido, s);
+        try {
+            s.client.close();
+        } catch (RuntimeException e) {
+            // Ya cerrado
+        }
+    }
+}
@@ -0,0 +1,211 @@
+package com.mycompany.delivery.api.services;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+import com.mycompany.delivery.api.config.Config;
+import com.mycompany.delivery.api.model.PosicionRepartidor;
+import com.mycompany.delivery.api.repository.UbicacionRepository;
+
+/**
+ * Almacén en memoria de la posición en vivo de cada repartidor.
+ * <p>
+ * Cada ping GPS sólo reemplaza la entrada del repartidor en un mapa concurrente;
+ * un hilo en segundo plano vuelca periódicamente a PostgreSQL la última posición
+ * de los repartidores que cambiaron, en un único batch. Las lecturas de tracking
+ * se responden desde memoria mientras la posición no supere el límite de
+ * antigüedad configurado.
+ * <p>
+ * Configuración (System properties / ENV / application.properties):
+ * TRACKING_FLUSH_INTERVAL_MS (por defecto 5000) y TRACKING_STALE_MS (por defecto 120000).
+ */
+public final class UbicacionLiveStore {
+
+    private static final class Holder {
+        private static final UbicacionLiveStore INSTANCE = new UbicacionLiveStore(
+                new UbicacionRepository(),
+                Config.resolveLong("TRACKING_FLUSH_INTERVAL_MS", 5_000L),
+                Config.resolveLong("TRACKING_STALE_MS", 120_000L));
+    }
+
+    private final UbicacionRepository repo;
+    private final long flushIntervalMs;
+    private final long staleMs;
+
+    private final Map<Long, PosicionRepartidor> posiciones = new ConcurrentHashMap<>();
+    private final Set<Long> pendientes = ConcurrentHashMap.newKeySet();
+    private final Map<Long, Long> repartidorPorPedido = new ConcurrentHashMap<>();
+    private final List<Consumer<PosicionRepartidor>> listeners = new CopyOnWriteArrayList<>();
+    private final List<BiConsumer<Long, Long>> listenersAsignacion = new CopyOnWriteArrayList<>();
+    private final ScheduledExecutorService scheduler;
+
+    UbicacionLiveStore(UbicacionRepository repo, long flushIntervalMs, long staleMs) {
+        this.repo = repo;
+        this.flushIntervalMs = Math.max(250L, flushIntervalMs);
+        this.staleMs = Math.max(1_000L, staleMs);
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "ubicacion-live-flush");
+            t.setDaemon(true);
+            return t;
+        });
+        this.scheduler.scheduleWithFixedDelay(this::flushSeguro,
+                this.flushIntervalMs, this.flushIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    public static UbicacionLiveStore getInstance() {
+        return Holder.INSTANCE;
+    }
+
+    // ===============================
+    // ESCRITURA (PING GPS)
+    // ===============================
+    public PosicionRepartidor actualizar(long idRepartidor, double latitud, double longitud) {
+        PosicionRepartidor pos = new PosicionRepartidor(idRepartidor, latitud, longitud, System.currentTimeMillis());
+        posiciones.put(idRepartidor, pos);
+        pendientes.add(idRepartidor);
+        for (Consumer<PosicionRepartidor> listener : listeners) {
+            try {
+                listener.accept(pos);
+            } catch (RuntimeException e) {
+                System.err.println("⚠️ Listener de ubicación en vivo falló: " + e.getMessage());
+            }
+        }
+        return pos;
+    }
+
+    /**
+     * Registra un observador que recibe cada posición nueva en el hilo del ping.
+     * Debe ser rápido y no bloquear.
+     */
+    public void agregarListener(Consumer<PosicionRepartidor> listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Registra un observador que recibe (idPedido, idRepartidor) en cada
+     * asignación, en el hilo que la registra. Debe ser rápido y no bloquear.
+     */
+    public void agregarListenerAsignacion(BiConsumer<Long, Long> listener) {
+        listenersAsignacion.add(listener);
+    }
+
+    // ===============================
+    // LECTURA
+    // ===============================
+    /**
+     * Posición del repartidor si existe y no supera el límite de antigüedad.
+     */
+    public Optional<PosicionRepartidor> obtener(long idRepartidor) {
+        PosicionRepartidor pos = posiciones.get(idRepartidor);
+        if (pos == null || esObsoleta(pos, System.currentTimeMillis())) {
+            return Optional.empty();
+        }
+        return Optional.of(pos);
+    }
+
+    public Optional<Long> obtenerRepartidorDePedido(long idPedido) {
+        return Optional.ofNullable(repartidorPorPedido.get(idPedido));
+    }
+
+    // ===============================
+    // ASIGNACIONES PEDIDO -> REPARTIDOR
+    // ===============================
+    public void registrarAsignacion(long idPedido, long idRepartidor) {
+        Long anterior = repartidorPorPedido.put(idPedido, idRepartidor);
+        if (anterior != null && anterior == idRepartidor) {
+            return;
+        }
+        for (BiConsumer<Long, Long> listener : listenersAsignacion) {
+            try {
+                listener.accept(idPedido, idRepartidor);
+            } catch (RuntimeException e) {
+                System.err.println("⚠️ Listener de asignación falló: " + e.getMessage());
+            }
+        }
+    }
+
+    public void olvidarPedido(long idPedido) {
+        repartidorPorPedido.remove(idPedido);
+    }
+
+    /**
+     * Repartidores con al menos un pedido activo conocido en memoria.
+     */
+    public Set<Long> repartidoresOcupados() {
+        return Set.copyOf(repartidorPorPedido.values());
+    }
+
+    // ===============================
+    // VOLCADO A BASE DE DATOS
+    // ===============================
+    /**
+     * Persiste la última posición de cada repartidor con cambios pendientes
+     * y purga de memoria las posiciones obsoletas ya persistidas.
+     */
+    public void flush() throws SQLException {
+        List<PosicionRepartidor> lote = new ArrayList<>();
+        for (Long id : pendientes) {
+            pendientes.remove(id);
+            PosicionRepartidor pos = posiciones.get(id);
+            if (pos != null) {
+                lote.add(pos);
+            }
+        }
+        if (!lote.isEmpty()) {
+            try {
+                repo.guardarUbicacionesLive(lote);
+            } catch (SQLException e) {
+                // Se reintentará en el próximo ciclo con la posición más reciente
+                lote.forEach(p -> pendientes.add(p.getIdRepartidor()));
+                throw e;
+            }
+        }
+        purgarObsoletas();
+    }
+
+    /**
+     * Detiene el volcado periódico y persiste lo que quede pendiente.
+     */
+    public void shutdown() {
+        scheduler.shutdown();
+        try {
+            scheduler.awaitTermination(flushIntervalMs, TimeUnit.MILLISECONDS);
+            flush();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (SQLException e) {
+            System.err.println("⚠️ No se pudieron persistir las ubicaciones en vivo al apagar: " + e.getMessage());
+        }
+    }
+
+    private void flushSeguro() {
+        try {
+            flush();
+        } catch (SQLException e) {
+            System.err.println("⚠️ Error volcando ubicaciones en vivo: " + e.getMessage());
+        } catch (RuntimeException e) {
+            System.err.println("⚠️ Error inesperado volcando ubicaciones en vivo: " + e.getMessage());
+        }
+    }
+
+    private void purgarObsoletas() {
+        long now = System.currentTimeMillis();
+        posiciones.entrySet().removeIf(e -> !pendientes.contains(e.getKey()) && esObsoleta(e.getValue(), now));
+        repartidorPorPedido.values().removeIf(idRepartidor -> !posiciones.containsKey(idRepartidor));
+    }
+
+    private boolean esObsoleta(PosicionRepartidor pos, long now) {
+        return now - pos.getTimestampMs() > staleMs;
+    }
+}
@@ -1,12 +1,18 @@
 package com.mycompany.delivery.api.services;
 
 import com.mycompany.delivery.api.config.UbicacionUpdateRequest;
+import com.mycompany.delivery.api.model.PosicionRepartidor;
 import com.mycompany.delivery.api.model.TrackingEvento;
 import com.mycompany.delivery.api.model.Ubicacion;
 import com.mycompany.delivery.api.repository.UbicacionRepository;
 import com.mycompany.delivery.api.util.ApiException;
+import com.mycompany.delivery.api.util.Pagina;
+import com.mycompany.delivery.api.util.Paginacion;
+
+import io.javalin.http.sse.SseClient;
 
 import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
@@ -16,9 +22,17 @@ import static com.mycompany.delivery.api.util.UbicacionValidator.*;
 public class UbicacionService {
 
     private final UbicacionRepository repo;
+    private final UbicacionLiveStore liveStore;
+    private final TrackingRutaWriter rutaWriter;
+    private final TrackingStreamHub streamHub;
+    private final RepartidorGeoIndex geoIndex;
 
     public UbicacionService() {
         this.repo = new UbicacionRepository();
+        this.liveStore = UbicacionLiveStore.getInstance();
+        this.rutaWriter = TrackingRutaWriter.getInstance();
+        this.streamHub = TrackingStreamHub.getInstance();
+        this.geoIndex = RepartidorGeoIndex.getInstance();
     }
 
     // ===============================
@@ -64,19 +78,13 @@ public class UbicacionService {
 
         requireValidCoordinates(latitud, longitud, "Las coordenadas proporcionadas son inválidas");
 
-        // CORRECCIÓN: Se asegura que la ubicación se guarde con la descripción
-        // 'LIVE_TRACKING' para que el endpoint de tracking pueda encontrarla.
-        try {
-            boolean updated = repo.actualizarUbicacionLive(idRepartidor, latitud, longitud);
-            if (!updated) { // Si no se actualizó ninguna fila (porque no existía una entrada
-                // 'LIVE_TRACKING'),
-                // se inserta una nueva.
-                repo.insertarUbicacionLive(idRepartidor, latitud, longitud);
-            }
-            // Adicionalmente, se registra el evento para el historial de ruta del pedido.
-            repo.registrarEventoTracking(idRepartidor, latitud, longitud);
-        } catch (SQLException e) {
-            throw new ApiException(500, "Error actualizando ubicación del repartidor", e);
+        // La posición en vivo se guarda en memoria; UbicacionLiveStore la vuelca
+        // periódicamente a 'ubicaciones' (fila 'LIVE_TRACKING') en lote.
+        PosicionRepartidor posicion = liveStore.actualizar(idRepartidor, latitud, longitud);
+        // Adicionalmente, se encola el punto para el historial de ruta del pedido;
+        // TrackingRutaWriter lo inserta en lote junto con los de otros repartidores.
+        if (!rutaWriter.registrar(posicion)) {
+            throw new ApiException(503, "Tracking saturado, reintenta en unos segundos");
         }
     }
 
@@ -93,8 +101,8 @@ public class UbicacionService {
     // ===============================
     // LISTAR TODAS LAS UBICACIONES ACTIVAS
     // ===============================
-    public List<Ubicacion> listarUbicacionesActivas() throws SQLException {
-        return repo.listarActivas();
+    public Pagina<Ubicacion> listarUbicacionesActivas(Paginacion.Cursor desde, int limite) throws SQLException {
+        return repo.listarActivas(desde, limite);
     }
 
     // ===============================
@@ -108,9 +116,48 @@ public class UbicacionService {
     }
 
     public java.util.Optional<Map<String, Double>> obtenerUbicacionTracking(long idPedido) throws SQLException {
+        Optional<PosicionRepartidor> enVivo = resolverRepartidor(idPedido).flatMap(liveStore::obtener);
+        if (enVivo.isPresent()) {
+            PosicionRepartidor pos = enVivo.get();
+            return Optional.of(Map.of("latitud", pos.getLatitud(), "longitud", pos.getLongitud()));
+        }
+        // Sin posición reciente en memoria (p. ej. tras un reinicio): consultar la BD
         return repo.obtenerUbicacionTracking(idPedido);
     }
 
+    /**
+     * Suscribe un cliente SSE a las posiciones del repartidor asignado al pedido.
+     * Sólo consulta la BD una vez para resolver el repartidor y la posición
+     * inicial si no están en memoria.
+     */
+    public void suscribirTracking(long idPedido, SseClient client) throws SQLException {
+        if (idPedido <= 0) {
+            throw new ApiException(400, "El identificador del pedido es inválido");
+        }
+        Optional<Long> idRepartidor = resolverRepartidor(idPedido);
+        if (idRepartidor.isEmpty()) {
+            throw new ApiException(404, "El pedido no tiene repartidor asignado.");
+        }
+        PosicionRepartidor inicial = liveStore.obtener(idRepartidor.get()).orElse(null);
+        if (inicial == null) {
+            Optional<Map<String, Double>> guardada = repo.obtenerUbicacionTracking(idPedido);
+            if (guardada.isPresent()) {
+                inicial = new PosicionRepartidor(idRepartidor.get(), guardada.get().get("latitud"),
+                        guardada.get().get("longitud"), System.currentTimeMillis());
+            }
+        }
+        streamHub.suscribir(client, idPedido, idRepartidor.get(), inicial);
+    }
+
+    private Optional<Long> resolverRepartidor(long idPedido) throws SQLException {
+        Optional<Long> idRepartidor = liveStore.obtenerRepartidorDePedido(idPedido);
+        if (idRepartidor.isEmpty()) {
+            idRepartidor = repo.obtenerRepartidorDePedido(idPedido);
+            idRepartidor.ifPresent(id -> liveStore.registrarAsignacion(idPedido, id));
+        }
+        return idRepartidor;
+    }
+
     public List<TrackingEvento> obtenerRutaPedido(long idPedido) throws SQLException {
         if (idPedido <= 0) {
             throw new ApiException(400, "El identificador del pedido es inválido");
@@ -118,11 +165,49 @@ public class UbicacionService {
         return repo.obtenerRutaPedido(idPedido);
     }
 
+    // ===============================
+    // REPARTIDORES CERCANOS (índice espacial en memoria)
+    // ===============================
+    public List<Map<String, Object>> buscarRepartidoresCercanos(double latitud, double longitud, int k,
+            double radioMetros, boolean soloDisponibles) {
+        requireValidCoordinates(latitud, longitud, "Las coordenadas proporcionadas son inválidas");
+        if (k <= 0 || k > 100) {
+            throw new ApiException(400, "k debe estar entre 1 y 100");
+        }
+        if (radioMetros <= 0 || radioMetros > 100_000) {
+            throw new ApiException(400, "radio debe estar entre 1 y 100000 metros");
+        }
+        java.util.Set<Long> ocupados = soloDisponibles ? liveStore.repartidoresOcupados() : java.util.Set.of();
+        List<Map<String, Object>> out = new ArrayList<>();
+        for (RepartidorGeoIndex.Cercano c : geoIndex.cercanos(latitud, longitud, k, radioMetros,
+                id -> !ocupados.contains(id))) {
+            out.add(c.toMap());
+        }
+        return out;
+    }
+
     // CORRECCIÓN: Método faltante para obtener ubicaciones de múltiples
     // repartidores
     public List<Map<String, Object>> obtenerUbicacionesDeRepartidores(List<Integer> repartidorIds) {
+        List<Map<String, Object>> ubicaciones = new ArrayList<>();
+        List<Integer> faltantes = new ArrayList<>();
+        for (Integer id : repartidorIds) {
+            if (id == null) {
+                continue;
+            }
+            Optional<PosicionRepartidor> pos = liveStore.obtener(id);
+            if (pos.isPresent()) {
+                ubicaciones.add(pos.get().toMap());
+            } else {
+                faltantes.add(id);
+            }
+        }
+        if (faltantes.isEmpty()) {
+            return ubicaciones;
+        }
         try {
-            return repo.obtenerUbicacionesDeRepartidores(repartidorIds);
+            ubicaciones.addAll(repo.obtenerUbicacionesDeRepartidores(faltantes));
+            return ubicaciones;
         } catch (SQLException e) {
             throw new ApiException(500, "Error al obtener ubicaciones de repartidores", e);
         }
@@ -0,0 +1,139 @@
+package com.mycompany.delivery.api.services;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.mycompany.delivery.api.config.Config;
+import com.mycompany.delivery.api.model.Usuario;
+
+/**
+ * Caché acotada de usuarios autenticados (principal del JWT) por id de usuario.
+ * <p>
+ * Evita la consulta usuarios JOIN roles en cada request con Bearer token. Las
+ * entradas caducan a los AUTH_CACHE_TTL_MS (60000) y, al superar
+ * AUTH_CACHE_MAX_ENTRIES (10000), se desaloja la usada hace más tiempo (LRU).
+ * Toda escritura sobre un usuario (datos, rol, contraseña, borrado) debe llamar
+ * a {@link #invalidar(long)} para que una desactivación tenga efecto inmediato.
+ * <p>
+ * Se guarda una copia sin contraseña y cada lectura devuelve otra copia, de
+ * modo que los handlers no pueden alterar la entrada cacheada.
+ */
+public final class UsuarioPrincipalCache {
+
+    private static final class Holder {
+        private static final UsuarioPrincipalCache INSTANCE = new UsuarioPrincipalCache(
+                Config.resolveLong("AUTH_CACHE_TTL_MS", 60_000L),
+                Config.resolveInt("AUTH_CACHE_MAX_ENTRIES", 10_000));
+    }
+
+    private static final class Entrada {
+        final Usuario usuario;
+        final long expiraMs;
+
+        Entrada(Usuario usuario, long expiraMs) {
+            this.usuario = usuario;
+            this.expiraMs = expiraMs;
+        }
+    }
+
+    private final long ttlMs;
+    private final int maxEntradas;
+    private final LinkedHashMap<Long, Entrada> entradas;
+    // Se incrementa en cada invalidación: una carga iniciada antes no debe cachearse
+    private final AtomicLong generacion = new AtomicLong();
+
+    // Métricas
+    private final AtomicLong aciertos = new AtomicLong();
+    private final AtomicLong fallos = new AtomicLong();
+    private final AtomicLong invalidaciones = new AtomicLong();
+
+    UsuarioPrincipalCache(long ttlMs, int maxEntradas) {
+        this.ttlMs = Math.max(0L, ttlMs);
+        this.maxEntradas = Math.max(1, maxEntradas);
+        this.entradas = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Entrada> eldest) {
+                return size() > UsuarioPrincipalCache.this.maxEntradas;
+            }
+        };
+    }
+
+    public static UsuarioPrincipalCache getInstance() {
+        return Holder.INSTANCE;
+    }
+
+    public boolean isEnabled() {
+        return ttlMs > 0;
+    }
+
+    /**
+     * Generación actual; se toma antes de consultar la BD y se pasa a
+     * {@link #guardar(Usuario, long)}.
+     */
+    public long generacion() {
+        return generacion.get();
+    }
+
+    public Optional<Usuario> obtener(long idUsuario) {
+        if (!isEnabled()) {
+            return Optional.empty();
+        }
+        Entrada e;
+        synchronized (entradas) {
+            e = entradas.get(idUsuario);
+            if (e != null && e.expiraMs <= System.currentTimeMillis()) {
+                entradas.remove(idUsuario);
+                e = null;
+            }
+        }
+        if (e == null) {
+            fallos.incrementAndGet();
+            return Optional.empty();
+        }
+        aciertos.incrementAndGet();
+        return Optional.of(copiar(e.usuario));
+    }
+
+    /**
+     * Cachea el usuario salvo que haya habido una invalidación desde que se
+     * tomó {@code generacionLeida}.
+     */
+    public void guardar(Usuario usuario, long generacionLeida) {
+        if (!isEnabled() || usuario == null) {
+            return;
+        }
+        Entrada e = new Entrada(copiar(usuario), System.currentTimeMillis() + ttlMs);
+        synchronized (entradas) {
+            if (generacion.get() == generacionLeida) {
+                entradas.put(usuario.getIdUsuario(), e);
+            }
+        }
+    }
+
+    public void invalidar(long idUsuario) {
+        synchronized (entradas) {
+            generacion.incrementAndGet();
+            entradas.remove(idUsuario);
+        }
+        invalidaciones.incrementAndGet();
+    }
+
+    public Map<String, Object> metricas() {
+        Map<String, Object> m = new HashMap<>();
+        m.put("aciertos", aciertos.get());
+        m.put("fallos", fallos.get());
+        m.put("invalidaciones", invalidaciones.get());
+        synchronized (entradas) {
+            m.put("entradas", entradas.size());
+        }
+        return m;
+    }
+
+    private static Usuario copiar(Usuario u) {
+        return new Usuario(u.getIdUsuario(), u.getNombre(), u.getCorreo(), null,
+                u.getTelefono(), u.getRol(), u.isActivo());
+    }
+}
@@ -0,0 +1,141 @@
+package com.mycompany.delivery.api.util;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+
+import com.google.gson.Gson;
+import com.google.gson.TypeAdapter;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * {@code TypeAdapter} armado a mano a partir de una tabla de campos, para los
+ * modelos y payloads que más se (de)serializan. Evita la reflexión de Gson:
+ * cada nombre JSON (con sus alias) apunta directamente a un setter y la
+ * escritura es una función que conoce los getters.
+ * <p>
+ * Reproduce las reglas del adaptador reflexivo de Gson: los valores se leen
+ * con los adaptadores de la propia instancia (mismos formatos de número y
+ * fecha), un {@code null} no pisa un campo primitivo y los nombres
+ * desconocidos se ignoran.
+ */
+public final class AdaptadorCampos<T> extends TypeAdapter<T> {
+
+    /**
+     * Escribe los campos del objeto; el objeto JSON ya está abierto.
+     */
+    @FunctionalInterface
+    public interface Escritura<T> {
+        void escribir(JsonWriter out, T valor) throws IOException;
+    }
+
+    @FunctionalInterface
+    private interface Campo<T> {
+        void leer(T destino, JsonReader in) throws IOException;
+    }
+
+    private final Supplier<T> nuevo;
+    private final Map<String, Campo<T>> campos;
+    private final Escritura<T> escritura;
+    private final TypeAdapter<T> delegado;
+
+    private AdaptadorCampos(Supplier<T> nuevo, Map<String, Campo<T>> campos, Escritura<T> escritura, TypeAdapter<T> delegado) {
+        this.nuevo = nuevo;
+        this.campos = campos;
+        this.escritura = escritura;
+        this.delegado = delegado;
+    }
+
+    public static <T> Constructor<T> de(Gson gson, Supplier<T> nuevo) {
+        return new Constructor<>(gson, nuevo);
+    }
+
+    public static final class Constructor<T> {
+        private final Gson gson;
+        private final Supplier<T> nuevo;
+        private final Map<String, Campo<T>> campos = new HashMap<>();
+
+        private Constructor(Gson gson, Supplier<T> nuevo) {
+            this.gson = gson;
+            this.nuevo = nuevo;
+        }
+
+        /**
+         * Campo leído con el adaptador de {@code tipo} (use {@code int.class},
+         * {@code double.class}... para campos primitivos).
+         *
+         * @param nombres nombre JSON y sus alias.
+         */
+        public <V> Constructor<T> campo(Class<V> tipo, BiConsumer<T, V> asignar, String... nombres) {
+            return agregar(gson.getAdapter(tipo), tipo.isPrimitive(), asignar, nombres);
+        }
+
+        public <V> Constructor<T> campo(TypeToken<V> tipo, BiConsumer<T, V> asignar, String... nombres) {
+            return agregar(gson.getAdapter(tipo), false, asignar, nombres);
+        }
+
+        private <V> Constructor<T> agregar(TypeAdapter<V> adaptador, boolean primitivo, BiConsumer<T, V> asignar, String... nombres) {
+            Campo<T> campo = (destino, in) -> {
+                V valor = adaptador.read(in);
+                if (valor != null || !primitivo) {
+                    asignar.accept(destino, valor);
+                }
+            };
+            for (String nombre : nombres) {
+                campos.put(nombre, campo);
+            }
+            return this;
+        }
+
+        public AdaptadorCampos<T> escritura(Escritura<T> escritura) {
+            return new AdaptadorCampos<>(nuevo, Map.copyOf(campos), escritura, null);
+        }
+
+        /**
+         * Sólo la lectura es a mano; la escritura (poco frecuente) queda en {@code delegado}.
+         */
+        public AdaptadorCampos<T> escrituraDelegada(TypeAdapter<T> delegado) {
+            return new AdaptadorCampos<>(nuevo, Map.copyOf(campos), null, delegado);
+        }
+    }
+
+    @Override
+    public void write(JsonWriter out, T valor) throws IOException {
+        if (escritura == null) {
+            delegado.write(out, valor);
+            return;
+        }
+        if (valor == null) {
+            out.nullValue();
+            return;
+        }
+        out.beginObject();
+        escritura.escribir(out, valor);
+        out.endObject();
+    }
+
+    @Override
+    public T read(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        T destino = nuevo.get();
+        in.beginObject();
+        while (in.hasNext()) {
+            Campo<T> campo = campos.get(in.nextName());
+            if (campo == null) {
+                in.skipValue();
+            } else {
+                campo.leer(destino, in);
+            }
+        }
+        in.endObject();
+        return destino;
+    }
+}
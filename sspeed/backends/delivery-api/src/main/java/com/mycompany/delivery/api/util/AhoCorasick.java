@@ -0,0 +1,164 @@
+package com.mycompany.delivery.api.util;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Autómata de Aho–Corasick para buscar a la vez muchas palabras clave dentro
+ * de un texto en una sola pasada.
+ * <p>
+ * Cada patrón lleva un identificador entero; {@link #menor(String)} devuelve
+ * el menor identificador presente en el texto, de modo que si los
+ * identificadores son el orden de prioridad de las reglas, el resultado es la
+ * regla ganadora sin recorrer las demás. El autómata es inmutable una vez
+ * construido y se puede consultar desde varios hilos.
+ */
+public final class AhoCorasick {
+
+    /** Sin coincidencias. */
+    public static final int NINGUNO = Integer.MAX_VALUE;
+
+    private final char[][] simbolos;
+    private final int[][] hijos;
+    private final int[] falla;
+    private final int[] menorId;
+
+    private AhoCorasick(char[][] simbolos, int[][] hijos, int[] falla, int[] menorId) {
+        this.simbolos = simbolos;
+        this.hijos = hijos;
+        this.falla = falla;
+        this.menorId = menorId;
+    }
+
+    public static Constructor constructor() {
+        return new Constructor();
+    }
+
+    /**
+     * Menor identificador de los patrones que aparecen en {@code texto}, o
+     * {@link #NINGUNO}.
+     */
+    public int menor(String texto) {
+        int mejor = NINGUNO;
+        int nodo = 0;
+        for (int i = 0, n = texto.length(); i < n; i++) {
+            char c = texto.charAt(i);
+            int siguiente;
+            while ((siguiente = hijo(nodo, c)) < 0 && nodo != 0) {
+                nodo = falla[nodo];
+            }
+            nodo = Math.max(siguiente, 0);
+            if (menorId[nodo] < mejor) {
+                mejor = menorId[nodo];
+            }
+        }
+        return mejor;
+    }
+
+    public boolean isEmpty() {
+        return hijos[0].length == 0;
+    }
+
+    private int hijo(int nodo, char c) {
+        char[] s = simbolos[nodo];
+        int lo = 0;
+        int hi = s.length - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (s[mid] < c) {
+                lo = mid + 1;
+            } else if (s[mid] > c) {
+                hi = mid - 1;
+            } else {
+                return hijos[nodo][mid];
+            }
+        }
+        return -1;
+    }
+
+    // ===============================
+    // CONSTRUCCIÓN
+    // ===============================
+    public static final class Constructor {
+        private final List<TreeMap<Character, Integer>> trie = new ArrayList<>();
+        private final List<Integer> propio = new ArrayList<>();
+
+        private Constructor() {
+            nuevoNodo();
+        }
+
+        private int nuevoNodo() {
+            trie.add(new TreeMap<>());
+            propio.add(NINGUNO);
+            return trie.size() - 1;
+        }
+
+        /**
+         * Agrega un patrón no vacío; si se repite, queda el menor identificador.
+         */
+        public Constructor agregar(String patron, int id) {
+            if (patron == null || patron.isEmpty()) {
+                throw new IllegalArgumentException("Patrón vacío");
+            }
+            int nodo = 0;
+            for (int i = 0; i < patron.length(); i++) {
+                char c = patron.charAt(i);
+                Integer sig = trie.get(nodo).get(c);
+                if (sig == null) {
+                    sig = nuevoNodo();
+                    trie.get(nodo).put(c, sig);
+                }
+                nodo = sig;
+            }
+            propio.set(nodo, Math.min(propio.get(nodo), id));
+            return this;
+        }
+
+        public AhoCorasick construir() {
+            int n = trie.size();
+            char[][] simbolos = new char[n][];
+            int[][] hijos = new int[n][];
+            for (int i = 0; i < n; i++) {
+                TreeMap<Character, Integer> m = trie.get(i);
+                simbolos[i] = new char[m.size()];
+                hijos[i] = new int[m.size()];
+                int k = 0;
+                for (Map.Entry<Character, Integer> e : m.entrySet()) {
+                    simbolos[i][k] = e.getKey();
+                    hijos[i][k] = e.getValue();
+                    k++;
+                }
+            }
+            int[] falla = new int[n];
+            int[] menorId = new int[n];
+            menorId[0] = propio.get(0);
+            // Recorrido en anchura: la falla de un nodo ya está resuelta al visitar sus hijos
+            ArrayDeque<Integer> cola = new ArrayDeque<>();
+            for (int h : hijos[0]) {
+                falla[h] = 0;
+                menorId[h] = propio.get(h);
+                cola.add(h);
+            }
+            AhoCorasick parcial = new AhoCorasick(simbolos, hijos, falla, menorId);
+            while (!cola.isEmpty()) {
+                int nodo = cola.poll();
+                for (int k = 0; k < hijos[nodo].length; k++) {
+                    char c = simbolos[nodo][k];
+                    int h = hijos[nodo][k];
+                    int f = falla[nodo];
+                    int destino;
+                    while ((destino = parcial.hijo(f, c)) < 0 && f != 0) {
+                        f = falla[f];
+                    }
+                    falla[h] = Math.max(destino, 0);
+                    menorId[h] = Math.min(propio.get(h), menorId[falla[h]]);
+                    cola.add(h);
+                }
+            }
+            return parcial;
+        }
+    }
+}
@@ -2,23 +2,40 @@ package com.mycompany.delivery.api.util;
 
 import java.time.LocalTime;
 import java.util.List;
-import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
 
+import com.mycompany.delivery.api.config.Config;
+import com.mycompany.delivery.api.model.MensajeChatFila;
 import com.mycompany.delivery.api.model.Pedido;
 import com.mycompany.delivery.api.repository.PedidoRepository;
+import com.mycompany.delivery.api.services.CacheRespuestasBot;
 import com.mycompany.delivery.api.services.GeminiService;
 
 public final class ChatBotResponder {
 
+    /**
+     * Espera máxima a la IA en la variante bloqueante.
+     */
+    private static final long PLAZO_IA_MS = 60_000;
+    private static final String RESPUESTA_PEDIDO_SIN_IA =
+            "Puedes revisar el estado actual en la pantalla 'Mis pedidos'. Te avisaremos cuando cambie a 'en camino'.";
+    /**
+     * Vigencia en caché de las respuestas de la IA sobre pedidos (además dejan
+     * de servir en cuanto cambia el estado).
+     */
+    private static final long TTL_PEDIDO_MS = Config.resolveLong("CHATBOT_CACHE_TTL_PEDIDO_MS", 120_000L);
+
     private final GeminiService geminiService;
     private final PedidoRepository pedidoRepository;
     private final com.mycompany.delivery.api.repository.RespuestaSoporteRepository respuestaSoporteRepo;
+    private final CacheRespuestasBot cache;
 
     public ChatBotResponder(GeminiService geminiService, PedidoRepository pedidoRepository, com.mycompany.delivery.api.repository.ChatRepository chatRepository) {
         this.geminiService = geminiService;
         this.pedidoRepository = pedidoRepository;
         this.respuestaSoporteRepo = new com.mycompany.delivery.api.repository.RespuestaSoporteRepository();
+        this.cache = CacheRespuestasBot.isEnabled() ? CacheRespuestasBot.getInstance() : null;
     }
 
     /**
@@ -30,11 +47,28 @@ public final class ChatBotResponder {
      * @param idUsuario  El ID del usuario que envía el mensaje.
      * @return Una respuesta generada (preferentemente predefinida, IA solo si es necesario).
      */
-    public String generateReply(String rawMessage, List<Map<String, Object>> history, int idUsuario) {
+    public String generateReply(String rawMessage, List<MensajeChatFila> history, int idUsuario) {
+        return generateReplyAsync(rawMessage, history, idUsuario, PLAZO_IA_MS).join().texto();
+    }
+
+    /**
+     * Igual que {@link #generateReply} sin bloquear el hilo HTTP mientras
+     * responde la IA: las respuestas predefinidas y el fallback simple se
+     * devuelven ya completadas; sólo la consulta de pedido queda pendiente de
+     * Gemini. Cancelar el futuro aborta la llamada a la IA.
+     * <p>
+     * Las respuestas predefinidas salen del motor en memoria sin caché propia.
+     * Las de la IA se guardan en {@link CacheRespuestasBot} por usuario, pedido,
+     * estado e intención del mensaje, para no mezclar datos de otro cliente.
+     *
+     * @param plazoMs tiempo máximo de espera a la IA.
+     */
+    public CompletableFuture<GeminiService.Respuesta> generateReplyAsync(String rawMessage, List<MensajeChatFila> history,
+            int idUsuario, long plazoMs) {
         String message = rawMessage == null ? "" : rawMessage.trim().toLowerCase();
 
         if (message.isBlank()) {
-            return "Hola, puedo ayudarte con tu pedido. Cuéntame tu consulta.";
+            return listo("Hola, puedo ayudarte con tu pedido. Cuéntame tu consulta.");
         }
 
         // ============================================================
@@ -44,7 +78,7 @@ public final class ChatBotResponder {
             String respuestaBot = respuestaSoporteRepo.buscarRespuestaBot(message);
             if (respuestaBot != null && !respuestaBot.isBlank()) {
                 System.out.println("✅ BOT: Respuesta predefinida encontrada para: " + message.substring(0, Math.min(message.length(), 30)));
-                return respuestaBot;
+                return listo(respuestaBot);
             }
         } catch (Exception e) {
             System.err.println("⚠️ Error buscando respuesta bot predefinida: " + e.getMessage());
@@ -56,13 +90,32 @@ public final class ChatBotResponder {
         if (isOrderStatusQuery(message)) {
             try {
                 Optional<Pedido> pedidoOpt = pedidoRepository.obtenerPedidoMasRecientePorCliente(idUsuario);
+                // La respuesta sale del historial y del pedido del usuario: nunca se comparte entre usuarios
+                String clave = idUsuario + "|" + pedidoOpt
+                        .map(p -> p.getIdPedido() + ":" + p.getEstado())
+                        .orElse("sin-pedido") + "|" + CacheRespuestasBot.intencion(message);
+                CacheRespuestasBot.Entrada guardada = cache != null ? cache.obtener(CacheRespuestasBot.PEDIDO, clave) : null;
+                if (guardada != null) {
+                    return CompletableFuture.completedFuture(
+                            new GeminiService.Respuesta(guardada.texto(), guardada.modelo(), 0,
+                                    GeminiService.Respuesta.Estado.OK));
+                }
                 String prompt = buildPromptForGemini(message, history, pedidoOpt);
-                String iaReply = geminiService.generateSmartReply(prompt, history, idUsuario);
                 System.out.println("🤖 BOT: Usando IA para consulta de pedido");
-                return iaReply;
+                CompletableFuture<GeminiService.Respuesta> respuesta =
+                        geminiService.generateSmartReplyAsync(prompt, history, idUsuario, plazoMs);
+                if (cache != null) {
+                    // Se devuelve el futuro original para que cancelarlo siga abortando la llamada
+                    respuesta.thenAccept(r -> {
+                        if (!r.alternativa()) {
+                            cache.guardar(CacheRespuestasBot.PEDIDO, clave, r.texto(), r.modelo(), TTL_PEDIDO_MS);
+                        }
+                    });
+                }
+                return respuesta;
             } catch (Exception e) {
                 System.err.println("❌ Error al procesar respuesta con IA: " + e.getMessage());
-                return "Puedes revisar el estado actual en la pantalla 'Mis pedidos'. Te avisaremos cuando cambie a 'en camino'.";
+                return listo(RESPUESTA_PEDIDO_SIN_IA);
             }
         }
 
@@ -70,7 +123,11 @@ public final class ChatBotResponder {
         // PASO 3: Fallback simple (sin IA, respuestas hardcodeadas)
         // ============================================================
         System.out.println("ℹ️ BOT: Usando fallback simple para: " + message.substring(0, Math.min(message.length(), 30)));
-        return getSimpleFallbackReply(message);
+        return listo(getSimpleFallbackReply(message));
+    }
+
+    private static CompletableFuture<GeminiService.Respuesta> listo(String texto) {
+        return CompletableFuture.completedFuture(GeminiService.Respuesta.sinModelo(texto));
     }
 
     private boolean isOrderStatusQuery(String message) {
@@ -78,15 +135,15 @@ public final class ChatBotResponder {
                 || message.contains("estado de mi") || message.contains("cuando llega");
     }
 
-    private String buildPromptForGemini(String userMessage, List<Map<String, Object>> history,
+    private String buildPromptForGemini(String userMessage, List<MensajeChatFila> history,
             Optional<Pedido> pedidoOpt) {
         StringBuilder prompt = new StringBuilder();
         prompt.append(
                 "Eres un asistente virtual de un servicio de delivery llamado 'Unite Speed Delivery'. Tu nombre es CIA Bot. Responde de forma breve y amigable.\n");
         prompt.append("Historial de la conversación:\n");
-        for (Map<String, Object> msg : history) {
-            String role = (boolean) msg.getOrDefault("es_bot", false) ? "model" : "user";
-            prompt.append(role).append(": ").append(msg.get("mensaje")).append("\n");
+        for (MensajeChatFila msg : history) {
+            String role = msg.esBot() ? "model" : "user";
+            prompt.append(role).append(": ").append(msg.mensaje()).append("\n");
         }
 
         prompt.append("Pregunta actual del usuario: '").append(userMessage).append("'\n");
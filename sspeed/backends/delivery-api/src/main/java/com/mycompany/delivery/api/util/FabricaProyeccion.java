@@ -0,0 +1,63 @@
+package com.mycompany.delivery.api.util;
+
+import java.io.IOException;
+import java.sql.Timestamp;
+
+import com.google.gson.Gson;
+import com.google.gson.TypeAdapter;
+import com.google.gson.TypeAdapterFactory;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+
+/**
+ * Base de los {@code TypeAdapter} escritos a mano para las proyecciones de
+ * filas ({@code model.*Fila}). Se registran con
+ * {@code @JsonAdapter(Xxx.Json.class)} en el propio record, así que cualquier
+ * instancia de Gson los usa sin configuración extra y los cachea una vez por tipo.
+ * <p>
+ * Escriben los mismos nombres de campo (snake_case) que los mapas que
+ * reemplazan, sin reflexión ni boxing. Las fechas se delegan al adaptador de
+ * {@link Timestamp} de la propia instancia de Gson para que el formato no cambie.
+ * La lectura se delega al adaptador que Gson usaría sin la anotación.
+ */
+public abstract class FabricaProyeccion<T> implements TypeAdapterFactory {
+
+    private final Class<T> tipo;
+
+    protected FabricaProyeccion(Class<T> tipo) {
+        this.tipo = tipo;
+    }
+
+    /**
+     * Escribe los campos de {@code fila}; el objeto JSON ya está abierto.
+     */
+    protected abstract void escribir(JsonWriter out, T fila, Gson gson, TypeAdapter<Timestamp> fechas) throws IOException;
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public final <R> TypeAdapter<R> create(Gson gson, TypeToken<R> type) {
+        if (type.getRawType() != tipo) {
+            return null;
+        }
+        TypeAdapter<Timestamp> fechas = gson.getAdapter(Timestamp.class);
+        TypeAdapter<T> lectura = gson.getDelegateAdapter(this, (TypeToken<T>) type);
+        return (TypeAdapter<R>) new TypeAdapter<T>() {
+            @Override
+            public void write(JsonWriter out, T fila) throws IOException {
+                if (fila == null) {
+                    out.nullValue();
+                    return;
+                }
+                out.beginObject();
+                escribir(out, fila, gson, fechas);
+                out.endObject();
+            }
+
+            @Override
+            public T read(JsonReader in) throws IOException {
+                return lectura.read(in);
+            }
+        };
+    }
+}
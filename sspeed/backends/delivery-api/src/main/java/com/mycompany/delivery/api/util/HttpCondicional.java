@@ -0,0 +1,97 @@
+package com.mycompany.delivery.api.util;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Arrays;
+import java.util.Base64;
+
+import io.javalin.http.Context;
+import io.javalin.http.HttpStatus;
+
+/**
+ * Utilidades de GET condicional (ETag / If-None-Match, Last-Modified /
+ * If-Modified-Since) para responder 304 sin cuerpo cuando el cliente ya tiene
+ * la versión vigente.
+ */
+public final class HttpCondicional {
+
+    private static final DateTimeFormatter HTTP_DATE = DateTimeFormatter.RFC_1123_DATE_TIME.withZone(ZoneOffset.UTC);
+
+    private HttpCondicional() {}
+
+    /**
+     * ETag fuerte a partir del hash SHA-256 del cuerpo.
+     */
+    public static String etag(byte[] cuerpo) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(cuerpo);
+            return "\"" + Base64.getUrlEncoder().withoutPadding().encodeToString(Arrays.copyOf(hash, 16)) + "\"";
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 no disponible", e);
+        }
+    }
+
+    /**
+     * Indica si el cliente ya tiene la representación vigente. If-None-Match
+     * tiene prioridad; If-Modified-Since sólo se evalúa si no viene y se conoce
+     * la fecha de modificación ({@code lastModifiedMs > 0}).
+     */
+    public static boolean noModificado(Context ctx, String etag, long lastModifiedMs) {
+        String ifNoneMatch = ctx.header("If-None-Match");
+        if (ifNoneMatch != null) {
+            return etag != null && coincideEtag(ifNoneMatch, etag);
+        }
+        String ifModifiedSince = ctx.header("If-Modified-Since");
+        if (ifModifiedSince == null || lastModifiedMs <= 0) {
+            return false;
+        }
+        try {
+            long desde = ZonedDateTime.parse(ifModifiedSince, HTTP_DATE).toInstant().getEpochSecond();
+            return lastModifiedMs / 1000 <= desde;
+        } catch (DateTimeParseException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Escribe los validadores de la representación (ETag y, si se conoce, Last-Modified).
+     */
+    public static void escribirValidadores(Context ctx, String etag, long lastModifiedMs) {
+        if (etag != null) {
+            ctx.header("ETag", etag);
+        }
+        if (lastModifiedMs > 0) {
+            ctx.header("Last-Modified", HTTP_DATE.format(Instant.ofEpochMilli(lastModifiedMs)));
+        }
+    }
+
+    /**
+     * Responde 304 sin cuerpo con los validadores vigentes.
+     */
+    public static void responderNoModificado(Context ctx, String etag, long lastModifiedMs) {
+        escribirValidadores(ctx, etag, lastModifiedMs);
+        ctx.status(HttpStatus.NOT_MODIFIED);
+        ctx.result(new byte[0]);
+    }
+
+    private static boolean coincideEtag(String ifNoneMatch, String etag) {
+        String propio = debil(etag);
+        for (String candidato : ifNoneMatch.split(",")) {
+            String c = candidato.trim();
+            // Comparación débil (RFC 9110 §13.1.2): válida para GET/HEAD
+            if ("*".equals(c) || debil(c).equals(propio)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String debil(String etag) {
+        return etag.startsWith("W/") ? etag.substring(2) : etag;
+    }
+}
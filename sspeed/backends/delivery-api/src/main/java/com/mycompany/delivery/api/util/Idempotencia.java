@@ -0,0 +1,119 @@
+package com.mycompany.delivery.api.util;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Set;
+import java.util.function.Function;
+
+import com.mycompany.delivery.api.services.IdempotenciaStore;
+import com.mycompany.delivery.api.services.IdempotenciaStore.Decision;
+
+import io.javalin.http.Context;
+import io.javalin.http.HandlerType;
+
+/**
+ * Cabecera {@code Idempotency-Key} en los POST que crean recursos.
+ * <p>
+ * {@link #antes} reserva la clave (titular + ruta + cabecera) con la huella
+ * del cuerpo:
+ * si ya hay respuesta guardada la repite tal cual con
+ * {@code Idempotent-Replayed: true} sin ejecutar el endpoint; si la petición
+ * original sigue en curso responde 409 con Retry-After, y si la clave se usó
+ * con otro cuerpo, 422. {@code handleResponse} deja el cuerpo serializado con
+ * {@link #capturar} y {@link #despues} guarda las respuestas 2xx o libera la
+ * reserva en cualquier otro caso, para que el cliente pueda reintentar.
+ * Las peticiones sin cabecera no cambian.
+ * <p>
+ * El titular (usuario autenticado o, en las rutas públicas, el remitente del
+ * cuerpo) separa las claves de clientes distintos: sin él dos clientes que
+ * generasen la misma cabecera recibirían la respuesta del otro. Una petición
+ * sin titular se ejecuta sin idempotencia.
+ */
+public final class Idempotencia {
+
+    public static final String CABECERA = "Idempotency-Key";
+    private static final int MAX_CLAVE = 255;
+    private static final String ATTR_RESERVA = "__idempotencia";
+    private static final String ATTR_CUERPO = "__idempotenciaCuerpo";
+
+    private record Reserva(byte[] clave, byte[] huella) {}
+
+    private final IdempotenciaStore store;
+    private final Set<String> rutas;
+    private final Function<Context, String> titular;
+
+    public Idempotencia(IdempotenciaStore store, Set<String> rutas, Function<Context, String> titular) {
+        this.store = store;
+        this.rutas = Set.copyOf(rutas);
+        this.titular = titular;
+    }
+
+    public void antes(Context ctx) {
+        if (ctx.method() != HandlerType.POST || !rutas.contains(ctx.path())) {
+            return;
+        }
+        String valor = ctx.header(CABECERA);
+        if (valor == null || valor.isBlank()) {
+            return;
+        }
+        if (valor.length() > MAX_CLAVE) {
+            throw new ApiException(400, CABECERA + " no puede superar " + MAX_CLAVE + " caracteres");
+        }
+        String quien = titular.apply(ctx);
+        if (quien == null) {
+            return;
+        }
+        byte[] clave = sha256((quien + "\n" + ctx.path() + "\n" + valor.trim()).getBytes(StandardCharsets.UTF_8));
+        byte[] huella = sha256(ctx.bodyAsBytes());
+        Decision d = store.reservar(clave, huella);
+        switch (d.resultado()) {
+            case NUEVA -> ctx.attribute(ATTR_RESERVA, new Reserva(clave, huella));
+            case REPETIDA -> {
+                ctx.status(d.status());
+                ctx.header("Idempotent-Replayed", "true");
+                if (d.cuerpo() != null && d.cuerpo().length > 0) {
+                    ctx.contentType("application/json");
+                    ctx.result(d.cuerpo());
+                }
+                ctx.skipRemainingHandlers();
+            }
+            case EN_CURSO -> {
+                ctx.header("Retry-After", "1");
+                throw new ApiException(409, "Ya hay una petición en curso con esta " + CABECERA);
+            }
+            case OTRO_CUERPO -> throw new ApiException(422, CABECERA + " ya usada con otro cuerpo");
+        }
+    }
+
+    /**
+     * Guarda el cuerpo serializado de la respuesta si la petición reservó una clave.
+     */
+    public static void capturar(Context ctx, byte[] cuerpo) {
+        if (ctx.attribute(ATTR_RESERVA) != null) {
+            ctx.attribute(ATTR_CUERPO, cuerpo);
+        }
+    }
+
+    public void despues(Context ctx) {
+        Reserva r = ctx.attribute(ATTR_RESERVA);
+        if (r == null) {
+            return;
+        }
+        byte[] cuerpo = ctx.attribute(ATTR_CUERPO);
+        int status = ctx.statusCode();
+        if (cuerpo != null && status >= 200 && status < 300) {
+            store.completar(r.clave(), r.huella(), status, cuerpo);
+        } else {
+            store.liberar(r.clave());
+        }
+    }
+
+    private static byte[] sha256(byte[] datos) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(datos);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 no disponible", e);
+        }
+    }
+}
@@ -0,0 +1,194 @@
+package com.mycompany.delivery.api.util;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.util.Arrays;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonNull;
+import com.google.gson.TypeAdapter;
+import com.google.gson.TypeAdapterFactory;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+import com.mycompany.delivery.api.model.AdaptadoresModelo;
+import com.mycompany.delivery.api.payloads.Payloads;
+
+/**
+ * Instancia de Gson compartida por el {@code JsonMapper} de Javalin, las
+ * respuestas de {@code DeliveryApi} y la caché del catálogo.
+ * <p>
+ * Registra los adaptadores escritos a mano del sobre {@link ApiResponse}, de
+ * los modelos ({@link AdaptadoresModelo}) y de los cuerpos de petición
+ * ({@link Payloads.Adaptadores}); el resto de tipos (mapas, proyecciones
+ * {@code *Fila}) sigue igual que con {@code new Gson()}.
+ */
+public final class Json {
+
+    public static final Gson GSON = new GsonBuilder()
+            .registerTypeAdapterFactory(new Sobre())
+            .registerTypeAdapterFactory(new AdaptadoresModelo())
+            .registerTypeAdapterFactory(new Payloads.Adaptadores())
+            .create();
+
+    private Json() {}
+
+    /**
+     * Serializa {@code valor} a UTF-8 escribiendo directamente en el buffer de
+     * bytes, sin pasar por un {@code String} intermedio.
+     */
+    public static byte[] aBytes(Object valor) {
+        return aBytes(GSON, valor);
+    }
+
+    public static byte[] aBytes(Gson gson, Object valor) {
+        BytesUtf8 bytes = new BytesUtf8();
+        try (JsonWriter out = gson.newJsonWriter(bytes)) {
+            if (valor == null) {
+                gson.toJson(JsonNull.INSTANCE, out);
+            } else {
+                gson.toJson(valor, valor.getClass(), out);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * {@link Writer} que codifica a UTF-8 directamente en un arreglo de bytes.
+     * Evita el {@code String} completo de {@code Gson.toJson} y también el
+     * {@code CharBuffer} por escritura de un {@code OutputStreamWriter}.
+     */
+    private static final class BytesUtf8 extends Writer {
+        private byte[] buf = new byte[1024];
+        private int n;
+
+        @Override
+        public void write(int c) {
+            asegurar(3);
+            if (c < 0x80) {
+                buf[n++] = (byte) c;
+            } else {
+                escribirNoAscii((char) c, '\0', false);
+            }
+        }
+
+        @Override
+        public void write(String s, int off, int len) {
+            asegurar(len);
+            int fin = off + len;
+            for (int i = off; i < fin; i++) {
+                char c = s.charAt(i);
+                if (c < 0x80) {
+                    buf[n++] = (byte) c;
+                } else {
+                    boolean par = Character.isHighSurrogate(c) && i + 1 < fin && Character.isLowSurrogate(s.charAt(i + 1));
+                    asegurar(4 + fin - i);
+                    if (escribirNoAscii(c, par ? s.charAt(i + 1) : '\0', par)) {
+                        i++;
+                    }
+                }
+            }
+        }
+
+        @Override
+        public void write(char[] cbuf, int off, int len) {
+            write(new String(cbuf, off, len), 0, len);
+        }
+
+        /**
+         * @return true si también se consumió el surrogate bajo.
+         */
+        private boolean escribirNoAscii(char c, char siguiente, boolean par) {
+            if (c < 0x800) {
+                buf[n++] = (byte) (0xC0 | (c >> 6));
+                buf[n++] = (byte) (0x80 | (c & 0x3F));
+                return false;
+            }
+            if (par) {
+                int cp = Character.toCodePoint(c, siguiente);
+                buf[n++] = (byte) (0xF0 | (cp >> 18));
+                buf[n++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+                buf[n++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+                buf[n++] = (byte) (0x80 | (cp & 0x3F));
+                return true;
+            }
+            if (Character.isSurrogate(c)) {
+                buf[n++] = '?'; // surrogate suelto: mismo reemplazo que String.getBytes
+                return false;
+            }
+            buf[n++] = (byte) (0xE0 | (c >> 12));
+            buf[n++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+            buf[n++] = (byte) (0x80 | (c & 0x3F));
+            return false;
+        }
+
+        private void asegurar(int extra) {
+            if (n + extra > buf.length) {
+                buf = Arrays.copyOf(buf, Math.max(buf.length * 2, n + extra));
+            }
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(buf, n);
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    /**
+     * Sobre {@code {status, success, message, data, errors}}. {@code data} y
+     * {@code errors} se escriben con el adaptador de su tipo en tiempo de
+     * ejecución, igual que hace Gson con un campo genérico.
+     */
+    private static final class Sobre implements TypeAdapterFactory {
+        @Override
+        @SuppressWarnings("unchecked")
+        public <T> TypeAdapter<T> create(Gson gson, TypeToken<T> type) {
+            if (type.getRawType() != ApiResponse.class) {
+                return null;
+            }
+            TypeAdapter<T> reflexivo = gson.getDelegateAdapter(this, type);
+            return (TypeAdapter<T>) new TypeAdapter<ApiResponse<?>>() {
+                @Override
+                public void write(JsonWriter out, ApiResponse<?> r) throws IOException {
+                    if (r == null) {
+                        out.nullValue();
+                        return;
+                    }
+                    out.beginObject();
+                    out.name("status").value(r.getStatus());
+                    out.name("success").value(r.isSuccess());
+                    out.name("message").value(r.getMessage());
+                    out.name("data");
+                    escribirValor(out, r.getData());
+                    out.name("errors");
+                    escribirValor(out, r.getErrorDetails());
+                    out.endObject();
+                }
+
+                private void escribirValor(JsonWriter out, Object valor) throws IOException {
+                    if (valor == null) {
+                        out.nullValue();
+                        return;
+                    }
+                    ((TypeAdapter<Object>) gson.getAdapter(valor.getClass())).write(out, valor);
+                }
+
+                @Override
+                public ApiResponse<?> read(JsonReader in) throws IOException {
+                    return (ApiResponse<?>) reflexivo.read(in);
+                }
+            };
+        }
+    }
+}
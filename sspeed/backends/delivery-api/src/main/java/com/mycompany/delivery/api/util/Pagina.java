@@ -0,0 +1,26 @@
+package com.mycompany.delivery.api.util;
+
+import java.util.List;
+
+/**
+ * Una página de resultados y el cursor opaco para pedir la siguiente
+ * (null si no hay más). Ver {@link Paginacion}.
+ */
+public final class Pagina<T> {
+
+    private final List<T> items;
+    private final String siguienteCursor;
+
+    public Pagina(List<T> items, String siguienteCursor) {
+        this.items = items;
+        this.siguienteCursor = siguienteCursor;
+    }
+
+    public List<T> getItems() {
+        return items;
+    }
+
+    public String getSiguienteCursor() {
+        return siguienteCursor;
+    }
+}
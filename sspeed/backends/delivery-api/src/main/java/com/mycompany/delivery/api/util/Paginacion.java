@@ -0,0 +1,90 @@
+package com.mycompany.delivery.api.util;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.util.Base64;
+
+import com.mycompany.delivery.api.config.Config;
+
+/**
+ * Paginación por cursor (keyset) sobre {@code (created_at, id)}.
+ * <p>
+ * El cursor es opaco para el cliente: codifica la fecha y el id de la última
+ * fila entregada, y la página siguiente se pide con
+ * {@code WHERE (created_at, id) < (?, ?)} (o {@code >} en orden ascendente),
+ * de modo que una página profunda cuesta lo mismo que la primera. El tamaño
+ * de página lo fija el servidor: PAGINACION_LIMITE_DEFECTO (100) si el cliente
+ * no lo indica y nunca más de PAGINACION_LIMITE_MAX (500).
+ */
+public final class Paginacion {
+
+    public static final String HEADER_SIGUIENTE = "X-Next-Cursor";
+
+    private static final int LIMITE_DEFECTO = Math.max(1, Config.resolveInt("PAGINACION_LIMITE_DEFECTO", 100));
+    private static final int LIMITE_MAX = Math.max(LIMITE_DEFECTO, Config.resolveInt("PAGINACION_LIMITE_MAX", 500));
+
+    /**
+     * Posición de continuación. {@code fecha} es null en listados ordenados sólo por id.
+     */
+    public static final class Cursor {
+        private final Timestamp fecha;
+        private final long id;
+
+        Cursor(Timestamp fecha, long id) {
+            this.fecha = fecha;
+            this.id = id;
+        }
+
+        public Timestamp getFecha() {
+            return fecha;
+        }
+
+        public long getId() {
+            return id;
+        }
+    }
+
+    private Paginacion() {}
+
+    /**
+     * Tamaño de página efectivo para el límite pedido por el cliente.
+     */
+    public static int limite(Integer solicitado) {
+        if (solicitado == null) {
+            return LIMITE_DEFECTO;
+        }
+        if (solicitado <= 0) {
+            throw new ApiException(400, "limit debe ser mayor que 0");
+        }
+        return Math.min(solicitado, LIMITE_MAX);
+    }
+
+    public static String codificar(Timestamp fecha, long id) {
+        String crudo = (fecha != null ? fecha.getTime() + "." + fecha.getNanos() : "") + ":" + id;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(crudo.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @return el cursor, o null si no se envió (primera página).
+     */
+    public static Cursor decodificar(String token) {
+        if (token == null || token.isBlank()) {
+            return null;
+        }
+        try {
+            String crudo = new String(Base64.getUrlDecoder().decode(token.trim()), StandardCharsets.UTF_8);
+            int sep = crudo.lastIndexOf(':');
+            long id = Long.parseLong(crudo.substring(sep + 1));
+            String fecha = crudo.substring(0, sep);
+            if (fecha.isEmpty()) {
+                return new Cursor(null, id);
+            }
+            int punto = fecha.indexOf('.');
+            Timestamp ts = new Timestamp(Long.parseLong(fecha.substring(0, punto)));
+            ts.setNanos(Integer.parseInt(fecha.substring(punto + 1)));
+            return new Cursor(ts, id);
+        } catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+            throw new ApiException(400, "cursor inválido");
+        }
+    }
+}
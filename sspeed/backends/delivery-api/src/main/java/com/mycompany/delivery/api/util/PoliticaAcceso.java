@@ -0,0 +1,73 @@
+package com.mycompany.delivery.api.util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import io.javalin.http.HandlerType;
+
+/**
+ * Política declarativa de acceso por ruta.
+ * <p>
+ * Las reglas se evalúan en el orden en que se declaran y gana la primera que
+ * coincide con el prefijo de la ruta (y, si aplica, con un método de
+ * escritura). Una ruta sin regla es pública, de modo que la navegación anónima
+ * del catálogo no resuelve ni el JWT ni el usuario.
+ */
+public final class PoliticaAcceso {
+
+    private static final class Regla {
+        final String prefijo;
+        final boolean soloEscritura;
+        final boolean requiereAuth;
+
+        Regla(String prefijo, boolean soloEscritura, boolean requiereAuth) {
+            this.prefijo = prefijo;
+            this.soloEscritura = soloEscritura;
+            this.requiereAuth = requiereAuth;
+        }
+    }
+
+    private final List<Regla> reglas = new ArrayList<>();
+
+    /**
+     * Rutas abiertas aunque una regla posterior las protegiera.
+     */
+    public PoliticaAcceso publico(String prefijo) {
+        reglas.add(new Regla(prefijo, false, false));
+        return this;
+    }
+
+    /**
+     * Todas las peticiones bajo el prefijo requieren usuario autenticado.
+     */
+    public PoliticaAcceso autenticado(String prefijo) {
+        reglas.add(new Regla(prefijo, false, true));
+        return this;
+    }
+
+    /**
+     * Sólo POST, PUT, PATCH y DELETE bajo el prefijo requieren usuario autenticado.
+     */
+    public PoliticaAcceso autenticadoEnEscritura(String prefijo) {
+        reglas.add(new Regla(prefijo, true, true));
+        return this;
+    }
+
+    public boolean requiereAuth(HandlerType metodo, String path) {
+        boolean escritura = esEscritura(metodo);
+        for (Regla r : reglas) {
+            if (!path.startsWith(r.prefijo) || (r.soloEscritura && !escritura)) {
+                continue;
+            }
+            return r.requiereAuth;
+        }
+        return false;
+    }
+
+    private static boolean esEscritura(HandlerType metodo) {
+        return metodo == HandlerType.POST
+                || metodo == HandlerType.PUT
+                || metodo == HandlerType.PATCH
+                || metodo == HandlerType.DELETE;
+    }
+}
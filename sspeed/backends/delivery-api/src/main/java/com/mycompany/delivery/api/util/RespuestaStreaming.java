@@ -0,0 +1,122 @@
+package com.mycompany.delivery.api.util;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+
+import com.google.gson.Gson;
+import com.google.gson.stream.JsonWriter;
+import com.mycompany.delivery.api.config.Config;
+
+import io.javalin.http.Context;
+
+/**
+ * Respuesta JSON en streaming para listados grandes (exportaciones de admin).
+ * <p>
+ * Produce el mismo sobre que {@link ApiResponse} ({@code status}, {@code success},
+ * {@code message}, {@code data}) pero escribe cada fila de {@code data} directamente
+ * en el output stream del servlet con un {@link JsonWriter}, a medida que el
+ * repositorio la lee del cursor JDBC. La memoria por petición no depende del
+ * número de filas.
+ * <p>
+ * La cabecera del sobre se escribe con la primera fila: si la consulta falla
+ * antes, todavía se responde el error normal. Un fallo a mitad del stream sólo
+ * puede cortar la respuesta, que el cliente verá como JSON incompleto.
+ */
+public final class RespuestaStreaming {
+
+    /**
+     * Filas por ida y vuelta al leer con cursor del servidor (requiere autocommit desactivado).
+     */
+    public static final int FETCH_SIZE = Math.max(1, Config.resolveInt("EXPORT_FETCH_SIZE", 500));
+
+    /**
+     * Recibe cada fila leída por el repositorio.
+     */
+    @FunctionalInterface
+    public interface ConsumidorFilas<T> {
+        void aceptar(T fila) throws IOException;
+    }
+
+    /**
+     * Recorre las filas y se las entrega al escritor.
+     */
+    @FunctionalInterface
+    public interface Productor {
+        void producir(Escritor escritor) throws SQLException, IOException;
+    }
+
+    /**
+     * Escritor del array {@code data}.
+     */
+    public static final class Escritor {
+        private final Context ctx;
+        private final Gson gson;
+        private final String mensaje;
+        private JsonWriter out;
+        private long filas;
+
+        Escritor(Context ctx, Gson gson, String mensaje) {
+            this.ctx = ctx;
+            this.gson = gson;
+            this.mensaje = mensaje;
+        }
+
+        public void fila(Object fila) throws IOException {
+            abrir();
+            gson.toJson(fila, fila.getClass(), out);
+            filas++;
+        }
+
+        public long getFilas() {
+            return filas;
+        }
+
+        private void abrir() throws IOException {
+            if (out != null) {
+                return;
+            }
+            ctx.status(200);
+            ctx.contentType("application/json");
+            out = new JsonWriter(new BufferedWriter(
+                    new OutputStreamWriter(ctx.res().getOutputStream(), StandardCharsets.UTF_8)));
+            out.beginObject();
+            out.name("status").value(200);
+            out.name("success").value(true);
+            out.name("message").value(mensaje);
+            out.name("data").beginArray();
+        }
+
+        private void cerrar() throws IOException {
+            abrir();
+            out.endArray();
+            out.endObject();
+            out.flush();
+        }
+    }
+
+    private RespuestaStreaming() {}
+
+    public static void responder(Context ctx, Gson gson, String mensaje, Productor productor) {
+        Escritor escritor = new Escritor(ctx, gson, mensaje);
+        try {
+            productor.producir(escritor);
+            escritor.cerrar();
+        } catch (SQLException e) {
+            if (escritor.out == null) {
+                throw new ApiException(500, "Error al generar la exportación", e);
+            }
+            abortar(e);
+        } catch (IOException e) {
+            // Normalmente el cliente cerró la conexión; no hay a quién responder
+            abortar(e);
+        }
+    }
+
+    private static void abortar(Exception e) {
+        // La respuesta ya está comprometida: no se escribe cuerpo de error, el JSON queda sin cerrar
+        System.err.println("⚠️ Exportación interrumpida: " + e.getMessage());
+    }
+}
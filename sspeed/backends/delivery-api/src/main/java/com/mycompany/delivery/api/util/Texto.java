@@ -0,0 +1,45 @@
+package com.mycompany.delivery.api.util;
+
+import java.text.Normalizer;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Normalización de texto libre para comparar búsquedas y mensajes sin tildes,
+ * mayúsculas ni signos ("¿Dónde está?" → "donde esta").
+ */
+public final class Texto {
+
+    private static final Pattern SEPARADOR = Pattern.compile("[^\\p{L}\\p{N}]+");
+    private static final Pattern MARCAS = Pattern.compile("\\p{M}+");
+
+    /**
+     * Palabras vacías del español que no aportan significado a una consulta.
+     */
+    public static final Set<String> VACIAS = Set.of("de", "del", "la", "las", "el", "los", "y", "con", "en",
+            "a", "al", "un", "una", "para", "por", "sin");
+
+    private Texto() {}
+
+    /**
+     * Minúsculas y sin marcas diacríticas; conserva los separadores.
+     */
+    public static String normalizar(String texto) {
+        if (texto == null || texto.isEmpty()) {
+            return "";
+        }
+        String sinMarcas = MARCAS.matcher(Normalizer.normalize(texto, Normalizer.Form.NFD)).replaceAll("");
+        return sinMarcas.toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Palabras (letras y dígitos) de un texto ya normalizado, en orden.
+     */
+    public static String[] palabras(String normalizado) {
+        return Arrays.stream(SEPARADOR.split(normalizado))
+                .filter(t -> !t.isEmpty())
+                .toArray(String[]::new);
+    }
+}